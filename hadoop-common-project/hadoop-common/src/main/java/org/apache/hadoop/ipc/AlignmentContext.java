@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ipc;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcRequestHeaderProto;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcResponseHeaderProto;
+
+/**
+ * This interface intends to align the state between client and server
+ * via RPC communication.
+ *
+ * The server puts its current state id into every response header and the
+ * client sends the highest state id it has seen with every request. A server
+ * replicating the state of another one can use the client's state id to
+ * make sure it does not answer a request with state older than what the
+ * client has already observed.
+ */
+@InterfaceAudience.LimitedPrivate({"HDFS"})
+@InterfaceStability.Evolving
+public interface AlignmentContext {
+
+  /**
+   * This is the intended server method call to implement to pass state info
+   * during RPC response header construction.
+   *
+   * @param header The RPC response header builder.
+   */
+  void updateResponseState(RpcResponseHeaderProto.Builder header);
+
+  /**
+   * This is the intended client method call to implement to receive state
+   * info during RPC response processing.
+   *
+   * @param header The RPC response header.
+   */
+  void receiveResponseState(RpcResponseHeaderProto header);
+
+  /**
+   * This is the intended client method call to pull last seen state info
+   * into RPC request processing.
+   *
+   * @param header The RPC request header builder.
+   */
+  void updateRequestState(RpcRequestHeaderProto.Builder header);
+
+  /**
+   * This is the intended server method call to implement to receive
+   * client state info during RPC request processing.
+   *
+   * @param header The RPC request header.
+   * @return the state id the client has seen.
+   */
+  long receiveRequestState(RpcRequestHeaderProto header);
+
+  /**
+   * Returns the last seen state id of the alignment context instance.
+   *
+   * @return the value of the last seen state id.
+   */
+  long getLastSeenStateId();
+
+  /**
+   * This is the intended server method call to implement to tell how long
+   * a request may be postponed waiting for {@link #shouldDeferCall(long)}
+   * to turn false. A value of 0 disables postponing requests.
+   *
+   * @return the maximum time in milliseconds a request is postponed.
+   */
+  long getMaxCallDeferralMs();
+
+  /**
+   * This is the intended server method call to implement to tell whether
+   * a request should be put back in the call queue instead of being
+   * processed now, because the server has not caught up to the state the
+   * client has seen yet. Must not block.
+   *
+   * @param clientStateId the state id received with the request.
+   * @return true if the request should be processed later.
+   */
+  boolean shouldDeferCall(long clientStateId);
+
+  /**
+   * This is the intended server method call to implement to tell whether
+   * calls of a protocol method are coordinated, i.e. may be served once the
+   * server has caught up to the state the client has seen. The server only
+   * receives the client state id of coordinated calls, and only defers them.
+   *
+   * @param protocolName the name of the protocol declaring the method.
+   * @param methodName the name of the method called.
+   * @return true if the call is coordinated.
+   */
+  boolean isCoordinatedCall(String protocolName, String methodName);
+}
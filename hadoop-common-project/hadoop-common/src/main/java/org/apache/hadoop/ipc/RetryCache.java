@@ -359,6 +359,22 @@ public static CacheEntryWithPayload waitForCompletion(RetryCache cache,
         .waitForCompletion(newEntry(payload, cache.expirationTime)) : null);
   }
 
+  /**
+   * Static method that provides null check for retryCache. Unlike
+   * {@link #waitForCompletion(RetryCache, Object)}, the entry found is not
+   * cast, since an entry loaded from the edit log for a call which logged
+   * several operations may have no payload, or the payload of one of them.
+   * A new entry is a {@link CacheEntryWithPayload}.
+   */
+  public static CacheEntry waitForCompletionOfAnyEntry(RetryCache cache,
+      Object payload) {
+    if (skipRetryCache()) {
+      return null;
+    }
+    return cache != null ? cache
+        .waitForCompletion(newEntry(payload, cache.expirationTime)) : null;
+  }
+
   public static void setState(CacheEntry e, boolean success) {
     if (e == null) {
       return;
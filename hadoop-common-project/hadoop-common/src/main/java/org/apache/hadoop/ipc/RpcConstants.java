@@ -37,6 +37,9 @@ private RpcConstants() {
   
   
   public static final int INVALID_RETRY_COUNT = -1;
+
+  /** The state id of a call whose client did not send one. */
+  public static final long INVALID_STATE_ID = Long.MIN_VALUE;
   
  /**
   * The Rpc-connection header is as follows 
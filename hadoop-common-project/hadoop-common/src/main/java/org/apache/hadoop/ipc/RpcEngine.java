@@ -52,6 +52,24 @@ <T> ProtocolProxy<T> getProxy(Class<T> protocol,
                   RetryPolicy connectionRetryPolicy,
                   AtomicBoolean fallbackToSimpleAuth) throws IOException;
 
+  /**
+   * Construct a client-side proxy object with a state alignment context.
+   * Engines which do not support state alignment ignore the context, so
+   * their requests carry no state id and servers treat them accordingly.
+   *
+   * @param alignmentContext state alignment context, may be null
+   */
+  default <T> ProtocolProxy<T> getProxy(Class<T> protocol,
+                  long clientVersion, InetSocketAddress addr,
+                  UserGroupInformation ticket, Configuration conf,
+                  SocketFactory factory, int rpcTimeout,
+                  RetryPolicy connectionRetryPolicy,
+                  AtomicBoolean fallbackToSimpleAuth,
+                  AlignmentContext alignmentContext) throws IOException {
+    return getProxy(protocol, clientVersion, addr, ticket, conf, factory,
+        rpcTimeout, connectionRetryPolicy, fallbackToSimpleAuth);
+  }
+
   /** 
    * Construct a server for a protocol implementation instance.
    * 
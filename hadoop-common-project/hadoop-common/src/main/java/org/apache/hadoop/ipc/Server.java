@@ -62,7 +62,11 @@
 import java.util.TimerTask;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.security.sasl.Sasl;
@@ -91,6 +95,7 @@
 import org.apache.hadoop.ipc.metrics.RpcDetailedMetrics;
 import org.apache.hadoop.ipc.metrics.RpcMetrics;
 import org.apache.hadoop.ipc.protobuf.IpcConnectionContextProtos.IpcConnectionContextProto;
+import org.apache.hadoop.ipc.protobuf.ProtobufRpcEngineProtos.RequestHeaderProto;
 import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcKindProto;
 import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcRequestHeaderProto;
 import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcResponseHeaderProto;
@@ -123,6 +128,7 @@
 import org.apache.htrace.core.Tracer;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.Message;
@@ -142,6 +148,11 @@ public abstract class Server {
   private RpcSaslProto negotiateResponse;
   private ExceptionsHandler exceptionsHandler = new ExceptionsHandler();
   private Tracer tracer;
+  private AlignmentContext alignmentContext;
+  /** Puts postponed calls back in the call queue, null if none are. */
+  private volatile ScheduledExecutorService deferredCallRequeuer;
+  /** How long a postponed call waits before it goes back in the queue. */
+  private static final long CALL_DEFERRAL_INTERVAL_MS = 5;
   
   /**
    * Add exception classes for which server won't log stack traces.
@@ -356,6 +367,16 @@ public static int getCallRetryCount() {
     return call != null ? call.retryCount : RpcConstants.INVALID_RETRY_COUNT;
   }
 
+  /**
+   * @return The time in nanoseconds for which the handler has been processing
+   *         the current active RPC call. -1 indicates there is no active call.
+   */
+  public static long getCurCallProcessingNanos() {
+    Call call = CurCall.get();
+    return call != null && call.processingStartNanos != 0 ?
+        System.nanoTime() - call.processingStartNanos : -1;
+  }
+
   /** Returns the remote side ip address when invoked inside an RPC 
    *  Returns null incase of an error.
    */
@@ -406,6 +427,47 @@ public static int getPriorityLevel() {
     return call != null? call.getPriorityLevel() : 0;
   }
 
+  /**
+   * Ask for the current RPC call to be put back in the call queue and
+   * processed again after the given interval, instead of holding its handler
+   * while it waits for a condition which does not hold yet. The response the
+   * call returns this time is discarded. A call may be deferred each time it
+   * is processed, until maxDeferralMs after it was first deferred.
+   *
+   * @return true if the call will be processed again, or false if it may not
+   *         be deferred (any longer) and the response must be returned now.
+   */
+  @InterfaceStability.Unstable
+  @InterfaceAudience.LimitedPrivate({"HDFS"})
+  public static boolean deferCurCall(long maxDeferralMs, long intervalMs) {
+    Call call = CurCall.get();
+    Server server = SERVER.get();
+    if (call == null || server == null || maxDeferralMs <= 0 ||
+        server.getDeferredCallRequeuer() == null) {
+      return false;
+    }
+    long now = Time.monotonicNow();
+    if (call.waitDeadline == 0) {
+      call.waitDeadline = now + maxDeferralMs;
+    } else if (now >= call.waitDeadline) {
+      return false;
+    }
+    call.requeueDelayMs =
+        Math.max(1, Math.min(intervalMs, call.waitDeadline - now));
+    return true;
+  }
+
+  /**
+   * Return the state id the client of the current RPC has seen, as received
+   * by the server's {@link AlignmentContext}.
+   * Returns {@link RpcConstants#INVALID_STATE_ID} if there is no current
+   * call or the server has no alignment context.
+   */
+  public static long getClientStateId() {
+    Call call = CurCall.get();
+    return call != null ? call.clientStateId : RpcConstants.INVALID_STATE_ID;
+  }
+
   private String bindAddress; 
   private int port;                               // port we listen on
   private int handlerCount;                       // number of handler threads
@@ -673,10 +735,18 @@ public static class Call implements Schedulable {
     private final CallerContext callerContext; // the call context
     private int priorityLevel;
     // the priority level assigned by scheduler, 0 by default
+    private AlignmentContext alignmentContext; // state alignment, may be null
+    private long clientStateId = RpcConstants.INVALID_STATE_ID;
+    private long deferDeadline;           // postponed until, 0 if never
+    private long waitDeadline;            // deferred by itself until, or 0
+    private long requeueDelayMs;          // requeue instead of responding
+    private long processingStartNanos;    // time a handler took the call
 
     private Call(Call call) {
       this(call.callId, call.retryCount, call.rpcRequest, call.connection,
           call.rpcKind, call.clientId, call.traceScope, call.callerContext);
+      this.alignmentContext = call.alignmentContext;
+      this.clientStateId = call.clientStateId;
     }
 
     public Call(int id, int retryCount, Writable param, 
@@ -2210,6 +2280,19 @@ private void processRpcRequest(RpcRequestHeaderProto header,
           rpcRequest, this, ProtoUtil.convert(header.getRpcKind()),
           header.getClientId().toByteArray(), traceScope, callerContext);
 
+      if (alignmentContext != null) {
+        call.alignmentContext = alignmentContext;
+        // Only coordinated calls carry the client state id, so that the
+        // server never serves any other call on the strength of it.
+        final RequestHeaderProto requestHeader =
+            ProtobufRpcEngine.getRequestHeader(rpcRequest);
+        if (requestHeader != null && alignmentContext.isCoordinatedCall(
+            requestHeader.getDeclaringClassProtocolName(),
+            requestHeader.getMethodName())) {
+          call.clientStateId = alignmentContext.receiveRequestState(header);
+        }
+      }
+
       // Save the priority level assignment by the scheduler
       call.setPriorityLevel(callQueue.getPriorityLevel(call));
 
@@ -2368,6 +2451,80 @@ private synchronized void close() {
     }
   }
 
+  /**
+   * Postpone a call whose client has seen newer state than this server has,
+   * instead of holding a handler while the server catches up. The call is
+   * put back in the call queue after a short interval, until the alignment
+   * context no longer asks for it to be deferred or the maximum deferral
+   * time has passed; it is then processed as usual.
+   *
+   * @return true if the call was postponed
+   */
+  private boolean deferCall(final Call call) {
+    if (deferredCallRequeuer == null || call.alignmentContext == null ||
+        !call.alignmentContext.shouldDeferCall(call.clientStateId)) {
+      return false;
+    }
+    long now = Time.monotonicNow();
+    if (call.deferDeadline == 0) {
+      call.deferDeadline =
+          now + call.alignmentContext.getMaxCallDeferralMs();
+    } else if (now >= call.deferDeadline) {
+      return false;
+    }
+    return requeueCall(call, CALL_DEFERRAL_INTERVAL_MS);
+  }
+
+  /**
+   * Put a postponed call back in the call queue after the given delay.
+   *
+   * @return false if the server is stopping
+   */
+  private boolean requeueCall(final Call call, long delayMs) {
+    ScheduledExecutorService requeuer = deferredCallRequeuer;
+    if (requeuer == null) {
+      return false;
+    }
+    try {
+      requeuer.schedule(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            // never block: a full call queue must not hold up the other
+            // postponed calls
+            if (!callQueue.offer(call)) {
+              rejectDeferredCall(call);
+            }
+          } catch (InterruptedException e) {
+            LOG.info("Interrupted while requeuing " + call);
+          }
+        }
+      }, delayMs, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      // the server is stopping
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Fail a postponed call which could not be put back in the full call
+   * queue with a {@link RetriableException}, asking the client to back off
+   * and retry as for any call rejected by a busy server.
+   */
+  private void rejectDeferredCall(Call call) {
+    final RetriableException e =
+        new RetriableException("Server is too busy.");
+    try {
+      setupResponse(new ByteArrayOutputStream(), call, RpcStatusProto.ERROR,
+          RpcErrorCodeProto.ERROR_RPC_SERVER, null, e.getClass().getName(),
+          e.getMessage());
+      call.sendResponse();
+    } catch (IOException ioe) {
+      LOG.info("Failed to reject postponed " + call, ioe);
+    }
+  }
+
   /** Handles queued calls . */
   private class Handler extends Thread {
     public Handler(int instanceNumber) {
@@ -2392,6 +2549,9 @@ public void run() {
             LOG.info(Thread.currentThread().getName() + ": skipped " + call);
             continue;
           }
+          if (deferCall(call)) {
+            continue;
+          }
           String errorClass = null;
           String error = null;
           RpcStatusProto returnStatus = RpcStatusProto.SUCCESS;
@@ -2399,6 +2559,7 @@ public void run() {
           Writable value = null;
 
           CurCall.set(call);
+          call.processingStartNanos = System.nanoTime();
           if (call.traceScope != null) {
             call.traceScope.reattach();
             traceScope = call.traceScope;
@@ -2449,6 +2610,16 @@ public Writable run() throws Exception {
             }
           }
           CurCall.set(null);
+          if (call.requeueDelayMs > 0) {
+            long delayMs = call.requeueDelayMs;
+            call.requeueDelayMs = 0;
+            if (errorClass == null) {
+              // the call was deferred by itself, its response is discarded;
+              // it is dropped if the server is stopping
+              requeueCall(call, delayMs);
+              continue;
+            }
+          }
           synchronized (call.connection.responseQueue) {
             setupResponse(buf, call, returnStatus, detailedErr,
                 value, errorClass, error);
@@ -2690,6 +2861,9 @@ private static void setupResponse(ByteArrayOutputStream responseBuf,
     headerBuilder.setRetryCount(call.retryCount);
     headerBuilder.setStatus(status);
     headerBuilder.setServerIpcVersionNum(CURRENT_VERSION);
+    if (call.alignmentContext != null) {
+      call.alignmentContext.updateResponseState(headerBuilder);
+    }
 
     if (status == RpcStatusProto.SUCCESS) {
       RpcResponseHeaderProto header = headerBuilder.build();
@@ -2808,6 +2982,40 @@ public void setTracer(Tracer t) {
     this.tracer = t;
   }
 
+  /**
+   * Set the alignment context that reads the client state id from request
+   * headers and adds the server state id to response headers.
+   */
+  public synchronized void setAlignmentContext(
+      AlignmentContext alignmentContext) {
+    this.alignmentContext = alignmentContext;
+    if (alignmentContext != null &&
+        alignmentContext.getMaxCallDeferralMs() > 0) {
+      getDeferredCallRequeuer();
+    }
+  }
+
+  /**
+   * Get the executor which puts postponed calls back in the call queue,
+   * starting it on first use.
+   *
+   * @return the executor, or null if the server is stopping
+   */
+  private ScheduledExecutorService getDeferredCallRequeuer() {
+    ScheduledExecutorService requeuer = deferredCallRequeuer;
+    if (requeuer != null) {
+      return requeuer;
+    }
+    synchronized (this) {
+      if (deferredCallRequeuer == null && running) {
+        deferredCallRequeuer = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("IPC Server call requeuer on " + port).build());
+      }
+      return deferredCallRequeuer;
+    }
+  }
+
   /** Starts the service.  Must be called before any calls will be handled. */
   public synchronized void start() {
     responder.start();
@@ -2834,6 +3042,9 @@ public synchronized void stop() {
     listener.interrupt();
     listener.doStop();
     responder.interrupt();
+    if (deferredCallRequeuer != null) {
+      deferredCallRequeuer.shutdownNow();
+    }
     notifyAll();
     this.rpcMetrics.shutdown();
     this.rpcDetailedMetrics.shutdown();
@@ -97,8 +97,11 @@
 import org.apache.hadoop.hdfs.client.HdfsDataOutputStream;
 import org.apache.hadoop.hdfs.client.impl.DfsClientConf;
 import org.apache.hadoop.hdfs.client.impl.LeaseRenewer;
+import org.apache.hadoop.hdfs.inotify.EventFilter;
 import org.apache.hadoop.hdfs.net.Peer;
 import org.apache.hadoop.hdfs.protocol.AclException;
+import org.apache.hadoop.hdfs.protocol.BatchOp;
+import org.apache.hadoop.hdfs.protocol.BatchOpResult;
 import org.apache.hadoop.hdfs.protocol.BlockStoragePolicy;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
@@ -129,6 +132,8 @@
 import org.apache.hadoop.hdfs.protocol.RollingUpgradeInfo;
 import org.apache.hadoop.hdfs.protocol.SnapshotAccessControlException;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport.DiffReportEntry;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReportListing;
 import org.apache.hadoop.hdfs.protocol.SnapshottableDirectoryStatus;
 import org.apache.hadoop.hdfs.protocol.UnresolvedPathException;
 import org.apache.hadoop.hdfs.protocol.datatransfer.DataTransferProtoUtil;
@@ -226,6 +231,7 @@ public class DFSClient implements java.io.Closeable, RemotePeerFactory,
       new DFSHedgedReadMetrics();
   private static ThreadPoolExecutor HEDGED_READ_THREAD_POOL;
   private static volatile ThreadPoolExecutor STRIPED_READ_THREAD_POOL;
+  private static volatile ThreadPoolExecutor LISTING_PREFETCH_THREAD_POOL;
   private final int smallBufferSize;
 
   public DfsClientConf getConf() {
@@ -366,6 +372,10 @@ public DFSClient(URI nameNodeUri, ClientProtocol rpcNamenode,
 
     this.initThreadsNumForStripedReads(dfsClientConf.
         getStripedReadThreadpoolSize());
+    if (dfsClientConf.getListingPrefetchThreadpoolSize() > 0) {
+      this.initThreadsNumForListingPrefetch(dfsClientConf.
+          getListingPrefetchThreadpoolSize());
+    }
     this.saslClient = new SaslDataTransferClient(
         conf, DataTransferSaslUtil.getSaslPropertiesResolver(conf),
         TrustedChannelResolver.getInstance(conf), nnFallbackToSimpleAuth);
@@ -1579,6 +1589,32 @@ public boolean delete(String src, boolean recursive) throws IOException {
     }
   }
 
+  /**
+   * Execute a batch of namespace operations.
+   * The permission of the files created is masked with the configured umask.
+   *
+   * @see ClientProtocol#batchMetadataOps(List, String)
+   */
+  public List<BatchOpResult> batchMetadataOps(List<BatchOp> ops)
+      throws IOException {
+    checkOpen();
+    final List<BatchOp> masked = new ArrayList<>(ops.size());
+    for (BatchOp op : ops) {
+      if (op.getType() == BatchOp.Type.CREATE) {
+        op = BatchOp.create(op.getSrc(), applyUMask(op.getPermission()),
+            op.isCreateParent(), op.isOverwrite(), op.getReplication(),
+            op.getBlockSize());
+      }
+      masked.add(op);
+    }
+    try (TraceScope ignored = tracer.newScope("batchMetadataOps")) {
+      return namenode.batchMetadataOps(masked, clientName);
+    } catch (RemoteException re) {
+      throw re.unwrapRemoteException(AccessControlException.class,
+          SafeModeException.class);
+    }
+  }
+
   /** Implemented using getFileInfo(src)
    */
   public boolean exists(String src) throws IOException {
@@ -1606,9 +1642,22 @@ public DirectoryListing listPaths(String src,  byte[] startAfter)
    */
   public DirectoryListing listPaths(String src,  byte[] startAfter,
       boolean needLocation) throws IOException {
+    return listPaths(src, startAfter, needLocation, null);
+  }
+
+  /**
+   * Get a partial listing of the entries of the indicated directory whose
+   * name starts with the given prefix.
+   *
+   * @see ClientProtocol#getListing(String, byte[], boolean, byte[])
+   */
+  public DirectoryListing listPaths(String src,  byte[] startAfter,
+      boolean needLocation, byte[] prefix) throws IOException {
     checkOpen();
     try (TraceScope ignored = newPathTraceScope("listPaths", src)) {
-      return namenode.getListing(src, startAfter, needLocation);
+      return prefix == null
+          ? namenode.getListing(src, startAfter, needLocation)
+          : namenode.getListing(src, startAfter, needLocation, prefix);
     } catch (RemoteException re) {
       throw re.unwrapRemoteException(AccessControlException.class,
           FileNotFoundException.class,
@@ -2065,11 +2114,38 @@ public void disallowSnapshot(String snapshotRoot) throws IOException {
   /**
    * Get the difference between two snapshots, or between a snapshot and the
    * current tree of a directory.
+   * The report is fetched in parts if the namenode supports it.
+   *
+   * @see ClientProtocol#getSnapshotDiffReportListing(String, String, String,
+   *      long, int)
    * @see ClientProtocol#getSnapshotDiffReport(String, String, String)
    */
   public SnapshotDiffReport getSnapshotDiffReport(String snapshotDir,
       String fromSnapshot, String toSnapshot) throws IOException {
     checkOpen();
+    try (TraceScope ignored = tracer.newScope("getSnapshotDiffReport")) {
+      SnapshotDiffReportListing listing = namenode.getSnapshotDiffReportListing(
+          snapshotDir, fromSnapshot, toSnapshot, 0, 0);
+      SnapshotDiffReport part = listing.getPart();
+      final List<DiffReportEntry> entries = new ArrayList<>();
+      while (!part.getDiffList().isEmpty()) {
+        entries.addAll(part.getDiffList());
+        part = namenode.getSnapshotDiffReportListing(snapshotDir,
+            fromSnapshot, toSnapshot, listing.getListingId(), entries.size())
+            .getPart();
+      }
+      return new SnapshotDiffReport(part.getSnapshotRoot(),
+          part.getFromSnapshot(), part.getLaterSnapshotName(), entries);
+    } catch (RemoteException re) {
+      IOException ioe = re.unwrapRemoteException(
+          RpcNoSuchMethodException.class);
+      if (!(ioe instanceof RpcNoSuchMethodException)) {
+        throw re.unwrapRemoteException();
+      }
+      LOG.debug("The version of namenode doesn't support"
+          + " getSnapshotDiffReportListing API. Fall back to use"
+          + " getSnapshotDiffReport API.");
+    }
     try (TraceScope ignored = tracer.newScope("getSnapshotDiffReport")) {
       return namenode.getSnapshotDiffReport(snapshotDir,
           fromSnapshot, toSnapshot);
@@ -2721,6 +2797,20 @@ public DFSInotifyEventInputStream getInotifyEventStream(long lastReadTxid)
         lastReadTxid);
   }
 
+  public DFSInotifyEventInputStream getInotifyEventStream(EventFilter filter)
+      throws IOException {
+    checkOpen();
+    return new DFSInotifyEventInputStream(namenode, tracer,
+        namenode.getCurrentEditLogTxid(), filter);
+  }
+
+  public DFSInotifyEventInputStream getInotifyEventStream(long lastReadTxid,
+      EventFilter filter) throws IOException {
+    checkOpen();
+    return new DFSInotifyEventInputStream(namenode, tracer, lastReadTxid,
+        filter);
+  }
+
   @Override // RemotePeerFactory
   public Peer newConnectedPeer(InetSocketAddress addr,
       Token<BlockTokenIdentifier> blockToken, DatanodeID datanodeId)
@@ -2832,6 +2922,47 @@ ThreadPoolExecutor getStripedReadsThreadPool() {
     return STRIPED_READ_THREAD_POOL;
   }
 
+  /**
+   * Create the thread pool fetching the next batches of directory listings
+   * in the background, LISTING_PREFETCH_THREAD_POOL, if it does not already
+   * exist.
+   * @param num Number of threads for the listing prefetch thread pool.
+   */
+  private void initThreadsNumForListingPrefetch(int num) {
+    assert num > 0;
+    if (LISTING_PREFETCH_THREAD_POOL != null) {
+      return;
+    }
+    synchronized (DFSClient.class) {
+      if (LISTING_PREFETCH_THREAD_POOL == null) {
+        LISTING_PREFETCH_THREAD_POOL = new ThreadPoolExecutor(1, num, 60,
+            TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+            new Daemon.DaemonFactory() {
+              private final AtomicInteger threadIndex = new AtomicInteger(0);
+
+              @Override
+              public Thread newThread(Runnable r) {
+                Thread t = super.newThread(r);
+                t.setName("listingPrefetch-" + threadIndex.getAndIncrement());
+                return t;
+              }
+            },
+            // fetch the batch in the listing thread when all are busy
+            new ThreadPoolExecutor.CallerRunsPolicy());
+        LISTING_PREFETCH_THREAD_POOL.allowCoreThreadTimeOut(true);
+      }
+    }
+  }
+
+  /**
+   * @return the thread pool for fetching listing batches in the background,
+   *         or null if listing prefetch is disabled.
+   */
+  ThreadPoolExecutor getListingPrefetchThreadPool() {
+    return dfsClientConf.getListingPrefetchThreadpoolSize() > 0
+        ? LISTING_PREFETCH_THREAD_POOL : null;
+  }
+
   boolean isHedgedReadsEnabled() {
     return (HEDGED_READ_THREAD_POOL != null) &&
         HEDGED_READ_THREAD_POOL.getMaximumPoolSize() > 0;
@@ -23,6 +23,7 @@
 import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.hdfs.inotify.EventBatch;
 import org.apache.hadoop.hdfs.inotify.EventBatchList;
+import org.apache.hadoop.hdfs.inotify.EventFilter;
 import org.apache.hadoop.hdfs.inotify.MissingEventsException;
 import org.apache.hadoop.hdfs.protocol.ClientProtocol;
 import org.apache.hadoop.util.Time;
@@ -47,6 +48,8 @@ public class DFSInotifyEventInputStream {
       DFSInotifyEventInputStream.class);
 
   private final ClientProtocol namenode;
+  /** The events to ask the NameNode for. */
+  private final EventFilter filter;
   private Iterator<EventBatch> it;
   private long lastReadTxid;
   /**
@@ -63,6 +66,12 @@ public class DFSInotifyEventInputStream {
 
   private static final int INITIAL_WAIT_MS = 10;
 
+  /**
+   * The longest time {@link DFSInotifyEventInputStream#take()} asks the
+   * NameNode to wait for new edits in one call.
+   */
+  private static final long MAX_TAKE_WAIT_MS = 60000;
+
   DFSInotifyEventInputStream(ClientProtocol namenode, Tracer tracer)
         throws IOException {
     // Only consider new transaction IDs.
@@ -71,7 +80,13 @@ public class DFSInotifyEventInputStream {
 
   DFSInotifyEventInputStream(ClientProtocol namenode, Tracer tracer,
       long lastReadTxid) {
+    this(namenode, tracer, lastReadTxid, EventFilter.ALL);
+  }
+
+  DFSInotifyEventInputStream(ClientProtocol namenode, Tracer tracer,
+      long lastReadTxid, EventFilter filter) {
     this.namenode = namenode;
+    this.filter = filter;
     this.it = Iterators.emptyIterator();
     this.lastReadTxid = lastReadTxid;
     this.tracer = tracer;
@@ -95,41 +110,73 @@ public class DFSInotifyEventInputStream {
    */
   public EventBatch poll() throws IOException, MissingEventsException {
     try (TraceScope ignored = tracer.newScope("inotifyPoll")) {
-      // need to keep retrying until the NN sends us the latest committed txid
-      if (lastReadTxid == -1) {
-        LOG.debug("poll(): lastReadTxid is -1, reading current txid from NN");
-        lastReadTxid = namenode.getCurrentEditLogTxid();
-        return null;
-      }
-      if (!it.hasNext()) {
-        EventBatchList el = namenode.getEditsFromTxid(lastReadTxid + 1);
-        if (el.getLastTxid() != -1) {
-          // we only want to set syncTxid when we were actually able to read some
-          // edits on the NN -- otherwise it will seem like edits are being
-          // generated faster than we can read them when the problem is really
-          // that we are temporarily unable to read edits
-          syncTxid = el.getSyncTxid();
-          it = el.getBatches().iterator();
-          long formerLastReadTxid = lastReadTxid;
-          lastReadTxid = el.getLastTxid();
-          if (el.getFirstTxid() != formerLastReadTxid + 1) {
-            throw new MissingEventsException(formerLastReadTxid + 1,
-                el.getFirstTxid());
-          }
-        } else {
-          LOG.debug("poll(): read no edits from the NN when requesting edits " +
-              "after txid {}", lastReadTxid);
-          return null;
-        }
-      }
+      return poll(0);
+    }
+  }
 
-      if (it.hasNext()) { // can be empty if el.getLastTxid != -1 but none of the
-        // newly seen edit log ops actually got converted to events
-        return it.next();
+  /**
+   * Returns the next batch of events in the stream, letting the NameNode
+   * wait up to waitMs for new edits if it has none yet, or null if no new
+   * batches are available.
+   */
+  private EventBatch poll(long waitMs)
+      throws IOException, MissingEventsException {
+    // need to keep retrying until the NN sends us the latest committed txid
+    if (lastReadTxid == -1) {
+      LOG.debug("poll(): lastReadTxid is -1, reading current txid from NN");
+      lastReadTxid = namenode.getCurrentEditLogTxid();
+      return null;
+    }
+    if (!it.hasNext()) {
+      EventBatchList el =
+          namenode.getEditsFromTxid(lastReadTxid + 1, filter, waitMs);
+      if (el.getLastTxid() != -1) {
+        // we only want to set syncTxid when we were actually able to read some
+        // edits on the NN -- otherwise it will seem like edits are being
+        // generated faster than we can read them when the problem is really
+        // that we are temporarily unable to read edits
+        syncTxid = el.getSyncTxid();
+        it = el.getBatches().iterator();
+        long formerLastReadTxid = lastReadTxid;
+        lastReadTxid = el.getLastTxid();
+        if (el.getFirstTxid() != formerLastReadTxid + 1) {
+          throw new MissingEventsException(formerLastReadTxid + 1,
+              el.getFirstTxid());
+        }
       } else {
+        LOG.debug("poll(): read no edits from the NN when requesting edits " +
+            "after txid {}", lastReadTxid);
         return null;
       }
     }
+
+    // can be empty if el.getLastTxid != -1 but none of the newly seen
+    // edit log ops actually got converted to events. The NameNode has
+    // already filtered the batches, unless it predates filtering.
+    while (it.hasNext()) {
+      EventBatch batch = filter.filter(it.next());
+      if (batch != null) {
+        return batch;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Sleeps for whatever is left of sleepMs after a poll which started at
+   * pollStart, since the NameNode may already have waited for new edits.
+   *
+   * @return true if the poll returned early and this had to sleep
+   */
+  private static boolean sleepAfterPoll(long pollStart, long sleepMs)
+      throws InterruptedException {
+    long sleepTime = sleepMs - (Time.monotonicNow() - pollStart);
+    if (sleepTime <= 0) {
+      return false;
+    }
+    LOG.debug("poll() returned null, sleeping for {} ms", sleepTime);
+    Thread.sleep(sleepTime);
+    return true;
   }
 
   /**
@@ -177,8 +224,10 @@ public EventBatch poll(long time, TimeUnit tu) throws IOException,
       long initialTime = Time.monotonicNow();
       long totalWait = TimeUnit.MILLISECONDS.convert(time, tu);
       long nextWait = INITIAL_WAIT_MS;
-      while ((next = poll()) == null) {
-        long timeLeft = totalWait - (Time.monotonicNow() - initialTime);
+      long timeLeft = totalWait;
+      long pollStart = initialTime;
+      while ((next = poll(timeLeft)) == null) {
+        timeLeft = totalWait - (Time.monotonicNow() - initialTime);
         if (timeLeft <= 0) {
           LOG.debug("timed poll(): timed out");
           break;
@@ -187,9 +236,9 @@ public EventBatch poll(long time, TimeUnit tu) throws IOException,
         } else {
           nextWait *= 2;
         }
-        LOG.debug("timed poll(): poll() returned null, sleeping for {} ms",
-            nextWait);
-        Thread.sleep(nextWait);
+        sleepAfterPoll(pollStart, nextWait);
+        timeLeft = totalWait - (Time.monotonicNow() - initialTime);
+        pollStart = Time.monotonicNow();
       }
     }
     return next;
@@ -209,14 +258,16 @@ public EventBatch take() throws IOException, InterruptedException,
     EventBatch next;
     try (TraceScope ignored = tracer.newScope("inotifyTake")) {
       int nextWaitMin = INITIAL_WAIT_MS;
-      while ((next = poll()) == null) {
+      long pollStart = Time.monotonicNow();
+      while ((next = poll(MAX_TAKE_WAIT_MS)) == null) {
         // sleep for a random period between nextWaitMin and nextWaitMin * 2
         // to avoid stampedes at the NN if there are multiple clients
         int sleepTime = nextWaitMin + rng.nextInt(nextWaitMin);
-        LOG.debug("take(): poll() returned null, sleeping for {} ms", sleepTime);
-        Thread.sleep(sleepTime);
-        // the maximum sleep is 2 minutes
-        nextWaitMin = Math.min(60000, nextWaitMin * 2);
+        if (sleepAfterPoll(pollStart, sleepTime)) {
+          // the maximum sleep is 2 minutes
+          nextWaitMin = Math.min(60000, nextWaitMin * 2);
+        }
+        pollStart = Time.monotonicNow();
       }
     }
 
@@ -42,6 +42,7 @@ public class DFSOpsCountStatistics extends StorageStatistics {
   public enum OpType {
     ALLOW_SNAPSHOT("op_allow_snapshot"),
     APPEND(CommonStatisticNames.OP_APPEND),
+    BATCH_METADATA_OPS("op_batch_metadata_ops"),
     CONCAT("op_concat"),
     COPY_FROM_LOCAL_FILE(CommonStatisticNames.OP_COPY_FROM_LOCAL_FILE),
     CREATE(CommonStatisticNames.OP_CREATE),
@@ -20,6 +20,7 @@
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.util.ArrayList;
@@ -28,6 +29,10 @@
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
@@ -68,6 +73,9 @@
 import org.apache.hadoop.hdfs.client.HdfsDataOutputStream;
 import org.apache.hadoop.hdfs.client.impl.CorruptFileBlockIterator;
 import org.apache.hadoop.hdfs.DFSOpsCountStatistics.OpType;
+import org.apache.hadoop.hdfs.inotify.EventFilter;
+import org.apache.hadoop.hdfs.protocol.BatchOp;
+import org.apache.hadoop.hdfs.protocol.BatchOpResult;
 import org.apache.hadoop.hdfs.protocol.BlockStoragePolicy;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
@@ -764,6 +772,35 @@ public Boolean next(final FileSystem fs, final Path p)
     }.resolve(this, absF);
   }
 
+  /**
+   * Execute a batch of namespace operations on the NameNode with one RPC,
+   * one acquisition of the namespace lock and one edit log sync. Each
+   * operation succeeds or fails on its own, and the results are returned in
+   * the order of the operations. Relative paths are resolved against the
+   * working directory; symlinks are not resolved.
+   *
+   * @param ops the operations
+   * @return the result of each operation
+   * @throws IOException if the batch as a whole failed, e.g. because it is
+   *           larger than the NameNode allows
+   * @see ClientProtocol#batchMetadataOps(List, String)
+   */
+  public List<BatchOpResult> batchMetadataOps(List<BatchOp> ops)
+      throws IOException {
+    statistics.incrementWriteOps(1);
+    storageStatistics.incrementOpCounter(OpType.BATCH_METADATA_OPS);
+    final List<BatchOp> resolved = new ArrayList<>(ops.size());
+    for (BatchOp op : ops) {
+      resolved.add(new BatchOp(op.getType(),
+          getPathName(fixRelativePart(new Path(op.getSrc()))),
+          op.getDst() == null ? null
+              : getPathName(fixRelativePart(new Path(op.getDst()))),
+          op.getPermission(), op.isRecursive(), op.isCreateParent(),
+          op.isOverwrite(), op.getReplication(), op.getBlockSize()));
+    }
+    return dfs.batchMetadataOps(resolved);
+  }
+
   @Override
   public ContentSummary getContentSummary(Path f) throws IOException {
     statistics.incrementReadOps(1);
@@ -887,13 +924,17 @@ private FileStatus[] listStatusInternal(Path p) throws IOException {
     statistics.incrementLargeReadOps(1);
     storageStatistics.incrementOpCounter(OpType.LIST_STATUS);
 
-    // now fetch more entries
+    // now fetch more entries, requesting each batch in the background
+    // while the previous one is converted if listing prefetch is enabled
+    Future<DirectoryListing> prefetched =
+        prefetchListing(src, thisListing, false, null);
     do {
-      thisListing = dfs.listPaths(src, thisListing.getLastName());
+      thisListing = fetchListing(src, thisListing, false, null, prefetched);
 
       if (thisListing == null) { // the directory is deleted
         throw new FileNotFoundException("File " + p + " does not exist.");
       }
+      prefetched = prefetchListing(src, thisListing, false, null);
 
       partialListing = thisListing.getPartialListing();
       for (HdfsFileStatus fileStatus : partialListing) {
@@ -906,6 +947,52 @@ private FileStatus[] listStatusInternal(Path p) throws IOException {
     return listing.toArray(new FileStatus[listing.size()]);
   }
 
+  /**
+   * Request the batch of a listing following the given one in the
+   * background.
+   *
+   * @return the future batch, or null if listing prefetch is disabled or
+   *         there are no more entries.
+   */
+  private Future<DirectoryListing> prefetchListing(final String src,
+      DirectoryListing listing, final boolean needLocation,
+      final byte[] prefix) {
+    final ThreadPoolExecutor pool = dfs.getListingPrefetchThreadPool();
+    if (pool == null || listing == null || !listing.hasMore()) {
+      return null;
+    }
+    final byte[] startAfter = listing.getLastName();
+    return pool.submit(new Callable<DirectoryListing>() {
+      @Override
+      public DirectoryListing call() throws IOException {
+        return dfs.listPaths(src, startAfter, needLocation, prefix);
+      }
+    });
+  }
+
+  /**
+   * Get the batch of a listing following the given one, waiting for the
+   * prefetched batch if there is one.
+   */
+  private DirectoryListing fetchListing(String src, DirectoryListing listing,
+      boolean needLocation, byte[] prefix,
+      Future<DirectoryListing> prefetched) throws IOException {
+    if (prefetched == null) {
+      return dfs.listPaths(src, listing.getLastName(), needLocation, prefix);
+    }
+    try {
+      return prefetched.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while listing " + src);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Failed to list " + src, e.getCause());
+    }
+  }
+
   /**
    * List all the entries of a directory
    *
@@ -985,6 +1072,34 @@ public RemoteIterator<FileStatus> next(final FileSystem fs, final Path p)
 
   }
 
+  /**
+   * Returns a remote iterator over the entries of a directory whose name
+   * starts with the given prefix. The entries are selected by the NameNode,
+   * so only the matching entries are fetched.
+   *
+   * @param p target path
+   * @param prefix the name prefix
+   * @return remote iterator
+   */
+  public RemoteIterator<FileStatus> listStatusIterator(final Path p,
+      final String prefix) throws IOException {
+    Path absF = fixRelativePart(p);
+    return new FileSystemLinkResolver<RemoteIterator<FileStatus>>() {
+      @Override
+      public RemoteIterator<FileStatus> doCall(final Path p)
+          throws IOException {
+        return new DirListingIterator<>(p, null, false,
+            DFSUtilClient.string2Bytes(prefix));
+      }
+
+      @Override
+      public RemoteIterator<FileStatus> next(final FileSystem fs, final Path p)
+          throws IOException {
+        return ((DistributedFileSystem)fs).listStatusIterator(p, prefix);
+      }
+    }.resolve(this, absF);
+  }
+
   /**
    * This class defines an iterator that returns
    * the file status of each file/subdirectory of a directory
@@ -1003,21 +1118,30 @@ public RemoteIterator<FileStatus> next(final FileSystem fs, final Path p)
     private T curStat = null;
     private PathFilter filter;
     private boolean needLocation;
+    private byte[] prefix;
+    private Future<DirectoryListing> prefetched;
 
     private DirListingIterator(Path p, PathFilter filter,
         boolean needLocation) throws IOException {
+      this(p, filter, needLocation, null);
+    }
+
+    private DirListingIterator(Path p, PathFilter filter,
+        boolean needLocation, byte[] prefix) throws IOException {
       this.p = p;
       this.src = getPathName(p);
       this.filter = filter;
       this.needLocation = needLocation;
+      this.prefix = prefix;
       // fetch the first batch of entries in the directory
       thisListing = dfs.listPaths(src, HdfsFileStatus.EMPTY_NAME,
-          needLocation);
+          needLocation, prefix);
       statistics.incrementReadOps(1);
       storageStatistics.incrementOpCounter(OpType.LIST_LOCATED_STATUS);
       if (thisListing == null) { // the directory does not exist
         throw new FileNotFoundException("File " + p + " does not exist.");
       }
+      prefetched = prefetchListing(src, thisListing, needLocation, prefix);
       i = 0;
     }
 
@@ -1032,6 +1156,10 @@ public boolean hasNext() throws IOException {
       while (curStat == null && hasNextNoFilter()) {
         T next;
         HdfsFileStatus fileStat = thisListing.getPartialListing()[i++];
+        if (prefix != null && !hasPrefix(fileStat)) {
+          // the NameNode does not support listing by prefix
+          continue;
+        }
         if (needLocation) {
           next = (T)((HdfsLocatedFileStatus)fileStat)
               .makeQualifiedLocated(getUri(), p);
@@ -1054,17 +1182,31 @@ private boolean hasNextNoFilter() throws IOException {
       if (i >= thisListing.getPartialListing().length
           && thisListing.hasMore()) {
         // current listing is exhausted & fetch a new listing
-        thisListing = dfs.listPaths(src, thisListing.getLastName(),
-            needLocation);
+        thisListing = fetchListing(src, thisListing, needLocation, prefix,
+            prefetched);
         statistics.incrementReadOps(1);
         if (thisListing == null) {
           return false;
         }
+        prefetched = prefetchListing(src, thisListing, needLocation, prefix);
         i = 0;
       }
       return (i < thisListing.getPartialListing().length);
     }
 
+    private boolean hasPrefix(HdfsFileStatus fileStat) {
+      final byte[] name = fileStat.getLocalNameInBytes();
+      if (name.length < prefix.length) {
+        return false;
+      }
+      for (int j = 0; j < prefix.length; j++) {
+        if (name[j] != prefix[j]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
     @Override
     public T next() throws IOException {
       if (hasNext()) {
@@ -2363,6 +2505,16 @@ public DFSInotifyEventInputStream getInotifyEventStream(long lastReadTxid)
     return dfs.getInotifyEventStream(lastReadTxid);
   }
 
+  public DFSInotifyEventInputStream getInotifyEventStream(EventFilter filter)
+      throws IOException {
+    return dfs.getInotifyEventStream(filter);
+  }
+
+  public DFSInotifyEventInputStream getInotifyEventStream(long lastReadTxid,
+      EventFilter filter) throws IOException {
+    return dfs.getInotifyEventStream(lastReadTxid, filter);
+  }
+
   /**
    * Set the source path to the specified erasure coding policy.
    *
@@ -130,6 +130,9 @@ public interface HdfsClientConfigKeys {
   String  DFS_CLIENT_SLOW_IO_WARNING_THRESHOLD_KEY =
       "dfs.client.slow.io.warning.threshold.ms";
   long    DFS_CLIENT_SLOW_IO_WARNING_THRESHOLD_DEFAULT = 30000;
+  String  DFS_CLIENT_LISTING_PREFETCH_THREADPOOL_SIZE_KEY =
+      "dfs.client.listing.prefetch.threadpool.size";
+  int     DFS_CLIENT_LISTING_PREFETCH_THREADPOOL_SIZE_DEFAULT = 0;
   String  DFS_CLIENT_KEY_PROVIDER_CACHE_EXPIRY_MS =
           "dfs.client.key.provider.cache.expiry";
   long    DFS_CLIENT_KEY_PROVIDER_CACHE_EXPIRY_DEFAULT =
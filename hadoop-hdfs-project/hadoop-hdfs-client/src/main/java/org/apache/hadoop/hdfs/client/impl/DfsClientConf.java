@@ -134,6 +134,7 @@ public class DfsClientConf {
       replicaAccessorBuilderClasses;
 
   private final int stripedReadThreadpoolSize;
+  private final int listingPrefetchThreadpoolSize;
 
   private final boolean dataTransferTcpNoDelay;
 
@@ -255,6 +256,10 @@ public DfsClientConf(Configuration conf) {
     Preconditions.checkArgument(stripedReadThreadpoolSize > 0, "The value of " +
         HdfsClientConfigKeys.StripedRead.THREADPOOL_SIZE_KEY +
         " must be greater than 0.");
+    listingPrefetchThreadpoolSize = conf.getInt(
+        HdfsClientConfigKeys.DFS_CLIENT_LISTING_PREFETCH_THREADPOOL_SIZE_KEY,
+        HdfsClientConfigKeys
+            .DFS_CLIENT_LISTING_PREFETCH_THREADPOOL_SIZE_DEFAULT);
     replicaAccessorBuilderClasses = loadReplicaAccessorBuilderClasses(conf);
   }
 
@@ -556,6 +561,13 @@ public int getStripedReadThreadpoolSize() {
     return stripedReadThreadpoolSize;
   }
 
+  /**
+   * @return the listingPrefetchThreadpoolSize
+   */
+  public int getListingPrefetchThreadpoolSize() {
+    return listingPrefetchThreadpoolSize;
+  }
+
   /**
    * @return the replicaAccessorBuilderClasses
    */
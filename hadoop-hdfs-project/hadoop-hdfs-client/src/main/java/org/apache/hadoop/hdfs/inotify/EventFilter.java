@@ -0,0 +1,157 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hdfs.inotify;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Selects the inotify events a client is interested in. The NameNode applies
+ * the filter before sending events, so that clients which only follow part
+ * of the namespace do not receive every event.
+ * <p/>
+ * An event is accepted if its type is one of the given types and one of its
+ * paths is at or below one of the given path prefixes. For a rename either
+ * the source or the destination path may match. An empty collection of
+ * prefixes or types places no restriction on the paths or types.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Unstable
+public class EventFilter {
+  /** A filter that accepts every event. */
+  public static final EventFilter ALL = new EventFilter(
+      Collections.<String>emptyList(),
+      Collections.<Event.EventType>emptyList());
+
+  private final List<String> pathPrefixes;
+  private final Set<Event.EventType> eventTypes;
+
+  public EventFilter(Collection<String> pathPrefixes,
+      Collection<Event.EventType> eventTypes) {
+    List<String> prefixes = new ArrayList<>(pathPrefixes.size());
+    for (String prefix : pathPrefixes) {
+      if (!prefix.startsWith("/")) {
+        throw new IllegalArgumentException("Path prefix " + prefix
+            + " is not absolute");
+      }
+      // match whole path components, so /a covers /a/b but not /ab.
+      while (prefix.length() > 1 && prefix.endsWith("/")) {
+        prefix = prefix.substring(0, prefix.length() - 1);
+      }
+      prefixes.add(prefix);
+    }
+    this.pathPrefixes = Collections.unmodifiableList(prefixes);
+    this.eventTypes = eventTypes.isEmpty()
+        ? EnumSet.allOf(Event.EventType.class)
+        : EnumSet.copyOf(eventTypes);
+  }
+
+  /** @return the path prefixes, or an empty list if paths are not filtered. */
+  public List<String> getPathPrefixes() {
+    return pathPrefixes;
+  }
+
+  /** @return the accepted event types. */
+  public Set<Event.EventType> getEventTypes() {
+    return Collections.unmodifiableSet(eventTypes);
+  }
+
+  /** @return true if this filter accepts every event. */
+  public boolean acceptsAll() {
+    return pathPrefixes.isEmpty()
+        && eventTypes.size() == Event.EventType.values().length;
+  }
+
+  public boolean accept(Event event) {
+    if (!eventTypes.contains(event.getEventType())) {
+      return false;
+    }
+    if (pathPrefixes.isEmpty()) {
+      return true;
+    }
+    switch (event.getEventType()) {
+    case CREATE:
+      return matchesPath(((Event.CreateEvent) event).getPath());
+    case CLOSE:
+      return matchesPath(((Event.CloseEvent) event).getPath());
+    case APPEND:
+      return matchesPath(((Event.AppendEvent) event).getPath());
+    case RENAME:
+      Event.RenameEvent rename = (Event.RenameEvent) event;
+      return matchesPath(rename.getSrcPath())
+          || matchesPath(rename.getDstPath());
+    case METADATA:
+      return matchesPath(((Event.MetadataUpdateEvent) event).getPath());
+    case UNLINK:
+      return matchesPath(((Event.UnlinkEvent) event).getPath());
+    case TRUNCATE:
+      return matchesPath(((Event.TruncateEvent) event).getPath());
+    default:
+      return false;
+    }
+  }
+
+  /**
+   * @return a batch with the events of the given batch which this filter
+   * accepts, or null if it accepts none of them.
+   */
+  public EventBatch filter(EventBatch batch) {
+    if (acceptsAll()) {
+      return batch;
+    }
+    Event[] events = batch.getEvents();
+    List<Event> accepted = new ArrayList<>(events.length);
+    for (Event event : events) {
+      if (accept(event)) {
+        accepted.add(event);
+      }
+    }
+    if (accepted.isEmpty()) {
+      return null;
+    } else if (accepted.size() == events.length) {
+      return batch;
+    }
+    return new EventBatch(batch.getTxid(),
+        accepted.toArray(new Event[accepted.size()]));
+  }
+
+  private boolean matchesPath(String path) {
+    for (String prefix : pathPrefixes) {
+      if (prefix.length() == 1 || (path.startsWith(prefix)
+          && (path.length() == prefix.length()
+              || path.charAt(prefix.length()) == '/'))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return "EventFilter{pathPrefixes=" + pathPrefixes + ", eventTypes="
+        + eventTypes + "}";
+  }
+}
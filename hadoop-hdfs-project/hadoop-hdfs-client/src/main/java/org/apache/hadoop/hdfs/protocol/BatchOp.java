@@ -0,0 +1,146 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.protocol;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.fs.permission.FsPermission;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A namespace operation to be executed as part of a batch, see
+ * {@link ClientProtocol#batchMetadataOps}.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public final class BatchOp {
+  /** The type of a batched operation. */
+  public enum Type {
+    /** Create an empty file and close it. */
+    CREATE,
+    DELETE,
+    SET_PERMISSION,
+    RENAME
+  }
+
+  private final Type type;
+  private final String src;
+  private final String dst;
+  private final FsPermission permission;
+  private final boolean recursive;
+  private final boolean createParent;
+  private final boolean overwrite;
+  private final short replication;
+  private final long blockSize;
+
+  public BatchOp(Type type, String src, String dst, FsPermission permission,
+      boolean recursive, boolean createParent, boolean overwrite,
+      short replication, long blockSize) {
+    this.type = Preconditions.checkNotNull(type);
+    this.src = Preconditions.checkNotNull(src);
+    this.dst = dst;
+    this.permission = permission;
+    this.recursive = recursive;
+    this.createParent = createParent;
+    this.overwrite = overwrite;
+    this.replication = replication;
+    this.blockSize = blockSize;
+  }
+
+  /**
+   * Create an empty file and close it.
+   *
+   * @param src path of the file
+   * @param permission the permission of the file, masked by the client
+   * @param createParent create missing parent directories
+   * @param overwrite overwrite the file if it exists
+   * @param replication replication factor of the file
+   * @param blockSize block size of the file
+   */
+  public static BatchOp create(String src, FsPermission permission,
+      boolean createParent, boolean overwrite, short replication,
+      long blockSize) {
+    return new BatchOp(Type.CREATE, src, null,
+        Preconditions.checkNotNull(permission), false, createParent,
+        overwrite, replication, blockSize);
+  }
+
+  /** @see ClientProtocol#delete(String, boolean) */
+  public static BatchOp delete(String src, boolean recursive) {
+    return new BatchOp(Type.DELETE, src, null, null, recursive, false, false,
+        (short) 0, 0);
+  }
+
+  /** @see ClientProtocol#setPermission(String, FsPermission) */
+  public static BatchOp setPermission(String src, FsPermission permission) {
+    return new BatchOp(Type.SET_PERMISSION, src, null,
+        Preconditions.checkNotNull(permission), false, false, false,
+        (short) 0, 0);
+  }
+
+  /**
+   * Rename src to dst, failing if dst exists unless overwrite is set.
+   * @see ClientProtocol#rename2
+   */
+  public static BatchOp rename(String src, String dst, boolean overwrite) {
+    return new BatchOp(Type.RENAME, src, Preconditions.checkNotNull(dst),
+        null, false, false, overwrite, (short) 0, 0);
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  public String getSrc() {
+    return src;
+  }
+
+  public String getDst() {
+    return dst;
+  }
+
+  public FsPermission getPermission() {
+    return permission;
+  }
+
+  public boolean isRecursive() {
+    return recursive;
+  }
+
+  public boolean isCreateParent() {
+    return createParent;
+  }
+
+  public boolean isOverwrite() {
+    return overwrite;
+  }
+
+  public short getReplication() {
+    return replication;
+  }
+
+  public long getBlockSize() {
+    return blockSize;
+  }
+
+  @Override
+  public String toString() {
+    return type + " " + src + (dst == null ? "" : " " + dst);
+  }
+}
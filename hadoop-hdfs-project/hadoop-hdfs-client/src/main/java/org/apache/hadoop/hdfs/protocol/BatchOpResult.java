@@ -0,0 +1,78 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.protocol;
+
+import java.io.IOException;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+/**
+ * The result of a batched namespace operation: either the value returned by
+ * the operation, or the exception it failed with.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public final class BatchOpResult {
+  private static final BatchOpResult TRUE = new BatchOpResult(true, null);
+  private static final BatchOpResult FALSE = new BatchOpResult(false, null);
+
+  private final boolean result;
+  private final IOException exception;
+
+  private BatchOpResult(boolean result, IOException exception) {
+    this.result = result;
+    this.exception = exception;
+  }
+
+  public static BatchOpResult success(boolean result) {
+    return result ? TRUE : FALSE;
+  }
+
+  public static BatchOpResult failure(IOException exception) {
+    return new BatchOpResult(false, exception);
+  }
+
+  /** @return true if the operation did not throw an exception. */
+  public boolean isSuccess() {
+    return exception == null;
+  }
+
+  /**
+   * @return the value returned by the operation: whether the path was
+   *         deleted for DELETE, and true for the other operations if they
+   *         succeeded.
+   */
+  public boolean getResult() {
+    return result;
+  }
+
+  /**
+   * @return the exception the operation failed with, or null. Exceptions
+   *         returned by the NameNode are
+   *         {@link org.apache.hadoop.ipc.RemoteException}s.
+   */
+  public IOException getException() {
+    return exception;
+  }
+
+  @Override
+  public String toString() {
+    return isSuccess() ? String.valueOf(result) : exception.toString();
+  }
+}
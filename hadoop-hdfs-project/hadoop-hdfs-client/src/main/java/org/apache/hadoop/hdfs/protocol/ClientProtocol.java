@@ -40,10 +40,12 @@
 import org.apache.hadoop.fs.permission.FsAction;
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.hdfs.inotify.EventBatchList;
+import org.apache.hadoop.hdfs.inotify.EventFilter;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants.RollingUpgradeAction;
 import org.apache.hadoop.hdfs.security.token.block.DataEncryptionKey;
 import org.apache.hadoop.hdfs.security.token.delegation.DelegationTokenIdentifier;
 import org.apache.hadoop.hdfs.security.token.delegation.DelegationTokenSelector;
+import org.apache.hadoop.hdfs.server.namenode.ha.ReadOnly;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeStorageReport;
 import org.apache.hadoop.io.EnumSetWritable;
 import org.apache.hadoop.io.Text;
@@ -124,6 +126,7 @@ public interface ClientProtocol {
    * @throws IOException If an I/O error occurred
    */
   @Idempotent
+  @ReadOnly
   LocatedBlocks getBlockLocations(String src, long offset, long length)
       throws IOException;
 
@@ -307,6 +310,7 @@ void setStoragePolicy(String src, String policyName)
    *           If file/dir <code>src</code> is not found
    */
   @Idempotent
+  @ReadOnly
   BlockStoragePolicy getStoragePolicy(String path) throws IOException;
 
   /**
@@ -620,6 +624,30 @@ boolean truncate(String src, long newLength, String clientName)
   boolean delete(String src, boolean recursive)
       throws IOException;
 
+  /**
+   * Execute a batch of namespace operations. The operations are executed in
+   * order while the namespace write lock is held once, and their edits are
+   * synced together, so a batch of small operations takes far fewer lock
+   * acquisitions and edit log syncs than the same operations issued one by
+   * one. Each operation succeeds or fails on its own; a failed operation
+   * does not roll back or stop the others.
+   *
+   * @param ops the operations
+   * @param clientName name of the current client, the lease holder of the
+   *                   files created
+   * @return the result of each operation, in order
+   *
+   * @throws org.apache.hadoop.hdfs.server.namenode.SafeModeException if the
+   *           NameNode is in safe mode
+   * @throws IOException if the batch is larger than the NameNode allows, if
+   *           the batch was retried after a failover or restart and was
+   *           executed before, so its results are not available, or another
+   *           I/O error occurred
+   */
+  @AtMostOnce
+  List<BatchOpResult> batchMetadataOps(List<BatchOp> ops, String clientName)
+      throws IOException;
+
   /**
    * Create a directory (or hierarchy of directories) with the given
    * name and permission.
@@ -671,9 +699,36 @@ boolean mkdirs(String src, FsPermission masked, boolean createParent)
    * @throws IOException If an I/O error occurred
    */
   @Idempotent
+  @ReadOnly
   DirectoryListing getListing(String src, byte[] startAfter,
       boolean needLocation) throws IOException;
 
+  /**
+   * Get a partial listing of the entries of the indicated directory whose
+   * name starts with the given prefix. The entries are selected by the
+   * NameNode, so only the matching entries are transferred and counted
+   * against the listing limit. An older NameNode ignores the prefix and
+   * returns all the entries.
+   *
+   * @param src the directory name
+   * @param startAfter the name to start listing after encoded in java UTF8
+   * @param needLocation if the FileStatus should contain block locations
+   * @param prefix the name prefix encoded in java UTF8, or null for all the
+   *               entries
+   *
+   * @return a partial listing starting after startAfter
+   *
+   * @throws org.apache.hadoop.security.AccessControlException permission denied
+   * @throws java.io.FileNotFoundException file <code>src</code> is not found
+   * @throws org.apache.hadoop.fs.UnresolvedLinkException If <code>src</code>
+   *           contains a symlink
+   * @throws IOException If an I/O error occurred
+   */
+  @Idempotent
+  @ReadOnly
+  DirectoryListing getListing(String src, byte[] startAfter,
+      boolean needLocation, byte[] prefix) throws IOException;
+
   /**
    * Get listing of all the snapshottable directories.
    *
@@ -780,6 +835,7 @@ DatanodeStorageReport[] getDatanodeStorageReport(
    *           a symlink.
    */
   @Idempotent
+  @ReadOnly
   long getPreferredBlockSize(String filename)
       throws IOException;
 
@@ -959,6 +1015,7 @@ CorruptFileBlocks listCorruptFileBlocks(String path, String cookie)
    * @throws IOException If an I/O error occurred
    */
   @Idempotent
+  @ReadOnly
   HdfsFileStatus getFileInfo(String src) throws IOException;
 
   /**
@@ -973,6 +1030,7 @@ CorruptFileBlocks listCorruptFileBlocks(String path, String cookie)
    * @throws IOException If an I/O error occurred
    */
   @Idempotent
+  @ReadOnly
   boolean isFileClosed(String src) throws IOException;
 
   /**
@@ -989,6 +1047,7 @@ CorruptFileBlocks listCorruptFileBlocks(String path, String cookie)
    * @throws IOException If an I/O error occurred
    */
   @Idempotent
+  @ReadOnly
   HdfsFileStatus getFileLinkInfo(String src) throws IOException;
 
   /**
@@ -1002,6 +1061,7 @@ CorruptFileBlocks listCorruptFileBlocks(String path, String cookie)
    * @throws IOException If an I/O error occurred
    */
   @Idempotent
+  @ReadOnly
   ContentSummary getContentSummary(String path) throws IOException;
 
   /**
@@ -1114,6 +1174,7 @@ void createSymlink(String target, String link, FsPermission dirPerm,
    *           or an I/O error occurred
    */
   @Idempotent
+  @ReadOnly
   String getLinkTarget(String path) throws IOException;
 
   /**
@@ -1255,6 +1316,41 @@ void disallowSnapshot(String snapshotRoot)
   SnapshotDiffReport getSnapshotDiffReport(String snapshotRoot,
       String fromSnapshot, String toSnapshot) throws IOException;
 
+  /**
+   * Get a part of the difference between two snapshots, or between a
+   * snapshot and the current tree of a directory, so that large reports do
+   * not have to be returned in a single response. A listing is started with
+   * startIndex 0, which computes the report and returns the id of the new
+   * listing; the following parts are taken from the same report by passing
+   * that id. The namenode keeps the reports of a limited number of listings
+   * for a limited time, and drops them all when a snapshot is deleted or
+   * renamed. Asking for a part of a listing that is no longer kept fails,
+   * and the listing has to be started again from index 0.
+   *
+   * @param snapshotRoot
+   *          full path of the directory where snapshots are taken
+   * @param fromSnapshot
+   *          snapshot name of the from point. Null indicates the current
+   *          tree
+   * @param toSnapshot
+   *          snapshot name of the to point. Null indicates the current
+   *          tree.
+   * @param listingId
+   *          id of the listing returned for its first part. Ignored when
+   *          startIndex is 0.
+   * @param startIndex
+   *          index of the first entry of the report to return
+   * @return The id of the listing and the entries of the report from
+   *         startIndex, up to the limit configured on the namenode. No entries
+   *         are returned once the end of the report is reached.
+   * @throws IOException on error, or if startIndex is not 0 and the listing
+   *         is no longer kept by the namenode
+   */
+  @Idempotent
+  SnapshotDiffReportListing getSnapshotDiffReportListing(String snapshotRoot,
+      String fromSnapshot, String toSnapshot, long listingId, int startIndex)
+      throws IOException;
+
   /**
    * Add a CacheDirective to the CacheManager.
    *
@@ -1384,6 +1480,7 @@ void removeAclEntries(String src, List<AclEntry> aclSpec)
    * Gets the ACLs of files and directories.
    */
   @Idempotent
+  @ReadOnly
   AclStatus getAclStatus(String src) throws IOException;
 
   /**
@@ -1441,6 +1538,7 @@ void setXAttr(String src, XAttr xAttr, EnumSet<XAttrSetFlag> flag)
    * @throws IOException
    */
   @Idempotent
+  @ReadOnly
   List<XAttr> getXAttrs(String src, List<XAttr> xAttrs)
       throws IOException;
 
@@ -1456,6 +1554,7 @@ List<XAttr> getXAttrs(String src, List<XAttr> xAttrs)
    * @throws IOException
    */
   @Idempotent
+  @ReadOnly
   List<XAttr> listXAttrs(String src)
       throws IOException;
 
@@ -1490,6 +1589,7 @@ List<XAttr> listXAttrs(String src)
    * @throws IOException see specific implementation
    */
   @Idempotent
+  @ReadOnly
   void checkAccess(String path, FsAction mode) throws IOException;
 
   /**
@@ -1507,6 +1607,18 @@ List<XAttr> listXAttrs(String src)
   @Idempotent
   EventBatchList getEditsFromTxid(long txid) throws IOException;
 
+  /**
+   * Like {@link #getEditsFromTxid(long)}, but only returns the events which
+   * the given filter accepts. The returned first and last txids still cover
+   * every transaction read, so that the caller can resume after them. If no
+   * transactions at or after txid have been synced yet, the NameNode may wait
+   * up to waitMs, bounded by its own limit, for new transactions before
+   * returning.
+   */
+  @Idempotent
+  EventBatchList getEditsFromTxid(long txid, EventFilter filter, long waitMs)
+      throws IOException;
+
   /**
    * Set an erasure coding policy on a specified path.
    * @param src The path to set policy on.
@@ -1545,5 +1657,6 @@ void setErasureCodingPolicy(String src, ErasureCodingPolicy ecPolicy)
    * @throws IOException If an I/O error occurred
    */
   @Idempotent
+  @ReadOnly
   QuotaUsage getQuotaUsage(String path) throws IOException;
 }
@@ -47,6 +47,9 @@
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.hdfs.AddBlockFlag;
 import org.apache.hadoop.hdfs.inotify.EventBatchList;
+import org.apache.hadoop.hdfs.inotify.EventFilter;
+import org.apache.hadoop.hdfs.protocol.BatchOp;
+import org.apache.hadoop.hdfs.protocol.BatchOpResult;
 import org.apache.hadoop.hdfs.protocol.BlockStoragePolicy;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
@@ -69,6 +72,7 @@
 import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
 import org.apache.hadoop.hdfs.protocol.RollingUpgradeInfo;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReportListing;
 import org.apache.hadoop.hdfs.protocol.SnapshottableDirectoryStatus;
 import org.apache.hadoop.hdfs.protocol.proto.AclProtos.GetAclStatusRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.AclProtos.GetAclStatusResponseProto;
@@ -92,6 +96,8 @@
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CreateResponseProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CreateSnapshotRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CreateSymlinkRequestProto;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.BatchMetadataOpsRequestProto;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.BatchOpResultProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.DeleteRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.DeleteSnapshotRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.DisallowSnapshotRequestProto;
@@ -119,6 +125,8 @@
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetPreferredBlockSizeRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetQuotaUsageRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetServerDefaultsRequestProto;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetSnapshotDiffReportListingRequestProto;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetSnapshotDiffReportListingResponseProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetSnapshotDiffReportRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetSnapshotDiffReportResponseProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetSnapshottableDirListingRequestProto;
@@ -571,6 +579,28 @@ public boolean delete(String src, boolean recursive) throws IOException {
     }
   }
 
+  @Override
+  public List<BatchOpResult> batchMetadataOps(List<BatchOp> ops,
+      String clientName) throws IOException {
+    BatchMetadataOpsRequestProto req = BatchMetadataOpsRequestProto
+        .newBuilder()
+        .setClientName(clientName)
+        .addAllOps(PBHelperClient.convertBatchOps(ops))
+        .build();
+    try {
+      List<BatchOpResultProto> results =
+          rpcProxy.batchMetadataOps(null, req).getResultsList();
+      List<BatchOpResult> ret =
+          Lists.newArrayListWithCapacity(results.size());
+      for (BatchOpResultProto result : results) {
+        ret.add(PBHelperClient.convert(result));
+      }
+      return ret;
+    } catch (ServiceException e) {
+      throw ProtobufHelper.getRemoteException(e);
+    }
+  }
+
   @Override
   public boolean mkdirs(String src, FsPermission masked, boolean createParent)
       throws IOException {
@@ -589,10 +619,21 @@ public boolean mkdirs(String src, FsPermission masked, boolean createParent)
   @Override
   public DirectoryListing getListing(String src, byte[] startAfter,
       boolean needLocation) throws IOException {
-    GetListingRequestProto req = GetListingRequestProto.newBuilder()
+    return getListing(src, startAfter, needLocation, null);
+  }
+
+  @Override
+  public DirectoryListing getListing(String src, byte[] startAfter,
+      boolean needLocation, byte[] prefix) throws IOException {
+    GetListingRequestProto.Builder builder = GetListingRequestProto
+        .newBuilder()
         .setSrc(src)
         .setStartAfter(ByteString.copyFrom(startAfter))
-        .setNeedLocation(needLocation).build();
+        .setNeedLocation(needLocation);
+    if (prefix != null) {
+      builder.setPrefix(ByteString.copyFrom(prefix));
+    }
+    GetListingRequestProto req = builder.build();
     try {
       GetListingResponseProto result = rpcProxy.getListing(null, req);
 
@@ -1129,6 +1170,26 @@ public SnapshotDiffReport getSnapshotDiffReport(String snapshotRoot,
     }
   }
 
+  @Override
+  public SnapshotDiffReportListing getSnapshotDiffReportListing(
+      String snapshotRoot, String fromSnapshot, String toSnapshot,
+      long listingId, int startIndex) throws IOException {
+    GetSnapshotDiffReportListingRequestProto req =
+        GetSnapshotDiffReportListingRequestProto.newBuilder()
+            .setSnapshotRoot(snapshotRoot).setFromSnapshot(fromSnapshot)
+            .setToSnapshot(toSnapshot).setListingId(listingId)
+            .setStartIndex(startIndex).build();
+    try {
+      GetSnapshotDiffReportListingResponseProto result =
+          rpcProxy.getSnapshotDiffReportListing(null, req);
+
+      return new SnapshotDiffReportListing(result.getListingId(),
+          PBHelperClient.convert(result.getDiffReport()));
+    } catch (ServiceException e) {
+      throw ProtobufHelper.getRemoteException(e);
+    }
+  }
+
   @Override
   public long addCacheDirective(CacheDirectiveInfo directive,
       EnumSet<CacheFlag> flags) throws IOException {
@@ -1595,6 +1656,18 @@ public EventBatchList getEditsFromTxid(long txid) throws IOException {
     }
   }
 
+  @Override
+  public EventBatchList getEditsFromTxid(long txid, EventFilter filter,
+      long waitMs) throws IOException {
+    GetEditsFromTxidRequestProto req =
+        PBHelperClient.convertEditsRequest(txid, filter, waitMs);
+    try {
+      return PBHelperClient.convert(rpcProxy.getEditsFromTxid(null, req));
+    } catch (ServiceException e) {
+      throw ProtobufHelper.getRemoteException(e);
+    }
+  }
+
   @Override
   public ErasureCodingPolicy[] getErasureCodingPolicies() throws IOException {
     try {
@@ -58,6 +58,9 @@
 import org.apache.hadoop.hdfs.inotify.Event;
 import org.apache.hadoop.hdfs.inotify.EventBatch;
 import org.apache.hadoop.hdfs.inotify.EventBatchList;
+import org.apache.hadoop.hdfs.inotify.EventFilter;
+import org.apache.hadoop.hdfs.protocol.BatchOp;
+import org.apache.hadoop.hdfs.protocol.BatchOpResult;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.BlockStoragePolicy;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
@@ -99,6 +102,8 @@
 import org.apache.hadoop.hdfs.protocol.proto.AclProtos.AclStatusProto;
 import org.apache.hadoop.hdfs.protocol.proto.AclProtos.GetAclStatusResponseProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.AddBlockFlagProto;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.BatchOpProto;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.BatchOpResultProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CacheDirectiveEntryProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CacheDirectiveInfoExpirationProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CacheDirectiveInfoProto;
@@ -110,6 +115,7 @@
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CreateFlagProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.DatanodeReportTypeProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.DatanodeStorageReportProto;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetEditsFromTxidRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetEditsFromTxidResponseProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetFsStatsResponseProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.RollingUpgradeActionProto;
@@ -169,6 +175,7 @@
 import org.apache.hadoop.io.EnumSetWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.erasurecode.ECSchema;
+import org.apache.hadoop.ipc.RemoteException;
 import org.apache.hadoop.security.proto.SecurityProtos.TokenProto;
 import org.apache.hadoop.security.token.Token;
 import org.apache.hadoop.util.DataChecksum;
@@ -1043,6 +1050,152 @@ public static FsPermission convert(FsPermissionProto p) {
     return new FsPermissionExtension((short)p.getPerm());
   }
 
+  public static BatchOpProto convert(BatchOp op) {
+    BatchOpProto.Builder builder = BatchOpProto.newBuilder()
+        .setType(BatchOpProto.BatchOpType.valueOf(op.getType().name()))
+        .setSrc(op.getSrc());
+    if (op.getDst() != null) {
+      builder.setDst(op.getDst());
+    }
+    if (op.getPermission() != null) {
+      builder.setPermission(convert(op.getPermission()));
+    }
+    switch (op.getType()) {
+    case CREATE:
+      builder.setCreateParent(op.isCreateParent())
+          .setOverwrite(op.isOverwrite())
+          .setReplication(op.getReplication())
+          .setBlockSize(op.getBlockSize());
+      break;
+    case DELETE:
+      builder.setRecursive(op.isRecursive());
+      break;
+    case RENAME:
+      builder.setOverwrite(op.isOverwrite());
+      break;
+    default:
+      break;
+    }
+    return builder.build();
+  }
+
+  public static BatchOp convert(BatchOpProto p) {
+    return new BatchOp(BatchOp.Type.valueOf(p.getType().name()), p.getSrc(),
+        p.hasDst() ? p.getDst() : null,
+        p.hasPermission() ? convert(p.getPermission()) : null,
+        p.getRecursive(), p.getCreateParent(), p.getOverwrite(),
+        (short) p.getReplication(), p.getBlockSize());
+  }
+
+  public static List<BatchOpProto> convertBatchOps(List<BatchOp> ops) {
+    List<BatchOpProto> protos = Lists.newArrayListWithCapacity(ops.size());
+    for (BatchOp op : ops) {
+      protos.add(convert(op));
+    }
+    return protos;
+  }
+
+  public static List<BatchOp> convertBatchOpProtos(List<BatchOpProto> protos) {
+    List<BatchOp> ops = Lists.newArrayListWithCapacity(protos.size());
+    for (BatchOpProto p : protos) {
+      ops.add(convert(p));
+    }
+    return ops;
+  }
+
+  public static BatchOpResultProto convert(BatchOpResult result) {
+    BatchOpResultProto.Builder builder = BatchOpResultProto.newBuilder()
+        .setResult(result.getResult());
+    if (!result.isSuccess()) {
+      IOException e = result.getException();
+      builder.setExceptionClassName(e instanceof RemoteException
+          ? ((RemoteException) e).getClassName() : e.getClass().getName());
+      if (e.getMessage() != null) {
+        builder.setExceptionMessage(e.getMessage());
+      }
+    }
+    return builder.build();
+  }
+
+  public static BatchOpResult convert(BatchOpResultProto p) {
+    if (p.hasExceptionClassName()) {
+      return BatchOpResult.failure(new RemoteException(
+          p.getExceptionClassName(),
+          p.hasExceptionMessage() ? p.getExceptionMessage() : null));
+    }
+    return BatchOpResult.success(p.getResult());
+  }
+
+  static InotifyProtos.EventType convert(Event.EventType type) {
+    switch (type) {
+    case CREATE:
+      return InotifyProtos.EventType.EVENT_CREATE;
+    case CLOSE:
+      return InotifyProtos.EventType.EVENT_CLOSE;
+    case APPEND:
+      return InotifyProtos.EventType.EVENT_APPEND;
+    case RENAME:
+      return InotifyProtos.EventType.EVENT_RENAME;
+    case METADATA:
+      return InotifyProtos.EventType.EVENT_METADATA;
+    case UNLINK:
+      return InotifyProtos.EventType.EVENT_UNLINK;
+    case TRUNCATE:
+      return InotifyProtos.EventType.EVENT_TRUNCATE;
+    default:
+      throw new IllegalArgumentException("Unexpected event type " + type);
+    }
+  }
+
+  static Event.EventType convert(InotifyProtos.EventType type) {
+    switch (type) {
+    case EVENT_CREATE:
+      return Event.EventType.CREATE;
+    case EVENT_CLOSE:
+      return Event.EventType.CLOSE;
+    case EVENT_APPEND:
+      return Event.EventType.APPEND;
+    case EVENT_RENAME:
+      return Event.EventType.RENAME;
+    case EVENT_METADATA:
+      return Event.EventType.METADATA;
+    case EVENT_UNLINK:
+      return Event.EventType.UNLINK;
+    case EVENT_TRUNCATE:
+      return Event.EventType.TRUNCATE;
+    default:
+      throw new IllegalArgumentException("Unexpected event type " + type);
+    }
+  }
+
+  public static GetEditsFromTxidRequestProto convertEditsRequest(long txid,
+      EventFilter filter, long waitMs) {
+    GetEditsFromTxidRequestProto.Builder builder =
+        GetEditsFromTxidRequestProto.newBuilder()
+            .setTxid(txid)
+            .setWaitMs(waitMs)
+            .addAllPathPrefixes(filter.getPathPrefixes());
+    if (filter.getEventTypes().size() < Event.EventType.values().length) {
+      for (Event.EventType type : filter.getEventTypes()) {
+        builder.addEventTypes(convert(type));
+      }
+    }
+    return builder.build();
+  }
+
+  public static EventFilter convertEventFilter(
+      GetEditsFromTxidRequestProto req) {
+    if (req.getPathPrefixesCount() == 0 && req.getEventTypesCount() == 0) {
+      return EventFilter.ALL;
+    }
+    List<Event.EventType> types =
+        new ArrayList<>(req.getEventTypesCount());
+    for (InotifyProtos.EventType type : req.getEventTypesList()) {
+      types.add(convert(type));
+    }
+    return new EventFilter(req.getPathPrefixesList(), types);
+  }
+
   private static Event.CreateEvent.INodeType createTypeConvert(
       InotifyProtos.INodeType type) {
     switch (type) {
@@ -132,6 +132,13 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
       "dfs.datanode.cached-dfsused.check.interval.ms";
   public static final long DFS_DN_CACHED_DFSUSED_CHECK_INTERVAL_DEFAULT_MS =
       600000;
+  public static final String  DFS_DATANODE_REPLICA_LOG_ENABLED_KEY =
+      "dfs.datanode.replica.log.enabled";
+  public static final boolean DFS_DATANODE_REPLICA_LOG_ENABLED_DEFAULT = false;
+  public static final String  DFS_DATANODE_REPLICA_LOG_COMPACTION_THRESHOLD_KEY =
+      "dfs.datanode.replica.log.compaction.threshold";
+  public static final int     DFS_DATANODE_REPLICA_LOG_COMPACTION_THRESHOLD_DEFAULT =
+      100000;
 
   public static final String  DFS_NAMENODE_PATH_BASED_CACHE_BLOCK_MAP_ALLOCATION_PERCENT =
     "dfs.namenode.path.based.cache.block.map.allocation.percent";
@@ -212,6 +219,10 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
       = "dfs.namenode.file.close.num-committed-allowed";
   public static final int     DFS_NAMENODE_FILE_CLOSE_NUM_COMMITTED_ALLOWED_DEFAULT
       = 0;
+  public static final String  DFS_NAMENODE_SNAPSHOT_DIFF_LISTING_LIMIT =
+      "dfs.namenode.snapshotdiff.listing.limit";
+  public static final int     DFS_NAMENODE_SNAPSHOT_DIFF_LISTING_LIMIT_DEFAULT =
+      1000;
   public static final String  DFS_NAMENODE_STRIPE_MIN_KEY = "dfs.namenode.stripe.min";
   public static final int     DFS_NAMENODE_STRIPE_MIN_DEFAULT = 1;
   public static final String  DFS_NAMENODE_SAFEMODE_REPLICATION_MIN_KEY =
@@ -302,6 +313,9 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String  DFS_NAMENODE_EDITS_ASYNC_LOGGING =
       "dfs.namenode.edits.asynclogging";
   public static final boolean DFS_NAMENODE_EDITS_ASYNC_LOGGING_DEFAULT = false;
+  public static final String  DFS_NAMENODE_EDITS_PARALLEL_FLUSH_KEY =
+      "dfs.namenode.edits.parallel.flush";
+  public static final boolean DFS_NAMENODE_EDITS_PARALLEL_FLUSH_DEFAULT = false;
 
   public static final String  DFS_LIST_LIMIT = "dfs.ls.limit";
   public static final int     DFS_LIST_LIMIT_DEFAULT = 1000;
@@ -309,6 +323,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int     DFS_CONTENT_SUMMARY_LIMIT_DEFAULT = 5000;
   public static final String  DFS_CONTENT_SUMMARY_SLEEP_MICROSEC_KEY = "dfs.content-summary.sleep-microsec";
   public static final long    DFS_CONTENT_SUMMARY_SLEEP_MICROSEC_DEFAULT = 500;
+  public static final String  DFS_CONTENT_SUMMARY_INCREMENTAL_KEY = "dfs.content-summary.incremental";
+  public static final boolean DFS_CONTENT_SUMMARY_INCREMENTAL_DEFAULT = false;
   public static final String  DFS_DATANODE_FAILED_VOLUMES_TOLERATED_KEY = "dfs.datanode.failed.volumes.tolerated";
   public static final int     DFS_DATANODE_FAILED_VOLUMES_TOLERATED_DEFAULT = 0;
   public static final String  DFS_DATANODE_SYNCONCLOSE_KEY = "dfs.datanode.synconclose";
@@ -371,6 +387,9 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String DFS_NAMENODE_REPLICATION_WORK_MULTIPLIER_PER_ITERATION =
       "dfs.namenode.replication.work.multiplier.per.iteration";
   public static final int DFS_NAMENODE_REPLICATION_WORK_MULTIPLIER_PER_ITERATION_DEFAULT = 2;
+  public static final String DFS_NAMENODE_REPLICATION_WORK_THREADS_KEY =
+      "dfs.namenode.replication.work.threads";
+  public static final int DFS_NAMENODE_REPLICATION_WORK_THREADS_DEFAULT = 1;
 
   //Delegation token related keys
   public static final String  DFS_NAMENODE_DELEGATION_KEY_UPDATE_INTERVAL_KEY = "dfs.namenode.delegation.key.update-interval";
@@ -391,6 +410,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final long    DFS_NAMENODE_MIN_BLOCK_SIZE_DEFAULT = 1024*1024;
   public static final String  DFS_NAMENODE_MAX_BLOCKS_PER_FILE_KEY = "dfs.namenode.fs-limits.max-blocks-per-file";
   public static final long    DFS_NAMENODE_MAX_BLOCKS_PER_FILE_DEFAULT = 1024*1024;
+  public static final String  DFS_NAMENODE_BATCH_METADATA_OPS_MAX_KEY = "dfs.namenode.batch.metadata.ops.max";
+  public static final int     DFS_NAMENODE_BATCH_METADATA_OPS_MAX_DEFAULT = 1000;
   public static final String  DFS_NAMENODE_MAX_XATTRS_PER_INODE_KEY = "dfs.namenode.fs-limits.max-xattrs-per-inode";
   public static final int     DFS_NAMENODE_MAX_XATTRS_PER_INODE_DEFAULT = 32;
   public static final String  DFS_NAMENODE_MAX_XATTR_SIZE_KEY = "dfs.namenode.fs-limits.max-xattr-size";
@@ -406,6 +427,18 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
       "dfs.namenode.max-lock-hold-to-release-lease-ms";
   public static final long
       DFS_NAMENODE_MAX_LOCK_HOLD_TO_RELEASE_LEASE_MS_DEFAULT = 25;
+  public static final String  DFS_NAMENODE_READ_LOCK_REPORTING_THRESHOLD_MS_KEY =
+      "dfs.namenode.read-lock-reporting-threshold-ms";
+  public static final long    DFS_NAMENODE_READ_LOCK_REPORTING_THRESHOLD_MS_DEFAULT =
+      5000;
+  public static final String  DFS_NAMENODE_WRITE_LOCK_REPORTING_THRESHOLD_MS_KEY =
+      "dfs.namenode.write-lock-reporting-threshold-ms";
+  public static final long    DFS_NAMENODE_WRITE_LOCK_REPORTING_THRESHOLD_MS_DEFAULT =
+      1000;
+  public static final String  DFS_NAMENODE_LOCK_DETAILED_METRICS_ENABLED_KEY =
+      "dfs.namenode.lock.detailed-metrics.enabled";
+  public static final boolean DFS_NAMENODE_LOCK_DETAILED_METRICS_ENABLED_DEFAULT =
+      false;
 
   public static final String  DFS_UPGRADE_DOMAIN_FACTOR = "dfs.namenode.upgrade.domain.factor";
   public static final int DFS_UPGRADE_DOMAIN_FACTOR_DEFAULT = DFS_REPLICATION_DEFAULT;
@@ -446,6 +479,12 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final boolean DFS_NAMENODE_AUDIT_LOG_TOKEN_TRACKING_ID_DEFAULT = false;
   public static final String  DFS_NAMENODE_AUDIT_LOG_ASYNC_KEY = "dfs.namenode.audit.log.async";
   public static final boolean DFS_NAMENODE_AUDIT_LOG_ASYNC_DEFAULT = false;
+  public static final String  DFS_NAMENODE_AUDIT_LOGGERS_ASYNC_KEY = "dfs.namenode.audit.loggers.async";
+  public static final boolean DFS_NAMENODE_AUDIT_LOGGERS_ASYNC_DEFAULT = false;
+  public static final String  DFS_NAMENODE_AUDIT_LOGGERS_ASYNC_QUEUE_SIZE_KEY = "dfs.namenode.audit.loggers.async.queue.size";
+  public static final int     DFS_NAMENODE_AUDIT_LOGGERS_ASYNC_QUEUE_SIZE_DEFAULT = 16384;
+  public static final String  DFS_NAMENODE_AUDIT_LOGGERS_ASYNC_DROP_WHEN_FULL_KEY = "dfs.namenode.audit.loggers.async.drop-when-full";
+  public static final boolean DFS_NAMENODE_AUDIT_LOGGERS_ASYNC_DROP_WHEN_FULL_DEFAULT = false;
   public static final String  DFS_NAMENODE_AUDIT_LOG_DEBUG_CMDLIST = "dfs.namenode.audit.log.debug.cmdlist";
   public static final String  DFS_NAMENODE_METRICS_LOGGER_PERIOD_SECONDS_KEY =
       "dfs.namenode.metrics.logger.period.seconds";
@@ -507,6 +546,16 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
       "dfs.datanode.directoryscan.throttle.limit.ms.per.sec";
   public static final int
       DFS_DATANODE_DIRECTORYSCAN_THROTTLE_LIMIT_MS_PER_SEC_DEFAULT = 1000;
+  public static final String
+      DFS_DATANODE_DIRECTORYSCAN_RECONCILE_BATCH_SIZE_KEY =
+      "dfs.datanode.directoryscan.reconcile.batch.size";
+  public static final int
+      DFS_DATANODE_DIRECTORYSCAN_RECONCILE_BATCH_SIZE_DEFAULT = 1000;
+  public static final String
+      DFS_DATANODE_DIRECTORYSCAN_RECONCILE_BATCH_INTERVAL_MS_KEY =
+      "dfs.datanode.directoryscan.reconcile.batch.interval.ms";
+  public static final long
+      DFS_DATANODE_DIRECTORYSCAN_RECONCILE_BATCH_INTERVAL_MS_DEFAULT = 100;
   public static final String  DFS_DATANODE_DNS_INTERFACE_KEY = "dfs.datanode.dns.interface";
   public static final String  DFS_DATANODE_DNS_INTERFACE_DEFAULT = "default";
   public static final String  DFS_DATANODE_DNS_NAMESERVER_KEY = "dfs.datanode.dns.nameserver";
@@ -521,6 +570,9 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String  DFS_DATANODE_MAX_RECEIVER_THREADS_KEY =
       HdfsClientConfigKeys.DeprecatedKeys.DFS_DATANODE_MAX_RECEIVER_THREADS_KEY;
   public static final int     DFS_DATANODE_MAX_RECEIVER_THREADS_DEFAULT = 4096;
+  public static final String  DFS_DATANODE_TRANSFER_QUEUE_SIZE_KEY =
+      "dfs.datanode.transfer.queue.size";
+  public static final int     DFS_DATANODE_TRANSFER_QUEUE_SIZE_DEFAULT = 256;
   public static final String  DFS_DATANODE_SCAN_PERIOD_HOURS_KEY = "dfs.datanode.scan.period.hours";
   public static final int     DFS_DATANODE_SCAN_PERIOD_HOURS_DEFAULT = 21 * 24;  // 3 weeks.
   public static final String  DFS_BLOCK_SCANNER_VOLUME_BYTES_PER_SECOND = "dfs.block.scanner.volume.bytes.per.second";
@@ -596,6 +648,10 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int     DFS_NAMENODE_MAX_FULL_BLOCK_REPORT_LEASES_DEFAULT = 6;
   public static final String  DFS_NAMENODE_FULL_BLOCK_REPORT_LEASE_LENGTH_MS = "dfs.namenode.full.block.report.lease.length.ms";
   public static final long    DFS_NAMENODE_FULL_BLOCK_REPORT_LEASE_LENGTH_MS_DEFAULT = 5L * 60L * 1000L;
+  public static final String  DFS_NAMENODE_FULL_BLOCK_REPORT_CHUNK_SIZE_KEY = "dfs.namenode.full.block.report.chunk.size";
+  public static final int     DFS_NAMENODE_FULL_BLOCK_REPORT_CHUNK_SIZE_DEFAULT = 0;
+  public static final String  DFS_NAMENODE_INITIAL_BLOCK_REPORT_THREADS_KEY = "dfs.namenode.initial.block.report.threads";
+  public static final int     DFS_NAMENODE_INITIAL_BLOCK_REPORT_THREADS_DEFAULT = 1;
   public static final String  DFS_CACHEREPORT_INTERVAL_MSEC_KEY = "dfs.cachereport.intervalMsec";
   public static final long    DFS_CACHEREPORT_INTERVAL_MSEC_DEFAULT = 10 * 1000;
   public static final String  DFS_BLOCK_INVALIDATE_LIMIT_KEY = "dfs.block.invalidate.limit";
@@ -609,6 +665,18 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   // property for fsimage compression
   public static final String DFS_IMAGE_COMPRESS_KEY = "dfs.image.compress";
   public static final boolean DFS_IMAGE_COMPRESS_DEFAULT = false;
+  public static final String DFS_IMAGE_PARALLEL_LOAD_KEY =
+      "dfs.image.parallel.load";
+  public static final boolean DFS_IMAGE_PARALLEL_LOAD_DEFAULT = false;
+  public static final String DFS_IMAGE_PARALLEL_TARGET_SECTIONS_KEY =
+      "dfs.image.parallel.target.sections";
+  public static final int DFS_IMAGE_PARALLEL_TARGET_SECTIONS_DEFAULT = 12;
+  public static final String DFS_IMAGE_PARALLEL_INODE_THRESHOLD_KEY =
+      "dfs.image.parallel.inode.threshold";
+  public static final int DFS_IMAGE_PARALLEL_INODE_THRESHOLD_DEFAULT = 1000000;
+  public static final String DFS_IMAGE_PARALLEL_THREADS_KEY =
+      "dfs.image.parallel.threads";
+  public static final int DFS_IMAGE_PARALLEL_THREADS_DEFAULT = 4;
   public static final String DFS_IMAGE_COMPRESSION_CODEC_KEY =
                                    "dfs.image.compression.codec";
   public static final String DFS_IMAGE_COMPRESSION_CODEC_DEFAULT =
@@ -677,6 +745,14 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String  DFS_SECONDARY_NAMENODE_INTERNAL_SPNEGO_USER_NAME_KEY = DFS_SECONDARY_NAMENODE_KERBEROS_INTERNAL_SPNEGO_PRINCIPAL_KEY;
   public static final String  DFS_NAMENODE_NAME_CACHE_THRESHOLD_KEY = "dfs.namenode.name.cache.threshold";
   public static final int     DFS_NAMENODE_NAME_CACHE_THRESHOLD_DEFAULT = 10;
+  public static final String  DFS_NAMENODE_NAME_CACHE_MAX_SIZE_KEY =
+      "dfs.namenode.name.cache.max.size";
+  public static final int     DFS_NAMENODE_NAME_CACHE_MAX_SIZE_DEFAULT =
+      1000000;
+  public static final String  DFS_NAMENODE_XATTR_CACHE_MAX_BYTES_KEY =
+      "dfs.namenode.xattr.cache.max.bytes";
+  public static final long    DFS_NAMENODE_XATTR_CACHE_MAX_BYTES_DEFAULT =
+      32 * 1024 * 1024;
   public static final String  DFS_NAMENODE_LEGACY_OIV_IMAGE_DIR_KEY = "dfs.namenode.legacy-oiv-image.dir";
 
   public static final String  DFS_NAMESERVICES =
@@ -703,6 +779,9 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String  DFS_NAMENODE_BLOCKPLACEMENTPOLICY_DEFAULT_PREFER_LOCAL_NODE_KEY =
       "dfs.namenode.block-placement-policy.default.prefer-local-node";
   public static final boolean  DFS_NAMENODE_BLOCKPLACEMENTPOLICY_DEFAULT_PREFER_LOCAL_NODE_DEFAULT = true;
+  public static final String  DFS_NAMENODE_BLOCKPLACEMENTPOLICY_CANDIDATE_INDEX_ENABLED_KEY =
+      "dfs.namenode.block-placement-policy.candidate-index.enabled";
+  public static final boolean DFS_NAMENODE_BLOCKPLACEMENTPOLICY_CANDIDATE_INDEX_ENABLED_DEFAULT = false;
 
   public static final String DFS_BLOCK_LOCAL_PATH_ACCESS_USER_KEY = "dfs.block.local-path-access.user";
   public static final String DFS_DOMAIN_SOCKET_PATH_KEY =
@@ -737,6 +816,18 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int DFS_HA_ZKFC_PORT_DEFAULT = 8019;
   public static final String DFS_HA_ZKFC_NN_HTTP_TIMEOUT_KEY = "dfs.ha.zkfc.nn.http.timeout.ms";
   public static final int DFS_HA_ZKFC_NN_HTTP_TIMEOUT_KEY_DEFAULT = 20000;
+  public static final String DFS_NAMENODE_STATE_CONTEXT_ENABLED_KEY =
+      "dfs.namenode.state.context.enabled";
+  public static final boolean DFS_NAMENODE_STATE_CONTEXT_ENABLED_DEFAULT =
+      false;
+  public static final String DFS_NAMENODE_STATE_CONTEXT_MAX_WAIT_MS_KEY =
+      "dfs.namenode.state.context.max-wait.ms";
+  public static final long DFS_NAMENODE_STATE_CONTEXT_MAX_WAIT_MS_DEFAULT =
+      500;
+  public static final String DFS_CLIENT_OBSERVER_UNREACHABLE_BACKOFF_MS_KEY =
+      "dfs.client.failover.observer.unreachable.backoff.ms";
+  public static final long DFS_CLIENT_OBSERVER_UNREACHABLE_BACKOFF_MS_DEFAULT =
+      10000;
 
   // Security-related configs
   public static final String DFS_ENCRYPT_DATA_TRANSFER_KEY = "dfs.encrypt.data.transfer";
@@ -894,6 +985,15 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
       "dfs.namenode.inotify.max.events.per.rpc";
   public static final int DFS_NAMENODE_INOTIFY_MAX_EVENTS_PER_RPC_DEFAULT =
       1000;
+  public static final String DFS_NAMENODE_INOTIFY_CACHE_TXIDS_KEY =
+      "dfs.namenode.inotify.cache.txids";
+  public static final int DFS_NAMENODE_INOTIFY_CACHE_TXIDS_DEFAULT = 10000;
+  public static final String DFS_NAMENODE_INOTIFY_MAX_WAIT_MS_KEY =
+      "dfs.namenode.inotify.max.wait.ms";
+  public static final long DFS_NAMENODE_INOTIFY_MAX_WAIT_MS_DEFAULT = 1000;
+  public static final String DFS_NAMENODE_INOTIFY_MAX_WAITING_CALLS_KEY =
+      "dfs.namenode.inotify.max.waiting.calls";
+  public static final int DFS_NAMENODE_INOTIFY_MAX_WAITING_CALLS_DEFAULT = 100;
 
   public static final String IGNORE_SECURE_PORTS_FOR_TESTING_KEY =
       "ignore.secure.ports.for.testing";
@@ -913,6 +1013,10 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String NNTOP_WINDOWS_MINUTES_KEY =
       "dfs.namenode.top.windows.minutes";
   public static final String[] NNTOP_WINDOWS_MINUTES_DEFAULT = {"1","5","25"};
+  // number of path components by which nntop groups the operations
+  public static final String NNTOP_PATH_DEPTH_KEY =
+      "dfs.namenode.top.path.depth";
+  public static final int NNTOP_PATH_DEPTH_DEFAULT = 1;
   public static final String DFS_PIPELINE_ECN_ENABLED = "dfs.pipeline.ecn";
   public static final boolean DFS_PIPELINE_ECN_ENABLED_DEFAULT = false;
 
@@ -921,6 +1025,9 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
     "dfs.datanode.block-pinning.enabled";
   public static final boolean DFS_DATANODE_BLOCK_PINNING_ENABLED_DEFAULT =
     false;
+  public static final String DFS_DATANODE_DATASET_LOCK_STRIPES_KEY =
+      "dfs.datanode.dataset.lock.stripes";
+  public static final int DFS_DATANODE_DATASET_LOCK_STRIPES_DEFAULT = 1024;
 
   public static final String
       DFS_DATANODE_TRANSFER_SOCKET_SEND_BUFFER_SIZE_KEY =
@@ -36,6 +36,7 @@
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.hdfs.DFSInotifyEventInputStream;
 import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.inotify.EventFilter;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
 import org.apache.hadoop.hdfs.protocol.CachePoolEntry;
@@ -402,6 +403,25 @@ public DFSInotifyEventInputStream getInotifyEventStream(long lastReadTxid)
     return dfs.getInotifyEventStream(lastReadTxid);
   }
 
+  /**
+   * A version of {@link HdfsAdmin#getInotifyEventStream()} which only returns
+   * the events accepted by the given filter. The NameNode applies the filter,
+   * so events the filter rejects are not sent to the client.
+   */
+  public DFSInotifyEventInputStream getInotifyEventStream(EventFilter filter)
+      throws IOException {
+    return dfs.getInotifyEventStream(filter);
+  }
+
+  /**
+   * A version of {@link HdfsAdmin#getInotifyEventStream(long)} which only
+   * returns the events accepted by the given filter.
+   */
+  public DFSInotifyEventInputStream getInotifyEventStream(long lastReadTxid,
+      EventFilter filter) throws IOException {
+    return dfs.getInotifyEventStream(lastReadTxid, filter);
+  }
+
   /**
    * Set the source path to the specified storage policy.
    *
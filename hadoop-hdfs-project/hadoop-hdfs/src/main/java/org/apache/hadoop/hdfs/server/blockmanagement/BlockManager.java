@@ -39,6 +39,9 @@
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicLong;
@@ -116,6 +119,8 @@
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -224,6 +229,17 @@ public long getNumTimedOutPendingReconstructions() {
   private final Daemon storageInfoDefragmenterThread =
       new Daemon(new StorageInfoDefragmenter());
   
+  /**
+   * Initial block reports smaller than this are processed serially even if
+   * there are initial block report threads.
+   */
+  @VisibleForTesting
+  static final int MIN_PARALLEL_INITIAL_REPORT_SIZE = 1024;
+  /** Replicas of an initial block report processed in parallel at once. */
+  private static final int INITIAL_REPORT_BATCH_SIZE = 64 * 1024;
+  /** Size of the block ID ranges assigned to initial block report threads. */
+  private static final int INITIAL_REPORT_RANGE_BITS = 6;
+
   /** Block report thread for handling async reports. */
   private final BlockReportProcessingThread blockReportThread =
       new BlockReportProcessingThread();
@@ -287,12 +303,32 @@ public long getNumTimedOutPendingReconstructions() {
   final float blocksInvalidateWorkPct;
   final int blocksReplWorkMultiplier;
 
+  /**
+   * Threads choosing the targets of the reconstruction work, or null to
+   * choose them in the replication monitor thread.
+   */
+  private final ExecutorService reconstructionWorkExecutor;
+  private final int reconstructionWorkThreads;
+
+  /**
+   * Threads processing the initial block reports in startup safe mode, null
+   * if they are processed serially.
+   */
+  private final ExecutorService initialBlockReportExecutor;
+  private final int initialBlockReportThreads;
+
   // whether or not to issue block encryption keys.
   final boolean encryptDataTransfer;
   
   // Max number of blocks to log info about during a block report.
   private final long maxNumBlocksToLog;
 
+  /**
+   * Max number of replicas of a full block report to process before the
+   * write lock is released, or 0 to process a storage report at once.
+   */
+  private final int blockReportChunkSize;
+
   /**
    * When running inside a Standby node, the node may receive block reports
    * from datanodes before receiving the corresponding namespace edits from
@@ -402,6 +438,26 @@ public BlockManager(final Namesystem namesystem, boolean haEnabled,
             DFSConfigKeys.DFS_NAMENODE_REPLICATION_STREAMS_HARD_LIMIT_DEFAULT);
     this.blocksInvalidateWorkPct = DFSUtil.getInvalidateWorkPctPerIteration(conf);
     this.blocksReplWorkMultiplier = DFSUtil.getReplWorkMultiplier(conf);
+    this.reconstructionWorkThreads = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_THREADS_KEY,
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_THREADS_DEFAULT);
+    if (reconstructionWorkThreads > 1) {
+      this.reconstructionWorkExecutor = Executors.newFixedThreadPool(
+          reconstructionWorkThreads, new ThreadFactoryBuilder().setDaemon(true)
+              .setNameFormat("ReconstructionWork-%d").build());
+    } else {
+      this.reconstructionWorkExecutor = null;
+    }
+    this.initialBlockReportThreads = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_INITIAL_BLOCK_REPORT_THREADS_KEY,
+        DFSConfigKeys.DFS_NAMENODE_INITIAL_BLOCK_REPORT_THREADS_DEFAULT);
+    if (initialBlockReportThreads > 1) {
+      this.initialBlockReportExecutor = Executors.newFixedThreadPool(
+          initialBlockReportThreads, new ThreadFactoryBuilder()
+              .setDaemon(true).setNameFormat("InitialBlockReport-%d").build());
+    } else {
+      this.initialBlockReportExecutor = null;
+    }
 
     this.replicationRecheckInterval = 
       conf.getInt(DFSConfigKeys.DFS_NAMENODE_REPLICATION_INTERVAL_KEY, 
@@ -427,6 +483,9 @@ public BlockManager(final Namesystem namesystem, boolean haEnabled,
     this.maxNumBlocksToLog =
         conf.getLong(DFSConfigKeys.DFS_MAX_NUM_BLOCKS_TO_LOG_KEY,
             DFSConfigKeys.DFS_MAX_NUM_BLOCKS_TO_LOG_DEFAULT);
+    this.blockReportChunkSize = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_FULL_BLOCK_REPORT_CHUNK_SIZE_KEY,
+        DFSConfigKeys.DFS_NAMENODE_FULL_BLOCK_REPORT_CHUNK_SIZE_DEFAULT);
     this.numBlocksPerIteration = conf.getInt(
         DFSConfigKeys.DFS_BLOCK_MISREPLICATION_PROCESSING_LIMIT,
         DFSConfigKeys.DFS_BLOCK_MISREPLICATION_PROCESSING_LIMIT_DEFAULT);
@@ -572,6 +631,12 @@ public void close() {
       blockReportThread.join(3000);
     } catch (InterruptedException ie) {
     }
+    if (reconstructionWorkExecutor != null) {
+      reconstructionWorkExecutor.shutdownNow();
+    }
+    if (initialBlockReportExecutor != null) {
+      initialBlockReportExecutor.shutdownNow();
+    }
     datanodeManager.close();
     pendingReconstruction.stop();
     blocksMap.close();
@@ -1541,6 +1606,7 @@ int computeInvalidateWork(int nodesToProcess) {
    *         iteration.
    */
   int computeBlockReconstructionWork(int blocksToProcess) {
+    final long startTime = Time.monotonicNow();
     List<List<BlockInfo>> blocksToReconstruct = null;
     namesystem.writeLock();
     try {
@@ -1550,7 +1616,14 @@ int computeBlockReconstructionWork(int blocksToProcess) {
     } finally {
       namesystem.writeUnlock();
     }
-    return computeReconstructionWorkForBlocks(blocksToReconstruct);
+    final int scheduledWork =
+        computeReconstructionWorkForBlocks(blocksToReconstruct);
+    final NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (metrics != null) {
+      metrics.addReconstructionWork(scheduledWork,
+          Time.monotonicNow() - startTime);
+    }
+    return scheduledWork;
   }
 
   /**
@@ -1564,7 +1637,7 @@ int computeBlockReconstructionWork(int blocksToProcess) {
   int computeReconstructionWorkForBlocks(
       List<List<BlockInfo>> blocksToReconstruct) {
     int scheduledWork = 0;
-    List<BlockReconstructionWork> reconWork = new LinkedList<>();
+    List<BlockReconstructionWork> reconWork = new ArrayList<>();
 
     // Step 1: categorize at-risk blocks into replication and EC tasks
     namesystem.writeLock();
@@ -1586,21 +1659,10 @@ int computeReconstructionWorkForBlocks(
     }
 
     // Step 2: choose target nodes for each reconstruction task
-    final Set<Node> excludedNodes = new HashSet<>();
-    for(BlockReconstructionWork rw : reconWork){
-      // Exclude all of the containing nodes from being targets.
-      // This list includes decommissioning or corrupt nodes.
-      excludedNodes.clear();
-      for (DatanodeDescriptor dn : rw.getContainingNodes()) {
-        excludedNodes.add(dn);
-      }
-
-      // choose replication targets: NOT HOLDING THE GLOBAL LOCK
-      // It is costly to extract the filename for which chooseTargets is called,
-      // so for now we pass in the block collection itself.
-      final BlockPlacementPolicy placementPolicy =
-          placementPolicies.getPolicy(rw.getBlock().isStriped());
-      rw.chooseTargets(placementPolicy, storagePolicySuite, excludedNodes);
+    if (reconstructionWorkExecutor == null || reconWork.size() < 2) {
+      chooseTargets(reconWork);
+    } else {
+      chooseTargetsInParallel(reconWork);
     }
 
     // Step 3: add tasks to the DN
@@ -1646,6 +1708,59 @@ int computeReconstructionWorkForBlocks(
     return scheduledWork;
   }
 
+  private void chooseTargets(List<BlockReconstructionWork> reconWork) {
+    final Set<Node> excludedNodes = new HashSet<>();
+    for(BlockReconstructionWork rw : reconWork){
+      // Exclude all of the containing nodes from being targets.
+      // This list includes decommissioning or corrupt nodes.
+      excludedNodes.clear();
+      for (DatanodeDescriptor dn : rw.getContainingNodes()) {
+        excludedNodes.add(dn);
+      }
+
+      // choose replication targets: NOT HOLDING THE GLOBAL LOCK
+      // It is costly to extract the filename for which chooseTargets is called,
+      // so for now we pass in the block collection itself.
+      final BlockPlacementPolicy placementPolicy =
+          placementPolicies.getPolicy(rw.getBlock().isStriped());
+      rw.chooseTargets(placementPolicy, storagePolicySuite, excludedNodes);
+    }
+  }
+
+  /**
+   * Split the reconstruction work among the reconstruction work threads to
+   * choose the targets in parallel, and wait for them.
+   */
+  private void chooseTargetsInParallel(
+      List<BlockReconstructionWork> reconWork) {
+    final int numTasks = Math.min(reconstructionWorkThreads, reconWork.size());
+    final List<Future<?>> futures = new ArrayList<>(numTasks);
+    for (int i = 0; i < numTasks; i++) {
+      final List<BlockReconstructionWork> part = new ArrayList<>(
+          reconWork.subList(i * reconWork.size() / numTasks,
+              (i + 1) * reconWork.size() / numTasks));
+      futures.add(reconstructionWorkExecutor.submit(new Runnable() {
+        @Override
+        public void run() {
+          chooseTargets(part);
+        }
+      }));
+    }
+    try {
+      for (Future<?> future : futures) {
+        Uninterruptibles.getUninterruptibly(future);
+      }
+    } catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new RuntimeException(cause);
+    }
+  }
+
   boolean hasEnoughEffectiveReplicas(BlockInfo block,
       NumberReplicas numReplicas, int pendingReplicaNum, int required) {
     int numEffectiveReplicas = numReplicas.liveReplicas() + pendingReplicaNum;
@@ -2372,10 +2487,124 @@ private Collection<Block> processReport(
       sortedReport = report;
     }
 
-    reportDiffSorted(storageInfo, sortedReport,
+    if (blockReportChunkSize > 0
+        && (report.getNumberOfBlocks() > blockReportChunkSize
+            || storageInfo.numBlocks() > blockReportChunkSize)) {
+      return processReportInChunks(storageInfo, sortedReport);
+    }
+
+    reportDiffSorted(storageInfo, sortedReport, storageInfo.getBlockIterator(),
                      toAdd, toRemove, toInvalidate, toCorrupt, toUC);
+    applyReportDiff(storageInfo, toAdd, toRemove, toInvalidate, toCorrupt,
+        toUC);
+    return toInvalidate;
+  }
+
+  /**
+   * Process a full block report in chunks of at most blockReportChunkSize
+   * replicas, releasing the write lock between chunks. Each chunk is diffed
+   * with the blocks of the storage up to the ID of its last replica. Since
+   * the storage may change while the lock is released, the blocks are taken
+   * from a snapshot of the storage made before the first chunk, and the
+   * blocks deleted in the meantime are skipped.
+   */
+  private Collection<Block> processReportInChunks(
+      final DatanodeStorageInfo storageInfo,
+      final Iterable<BlockReportReplica> sortedReport) throws IOException {
+    final List<BlockInfo> storageBlocks =
+        new ArrayList<>(storageInfo.numBlocks());
+    for (Iterator<BlockInfo> it = storageInfo.getBlockIterator();
+         it.hasNext();) {
+      storageBlocks.add(it.next());
+    }
+    final Collection<Block> invalidatedBlocks = new LinkedList<>();
+    final Iterator<BlockReportReplica> replicas = sortedReport.iterator();
+    final List<BlockReportReplica> chunk =
+        new ArrayList<>(blockReportChunkSize);
+    int nextStorageBlock = 0;
+    boolean firstChunk = true;
+
+    while (replicas.hasNext() || nextStorageBlock < storageBlocks.size()) {
+      if (!firstChunk) {
+        releaseBlockReportLock(storageInfo);
+      }
+      firstChunk = false;
 
+      chunk.clear();
+      while (chunk.size() < blockReportChunkSize && replicas.hasNext()) {
+        chunk.add(new BlockReportReplica(replicas.next()));
+      }
+      // The last chunk is diffed with all the remaining storage blocks.
+      final long lastReplicaID = replicas.hasNext()
+          ? getReportedReplicaID(chunk.get(chunk.size() - 1))
+          : Long.MAX_VALUE;
+      final List<BlockInfo> chunkBlocks = new ArrayList<>();
+      while (nextStorageBlock < storageBlocks.size()) {
+        BlockInfo b = storageBlocks.get(nextStorageBlock);
+        if (b.getBlockId() > lastReplicaID) {
+          break;
+        }
+        if (!b.isDeleted()) {
+          chunkBlocks.add(b);
+        }
+        nextStorageBlock++;
+      }
 
+      Collection<BlockInfoToAdd> toAdd = new LinkedList<>();
+      Collection<BlockInfo> toRemove = new TreeSet<>();
+      Collection<Block> toInvalidate = new LinkedList<>();
+      Collection<BlockToMarkCorrupt> toCorrupt = new LinkedList<>();
+      Collection<StatefulBlockInfo> toUC = new LinkedList<>();
+      reportDiffSorted(storageInfo, chunk, chunkBlocks.iterator(),
+          toAdd, toRemove, toInvalidate, toCorrupt, toUC);
+      applyReportDiff(storageInfo, toAdd, toRemove, toInvalidate, toCorrupt,
+          toUC);
+      invalidatedBlocks.addAll(toInvalidate);
+    }
+    return invalidatedBlocks;
+  }
+
+  /**
+   * Release the write lock between chunks of a full block report so that
+   * other operations can proceed, and check once it is reacquired that the
+   * storage still belongs to a registered datanode. The lock is kept if the
+   * current thread holds it more than once.
+   *
+   * @throws IOException if the datanode or the storage was removed while
+   *                     the lock was released
+   */
+  private void releaseBlockReportLock(DatanodeStorageInfo storageInfo)
+      throws IOException {
+    if (namesystem.getWriteHoldCount() != 1) {
+      return;
+    }
+    namesystem.writeUnlock();
+    final NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (metrics != null) {
+      metrics.incrBlockReportLockReleases();
+    }
+    namesystem.writeLock();
+
+    final DatanodeDescriptor node = storageInfo.getDatanodeDescriptor();
+    if (!node.isRegistered() || datanodeManager.getDatanode(node) != node
+        || node.getStorageInfo(storageInfo.getStorageID()) != storageInfo) {
+      throw new IOException("ProcessReport from dead or unregistered node: "
+          + node + " while processing storage " + storageInfo.getStorageID());
+    }
+  }
+
+  /**
+   * Apply the differences between a block report and the blocks of the
+   * storage, as computed by
+   * {@link #reportDiffSorted(DatanodeStorageInfo, Iterable, Iterator,
+   * Collection, Collection, Collection, Collection, Collection)}.
+   */
+  private void applyReportDiff(final DatanodeStorageInfo storageInfo,
+      Collection<BlockInfoToAdd> toAdd,
+      Collection<BlockInfo> toRemove,
+      Collection<Block> toInvalidate,
+      Collection<BlockToMarkCorrupt> toCorrupt,
+      Collection<StatefulBlockInfo> toUC) throws IOException {
     DatanodeDescriptor node = storageInfo.getDatanodeDescriptor();
     // Process the blocks on each queue
     for (StatefulBlockInfo b : toUC) { 
@@ -2400,8 +2629,6 @@ private Collection<Block> processReport(
     for (BlockToMarkCorrupt b : toCorrupt) {
       markBlockAsCorrupt(b, storageInfo, node);
     }
-
-    return toInvalidate;
   }
 
   /**
@@ -2463,69 +2690,225 @@ private void processFirstBlockReport(
     assert (namesystem.hasWriteLock());
     assert (storageInfo.getBlockReportCount() == 0);
 
-    for (BlockReportReplica iblk : report) {
-      ReplicaState reportedState = iblk.getState();
+    if (initialBlockReportExecutor != null
+        && report.getNumberOfBlocks() >= MIN_PARALLEL_INITIAL_REPORT_SIZE
+        && namesystem.isInStartupSafeMode() && !isPopulatingReplQueues()) {
+      processFirstBlockReportInParallel(storageInfo, report);
+      return;
+    }
 
-      if (LOG.isDebugEnabled()) {
-        LOG.debug("Initial report of block " + iblk.getBlockName()
-            + " on " + storageInfo.getDatanodeDescriptor() + " size " +
-            iblk.getNumBytes() + " replicaState = " + reportedState);
+    long numProcessed = 0;
+    for (BlockReportReplica iblk : report) {
+      if (blockReportChunkSize > 0 && numProcessed > 0
+          && numProcessed % blockReportChunkSize == 0) {
+        releaseBlockReportLock(storageInfo);
       }
-      if (shouldPostponeBlocksFromFuture && isGenStampInFuture(iblk)) {
+      numProcessed++;
+      processFirstReportedReplica(storageInfo, iblk);
+    }
+  }
+
+  /** Process a single replica of an initial block report. */
+  private void processFirstReportedReplica(
+      final DatanodeStorageInfo storageInfo,
+      final BlockReportReplica iblk) throws IOException {
+    ReplicaState reportedState = iblk.getState();
+
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Initial report of block " + iblk.getBlockName()
+          + " on " + storageInfo.getDatanodeDescriptor() + " size " +
+          iblk.getNumBytes() + " replicaState = " + reportedState);
+    }
+    if (shouldPostponeBlocksFromFuture && isGenStampInFuture(iblk)) {
+      queueReportedBlock(storageInfo, iblk, reportedState,
+          QUEUE_REASON_FUTURE_GENSTAMP);
+      return;
+    }
+
+    BlockInfo storedBlock = getStoredBlock(iblk);
+
+    // If block does not belong to any file, we check if it violates
+    // an integrity assumption of Name node
+    if (storedBlock == null) {
+      bmSafeMode.checkBlocksWithFutureGS(iblk);
+      return;
+    }
+
+    // If block is corrupt, mark it and continue to next block.
+    BlockUCState ucState = storedBlock.getBlockUCState();
+    BlockToMarkCorrupt c = checkReplicaCorrupt(
+        iblk, reportedState, storedBlock, ucState,
+        storageInfo.getDatanodeDescriptor());
+    if (c != null) {
+      if (shouldPostponeBlocksFromFuture) {
+        // In the Standby, we may receive a block report for a file that we
+        // just have an out-of-date gen-stamp or state for, for example.
         queueReportedBlock(storageInfo, iblk, reportedState,
-            QUEUE_REASON_FUTURE_GENSTAMP);
-        continue;
+            QUEUE_REASON_CORRUPT_STATE);
+      } else {
+        markBlockAsCorrupt(c, storageInfo, storageInfo.getDatanodeDescriptor());
       }
+      return;
+    }
 
-      BlockInfo storedBlock = getStoredBlock(iblk);
+    // If block is under construction, add this replica to its list
+    if (isBlockUnderConstruction(storedBlock, ucState, reportedState)) {
+      storedBlock.getUnderConstructionFeature()
+          .addReplicaIfNotPresent(storageInfo, iblk, reportedState);
+      // OpenFileBlocks only inside snapshots also will be added to safemode
+      // threshold. So we need to update such blocks to safemode
+      // refer HDFS-5283
+      if (namesystem.isInSnapshot(storedBlock.getBlockCollectionId())) {
+        int numOfReplicas = storedBlock.getUnderConstructionFeature()
+            .getNumExpectedLocations();
+        bmSafeMode.incrementSafeBlockCount(numOfReplicas, storedBlock);
+      }
+      //and fall through to next clause
+    }
+    //add replica if appropriate
+    if (reportedState == ReplicaState.FINALIZED) {
+      addStoredBlockImmediate(storedBlock, iblk, storageInfo);
+    }
+  }
 
-      // If block does not belong to any file, we check if it violates
-      // an integrity assumption of Name node
-      if (storedBlock == null) {
-        bmSafeMode.checkBlocksWithFutureGS(iblk);
-        continue;
+  /**
+   * Process an initial block report received in startup safe mode in
+   * batches. The replicas of each batch are split by block ID range among
+   * the initial block report threads, which associate the finalized
+   * replicas of complete blocks with the storage. As each block belongs to
+   * a single range, the threads never update the same block; the blocks map
+   * and the other shared state are only read while the calling thread holds
+   * the write lock. The calling thread then adds the blocks to the storage
+   * and updates the safe block count in report order, and processes all the
+   * other replicas as {@link #processFirstReportedReplica} does.
+   */
+  private void processFirstBlockReportInParallel(
+      final DatanodeStorageInfo storageInfo,
+      final BlockListAsLongs report) throws IOException {
+    final int batchSize = blockReportChunkSize > 0
+        ? blockReportChunkSize : INITIAL_REPORT_BATCH_SIZE;
+    final long startTime = Time.monotonicNow();
+    final Iterator<BlockReportReplica> replicas = report.iterator();
+    final List<BlockReportReplica> batch =
+        new ArrayList<>(Math.min(batchSize, report.getNumberOfBlocks()));
+    boolean firstBatch = true;
+    while (replicas.hasNext()) {
+      if (!firstBatch && blockReportChunkSize > 0) {
+        releaseBlockReportLock(storageInfo);
       }
+      firstBatch = false;
 
-      // If block is corrupt, mark it and continue to next block.
-      BlockUCState ucState = storedBlock.getBlockUCState();
-      BlockToMarkCorrupt c = checkReplicaCorrupt(
-          iblk, reportedState, storedBlock, ucState,
-          storageInfo.getDatanodeDescriptor());
-      if (c != null) {
-        if (shouldPostponeBlocksFromFuture) {
-          // In the Standby, we may receive a block report for a file that we
-          // just have an out-of-date gen-stamp or state for, for example.
-          queueReportedBlock(storageInfo, iblk, reportedState,
-              QUEUE_REASON_CORRUPT_STATE);
-        } else {
-          markBlockAsCorrupt(c, storageInfo, storageInfo.getDatanodeDescriptor());
+      batch.clear();
+      while (batch.size() < batchSize && replicas.hasNext()) {
+        batch.add(new BlockReportReplica(replicas.next()));
+      }
+      // Safe mode may have been left while the lock was released.
+      if (namesystem.isInStartupSafeMode() && !isPopulatingReplQueues()) {
+        processFirstReportBatch(storageInfo, batch);
+      } else {
+        for (BlockReportReplica replica : batch) {
+          processFirstReportedReplica(storageInfo, replica);
         }
-        continue;
       }
-      
-      // If block is under construction, add this replica to its list
-      if (isBlockUnderConstruction(storedBlock, ucState, reportedState)) {
-        storedBlock.getUnderConstructionFeature()
-            .addReplicaIfNotPresent(storageInfo, iblk, reportedState);
-        // OpenFileBlocks only inside snapshots also will be added to safemode
-        // threshold. So we need to update such blocks to safemode
-        // refer HDFS-5283
-        if (namesystem.isInSnapshot(storedBlock.getBlockCollectionId())) {
-          int numOfReplicas = storedBlock.getUnderConstructionFeature()
-              .getNumExpectedLocations();
-          bmSafeMode.incrementSafeBlockCount(numOfReplicas, storedBlock);
+    }
+
+    final long elapsed = Time.monotonicNow() - startTime;
+    final NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (metrics != null) {
+      metrics.addInitialBlockReport(report.getNumberOfBlocks(), elapsed);
+    }
+    LOG.info("Processed {} replicas of the initial report of storage {} in "
+        + "{} msecs with {} threads", report.getNumberOfBlocks(),
+        storageInfo.getStorageID(), elapsed, initialBlockReportThreads);
+  }
+
+  private void processFirstReportBatch(final DatanodeStorageInfo storageInfo,
+      final List<BlockReportReplica> batch) throws IOException {
+    final BlockInfo[] added = new BlockInfo[batch.size()];
+    final int[] liveReplicas = new int[batch.size()];
+    final List<Future<?>> futures = new ArrayList<>(initialBlockReportThreads);
+    for (int i = 0; i < initialBlockReportThreads; i++) {
+      final int partition = i;
+      futures.add(initialBlockReportExecutor.submit(new Runnable() {
+        @Override
+        public void run() {
+          associateFirstReportedReplicas(storageInfo, batch, partition,
+              added, liveReplicas);
         }
-        //and fall through to next clause
-      }      
-      //add replica if appropriate
-      if (reportedState == ReplicaState.FINALIZED) {
-        addStoredBlockImmediate(storedBlock, iblk, storageInfo);
+      }));
+    }
+    try {
+      for (Future<?> future : futures) {
+        Uninterruptibles.getUninterruptibly(future);
       }
+    } catch (ExecutionException ee) {
+      throw new IOException("Failed to process the initial report of "
+          + storageInfo, ee.getCause());
     }
+
+    for (int i = 0; i < added.length; i++) {
+      if (added[i] == null) {
+        processFirstReportedReplica(storageInfo, batch.get(i));
+      } else {
+        storageInfo.addAssociatedBlockInitial(added[i]);
+        bmSafeMode.incrementSafeBlockCount(liveReplicas[i], added[i]);
+      }
+    }
+  }
+
+  /**
+   * Associate the finalized replicas of complete contiguous blocks in the
+   * given block ID range partition with the storage, recording the block
+   * and its live replicas at the position of the replica. The replicas of a
+   * block with any replica which is left to the serial processing, e.g. as
+   * it is corrupt or already on the datanode, are all left to it.
+   */
+  private void associateFirstReportedReplicas(
+      final DatanodeStorageInfo storageInfo,
+      final List<BlockReportReplica> batch, final int partition,
+      final BlockInfo[] added, final int[] liveReplicas) {
+    final DatanodeDescriptor node = storageInfo.getDatanodeDescriptor();
+    final Set<BlockInfo> skipped = new HashSet<>();
+    for (int i = 0; i < batch.size(); i++) {
+      final BlockReportReplica replica = batch.get(i);
+      final long blockId = replica.getBlockId();
+      if (getInitialReportPartition(blockId) != partition
+          || BlockIdManager.isStripedBlockID(blockId)) {
+        continue;
+      }
+      final BlockInfo storedBlock = blocksMap.getStoredBlock(replica);
+      if (storedBlock == null) {
+        continue;
+      }
+      if (replica.getState() != ReplicaState.FINALIZED
+          || !storedBlock.isComplete()
+          || storedBlock.getGenerationStamp()
+              != replica.getGenerationStamp()
+          || storedBlock.getNumBytes() != replica.getNumBytes()
+          || (shouldPostponeBlocksFromFuture && isGenStampInFuture(replica))
+          || storedBlock.findStorageInfo(node) != null
+          || skipped.contains(storedBlock)) {
+        skipped.add(storedBlock);
+        continue;
+      }
+      storedBlock.addStorage(storageInfo, replica);
+      added[i] = storedBlock;
+      liveReplicas[i] = countNodes(storedBlock, true).liveReplicas();
+    }
+  }
+
+  /**
+   * @return the initial block report thread processing the given block ID,
+   *         by ranges of consecutive IDs.
+   */
+  private int getInitialReportPartition(long blockId) {
+    return (int) ((blockId >>> INITIAL_REPORT_RANGE_BITS)
+        % initialBlockReportThreads);
   }
 
   private void reportDiffSorted(DatanodeStorageInfo storageInfo,
       Iterable<BlockReportReplica> newReport,
+      Iterator<BlockInfo> storageBlocksIterator,
       Collection<BlockInfoToAdd> toAdd,     // add to DatanodeDescriptor
       Collection<BlockInfo> toRemove,       // remove from DatanodeDescriptor
       Collection<Block> toInvalidate,       // should be removed from DN
@@ -2533,19 +2916,12 @@ private void reportDiffSorted(DatanodeStorageInfo storageInfo,
       Collection<StatefulBlockInfo> toUC) { // add to under-construction list
 
     // The blocks must be sorted and the storagenodes blocks must be sorted
-    Iterator<BlockInfo> storageBlocksIterator = storageInfo.getBlockIterator();
     DatanodeDescriptor dn = storageInfo.getDatanodeDescriptor();
     BlockInfo storageBlock = null;
 
     for (BlockReportReplica replica : newReport) {
 
-      long replicaID = replica.getBlockId();
-      if (BlockIdManager.isStripedBlockID(replicaID)
-          && (!hasNonEcBlockUsingStripedID ||
-              !blocksMap.containsBlock(replica))) {
-        replicaID = BlockIdManager.convertToStripedID(replicaID);
-      }
-
+      long replicaID = getReportedReplicaID(replica);
       ReplicaState reportedState = replica.getState();
 
       if (LOG.isDebugEnabled()) {
@@ -2603,6 +2979,20 @@ && isGenStampInFuture(replica)) {
     }
   }
 
+  /**
+   * @return the ID of the stored block of a reported replica, which for an
+   *         internal block of a striped block group is the ID of the group.
+   */
+  private long getReportedReplicaID(Block replica) {
+    long replicaID = replica.getBlockId();
+    if (BlockIdManager.isStripedBlockID(replicaID)
+        && (!hasNonEcBlockUsingStripedID ||
+            !blocksMap.containsBlock(replica))) {
+      replicaID = BlockIdManager.convertToStripedID(replicaID);
+    }
+    return replicaID;
+  }
+
   private void reportDiffSortedInner(
       final DatanodeStorageInfo storageInfo,
       final BlockReportReplica replica, final ReplicaState reportedState,
@@ -2978,6 +3368,10 @@ private Block addStoredBlock(final BlockInfo block,
       return storedBlock;
     }
 
+    if (result == AddBlockResult.ADDED) {
+      datanodeManager.getDecomManager().blockReplicaAdded(storedBlock, num);
+    }
+
     // handle low redundancy/extra redundancy
     short fileRedundancy = getExpectedRedundancyNum(storedBlock);
     if (!isNeededReconstruction(storedBlock, numCurrentReplica)) {
@@ -4453,7 +4847,19 @@ public void enqueueBlockOp(final Runnable action) throws IOException {
   // sync batch processing for a full BR.
   public <T> T runBlockOp(final Callable<T> action)
       throws IOException {
-    final FutureTask<T> future = new FutureTask<T>(action);
+    return runBlockOp(new FutureTask<T>(action));
+  }
+
+  // sync processing of a full BR. When full BRs are processed in chunks,
+  // the action is not batched with other operations under the write lock,
+  // so that the lock can be released between the chunks.
+  public <T> T runBlockReportOp(final Callable<T> action)
+      throws IOException {
+    return runBlockOp(blockReportChunkSize > 0
+        ? new UnbatchedBlockOp<T>(action) : new FutureTask<T>(action));
+  }
+
+  private <T> T runBlockOp(final FutureTask<T> future) throws IOException {
     enqueueBlockOp(future);
     try {
       return future.get();
@@ -4486,6 +4892,16 @@ public int getBlockOpQueueLength() {
     return blockReportThread.queue.size();
   }
 
+  /**
+   * An operation run by the block report processing thread without holding
+   * the write lock, which it acquires and releases by itself.
+   */
+  private static class UnbatchedBlockOp<T> extends FutureTask<T> {
+    UnbatchedBlockOp(Callable<T> action) {
+      super(action);
+    }
+  }
+
   private class BlockReportProcessingThread extends Thread {
     private static final long MAX_LOCK_HOLD_MS = 4;
     private long lastFull = 0;
@@ -4513,6 +4929,11 @@ private void processQueue() {
         NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
         try {
           Runnable action = queue.take();
+          if (action instanceof UnbatchedBlockOp) {
+            metrics.setBlockOpsQueued(queue.size() + 1);
+            action.run();
+            continue;
+          }
           // batch as many operations in the write lock until the queue
           // runs dry, or the max lock hold is reached.
           int processed = 0;
@@ -4523,7 +4944,8 @@ private void processQueue() {
             do {
               processed++;
               action.run();
-              if (Time.monotonicNow() - start > MAX_LOCK_HOLD_MS) {
+              if (Time.monotonicNow() - start > MAX_LOCK_HOLD_MS
+                  || queue.peek() instanceof UnbatchedBlockOp) {
                 break;
               }
               action = queue.poll();
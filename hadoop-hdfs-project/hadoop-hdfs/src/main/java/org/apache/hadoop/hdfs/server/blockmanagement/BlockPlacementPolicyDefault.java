@@ -65,6 +65,8 @@ protected StringBuilder initialValue() {
   protected NetworkTopology clusterMap;
   protected Host2NodesMap host2datanodeMap;
   private FSClusterStats stats;
+  /** Candidates for block placement, or null to sample clusterMap only. */
+  private PlacementCandidateIndex candidateIndex;
   protected long heartbeatInterval;   // interval for DataNode heartbeats
   private long staleInterval;   // interval used to identify stale DataNodes
   
@@ -87,6 +89,8 @@ public void initialize(Configuration conf,  FSClusterStats stats,
         DFSConfigKeys.DFS_NAMENODE_REPLICATION_CONSIDERLOAD_FACTOR,
         DFSConfigKeys.DFS_NAMENODE_REPLICATION_CONSIDERLOAD_FACTOR_DEFAULT);
     this.stats = stats;
+    this.candidateIndex = stats == null ? null
+        : stats.getPlacementCandidateIndex();
     this.clusterMap = clusterMap;
     this.host2datanodeMap = host2datanodeMap;
     this.heartbeatInterval = conf.getLong(
@@ -776,6 +780,13 @@ protected DatanodeStorageInfo chooseRandom(int numOfReplicas,
    */
   protected DatanodeDescriptor chooseDataNode(final String scope,
       final Collection<Node> excludedNodes) {
+    if (candidateIndex != null) {
+      DatanodeDescriptor node =
+          candidateIndex.chooseRandom(scope, excludedNodes);
+      if (node != null) {
+        return node;
+      }
+    }
     return (DatanodeDescriptor) clusterMap.chooseRandom(scope, excludedNodes);
   }
 
@@ -582,11 +582,11 @@ Iterator<BlockInfo> getBlockIterator() {
     return new BlockIterator(getStorageInfos());
   }
 
-  void incrementPendingReplicationWithoutTargets() {
+  synchronized void incrementPendingReplicationWithoutTargets() {
     pendingReplicationWithoutTargets++;
   }
 
-  void decrementPendingReplicationWithoutTargets() {
+  synchronized void decrementPendingReplicationWithoutTargets() {
     pendingReplicationWithoutTargets--;
   }
 
@@ -779,6 +779,7 @@ public class DecommissioningStatus {
     private int underReplicatedBlocks;
     private int decommissionOnlyReplicas;
     private int underReplicatedInOpenFiles;
+    private int initialUnderReplicatedBlocks;
     private long startTime;
     
     synchronized void set(int underRep,
@@ -791,6 +792,31 @@ synchronized void set(int underRep,
       underReplicatedInOpenFiles = underConstruction;
     }
 
+    /** A tracked block has become sufficiently replicated. */
+    synchronized void blockReplicated(boolean inOpenFile) {
+      if (underReplicatedBlocks > 0) {
+        underReplicatedBlocks--;
+      }
+      if (inOpenFile && underReplicatedInOpenFiles > 0) {
+        underReplicatedInOpenFiles--;
+      }
+    }
+
+    synchronized void setInitialUnderReplicatedBlocks(int underRep) {
+      initialUnderReplicatedBlocks = underRep;
+    }
+
+    /**
+     * @return the number of under-replicated blocks found when the
+     *         decommission of the datanode started to be tracked
+     */
+    public synchronized int getInitialUnderReplicatedBlocks() {
+      if (!isDecommissionInProgress()) {
+        return 0;
+      }
+      return initialUnderReplicatedBlocks;
+    }
+
     /** @return the number of under-replicated blocks */
     public synchronized int getUnderReplicatedBlocks() {
       if (!isDecommissionInProgress()) {
@@ -1756,6 +1756,11 @@ public double getInServiceXceiverAverage() {
         }
         return avgLoad;
       }
+
+      @Override
+      public PlacementCandidateIndex getPlacementCandidateIndex() {
+        return heartbeatManager.getPlacementCandidateIndex();
+      }
     };
   }
 
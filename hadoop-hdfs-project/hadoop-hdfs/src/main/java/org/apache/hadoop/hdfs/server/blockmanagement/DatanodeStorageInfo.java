@@ -240,6 +240,15 @@ public AddBlockResult addBlockInitial(BlockInfo b, Block reportedBlock) {
     return result;
   }
 
+  /**
+   * For use during startup. Add a block which has already been associated
+   * with this storage by {@link BlockInfo#addStorage}, in sorted order as
+   * with {@link #addBlockInitial(BlockInfo, Block)}.
+   */
+  void addAssociatedBlockInitial(BlockInfo b) {
+    blocks.addSortedLast(b);
+  }
+
   public AddBlockResult addBlock(BlockInfo b, Block reportedBlock) {
     // First check whether the block belongs to a different storage
     // on the same DN.
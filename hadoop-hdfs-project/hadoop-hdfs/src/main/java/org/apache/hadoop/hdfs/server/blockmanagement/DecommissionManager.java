@@ -20,10 +20,9 @@
 import static com.google.common.base.Preconditions.checkArgument;
 import static org.apache.hadoop.util.Time.monotonicNow;
 
-import java.util.AbstractList;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.TreeMap;
@@ -40,7 +39,7 @@
 import org.apache.hadoop.hdfs.server.namenode.NameNode;
 import org.apache.hadoop.hdfs.server.namenode.Namesystem;
 import org.apache.hadoop.hdfs.util.CyclicIteration;
-import org.apache.hadoop.util.ChunkedArrayList;
+import org.apache.hadoop.hdfs.util.LightWeightHashSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -65,9 +64,10 @@
  * decommission-in-progress state and is tracked by the monitor thread. The 
  * monitor periodically scans through the list of insufficiently replicated
  * blocks on these datanodes to 
- * determine if they can be decommissioned. The monitor also prunes this list 
- * as blocks become replicated, so monitor scans will become more efficient 
- * over time.
+ * determine if they can be decommissioned. Blocks are removed from this list
+ * as their new replicas are reported, and the monitor prunes the rest as
+ * they become replicated, so monitor scans will become more efficient over
+ * time.
  * <p/>
  * Decommission-in-progress nodes that become dead do not progress to 
  * decommissioned until they become live again. This prevents potential 
@@ -91,17 +91,22 @@ public class DecommissionManager {
    * <p/>
    * This holds a set of references to the under-replicated blocks on the DN at
    * the time the DN is added to the map, i.e. the blocks that are preventing
-   * the node from being marked as decommissioned. During a monitor tick, this
-   * list is pruned as blocks becomes replicated.
+   * the node from being marked as decommissioned. A block is removed from the
+   * set when a new replica makes it sufficiently replicated, see
+   * {@link #blockReplicaAdded}, and during a monitor tick the set is pruned of
+   * the blocks which became replicated otherwise. Removing by value takes a
+   * linked entry per block, about 30 bytes with compressed oops against the
+   * 4 bytes of a reference in a list.
    * <p/>
-   * Note also that the reference to the list of under-replicated blocks 
+   * Note also that the reference to the set of under-replicated blocks
    * will be null on initial add
    * <p/>
-   * However, this map can become out-of-date since it is not updated by block
-   * reports or other events. Before being finally marking as decommissioned,
-   * another check is done with the actual block map.
+   * However, this map can become out-of-date since it is not updated when
+   * replicas are lost or the replication factor is raised. Before being
+   * finally marking as decommissioned, another check is done with the actual
+   * block map.
    */
-  private final TreeMap<DatanodeDescriptor, AbstractList<BlockInfo>>
+  private final TreeMap<DatanodeDescriptor, LightWeightHashSet<BlockInfo>>
       decomNodeBlocks;
 
   /**
@@ -277,6 +282,39 @@ private boolean isSufficient(BlockInfo block, BlockCollection bc,
     return false;
   }
 
+  /**
+   * Called when a replica of the block has been added. If the block was
+   * held back by decommission-in-progress replicas and is now sufficiently
+   * replicated, stop tracking it on their datanodes, so the monitor does not
+   * have to rescan it.
+   *
+   * @param block the stored block.
+   * @param num the replicas of the block, including the added one.
+   */
+  void blockReplicaAdded(BlockInfo block, NumberReplicas num) {
+    if (decomNodeBlocks.isEmpty() || num.decommissioning() == 0
+        || block.getBlockCollectionId() == INodeId.INVALID_INODE_ID) {
+      return;
+    }
+    final BlockCollection bc = blockManager.getBlockCollection(block);
+    if (bc == null || !isSufficient(block, bc, num)) {
+      return;
+    }
+    for (DatanodeStorageInfo storage : blockManager.blocksMap
+        .getStorages(block)) {
+      final DatanodeDescriptor dn = storage.getDatanodeDescriptor();
+      if (!dn.isDecommissionInProgress()) {
+        continue;
+      }
+      final LightWeightHashSet<BlockInfo> blocks = decomNodeBlocks.get(dn);
+      if (blocks != null && blocks.remove(block)) {
+        LOG.trace("Block {} is sufficiently replicated, no longer tracked "
+            + "on decommissioning node {}", block, dn);
+        dn.decommissioningStatus.blockReplicated(bc.isUnderConstruction());
+      }
+    }
+  }
+
   private void logBlockReplicationInfo(BlockInfo block,
       BlockCollection bc,
       DatanodeDescriptor srcNode, NumberReplicas num,
@@ -399,16 +437,17 @@ private void processPendingNodes() {
     }
 
     private void check() {
-      final Iterator<Map.Entry<DatanodeDescriptor, AbstractList<BlockInfo>>>
-          it = new CyclicIteration<>(decomNodeBlocks, iterkey).iterator();
+      final Iterator<Map.Entry<DatanodeDescriptor,
+          LightWeightHashSet<BlockInfo>>> it =
+          new CyclicIteration<>(decomNodeBlocks, iterkey).iterator();
       final LinkedList<DatanodeDescriptor> toRemove = new LinkedList<>();
 
       while (it.hasNext() && !exceededNumBlocksPerCheck()) {
         numNodesChecked++;
-        final Map.Entry<DatanodeDescriptor, AbstractList<BlockInfo>>
+        final Map.Entry<DatanodeDescriptor, LightWeightHashSet<BlockInfo>>
             entry = it.next();
         final DatanodeDescriptor dn = entry.getKey();
-        AbstractList<BlockInfo> blocks = entry.getValue();
+        LightWeightHashSet<BlockInfo> blocks = entry.getValue();
         boolean fullScan = false;
         if (blocks == null) {
           // This is a newly added datanode, run through its list to schedule 
@@ -418,6 +457,8 @@ private void check() {
               "insufficiently-replicated blocks.", dn);
           blocks = handleInsufficientlyStored(dn);
           decomNodeBlocks.put(dn, blocks);
+          dn.decommissioningStatus.setInitialUnderReplicatedBlocks(
+              blocks.size());
           fullScan = true;
         } else {
           // This is a known datanode, check if its # of insufficiently 
@@ -472,7 +513,7 @@ private void check() {
      * Removes reliable blocks from the block list of a datanode.
      */
     private void pruneReliableBlocks(final DatanodeDescriptor datanode,
-        AbstractList<BlockInfo> blocks) {
+        LightWeightHashSet<BlockInfo> blocks) {
       processBlocksForDecomInternal(datanode, blocks.iterator(), null, true);
     }
 
@@ -483,11 +524,11 @@ private void pruneReliableBlocks(final DatanodeDescriptor datanode,
      * <p/>
      * As part of this, it also schedules replication/recovery work.
      *
-     * @return List of blocks requiring recovery
+     * @return Set of blocks requiring recovery
      */
-    private AbstractList<BlockInfo> handleInsufficientlyStored(
+    private LightWeightHashSet<BlockInfo> handleInsufficientlyStored(
         final DatanodeDescriptor datanode) {
-      AbstractList<BlockInfo> insufficient = new ChunkedArrayList<>();
+      LightWeightHashSet<BlockInfo> insufficient = new LightWeightHashSet<>();
       processBlocksForDecomInternal(datanode, datanode.getBlockIterator(),
           insufficient, false);
       return insufficient;
@@ -510,7 +551,7 @@ private AbstractList<BlockInfo> handleInsufficientlyStored(
     private void processBlocksForDecomInternal(
         final DatanodeDescriptor datanode,
         final Iterator<BlockInfo> it,
-        final List<BlockInfo> insufficientList,
+        final Collection<BlockInfo> insufficientList,
         boolean pruneReliableBlocks) {
       boolean firstReplicationLog = true;
       int lowRedundancyBlocks = 0;
@@ -57,4 +57,10 @@ public interface FSClusterStats {
    *         writes that are currently occurring on the cluster.
    */
   public double getInServiceXceiverAverage();
+
+  /**
+   * @return the index of the datanodes which are candidates for block
+   *         placement, or null if it is not enabled.
+   */
+  PlacementCandidateIndex getPlacementCandidateIndex();
 }
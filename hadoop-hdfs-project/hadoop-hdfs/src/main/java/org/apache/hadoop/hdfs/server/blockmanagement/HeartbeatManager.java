@@ -26,6 +26,7 @@
 import org.apache.hadoop.fs.StorageType;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.protocol.DatanodeID;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants;
 import org.apache.hadoop.hdfs.server.namenode.Namesystem;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeCommand;
 import org.apache.hadoop.hdfs.server.protocol.RegisterCommand;
@@ -65,6 +66,9 @@ class HeartbeatManager implements DatanodeStatistics {
   private final Daemon heartbeatThread = new Daemon(new Monitor());
   private final StopWatch heartbeatStopWatch = new StopWatch();
 
+  /** Candidates for block placement, or null if not enabled. */
+  private final PlacementCandidateIndex placementCandidateIndex;
+
   final Namesystem namesystem;
   final BlockManager blockManager;
 
@@ -91,6 +95,26 @@ class HeartbeatManager implements DatanodeStatistics {
     } else {
       this.heartbeatRecheckInterval = recheckInterval;
     }
+    if (conf.getBoolean(
+        DFSConfigKeys.DFS_NAMENODE_BLOCKPLACEMENTPOLICY_CANDIDATE_INDEX_ENABLED_KEY,
+        DFSConfigKeys.DFS_NAMENODE_BLOCKPLACEMENTPOLICY_CANDIDATE_INDEX_ENABLED_DEFAULT)) {
+      this.placementCandidateIndex = new PlacementCandidateIndex(
+          conf.getLongBytes(DFSConfigKeys.DFS_BLOCK_SIZE_KEY,
+              DFSConfigKeys.DFS_BLOCK_SIZE_DEFAULT)
+              * HdfsServerConstants.MIN_BLOCKS_FOR_WRITE);
+    } else {
+      this.placementCandidateIndex = null;
+    }
+  }
+
+  PlacementCandidateIndex getPlacementCandidateIndex() {
+    return placementCandidateIndex;
+  }
+
+  private void updatePlacementCandidate(DatanodeDescriptor node) {
+    if (placementCandidateIndex != null) {
+      placementCandidateIndex.update(node);
+    }
   }
 
   void activate() {
@@ -216,6 +240,7 @@ synchronized void addDatanode(final DatanodeDescriptor d) {
     // update in-service node count
     datanodes.add(d);
     d.setAlive(true);
+    updatePlacementCandidate(d);
   }
 
   void updateDnStat(final DatanodeDescriptor d){
@@ -228,6 +253,9 @@ synchronized void removeDatanode(DatanodeDescriptor node) {
       datanodes.remove(node);
       node.setAlive(false);
     }
+    if (placementCandidateIndex != null) {
+      placementCandidateIndex.remove(node);
+    }
   }
 
   synchronized void updateHeartbeat(final DatanodeDescriptor node,
@@ -238,6 +266,7 @@ synchronized void updateHeartbeat(final DatanodeDescriptor node,
     node.updateHeartbeat(reports, cacheCapacity, cacheUsed,
       xceiverCount, failedVolumes, volumeFailureSummary);
     stats.add(node);
+    updatePlacementCandidate(node);
   }
 
   synchronized void updateLifeline(final DatanodeDescriptor node,
@@ -252,6 +281,7 @@ synchronized void updateLifeline(final DatanodeDescriptor node,
     node.updateHeartbeatState(reports, cacheCapacity, cacheUsed,
         xceiverCount, failedVolumes, volumeFailureSummary);
     stats.add(node);
+    updatePlacementCandidate(node);
   }
 
   synchronized void startDecommission(final DatanodeDescriptor node) {
@@ -263,6 +293,7 @@ synchronized void startDecommission(final DatanodeDescriptor node) {
       node.startDecommission();
       stats.add(node);
     }
+    updatePlacementCandidate(node);
   }
 
   synchronized void stopDecommission(final DatanodeDescriptor node) {
@@ -275,6 +306,7 @@ synchronized void stopDecommission(final DatanodeDescriptor node) {
       node.stopDecommission();
       stats.add(node);
     }
+    updatePlacementCandidate(node);
   }
 
   @VisibleForTesting
@@ -0,0 +1,196 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.blockmanagement;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.hadoop.net.Node;
+import org.apache.hadoop.net.NodeBase;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * An index of the datanodes which are candidates for block placement,
+ * grouped by their network location.
+ *
+ * A datanode is a candidate if it is alive, in service and has at least
+ * the configured minimum of remaining space, so the block placement policy
+ * does not have to sample and reject decommissioning and full datanodes one
+ * at a time from the whole {@link org.apache.hadoop.net.NetworkTopology}.
+ * The index is a pre-filter only: the policy still checks each chosen node,
+ * and falls back to the network topology once all the candidates in a scope
+ * are excluded.
+ *
+ * The index is updated by the {@link HeartbeatManager} and read without
+ * locking by the block placement policy. The candidates are published as
+ * immutable arrays which are rebuilt on the first read after a change, as
+ * the set of candidates changes far less often than it is read.
+ */
+class PlacementCandidateIndex {
+  /** Random picks to make before scanning the candidates of a scope. */
+  private static final int MAX_RANDOM_PICKS = 8;
+
+  private static final Candidates EMPTY = new Candidates(
+      new DatanodeDescriptor[0],
+      Collections.<String, DatanodeDescriptor[]>emptyMap());
+
+  /** The immutable candidates, by network location. */
+  private static class Candidates {
+    private final DatanodeDescriptor[] all;
+    private final Map<String, DatanodeDescriptor[]> byLocation;
+
+    Candidates(DatanodeDescriptor[] all,
+        Map<String, DatanodeDescriptor[]> byLocation) {
+      this.all = all;
+      this.byLocation = byLocation;
+    }
+  }
+
+  private final long minRemaining;
+  /**
+   * Network location of each candidate, guarded by this. The datanodes are
+   * compared by identity as their registration may change.
+   */
+  private final Map<DatanodeDescriptor, String> locations =
+      new IdentityHashMap<>();
+  private volatile boolean changed = false;
+  private volatile Candidates candidates = EMPTY;
+
+  PlacementCandidateIndex(long minRemaining) {
+    this.minRemaining = minRemaining;
+  }
+
+  /** Add, move or remove the datanode according to its current state. */
+  synchronized void update(DatanodeDescriptor node) {
+    final String location = node.getNetworkLocation();
+    final String previous;
+    if (node.isAlive() && node.isInService()
+        && node.getRemaining() >= minRemaining) {
+      previous = locations.put(node, location);
+      if (!location.equals(previous)) {
+        changed = true;
+      }
+    } else if (locations.remove(node) != null) {
+      changed = true;
+    }
+  }
+
+  synchronized void remove(DatanodeDescriptor node) {
+    if (locations.remove(node) != null) {
+      changed = true;
+    }
+  }
+
+  private Candidates getCandidates() {
+    if (changed) {
+      synchronized (this) {
+        if (changed) {
+          final Map<String, List<DatanodeDescriptor>> lists = new HashMap<>();
+          for (Map.Entry<DatanodeDescriptor, String> e
+              : locations.entrySet()) {
+            List<DatanodeDescriptor> list = lists.get(e.getValue());
+            if (list == null) {
+              list = new ArrayList<>();
+              lists.put(e.getValue(), list);
+            }
+            list.add(e.getKey());
+          }
+          final Map<String, DatanodeDescriptor[]> byLocation =
+              new HashMap<>();
+          for (Map.Entry<String, List<DatanodeDescriptor>> e
+              : lists.entrySet()) {
+            byLocation.put(e.getKey(), e.getValue().toArray(
+                new DatanodeDescriptor[e.getValue().size()]));
+          }
+          candidates = new Candidates(locations.keySet().toArray(
+              new DatanodeDescriptor[locations.size()]), byLocation);
+          changed = false;
+        }
+      }
+    }
+    return candidates;
+  }
+
+  @VisibleForTesting
+  int size() {
+    return getCandidates().all.length;
+  }
+
+  /**
+   * Randomly choose a candidate from the given scope which is not excluded.
+   * The scope is either the root, a network location of datanodes, or a
+   * network path prefixed with "~" to choose outside of it.
+   *
+   * @return the chosen datanode, or null if the scope is not indexed or if
+   *         none of its candidates can be chosen.
+   */
+  DatanodeDescriptor chooseRandom(String scope,
+      Collection<Node> excludedNodes) {
+    final Candidates c = getCandidates();
+    final DatanodeDescriptor[] nodes;
+    String excludedScope = null;
+    if (scope.startsWith("~")) {
+      nodes = c.all;
+      excludedScope = scope.substring(1);
+    } else if (scope.equals(NodeBase.ROOT)) {
+      nodes = c.all;
+    } else {
+      nodes = c.byLocation.get(scope);
+    }
+    if (nodes == null || nodes.length == 0) {
+      return null;
+    }
+
+    final ThreadLocalRandom random = ThreadLocalRandom.current();
+    for (int i = 0; i < MAX_RANDOM_PICKS && i < nodes.length; i++) {
+      DatanodeDescriptor node = nodes[random.nextInt(nodes.length)];
+      if (isChoosable(node, excludedScope, excludedNodes)) {
+        return node;
+      }
+    }
+    // Most of the candidates are excluded, look for any remaining one.
+    final int start = random.nextInt(nodes.length);
+    for (int i = 0; i < nodes.length; i++) {
+      DatanodeDescriptor node = nodes[(start + i) % nodes.length];
+      if (isChoosable(node, excludedScope, excludedNodes)) {
+        return node;
+      }
+    }
+    return null;
+  }
+
+  private static boolean isChoosable(DatanodeDescriptor node,
+      String excludedScope, Collection<Node> excludedNodes) {
+    if (excludedNodes != null && excludedNodes.contains(node)) {
+      return false;
+    }
+    if (excludedScope != null) {
+      String location = node.getNetworkLocation();
+      return !(location.equals(excludedScope) || location.startsWith(
+          excludedScope + NodeBase.PATH_SEPARATOR_STR));
+    }
+    return true;
+  }
+}
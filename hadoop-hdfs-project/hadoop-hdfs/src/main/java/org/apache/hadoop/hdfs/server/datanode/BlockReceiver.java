@@ -372,6 +372,11 @@ public void close() throws IOException {
       IOUtils.cleanup(null, replicaHandler);
       replicaHandler = null;
     }
+    // The worker thread goes on to serve other ops rather than exit, so it
+    // must stop being the writer of the replica.
+    if (replicaInfo instanceof ReplicaInPipeline) {
+      ((ReplicaInPipeline) replicaInfo).releaseWriter();
+    }
     if (measuredFlushTime) {
       datanode.metrics.addFlushNanos(flushTotalNanos);
     }
@@ -165,6 +165,7 @@
 import org.apache.hadoop.hdfs.server.common.StorageInfo;
 import org.apache.hadoop.hdfs.server.datanode.SecureDataNodeStarter.SecureResources;
 import org.apache.hadoop.hdfs.server.datanode.erasurecode.ErasureCodingWorker;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.AutoCloseableLock;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsDatasetSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
 import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
@@ -2066,10 +2067,43 @@ private void handleDiskError(String errMsgr) {
     shouldRun = false;
   }
     
-  /** Number of concurrent xceivers per node. */
+  /**
+   * Number of concurrent xceivers per node. An idle keep-alive connection
+   * counts as an xceiver although it holds no thread, while a worker thread
+   * waiting for an xceiver to run does not.
+   */
   @Override // DataNodeMXBean
   public int getXceiverCount() {
-    return threadGroup == null ? 0 : threadGroup.activeCount();
+    ThreadGroup group = threadGroup;
+    if (group == null) {
+      return 0;
+    }
+    int count = group.activeCount();
+    for (DataXceiverServer server : getDataXceiverServers()) {
+      count += server.getNumParkedXceivers() - server.getNumIdleWorkers();
+    }
+    return Math.max(0, count);
+  }
+
+  /** Number of xceivers per node, not counting idle connections. */
+  int getActiveXceiverCount() {
+    int count = getXceiverCount();
+    for (DataXceiverServer server : getDataXceiverServers()) {
+      count -= server.getNumParkedXceivers();
+    }
+    return Math.max(0, count);
+  }
+
+  private List<DataXceiverServer> getDataXceiverServers() {
+    List<DataXceiverServer> servers = new ArrayList<>(2);
+    if (xserver != null) {
+      servers.add(xserver);
+    }
+    Daemon local = localDataXceiverServer;
+    if (local != null) {
+      servers.add((DataXceiverServer) local.getRunnable());
+    }
+    return servers;
   }
 
   @Override // DataNodeMXBean
@@ -2865,7 +2899,9 @@ void transferReplicaForPipelineRecovery(final ExtendedBlock b,
     final BlockConstructionStage stage;
 
     //get replica information
-    synchronized(data) {
+    try (AutoCloseableLock lock = data.acquireBlockLock(
+        "TransferReplicaForPipelineRecovery", b.getBlockPoolId(),
+        b.getBlockId())) {
       Block storedBlock = data.getStoredBlock(b.getBlockPoolId(),
           b.getBlockId());
       if (null == storedBlock) {
@@ -57,6 +57,7 @@
 import org.apache.hadoop.hdfs.shortcircuit.ShortCircuitShm.SlotId;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.net.NetUtils;
+import org.apache.hadoop.net.SocketInputStream;
 import org.apache.hadoop.net.unix.DomainSocket;
 import org.apache.hadoop.security.token.SecretManager.InvalidToken;
 import org.apache.hadoop.security.token.Token;
@@ -81,6 +82,7 @@
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
 import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
 
@@ -117,6 +119,12 @@ class DataXceiver extends Receiver implements Runnable {
   private final int ioFileBufferSize;
   private final int smallBufferSize;
   private Thread xceiver = null;
+  private int opsProcessed = 0;
+  /**
+   * The channel to wait on for the next op without a thread, or null if the
+   * connection cannot be parked, e.g. since SASL may buffer its input.
+   */
+  private SelectableChannel idleChannel = null;
 
   /**
    * Client Name used in previous operation. Not available on first request
@@ -193,7 +201,7 @@ public void sendOOB() throws IOException, InterruptedException {
   public void stopWriter() {
     // We want to interrupt the xceiver only when it is serving writes.
     synchronized(this) {
-      if (getCurrentBlockReceiver() == null) {
+      if (getCurrentBlockReceiver() == null || xceiver == null) {
         return;
       }
       xceiver.interrupt();
@@ -215,49 +223,41 @@ private synchronized BlockReceiver getCurrentBlockReceiver() {
   
   /**
    * Read/write data from/to the DataXceiverServer.
+   * <p/>
+   * When it has processed an op and the next one has not arrived yet, the
+   * xceiver may park its connection and return. It runs again, on any thread,
+   * when the next op arrives.
    */
   @Override
   public void run() {
-    int opsProcessed = 0;
     Op op = null;
+    boolean parked = false;
+    // a resumed xceiver must read the op which woke it before parking again
+    boolean mayPark = false;
 
     try {
       synchronized(this) {
         xceiver = Thread.currentThread();
       }
-      dataXceiverServer.addPeer(peer, Thread.currentThread(), this);
-      peer.setWriteTimeout(datanode.getDnConf().socketWriteTimeout);
-      InputStream input = socketIn;
-      try {
-        IOStreamPair saslStreams = datanode.saslServer.receive(peer, socketOut,
-          socketIn, datanode.getXferAddress().getPort(),
-          datanode.getDatanodeId());
-        input = new BufferedInputStream(saslStreams.in,
-            smallBufferSize);
-        socketOut = saslStreams.out;
-      } catch (InvalidMagicNumberException imne) {
-        if (imne.isHandshake4Encryption()) {
-          LOG.info("Failed to read expected encryption handshake from client " +
-              "at " + peer.getRemoteAddressString() + ". Perhaps the client " +
-              "is running an older version of Hadoop which does not support " +
-              "encryption");
-        } else {
-          LOG.info("Failed to read expected SASL data transfer protection " +
-              "handshake from client at " + peer.getRemoteAddressString() + 
-              ". Perhaps the client is running an older version of Hadoop " +
-              "which does not support SASL data transfer protection");
+      if (opsProcessed == 0) {
+        setUp();
+        if (in == null) {
+          return;
         }
-        return;
+      } else {
+        dataXceiverServer.resumePeer(peer, Thread.currentThread());
       }
-      
-      super.initialize(new DataInputStream(input));
-      
+
       // We process requests in a loop, and stay around for a short timeout.
       // This optimistic behaviour allows the other end to reuse connections.
       // Setting keepalive timeout to 0 disable this behavior.
       do {
         updateCurrentThreadName("Waiting for operation #" + (opsProcessed + 1));
 
+        if (mayPark && park()) {
+          parked = true;
+          return;
+        }
         try {
           if (opsProcessed != 0) {
             assert dnConf.socketKeepaliveTimeout > 0;
@@ -288,6 +288,7 @@ public void run() {
         opStartTime = monotonicNow();
         processOp(op);
         ++opsProcessed;
+        mayPark = true;
       } while ((peer != null) &&
           (!peer.isClosed() && dnConf.socketKeepaliveTimeout > 0));
     } catch (Throwable t) {
@@ -316,16 +317,94 @@ public void run() {
         LOG.error(s, t);
       }
     } finally {
-      if (LOG.isDebugEnabled()) {
-        LOG.debug(datanode.getDisplayName() + ":Number of active connections is: "
-            + datanode.getXceiverCount());
+      // A parked xceiver may already be running on another thread.
+      if (!parked) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug(datanode.getDisplayName()
+              + ":Number of active connections is: "
+              + datanode.getXceiverCount());
+        }
+        updateCurrentThreadName("Cleaning up");
+        if (peer != null) {
+          dataXceiverServer.closePeer(peer);
+          IOUtils.closeStream(in);
+        }
       }
-      updateCurrentThreadName("Cleaning up");
-      if (peer != null) {
-        dataXceiverServer.closePeer(peer);
-        IOUtils.closeStream(in);
+    }
+  }
+
+  /**
+   * Register the peer and set up its streams. Leaves {@link #in} null if the
+   * handshake failed and the connection should be closed.
+   */
+  private void setUp() throws IOException {
+    dataXceiverServer.addPeer(peer, Thread.currentThread(), this);
+    peer.setWriteTimeout(datanode.getDnConf().socketWriteTimeout);
+    InputStream input = socketIn;
+    try {
+      IOStreamPair saslStreams = datanode.saslServer.receive(peer, socketOut,
+        socketIn, datanode.getXferAddress().getPort(),
+        datanode.getDatanodeId());
+      input = new BufferedInputStream(saslStreams.in,
+          smallBufferSize);
+      socketOut = saslStreams.out;
+      // Only the buffer wrapped around the socket may hold unread input,
+      // so only then can readability of the socket tell an op arrived.
+      if (saslStreams.in == socketIn && peer.getDomainSocket() == null &&
+          socketIn instanceof SocketInputStream) {
+        idleChannel = (SelectableChannel)
+            ((SocketInputStream) socketIn).getChannel();
       }
+    } catch (InvalidMagicNumberException imne) {
+      if (imne.isHandshake4Encryption()) {
+        LOG.info("Failed to read expected encryption handshake from client " +
+            "at " + peer.getRemoteAddressString() + ". Perhaps the client " +
+            "is running an older version of Hadoop which does not support " +
+            "encryption");
+      } else {
+        LOG.info("Failed to read expected SASL data transfer protection " +
+            "handshake from client at " + peer.getRemoteAddressString() + 
+            ". Perhaps the client is running an older version of Hadoop " +
+            "which does not support SASL data transfer protection");
+      }
+      return;
+    }
+
+    super.initialize(new DataInputStream(input));
+  }
+
+  /**
+   * Park the connection until the next op arrives, unless it has already.
+   *
+   * @return whether the connection was parked. If so, the xceiver must not
+   * be touched by this thread any more.
+   */
+  private boolean park() throws IOException {
+    if (idleChannel == null || in.available() > 0) {
+      return false;
     }
+    synchronized(this) {
+      xceiver = null;
+    }
+    if (dataXceiverServer.parkXceiver(peer, this, idleChannel)) {
+      return true;
+    }
+    synchronized(this) {
+      xceiver = Thread.currentThread();
+    }
+    return false;
+  }
+
+  /** Close the connection of a parked xceiver. */
+  void closeIdle() {
+    if (peer != null) {
+      dataXceiverServer.closePeer(peer);
+      IOUtils.closeStream(in);
+    }
+  }
+
+  Peer getPeer() {
+    return peer;
   }
 
   @Override
@@ -20,13 +20,22 @@
 import java.io.IOException;
 import java.net.SocketTimeoutException;
 import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.SelectableChannel;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.net.Peer;
 import org.apache.hadoop.hdfs.net.PeerServer;
+import org.apache.hadoop.hdfs.net.TcpPeerServer;
 import org.apache.hadoop.hdfs.util.DataTransferThrottler;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.util.Daemon;
@@ -40,6 +49,10 @@
  * This is created to listen for requests from clients or 
  * other DataNodes.  This small server does not use the 
  * Hadoop IPC mechanism.
+ * <p/>
+ * Each op of a connection runs on a thread of a bounded worker pool. Between
+ * ops, an idle keep-alive TCP connection is parked in an
+ * {@link IdleXceiverSelector} rather than holding a thread.
  */
 class DataXceiverServer implements Runnable {
   public static final Logger LOG = DataNode.LOG;
@@ -49,6 +62,14 @@ class DataXceiverServer implements Runnable {
   private final HashMap<Peer, Thread> peers = new HashMap<Peer, Thread>();
   private final HashMap<Peer, DataXceiver> peersXceiver = new HashMap<Peer, DataXceiver>();
   private boolean closed = false;
+
+  /** Threads running xceivers. */
+  private final ThreadPoolExecutor workers;
+  private final WorkQueue workQueue;
+  /** The number of workers running an xceiver. */
+  private final AtomicInteger busyWorkers = new AtomicInteger();
+  /** Waits for ops on idle connections, or null if they are not parked. */
+  private volatile IdleXceiverSelector idleSelector;
   
   /**
    * Maximal number of concurrent xceivers per node.
@@ -108,6 +129,60 @@ synchronized void release() {
   }
 
   final BlockBalanceThrottler balanceThrottler;
+
+  /**
+   * The queue of the worker pool. A {@link ThreadPoolExecutor} only starts a
+   * new thread when its queue refuses a task, so this queue refuses tasks
+   * which no idle worker will take. Once the pool is at its maximum size,
+   * the rejection handler of the pool queues them up to the capacity.
+   */
+  private static class WorkQueue extends LinkedBlockingQueue<Runnable> {
+    private static final long serialVersionUID = 1L;
+    private final AtomicInteger busyWorkers;
+    private transient ThreadPoolExecutor pool;
+
+    WorkQueue(int capacity, AtomicInteger busyWorkers) {
+      super(capacity);
+      this.busyWorkers = busyWorkers;
+    }
+
+    @Override
+    public boolean offer(Runnable r) {
+      if (busyWorkers.get() + size() >= pool.getPoolSize()) {
+        return false;
+      }
+      return super.offer(r);
+    }
+
+    boolean forceOffer(Runnable r) {
+      return super.offer(r);
+    }
+  }
+
+  /** Runs an xceiver on a worker. */
+  private class XceiverTask implements Runnable {
+    private final DataXceiver xceiver;
+
+    XceiverTask(DataXceiver xceiver) {
+      this.xceiver = xceiver;
+    }
+
+    @Override
+    public void run() {
+      datanode.metrics.decrDataNodeQueuedXceiverOpsCount();
+      datanode.metrics.incrDataNodeActiveTransfersCount();
+      busyWorkers.incrementAndGet();
+      try {
+        xceiver.run();
+      } finally {
+        busyWorkers.decrementAndGet();
+        datanode.metrics.decrDataNodeActiveTransfersCount();
+        Thread.currentThread().setName(IDLE_WORKER_NAME);
+      }
+    }
+  }
+
+  private static final String IDLE_WORKER_NAME = "Idle DataXceiver worker";
   
   /**
    * We need an estimate for block size to check if the disk partition has
@@ -135,26 +210,73 @@ synchronized void release() {
             DFSConfigKeys.DFS_DATANODE_BALANCE_BANDWIDTHPERSEC_DEFAULT),
         conf.getInt(DFSConfigKeys.DFS_DATANODE_BALANCE_MAX_NUM_CONCURRENT_MOVES_KEY,
             DFSConfigKeys.DFS_DATANODE_BALANCE_MAX_NUM_CONCURRENT_MOVES_DEFAULT));
+
+    this.workQueue = new WorkQueue(Math.max(1, conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_TRANSFER_QUEUE_SIZE_KEY,
+        DFSConfigKeys.DFS_DATANODE_TRANSFER_QUEUE_SIZE_DEFAULT)),
+        busyWorkers);
+    this.workers = new ThreadPoolExecutor(0, Math.max(1, maxXceiverCount),
+        60, TimeUnit.SECONDS, workQueue,
+        new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread t = new Daemon(datanode.threadGroup, r);
+            t.setName(IDLE_WORKER_NAME);
+            return t;
+          }
+        },
+        new RejectedExecutionHandler() {
+          @Override
+          public void rejectedExecution(Runnable r, ThreadPoolExecutor pool) {
+            if (pool.isShutdown() || !workQueue.forceOffer(r)) {
+              throw new RejectedExecutionException("All "
+                  + pool.getMaximumPoolSize() + " DataXceiver workers are"
+                  + " busy and " + workQueue.size() + " ops are queued");
+            }
+          }
+        });
+    this.workQueue.pool = workers;
+
+    // The selector thread is created here, so that it does not join the
+    // thread group of the xceivers and count as one.
+    int keepaliveMs = conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_SOCKET_REUSE_KEEPALIVE_KEY,
+        DFSConfigKeys.DFS_DATANODE_SOCKET_REUSE_KEEPALIVE_DEFAULT);
+    if (peerServer instanceof TcpPeerServer && keepaliveMs > 0) {
+      try {
+        idleSelector = new IdleXceiverSelector(this, datanode, keepaliveMs);
+      } catch (IOException e) {
+        LOG.warn(datanode.getDisplayName() + ":DataXceiverServer: failed to"
+            + " open a selector, idle connections will hold a thread", e);
+      }
+    }
   }
 
   @Override
   public void run() {
+    if (idleSelector != null) {
+      idleSelector.start();
+    }
+
     Peer peer = null;
     while (datanode.shouldRun && !datanode.shutdownForUpgrade) {
       try {
         peer = peerServer.accept();
 
-        // Make sure the xceiver count is not exceeded
-        int curXceiverCount = datanode.getXceiverCount();
+        // Make sure the xceiver count is not exceeded. Idle connections
+        // hold no thread, so they do not count.
+        int curXceiverCount = datanode.getActiveXceiverCount();
         if (curXceiverCount > maxXceiverCount) {
           throw new IOException("Xceiver count " + curXceiverCount
               + " exceeds the limit of concurrent xcievers: "
               + maxXceiverCount);
         }
 
-        new Daemon(datanode.threadGroup,
-            DataXceiver.create(peer, datanode, this))
-            .start();
+        execute(DataXceiver.create(peer, datanode, this));
+      } catch (RejectedExecutionException ree) {
+        IOUtils.cleanup(null, peer);
+        LOG.warn(datanode.getDisplayName() + ":DataXceiverServer: "
+            + ree.getMessage());
       } catch (SocketTimeoutException ignored) {
         // wake up to see if should continue to run
       } catch (AsynchronousCloseException ace) {
@@ -193,6 +315,12 @@ public void run() {
           + " :DataXceiverServer: close exception", ie);
     }
 
+    // Close the idle connections, as the interrupt of a thread waiting for
+    // its next op would.
+    if (idleSelector != null) {
+      idleSelector.stop();
+    }
+
     // if in restart prep stage, notify peers before closing them.
     if (datanode.shutdownForUpgrade) {
       restartNotifyPeers();
@@ -211,6 +339,72 @@ public void run() {
     }
     // Close all peers.
     closeAllPeers();
+
+    // Stop the workers, closing the connections of xceivers which have not
+    // started yet.
+    List<Runnable> notStarted = workers.shutdownNow();
+    for (Runnable r : notStarted) {
+      IOUtils.cleanup(null, ((XceiverTask) r).xceiver.getPeer());
+    }
+  }
+
+  /**
+   * Run an xceiver on a worker thread.
+   *
+   * @throws RejectedExecutionException if all workers are busy and the queue
+   * is full, or the server is stopped.
+   */
+  private void execute(DataXceiver xceiver) {
+    datanode.metrics.incrDataNodeQueuedXceiverOpsCount();
+    try {
+      workers.execute(new XceiverTask(xceiver));
+    } catch (RejectedExecutionException e) {
+      datanode.metrics.decrDataNodeQueuedXceiverOpsCount();
+      throw e;
+    }
+  }
+
+  /**
+   * Park an xceiver which is waiting for the next op of its connection, so
+   * that it holds no thread until the op arrives.
+   *
+   * @return whether the xceiver was parked. The caller must not touch it
+   * afterwards, since it may already be running on another thread.
+   */
+  synchronized boolean parkXceiver(Peer peer, DataXceiver xceiver,
+      SelectableChannel channel) {
+    IdleXceiverSelector selector = idleSelector;
+    if (closed || selector == null || !peers.containsKey(peer)) {
+      return false;
+    }
+    // a parked xceiver has no thread to interrupt
+    Thread t = peers.put(peer, null);
+    if (!selector.park(xceiver, channel)) {
+      peers.put(peer, t);
+      return false;
+    }
+    return true;
+  }
+
+  /** Run a parked xceiver whose connection has become readable. */
+  void resumeXceiver(DataXceiver xceiver) {
+    try {
+      execute(xceiver);
+    } catch (RejectedExecutionException e) {
+      LOG.warn(datanode.getDisplayName() + ":DataXceiverServer: "
+          + e.getMessage());
+      xceiver.closeIdle();
+    }
+  }
+
+  /** Record the thread which runs a resumed xceiver. */
+  synchronized void resumePeer(Peer peer, Thread t) throws IOException {
+    if (closed) {
+      throw new IOException("Server closed.");
+    }
+    if (peers.containsKey(peer)) {
+      peers.put(peer, t);
+    }
   }
 
   void kill() {
@@ -272,7 +466,9 @@ synchronized void restartNotifyPeers() {
     assert (datanode.shouldRun == true && datanode.shutdownForUpgrade);
     for (Thread t : peers.values()) {
       // interrupt each and every DataXceiver thread.
-      t.interrupt();
+      if (t != null) {
+        t.interrupt();
+      }
     }
   }
 
@@ -298,6 +494,17 @@ synchronized int getNumPeersXceiver() {
     return peersXceiver.size();
   }
 
+  /** @return the number of idle connections parked without a thread. */
+  int getNumParkedXceivers() {
+    IdleXceiverSelector selector = idleSelector;
+    return selector == null ? 0 : selector.getNumParked();
+  }
+
+  /** @return the number of worker threads waiting for an xceiver to run. */
+  int getNumIdleWorkers() {
+    return Math.max(0, workers.getPoolSize() - busyWorkers.get());
+  }
+
   @VisibleForTesting
   PeerServer getPeerServer() {
     return peerServer;
@@ -21,17 +21,24 @@
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadLocalRandom;
@@ -57,6 +64,14 @@
 /**
  * Periodically scans the data directories for block and block metadata files.
  * Reconciles the differences with block information maintained in the dataset.
+ * <p/>
+ * The finalized directory of each block pool is scanned in chunks, one for
+ * each top-level subdir of the layout of {@link DatanodeUtil#idToBlockDir}.
+ * The chunk is read from all the volumes in parallel, compared with a
+ * snapshot of the blocks in memory without holding any lock, and the
+ * differences found are reconciled in small batches before the next chunk
+ * is read. Each difference is checked again under the lock of its block when
+ * it is reconciled, so a snapshot which has become stale does no harm.
  */
 @InterfaceAudience.Private
 public class DirectoryScanner implements Runnable {
@@ -67,12 +82,23 @@ public class DirectoryScanner implements Runnable {
       + " starting at %dms with interval of %dms";
   private static final String START_MESSAGE_WITH_THROTTLE = START_MESSAGE
       + " and throttle limit of %dms/s";
+  /** The number of top-level subdirs of a finalized directory. */
+  private static final int NUM_CHUNKS = 32;
+  private static final String[] CHUNK_DIR_NAMES = new String[NUM_CHUNKS];
+
+  static {
+    for (int i = 0; i < NUM_CHUNKS; i++) {
+      CHUNK_DIR_NAMES[i] = DataStorage.BLOCK_SUBDIR_PREFIX + i;
+    }
+  }
 
   private final FsDatasetSpi<?> dataset;
   private final ExecutorService reportCompileThreadPool;
   private final ScheduledExecutorService masterThread;
   private final long scanPeriodMsecs;
   private final int throttleLimitMsPerSec;
+  private final int reconcileBatchSize;
+  private final long reconcileBatchIntervalMs;
   private volatile boolean shouldRun = false;
   private boolean retainDiffs = false;
   private final DataNode datanode;
@@ -161,51 +187,6 @@ static class ScanInfoPerBlockPool extends
      * @param sz initial expected size
      */
     ScanInfoPerBlockPool(int sz) {super(sz);}
-    
-    /**
-     * Merges {@code that} ScanInfoPerBlockPool into this one
-     *
-     * @param the ScanInfoPerBlockPool to merge
-     */
-    public void addAll(ScanInfoPerBlockPool that) {
-      if (that == null) return;
-      
-      for (Entry<String, LinkedList<ScanInfo>> entry : that.entrySet()) {
-        String bpid = entry.getKey();
-        LinkedList<ScanInfo> list = entry.getValue();
-        
-        if (this.containsKey(bpid)) {
-          //merge that per-bpid linked list with this one
-          this.get(bpid).addAll(list);
-        } else {
-          //add that new bpid and its linked list to this
-          this.put(bpid, list);
-        }
-      }
-    }
-    
-    /**
-     * Convert all the LinkedList values in this ScanInfoPerBlockPool map
-     * into sorted arrays, and return a new map of these arrays per blockpool
-     *
-     * @return a map of ScanInfo arrays per blockpool
-     */
-    public Map<String, ScanInfo[]> toSortedArrays() {
-      Map<String, ScanInfo[]> result = 
-        new HashMap<String, ScanInfo[]>(this.size());
-      
-      for (Entry<String, LinkedList<ScanInfo>> entry : this.entrySet()) {
-        String bpid = entry.getKey();
-        LinkedList<ScanInfo> list = entry.getValue();
-        
-        // convert list to array
-        ScanInfo[] record = list.toArray(new ScanInfo[list.size()]);
-        // Sort array based on blockId
-        Arrays.sort(record);
-        result.put(bpid, record);            
-      }
-      return result;
-    }
   }
 
   /**
@@ -441,6 +422,15 @@ public long getGenStamp() {
       throttleLimitMsPerSec = throttle;
     }
 
+    reconcileBatchSize = Math.max(1, conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_RECONCILE_BATCH_SIZE_KEY,
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_RECONCILE_BATCH_SIZE_DEFAULT));
+    reconcileBatchIntervalMs = Math.max(0, conf.getLong(
+        DFSConfigKeys.
+            DFS_DATANODE_DIRECTORYSCAN_RECONCILE_BATCH_INTERVAL_MS_KEY,
+        DFSConfigKeys.
+            DFS_DATANODE_DIRECTORYSCAN_RECONCILE_BATCH_INTERVAL_MS_DEFAULT));
+
     int threads = 
         conf.getInt(DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THREADS_KEY,
                     DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THREADS_DEFAULT);
@@ -534,7 +524,11 @@ void shutdown() {
     if (masterThread != null) masterThread.shutdown();
 
     if (reportCompileThreadPool != null) {
-      reportCompileThreadPool.shutdownNow();
+      // Cancel the report compilers which have not started, so that the scan
+      // waiting for them gives up.
+      for (Runnable r : reportCompileThreadPool.shutdownNow()) {
+        ((Future<?>) r).cancel(false);
+      }
     }
 
     if (masterThread != null) {
@@ -561,108 +555,351 @@ void shutdown() {
    */
   @VisibleForTesting
   void reconcile() throws IOException {
+    long startTime = Time.monotonicNow();
     scan();
-    for (Entry<String, LinkedList<ScanInfo>> entry : diffs.entrySet()) {
-      String bpid = entry.getKey();
-      LinkedList<ScanInfo> diff = entry.getValue();
-      
-      for (ScanInfo info : diff) {
-        dataset.checkAndUpdate(bpid, info.getBlockId(), info.getBlockFile(),
-            info.getMetaFile(), info.getVolume());
-      }
+    if (datanode != null) {
+      datanode.getMetrics().addDirectoryScan(
+          Time.monotonicNow() - startTime);
     }
     if (!retainDiffs) clear();
   }
 
   /**
-   * Scan for the differences between disk and in-memory blocks
+   * Scan for the differences between disk and in-memory blocks, and
+   * reconcile them one chunk at a time.
    * Scan only the "finalized blocks" lists of both disk and memory.
    */
-  private void scan() {
+  private void scan() throws IOException {
     clear();
-    Map<String, ScanInfo[]> diskReport = getDiskReport();
-
-    // Hold FSDataset lock to prevent further changes to the block map
-    synchronized(dataset) {
-      for (Entry<String, ScanInfo[]> entry : diskReport.entrySet()) {
-        String bpid = entry.getKey();
-        ScanInfo[] blockpoolReport = entry.getValue();
-        
-        Stats statsRecord = new Stats(bpid);
-        stats.put(bpid, statsRecord);
-        LinkedList<ScanInfo> diffRecord = new LinkedList<ScanInfo>();
-        diffs.put(bpid, diffRecord);
-        
-        statsRecord.totalBlocks = blockpoolReport.length;
-        List<FinalizedReplica> bl = dataset.getFinalizedBlocks(bpid);
-        FinalizedReplica[] memReport = bl.toArray(new FinalizedReplica[bl.size()]);
-        Arrays.sort(memReport); // Sort based on blockId
-  
-        int d = 0; // index for blockpoolReport
-        int m = 0; // index for memReprot
-        while (m < memReport.length && d < blockpoolReport.length) {
-          FinalizedReplica memBlock = memReport[m];
-          ScanInfo info = blockpoolReport[d];
-          if (info.getBlockId() < memBlock.getBlockId()) {
-            if (!dataset.isDeletingBlock(bpid, info.getBlockId())) {
-              // Block is missing in memory
-              statsRecord.missingMemoryBlocks++;
-              addDifference(diffRecord, statsRecord, info);
-            }
-            d++;
-            continue;
-          }
-          if (info.getBlockId() > memBlock.getBlockId()) {
-            // Block is missing on the disk
-            addDifference(diffRecord, statsRecord,
-                          memBlock.getBlockId(), info.getVolume());
-            m++;
-            continue;
-          }
-          // Block file and/or metadata file exists on the disk
-          // Block exists in memory
-          if (info.getBlockFile() == null) {
-            // Block metadata file exits and block file is missing
-            addDifference(diffRecord, statsRecord, info);
-          } else if (info.getGenStamp() != memBlock.getGenerationStamp()
-              || info.getBlockFileLength() != memBlock.getNumBytes()) {
-            // Block metadata file is missing or has wrong generation stamp,
-            // or block file length is different than expected
-            statsRecord.mismatchBlocks++;
-            addDifference(diffRecord, statsRecord, info);
-          } else if (info.getBlockFile().compareTo(memBlock.getBlockFile()) != 0) {
-            // volumeMap record and on-disk files don't match.
-            statsRecord.duplicateBlocks++;
-            addDifference(diffRecord, statsRecord, info);
+    try (FsDatasetSpi.FsVolumeReferences volumes =
+        dataset.getFsVolumeReferences()) {
+      List<ReportCompiler> compilers = new ArrayList<>(volumes.size());
+      for (FsVolumeSpi volume : volumes) {
+        try {
+          compilers.add(new ReportCompiler(datanode, volume));
+        } catch (IOException e) {
+          LOG.error("Error compiling report for the volume, StorageId: "
+              + volume.getStorageID(), e);
+          // Continue scanning the other volumes
+        }
+      }
+      Map<String, BlockPoolScan> scans = new LinkedHashMap<>();
+      for (ReportCompiler compiler : compilers) {
+        for (String bpid : compiler.getBlockPools()) {
+          if (!scans.containsKey(bpid)) {
+            scans.put(bpid, new BlockPoolScan(bpid));
           }
-          d++;
+        }
+      }
 
-          if (d < blockpoolReport.length) {
-            // There may be multiple on-disk records for the same block, don't increment
-            // the memory record pointer if so.
-            ScanInfo nextInfo = blockpoolReport[Math.min(d, blockpoolReport.length - 1)];
-            if (nextInfo.getBlockId() != info.blockId) {
-              ++m;
-            }
-          } else {
-            ++m;
+      // Blocks outside the subdirs of the chunks are read first, so that
+      // they are diffed along with the chunks of their ids.
+      if (!compileChunk(compilers, -1, scans)) {
+        return;
+      }
+      for (int chunk = 0; chunk < NUM_CHUNKS; chunk++) {
+        if (!compileChunk(compilers, chunk, scans)) {
+          return;
+        }
+        for (BlockPoolScan scan : scans.values()) {
+          if (!reconcile(scan.bpid, scan.diff(chunk))) {
+            return;
           }
         }
-        while (m < memReport.length) {
-          FinalizedReplica current = memReport[m++];
-          addDifference(diffRecord, statsRecord,
-                        current.getBlockId(), current.getVolume());
+      }
+      for (BlockPoolScan scan : scans.values()) {
+        if (!reconcile(scan.bpid, scan.diffMissingOnDisk())) {
+          return;
+        }
+        LOG.info(scan.statsRecord.toString());
+      }
+    }
+  }
+
+  /**
+   * Read a chunk of the finalized directories from all the volumes in
+   * parallel, and add the blocks found to the scans of their block pools.
+   *
+   * @param compilers the report compilers of the volumes
+   * @param chunk the chunk, or -1 for the blocks outside the subdirs of the
+   *              chunks
+   * @param scans the scans of the block pools
+   * @return false if the scanner was shut down
+   */
+  private boolean compileChunk(List<ReportCompiler> compilers, int chunk,
+      Map<String, BlockPoolScan> scans) {
+    List<Future<ScanInfoPerBlockPool>> results =
+        new ArrayList<>(compilers.size());
+    try {
+      for (ReportCompiler compiler : compilers) {
+        results.add(reportCompileThreadPool.submit(compiler.forChunk(chunk)));
+      }
+    } catch (RejectedExecutionException e) {
+      return false;
+    }
+
+    for (int i = 0; i < results.size(); i++) {
+      ScanInfoPerBlockPool report;
+      try {
+        report = results.get(i).get();
+      } catch (CancellationException e) {
+        return false;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      } catch (ExecutionException e) {
+        LOG.error("Error compiling report for the volume, StorageId: "
+            + compilers.get(i).volume.getStorageID(), e);
+        // Continue scanning the other volumes
+        continue;
+      }
+      // If our compiler threads were interrupted, give up on this run
+      if (report == null) {
+        return false;
+      }
+      for (Entry<String, LinkedList<ScanInfo>> entry : report.entrySet()) {
+        scans.get(entry.getKey()).addDiskBlocks(entry.getValue());
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Reconcile differences in batches, waiting between two batches so that
+   * the scanner does not keep taking the locks of blocks for long.
+   *
+   * @return false if the scanner was shut down
+   */
+  private boolean reconcile(String bpid, List<ScanInfo> diff)
+      throws IOException {
+    Iterator<ScanInfo> it = diff.iterator();
+    while (it.hasNext()) {
+      long startNanos = System.nanoTime();
+      for (int n = 0; n < reconcileBatchSize && it.hasNext(); n++) {
+        ScanInfo info = it.next();
+        dataset.checkAndUpdate(bpid, info.getBlockId(), info.getBlockFile(),
+            info.getMetaFile(), info.getVolume());
+      }
+      if (datanode != null) {
+        datanode.getMetrics().addDirectoryScanReconcileNanos(
+            System.nanoTime() - startNanos);
+      }
+      if (it.hasNext() && awaitShutdown(reconcileBatchIntervalMs)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Wait for the given time, or until the scanner is shut down.
+   *
+   * @return whether the scanner was shut down
+   */
+  private boolean awaitShutdown(long ms) {
+    try {
+      // The report compiler pool terminates when the scanner is shut down.
+      return reportCompileThreadPool.awaitTermination(ms,
+          TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return true;
+    }
+  }
+
+  /**
+   * @return the chunk of the finalized directory which holds a block, as
+   * given by {@link DatanodeUtil#idToBlockDir}.
+   */
+  private static int getChunk(long blockId) {
+    return (int) ((blockId >> 16) & 0x1F);
+  }
+
+  private static boolean isChunkDir(String name) {
+    for (String chunkDirName : CHUNK_DIR_NAMES) {
+      if (chunkDirName.equals(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * The scan of a block pool: a snapshot of its finalized blocks in memory,
+   * and the blocks found on the disks for the chunks not diffed yet.
+   * <p/>
+   * A block may be found in the wrong subdir, after its chunk was diffed, so
+   * blocks in memory which were not found on the disks are only reported
+   * once every chunk has been read.
+   */
+  private class BlockPoolScan {
+    private final String bpid;
+    private final Stats statsRecord;
+    /** The differences found since the last chunk was diffed. */
+    private LinkedList<ScanInfo> newDiffs = new LinkedList<ScanInfo>();
+    /** The finalized blocks in memory of each chunk, sorted by blockId. */
+    private final FinalizedReplica[][] memReports =
+        new FinalizedReplica[NUM_CHUNKS][];
+    /** The blocks on the disks of each chunk which has not been diffed. */
+    private final List<List<ScanInfo>> diskReports =
+        new ArrayList<>(NUM_CHUNKS);
+    /** The blocks in memory not found on the disks so far, by blockId. */
+    private final Map<Long, FinalizedReplica> missingOnDisk =
+        new LinkedHashMap<Long, FinalizedReplica>();
+    private int chunksDiffed = 0;
+
+    BlockPoolScan(String bpid) {
+      this.bpid = bpid;
+      this.statsRecord = new Stats(bpid);
+      stats.put(bpid, statsRecord);
+      diffs.put(bpid, new LinkedList<ScanInfo>());
+
+      List<List<FinalizedReplica>> mem = new ArrayList<>(NUM_CHUNKS);
+      for (int i = 0; i < NUM_CHUNKS; i++) {
+        mem.add(new ArrayList<FinalizedReplica>());
+        diskReports.add(new ArrayList<ScanInfo>());
+      }
+      for (FinalizedReplica b : dataset.getFinalizedBlocks(bpid)) {
+        mem.get(getChunk(b.getBlockId())).add(b);
+      }
+      for (int i = 0; i < NUM_CHUNKS; i++) {
+        List<FinalizedReplica> bl = mem.get(i);
+        memReports[i] = bl.toArray(new FinalizedReplica[bl.size()]);
+        Arrays.sort(memReports[i]); // Sort based on blockId
+      }
+    }
+
+    /**
+     * Add blocks found on the disks. A block found in the wrong subdir after
+     * its chunk was diffed is compared with the block in memory on its own.
+     */
+    void addDiskBlocks(List<ScanInfo> blocks) {
+      for (ScanInfo info : blocks) {
+        int chunk = getChunk(info.getBlockId());
+        if (chunk >= chunksDiffed) {
+          diskReports.get(chunk).add(info);
+          continue;
+        }
+        statsRecord.totalBlocks++;
+        FinalizedReplica[] memReport = memReports[chunk];
+        int m = Arrays.binarySearch(memReport, new Block(info.getBlockId()));
+        if (m >= 0) {
+          missingOnDisk.remove(info.getBlockId());
+          compare(info, memReport[m]);
+        } else if (!dataset.isDeletingBlock(bpid, info.getBlockId())) {
+          statsRecord.missingMemoryBlocks++;
+          addDifference(newDiffs, statsRecord, info);
         }
-        while (d < blockpoolReport.length) {
-          if (!dataset.isDeletingBlock(bpid, blockpoolReport[d].getBlockId())) {
+      }
+    }
+
+    /**
+     * Diff a chunk, all of whose blocks on the disks have been added.
+     *
+     * @return the differences found since the last chunk was diffed
+     */
+    List<ScanInfo> diff(int chunk) {
+      List<ScanInfo> disk = diskReports.set(chunk, null);
+      chunksDiffed = chunk + 1;
+      ScanInfo[] blockpoolReport = disk.toArray(new ScanInfo[disk.size()]);
+      Arrays.sort(blockpoolReport);
+      FinalizedReplica[] memReport = memReports[chunk];
+      statsRecord.totalBlocks += blockpoolReport.length;
+
+      int d = 0; // index for blockpoolReport
+      int m = 0; // index for memReprot
+      while (m < memReport.length && d < blockpoolReport.length) {
+        FinalizedReplica memBlock = memReport[m];
+        ScanInfo info = blockpoolReport[d];
+        if (info.getBlockId() < memBlock.getBlockId()) {
+          if (!dataset.isDeletingBlock(bpid, info.getBlockId())) {
+            // Block is missing in memory
             statsRecord.missingMemoryBlocks++;
-            addDifference(diffRecord, statsRecord, blockpoolReport[d]);
+            addDifference(newDiffs, statsRecord, info);
           }
           d++;
+          continue;
         }
-        LOG.info(statsRecord.toString());
-      } //end for
-    } //end synchronized
+        if (info.getBlockId() > memBlock.getBlockId()) {
+          // Block is missing on the disk
+          missingOnDisk.put(memBlock.getBlockId(), memBlock);
+          m++;
+          continue;
+        }
+        compare(info, memBlock);
+        d++;
+
+        if (d < blockpoolReport.length) {
+          // There may be multiple on-disk records for the same block, don't
+          // increment the memory record pointer if so.
+          ScanInfo nextInfo =
+              blockpoolReport[Math.min(d, blockpoolReport.length - 1)];
+          if (nextInfo.getBlockId() != info.blockId) {
+            ++m;
+          }
+        } else {
+          ++m;
+        }
+      }
+      while (m < memReport.length) {
+        FinalizedReplica current = memReport[m++];
+        missingOnDisk.put(current.getBlockId(), current);
+      }
+      while (d < blockpoolReport.length) {
+        if (!dataset.isDeletingBlock(bpid, blockpoolReport[d].getBlockId())) {
+          statsRecord.missingMemoryBlocks++;
+          addDifference(newDiffs, statsRecord, blockpoolReport[d]);
+        }
+        d++;
+      }
+      return takeNewDiffs();
+    }
+
+    /**
+     * Report the blocks in memory which were not found on the disks, once
+     * every chunk has been diffed.
+     *
+     * @return the differences found since the last chunk was diffed
+     */
+    List<ScanInfo> diffMissingOnDisk() {
+      for (FinalizedReplica memBlock : missingOnDisk.values()) {
+        addDifference(newDiffs, statsRecord,
+                      memBlock.getBlockId(), memBlock.getVolume());
+      }
+      missingOnDisk.clear();
+      return takeNewDiffs();
+    }
+
+    private List<ScanInfo> takeNewDiffs() {
+      List<ScanInfo> result = newDiffs;
+      if (retainDiffs) {
+        diffs.get(bpid).addAll(result);
+      }
+      newDiffs = new LinkedList<ScanInfo>();
+      return result;
+    }
+
+    /**
+     * Compare a block on the disk with the block in memory of the same id.
+     */
+    private void compare(ScanInfo info, FinalizedReplica memBlock) {
+      // Block file and/or metadata file exists on the disk
+      // Block exists in memory
+      if (info.getBlockFile() == null) {
+        // Block metadata file exits and block file is missing
+        addDifference(newDiffs, statsRecord, info);
+      } else if (info.getGenStamp() != memBlock.getGenerationStamp()
+          || info.getBlockFileLength() != memBlock.getNumBytes()) {
+        // Block metadata file is missing or has wrong generation stamp,
+        // or block file length is different than expected
+        statsRecord.mismatchBlocks++;
+        addDifference(newDiffs, statsRecord, info);
+      } else if (info.getBlockFile().compareTo(memBlock.getBlockFile()) != 0) {
+        // volumeMap record and on-disk files don't match.
+        statsRecord.duplicateBlocks++;
+        addDifference(newDiffs, statsRecord, info);
+      }
+    }
   }
 
   /**
@@ -674,7 +911,7 @@ private void scan() {
    * @param statsRecord the stats to update
    * @param info the differing info
    */
-  private void addDifference(LinkedList<ScanInfo> diffRecord, 
+  private void addDifference(LinkedList<ScanInfo> diffRecord,
                              Stats statsRecord, ScanInfo info) {
     statsRecord.missingMetaFile += info.getMetaFile() == null ? 1 : 0;
     statsRecord.missingBlockFile += info.getBlockFile() == null ? 1 : 0;
@@ -698,67 +935,6 @@ private void addDifference(LinkedList<ScanInfo> diffRecord,
     diffRecord.add(new ScanInfo(blockId, null, null, vol));
   }
 
-  /**
-   * Get the lists of blocks on the disks in the dataset, sorted by blockId.
-   * The returned map contains one entry per blockpool, keyed by the blockpool
-   * ID.
-   *
-   * @return a map of sorted arrays of block information
-   */
-  private Map<String, ScanInfo[]> getDiskReport() {
-    ScanInfoPerBlockPool list = new ScanInfoPerBlockPool();
-    ScanInfoPerBlockPool[] dirReports = null;
-    // First get list of data directories
-    try (FsDatasetSpi.FsVolumeReferences volumes =
-        dataset.getFsVolumeReferences()) {
-
-      // Use an array since the threads may return out of order and
-      // compilersInProgress#keySet may return out of order as well.
-      dirReports = new ScanInfoPerBlockPool[volumes.size()];
-
-      Map<Integer, Future<ScanInfoPerBlockPool>> compilersInProgress =
-          new HashMap<Integer, Future<ScanInfoPerBlockPool>>();
-
-      for (int i = 0; i < volumes.size(); i++) {
-        ReportCompiler reportCompiler =
-            new ReportCompiler(datanode, volumes.get(i));
-        Future<ScanInfoPerBlockPool> result =
-            reportCompileThreadPool.submit(reportCompiler);
-        compilersInProgress.put(i, result);
-      }
-
-      for (Entry<Integer, Future<ScanInfoPerBlockPool>> report :
-          compilersInProgress.entrySet()) {
-        Integer index = report.getKey();
-        try {
-          dirReports[index] = report.getValue().get();
-
-          // If our compiler threads were interrupted, give up on this run
-          if (dirReports[index] == null) {
-            dirReports = null;
-            break;
-          }
-        } catch (Exception ex) {
-          FsVolumeSpi fsVolumeSpi = volumes.get(index);
-          LOG.error("Error compiling report for the volume, StorageId: "
-              + fsVolumeSpi.getStorageID(), ex);
-          // Continue scanning the other volumes
-        }
-      }
-    } catch (IOException e) {
-      LOG.error("Unexpected IOException by closing FsVolumeReference", e);
-    }
-    if (dirReports != null) {
-      // Compile consolidated report for all the volumes
-      for (ScanInfoPerBlockPool report : dirReports) {
-        if(report != null){
-          list.addAll(report);
-        }
-      }
-    }
-    return list.toSortedArrays();
-  }
-
   /**
    * Helper method to determine if a file name is consistent with a block.
    * meta-data file
@@ -774,17 +950,22 @@ private static boolean isBlockMetaFile(String blockId, String metaFile) {
 
   /**
    * The ReportCompiler class encapsulates the process of searching a datanode's
-   * disks for block information.  It operates by performing a DFS of the
-   * volume to discover block information.
+   * disks for block information.  It operates by performing a DFS of a chunk
+   * of the volume to discover block information.
    *
    * When the ReportCompiler discovers block information, it create a new
    * ScanInfo object for it and adds that object to its report list.  The report
-   * list is returned by the {@link #call()} method.
+   * list is returned by the {@link Callable} of the chunk.
    */
-  private class ReportCompiler implements Callable<ScanInfoPerBlockPool> {
+  private class ReportCompiler {
     private final FsVolumeSpi volume;
     private final DataNode datanode;
-    // Variable for tracking time spent running for throttling purposes
+    /** The finalized directory of each block pool on the volume. */
+    private final Map<String, File> finalizedDirs =
+        new LinkedHashMap<String, File>();
+    // Variable for tracking time spent running for throttling purposes. It
+    // only runs while a chunk is read, and carries over from one chunk to
+    // the next, so each volume is throttled on its own.
     private final StopWatch throttleTimer = new StopWatch();
     // Variable for tracking time spent running and waiting for testing
     // purposes
@@ -795,37 +976,67 @@ private class ReportCompiler implements Callable<ScanInfoPerBlockPool> {
      *
      * @param datanode the target datanode
      * @param volume the target volume
+     * @throws IOException if the block pool isn't found
      */
-    public ReportCompiler(DataNode datanode, FsVolumeSpi volume) {
+    public ReportCompiler(DataNode datanode, FsVolumeSpi volume)
+        throws IOException {
       this.datanode = datanode;
       this.volume = volume;
+      for (String bpid : volume.getBlockPoolList()) {
+        finalizedDirs.put(bpid, volume.getFinalizedDir(bpid));
+      }
+    }
+
+    Set<String> getBlockPools() {
+      return finalizedDirs.keySet();
     }
 
     /**
-     * Run this report compiler thread.
-     *
-     * @return the block info report list
-     * @throws IOException if the block pool isn't found
+     * @return a task compiling the report of a chunk of every block pool.
      */
-    @Override
-    public ScanInfoPerBlockPool call() throws IOException {
-      String[] bpList = volume.getBlockPoolList();
-      ScanInfoPerBlockPool result = new ScanInfoPerBlockPool(bpList.length);
-      for (String bpid : bpList) {
-        LinkedList<ScanInfo> report = new LinkedList<>();
-        File bpFinalizedDir = volume.getFinalizedDir(bpid);
-
-        perfTimer.start();
-        throttleTimer.start();
+    Callable<ScanInfoPerBlockPool> forChunk(final int chunk) {
+      return new Callable<ScanInfoPerBlockPool>() {
+        @Override
+        public ScanInfoPerBlockPool call() {
+          return compileChunk(chunk);
+        }
+      };
+    }
 
-        try {
-          result.put(bpid,
-              compileReport(volume, bpFinalizedDir, bpFinalizedDir, report));
-        } catch (InterruptedException ex) {
-          // Exit quickly and flag the scanner to do the same
-          result = null;
-          break;
+    /**
+     * Compile the report of a chunk of every block pool.
+     *
+     * @param chunk the chunk, or -1 for the blocks outside the subdirs of the
+     *              chunks
+     * @return the block info report list, or null if interrupted
+     */
+    private ScanInfoPerBlockPool compileChunk(int chunk) {
+      ScanInfoPerBlockPool result =
+          new ScanInfoPerBlockPool(finalizedDirs.size());
+      perfTimer.reset().start();
+      throttleTimer.start();
+      try {
+        for (Entry<String, File> entry : finalizedDirs.entrySet()) {
+          LinkedList<ScanInfo> report = new LinkedList<>();
+          File bpFinalizedDir = entry.getValue();
+          if (chunk < 0) {
+            compileReport(volume, bpFinalizedDir, bpFinalizedDir, report,
+                true);
+          } else {
+            File dir = new File(bpFinalizedDir, CHUNK_DIR_NAMES[chunk]);
+            if (dir.isDirectory()) {
+              compileReport(volume, bpFinalizedDir, dir, report, false);
+            }
+          }
+          result.put(entry.getKey(), report);
         }
+        accumulateTimeRunning();
+      } catch (InterruptedException ex) {
+        // Exit quickly and flag the scanner to do the same
+        result = null;
+      } finally {
+        perfTimer.stop();
+        throttleTimer.stop();
       }
       return result;
     }
@@ -838,10 +1049,11 @@ public ScanInfoPerBlockPool call() throws IOException {
      * @param bpFinalizedDir the root directory of the directory to scan
      * @param dir the directory to scan
      * @param report the list onto which blocks reports are placed
+     * @param skipChunkDirs whether to skip the subdirs of the chunks
      */
     private LinkedList<ScanInfo> compileReport(FsVolumeSpi vol,
-        File bpFinalizedDir, File dir, LinkedList<ScanInfo> report)
-        throws InterruptedException {
+        File bpFinalizedDir, File dir, LinkedList<ScanInfo> report,
+        boolean skipChunkDirs) throws InterruptedException {
 
       throttle();
 
@@ -872,7 +1084,9 @@ private LinkedList<ScanInfo> compileReport(FsVolumeSpi vol,
 
         File file = new File(dir, fileNames.get(i));
         if (file.isDirectory()) {
-          compileReport(vol, bpFinalizedDir, file, report);
+          if (!skipChunkDirs || !isChunkDir(file.getName())) {
+            compileReport(vol, bpFinalizedDir, file, report, false);
+          }
           continue;
         }
         if (!Block.isBlockFilename(file)) {
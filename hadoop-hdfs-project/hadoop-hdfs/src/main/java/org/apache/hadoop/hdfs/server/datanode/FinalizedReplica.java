@@ -51,6 +51,20 @@ public FinalizedReplica(Block block, FsVolumeSpi vol, File dir) {
     super(block, vol, dir);
   }
 
+  /**
+   * Constructor
+   * @param blockId block id
+   * @param len replica length
+   * @param genStamp replica generation stamp
+   * @param vol volume where replica is located
+   * @param baseDir base directory of the replica
+   * @param hasSubdirs whether the replica is in the subdirs of baseDir
+   */
+  protected FinalizedReplica(long blockId, long len, long genStamp,
+      FsVolumeSpi vol, File baseDir, boolean hasSubdirs) {
+    super(blockId, len, genStamp, vol, baseDir, hasSubdirs);
+  }
+
   /**
    * Copy constructor.
    * @param from where to copy construct from
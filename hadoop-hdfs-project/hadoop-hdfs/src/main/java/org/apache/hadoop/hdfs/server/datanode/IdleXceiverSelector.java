@@ -0,0 +1,235 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.util.Daemon;
+import org.apache.hadoop.util.Time;
+import org.slf4j.Logger;
+
+/**
+ * Waits for the next op on the idle keep-alive connections of a
+ * {@link DataXceiverServer}, without holding a thread for each of them.
+ * <p/>
+ * A {@link DataXceiver} which has finished an op and has nothing more to
+ * read parks its connection here and gives its thread back to the worker
+ * pool. When the client sends another op, the xceiver is submitted to the
+ * pool again to process it. A connection which stays idle for longer than
+ * the keep-alive timeout is closed, as a thread blocked reading from it
+ * would close it.
+ * <p/>
+ * Only the selector thread registers channels and changes their interest
+ * sets, since doing so from another thread may block until the current
+ * select returns.
+ */
+class IdleXceiverSelector implements Runnable {
+  public static final Logger LOG = DataNode.LOG;
+
+  /** A parked xceiver. */
+  private static class Parked {
+    private final DataXceiver xceiver;
+    private final SelectableChannel channel;
+    private final long deadline;
+    private SelectionKey key;
+    /** Whether the xceiver was resumed or closed. */
+    private boolean done = false;
+
+    Parked(DataXceiver xceiver, SelectableChannel channel, long deadline) {
+      this.xceiver = xceiver;
+      this.channel = channel;
+      this.deadline = deadline;
+    }
+  }
+
+  private final DataXceiverServer server;
+  private final DataNode datanode;
+  private final long keepaliveMs;
+  private final Selector selector;
+  private final Daemon thread;
+  /** Xceivers parked since the selector thread last looked. */
+  private final Queue<Parked> newlyParked = new ConcurrentLinkedQueue<>();
+  /**
+   * Xceivers in the order they were parked, which is the order they expire
+   * in since they all have the same timeout. Resumed xceivers are removed
+   * lazily when they reach the head.
+   */
+  private final ArrayDeque<Parked> parked = new ArrayDeque<>();
+  private final AtomicInteger numParked = new AtomicInteger();
+  private volatile boolean running = true;
+
+  IdleXceiverSelector(DataXceiverServer server, DataNode datanode,
+      long keepaliveMs) throws IOException {
+    this.server = server;
+    this.datanode = datanode;
+    this.keepaliveMs = keepaliveMs;
+    this.selector = Selector.open();
+    this.thread = new Daemon(this);
+    this.thread.setName("IdleXceiverSelector for "
+        + datanode.getDisplayName());
+  }
+
+  void start() {
+    thread.start();
+  }
+
+  /**
+   * Park an xceiver until its channel is readable.
+   *
+   * @return false if the selector is stopped, in which case the caller must
+   * keep waiting for the next op itself.
+   */
+  boolean park(DataXceiver xceiver, SelectableChannel channel) {
+    if (!running) {
+      return false;
+    }
+    numParked.incrementAndGet();
+    datanode.metrics.incrDataNodeIdleXceiversCount();
+    newlyParked.add(new Parked(xceiver, channel,
+        Time.monotonicNow() + keepaliveMs));
+    selector.wakeup();
+    return true;
+  }
+
+  /**
+   * Stop the selector and close every connection still parked, waiting for
+   * the selector thread to exit.
+   */
+  void stop() {
+    running = false;
+    selector.wakeup();
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (running) {
+        long now = Time.monotonicNow();
+        registerNewlyParked();
+        expire(now);
+        Parked head = parked.peek();
+        selector.select(head == null ? 0 : Math.max(1, head.deadline - now));
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+          SelectionKey key = it.next();
+          it.remove();
+          Parked p = (Parked) key.attachment();
+          if (p != null && !p.done) {
+            resume(p);
+          }
+        }
+      }
+    } catch (Throwable t) {
+      LOG.error(datanode.getDisplayName()
+          + ":IdleXceiverSelector: Exiting due to: ", t);
+      running = false;
+    } finally {
+      // An xceiver may be parked after the last look at the queue, so
+      // draining it must come after running was cleared.
+      registerNewlyParked();
+      for (Parked p : parked) {
+        if (!p.done) {
+          close(p);
+        }
+      }
+      parked.clear();
+      IOUtils.cleanup(null, selector);
+    }
+  }
+
+  private void registerNewlyParked() {
+    Parked p;
+    while ((p = newlyParked.poll()) != null) {
+      try {
+        SelectionKey key = p.channel.keyFor(selector);
+        if (key == null) {
+          key = p.channel.register(selector, SelectionKey.OP_READ, p);
+        } else {
+          key.attach(p);
+          key.interestOps(SelectionKey.OP_READ);
+        }
+        p.key = key;
+        parked.add(p);
+      } catch (ClosedChannelException | CancelledKeyException e) {
+        close(p);
+      }
+    }
+  }
+
+  /** Close the connections which have been idle for too long. */
+  private void expire(long now) {
+    Parked p;
+    while ((p = parked.peek()) != null && (p.done || p.deadline <= now)) {
+      parked.poll();
+      if (!p.done) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Closing " + p.channel + " after it was idle for "
+              + keepaliveMs + " ms");
+        }
+        close(p);
+      }
+    }
+  }
+
+  private void resume(Parked p) {
+    unpark(p);
+    server.resumeXceiver(p.xceiver);
+  }
+
+  private void close(Parked p) {
+    unpark(p);
+    p.xceiver.closeIdle();
+  }
+
+  private void unpark(Parked p) {
+    p.done = true;
+    if (p.key != null) {
+      p.key.attach(null);
+      if (p.key.isValid()) {
+        try {
+          p.key.interestOps(0);
+        } catch (CancelledKeyException ignored) {
+          // the connection was closed
+        }
+      }
+    }
+    numParked.decrementAndGet();
+    datanode.metrics.decrDataNodeIdleXceiversCount();
+  }
+
+  /** @return the number of parked xceivers. */
+  int getNumParked() {
+    return numParked.get();
+  }
+}
@@ -31,6 +31,7 @@
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.util.DataChecksum;
 import org.apache.hadoop.util.StringUtils;
+import org.apache.hadoop.util.Time;
 
 /** 
  * This class defines a replica in a pipeline, which
@@ -42,10 +43,19 @@
  */
 public class ReplicaInPipeline extends ReplicaInfo
                         implements ReplicaInPipelineInterface {
+  /** How often stopWriter checks whether the writer has given up. */
+  private static final long WRITER_POLL_MS = 10;
+
   private long bytesAcked;
   private long bytesOnDisk;
   private byte[] lastChecksum;  
   private AtomicReference<Thread> writer = new AtomicReference<Thread>();
+  /**
+   * Whether the writer was interrupted to stop it. The writer is only
+   * interrupted, and releases the replica, while holding the monitor of the
+   * replica, so the interrupt never reaches an op the thread serves later.
+   */
+  private boolean writerInterrupted = false;
 
   /**
    * Bytes reserved for this replica on the containing volume.
@@ -180,6 +190,14 @@ public void interruptThread() {
     Thread thread = writer.get();
     if (thread != null && thread != Thread.currentThread() 
         && thread.isAlive()) {
+      interruptWriter(thread);
+    }
+  }
+
+  /** Interrupt the given thread if it is still the writer. */
+  private synchronized void interruptWriter(Thread thread) {
+    if (writer.get() == thread) {
+      writerInterrupted = true;
       thread.interrupt();
     }
   }
@@ -192,12 +210,32 @@ public boolean equals(Object o) {
   /**
    * Attempt to set the writer to a new value.
    */
-  public boolean attemptToSetWriter(Thread prevWriter, Thread newWriter) {
-    return writer.compareAndSet(prevWriter, newWriter);
+  public synchronized boolean attemptToSetWriter(Thread prevWriter,
+      Thread newWriter) {
+    if (!writer.compareAndSet(prevWriter, newWriter)) {
+      return false;
+    }
+    writerInterrupted = false;
+    return true;
   }
 
   /**
-   * Interrupt the writing thread and wait until it dies
+   * Stop the current thread being the writer, if it is. An interrupt sent to
+   * stop the writer is cleared, since the thread may be a pooled DataXceiver
+   * thread which goes on to serve an unrelated op.
+   */
+  public synchronized void releaseWriter() {
+    if (writer.compareAndSet(Thread.currentThread(), null)) {
+      if (writerInterrupted) {
+        Thread.interrupted();
+      }
+      writerInterrupted = false;
+    }
+  }
+
+  /**
+   * Interrupt the writing thread and wait until it dies or, since it may be
+   * a pooled DataXceiver thread, until it stops being the writer.
    * @throws IOException the waiting is interrupted
    */
   public void stopWriter(long xceiverStopTimeout) throws IOException {
@@ -212,10 +250,18 @@ public void stopWriter(long xceiverStopTimeout) throws IOException {
         // stop the new writer.
         continue;
       }
-      thread.interrupt();
+      interruptWriter(thread);
       try {
-        thread.join(xceiverStopTimeout);
-        if (thread.isAlive()) {
+        long deadline = Time.monotonicNow() + xceiverStopTimeout;
+        while (writer.get() == thread && thread.isAlive()) {
+          long remaining = deadline - Time.monotonicNow();
+          if (xceiverStopTimeout > 0 && remaining <= 0) {
+            break;
+          }
+          thread.join(xceiverStopTimeout > 0 ?
+              Math.min(remaining, WRITER_POLL_MS) : WRITER_POLL_MS);
+        }
+        if (writer.get() == thread && thread.isAlive()) {
           // Our thread join timed out.
           final String msg = "Join on writer thread " + thread + " timed out";
           DataNode.LOG.warn(msg + "\n" + StringUtils.getStackTrace(thread));
@@ -90,6 +90,24 @@ abstract public class ReplicaInfo extends Block
     setDirInternal(dir);
   }
 
+  /**
+   * Constructor for a replica whose directory is already split into its base
+   * directory and whether it is in the subdirs of the base directory.
+   * @param blockId block id
+   * @param len replica length
+   * @param genStamp replica generation stamp
+   * @param vol volume where replica is located
+   * @param baseDir see {@link #getBaseDir()}
+   * @param hasSubdirs see {@link #hasSubdirs()}
+   */
+  ReplicaInfo(long blockId, long len, long genStamp,
+      FsVolumeSpi vol, File baseDir, boolean hasSubdirs) {
+    super(blockId, len, genStamp);
+    this.volume = vol;
+    this.baseDir = baseDir;
+    this.hasSubdirs = hasSubdirs;
+  }
+
   /**
    * Copy constructor.
    * @param from where to copy from
@@ -147,6 +165,22 @@ File getDir() {
         getBlockId()) : baseDir;
   }
 
+  /**
+   * @return the base directory of this replica, from which its parent
+   * directory is derived
+   */
+  public File getBaseDir() {
+    return baseDir;
+  }
+
+  /**
+   * @return whether this replica is in the subdirs of its base directory
+   * given by its block ID
+   */
+  public boolean hasSubdirs() {
+    return hasSubdirs;
+  }
+
   /**
    * Set the parent directory where this replica is located
    * @param dir the parent directory where the replica is located
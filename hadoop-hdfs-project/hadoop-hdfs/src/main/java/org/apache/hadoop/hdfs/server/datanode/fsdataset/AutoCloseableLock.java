@@ -0,0 +1,63 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset;
+
+import java.util.concurrent.locks.Lock;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * Holds one or more locks of a dataset as an AutoCloseable resource. The
+ * locks are acquired before the object is constructed, and released in the
+ * reverse order by {@link #close()}.
+ *
+ * <pre>
+ *  {@code
+ *    try (AutoCloseableLock lock = dataset.acquireBlockLock(op, bpid, id)) {
+ *      // Read or update the replica of the block
+ *      ...
+ *    }
+ *  }
+ * </pre>
+ */
+@InterfaceAudience.Private
+public class AutoCloseableLock implements AutoCloseable {
+  private final Lock[] locks;
+  private boolean closed = false;
+
+  /**
+   * @param locks the locks held, in the order they were acquired.
+   */
+  public AutoCloseableLock(Lock... locks) {
+    this.locks = locks;
+  }
+
+  /**
+   * Release the locks. Only the first call has any effect.
+   */
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    for (int i = locks.length - 1; i >= 0; i--) {
+      locks[i].unlock();
+    }
+  }
+}
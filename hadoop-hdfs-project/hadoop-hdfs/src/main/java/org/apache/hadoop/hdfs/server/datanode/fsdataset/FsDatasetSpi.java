@@ -218,6 +218,27 @@ StorageReport[] getStorageReports(String bpid)
   /** @return the volume that contains a replica of the block. */
   V getVolume(ExtendedBlock b);
 
+  /**
+   * Acquire the lock which excludes every other operation on the dataset,
+   * such as adding or removing volumes.
+   *
+   * @param op the name of the operation, used for the lock wait metrics.
+   * @return the lock, to be released by closing it.
+   */
+  AutoCloseableLock acquireDatasetLock(String op);
+
+  /**
+   * Acquire the lock which guards the replica of a block against concurrent
+   * updates. Operations on the replicas of other blocks, whether on the same
+   * volume or not, may proceed while it is held.
+   *
+   * @param op the name of the operation, used for the lock wait metrics.
+   * @param bpid the block pool of the block.
+   * @param blockId the ID of the block.
+   * @return the lock, to be released by closing it.
+   */
+  AutoCloseableLock acquireBlockLock(String op, String bpid, long blockId);
+
   /** @return a volume information map (name => info). */
   Map<String, Object> getVolumeInfoMap();
 
@@ -28,7 +28,10 @@
 import java.io.OutputStreamWriter;
 import java.io.RandomAccessFile;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Scanner;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -45,6 +48,7 @@
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.BlockListAsLongs;
 import org.apache.hadoop.hdfs.protocol.BlockListAsLongs.BlockReportReplica;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.ReplicaState;
 import org.apache.hadoop.hdfs.server.datanode.BlockMetadataHeader;
 import org.apache.hadoop.hdfs.server.datanode.DataStorage;
 import org.apache.hadoop.hdfs.server.datanode.DatanodeUtil;
@@ -93,6 +97,8 @@ class BlockPoolSlice {
   private final long cachedDfsUsedCheckTime;
   private final Timer timer;
   private final int maxDataLength;
+  /** The log of the finalized replicas, or null if there is none. */
+  private final ReplicaLog replicaLog;
 
   // TODO:FEDERATION scalability issue - a thread per DU is needed
   private final GetSpaceUsed dfsUsage;
@@ -137,6 +143,23 @@ class BlockPoolSlice {
 
     this.timer = timer;
 
+    // Replicas on transient storage do not survive a restart, so there is
+    // nothing to log for them.
+    File replicaLogFile = new File(currentDir, ReplicaLog.FILE_NAME);
+    if (conf.getBoolean(DFSConfigKeys.DFS_DATANODE_REPLICA_LOG_ENABLED_KEY,
+        DFSConfigKeys.DFS_DATANODE_REPLICA_LOG_ENABLED_DEFAULT)
+        && !volume.isTransientStorage()) {
+      this.replicaLog = new ReplicaLog(replicaLogFile, conf.getInt(
+          DFSConfigKeys.DFS_DATANODE_REPLICA_LOG_COMPACTION_THRESHOLD_KEY,
+          DFSConfigKeys.DFS_DATANODE_REPLICA_LOG_COMPACTION_THRESHOLD_DEFAULT));
+    } else {
+      this.replicaLog = null;
+      // A log left from when it was enabled has missed the changes since.
+      if (replicaLogFile.exists() && !replicaLogFile.delete()) {
+        throw new IOException("Failed to delete " + replicaLogFile);
+      }
+    }
+
     // Files that were being written when the datanode was last shutdown
     // are now moved back to the data directory. It is possible that
     // in the future, we might want to do some sort of datanode-local
@@ -354,12 +377,24 @@ void getVolumeMap(ReplicaMap volumeMap,
       throws IOException {
     // Recover lazy persist replicas, they will be added to the volumeMap
     // when we scan the finalized directory.
+    int numRecovered = 0;
     if (lazypersistDir.exists()) {
-      int numRecovered = moveLazyPersistReplicasToFinalized(lazypersistDir);
+      numRecovered = moveLazyPersistReplicasToFinalized(lazypersistDir);
       FsDatasetImpl.LOG.info(
           "Recovered " + numRecovered + " replicas from " + lazypersistDir);
     }
 
+    if (replicaLog != null) {
+      // The log does not know of the recovered lazy persist replicas.
+      if (numRecovered == 0 &&
+          readReplicasFromLog(volumeMap, lazyWriteReplicaMap)) {
+        // add rbw replicas
+        addToReplicasMap(volumeMap, rbwDir, lazyWriteReplicaMap, false);
+        return;
+      }
+      replicaLog.delete();
+    }
+
     boolean  success = readReplicasFromCache(volumeMap, lazyWriteReplicaMap);
     if (!success) {
       // add finalized replicas
@@ -367,6 +402,116 @@ void getVolumeMap(ReplicaMap volumeMap,
       // add rbw replicas
       addToReplicasMap(volumeMap, rbwDir, lazyWriteReplicaMap, false);
     }
+
+    if (replicaLog != null) {
+      createReplicaLog(volumeMap);
+    }
+  }
+
+  /**
+   * Read the finalized replicas from the replica log, and start appending
+   * to it.
+   * @return false if the log could not be read, in which case no replica
+   * has been added to the volume map.
+   */
+  private boolean readReplicasFromLog(ReplicaMap volumeMap,
+      final RamDiskReplicaTracker lazyWriteReplicaMap) throws IOException {
+    final ReplicaMap tmpReplicaMap = new ReplicaMap(this);
+    tmpReplicaMap.initBlockPool(bpid);
+    try {
+      boolean loaded = replicaLog.load(new ReplicaLog.Handler() {
+        @Override
+        public void add(long blockId, long genStamp, long numBytes) {
+          tmpReplicaMap.add(bpid, new FinalizedReplica(blockId, numBytes,
+              genStamp, volume, DatanodeUtil.idToBlockDir(finalizedDir,
+              blockId)));
+        }
+
+        @Override
+        public void remove(long blockId) {
+          tmpReplicaMap.remove(bpid, blockId);
+        }
+      });
+      if (!loaded) {
+        return false;
+      }
+      Collection<ReplicaInfo> replicas = tmpReplicaMap.replicas(bpid);
+      if (replicaLog.isCompactionDue() && replicaLog.startCompaction()) {
+        replicaLog.compact(replicas);
+      }
+      replicaLog.open(replicas.size());
+    } catch (IOException e) {
+      LOG.warn("Failed to read replica log " + replicaLog.getFile(), e);
+      return false;
+    }
+
+    for (Iterator<ReplicaInfo> iter =
+        tmpReplicaMap.replicas(bpid).iterator(); iter.hasNext(); ) {
+      ReplicaInfo info = iter.next();
+      iter.remove();
+      addReplicaToReplicasMap(info, volumeMap, lazyWriteReplicaMap, true);
+    }
+    LOG.info("Read finalized replicas from replica log "
+        + replicaLog.getFile());
+    return true;
+  }
+
+  /**
+   * Create the replica log from the finalized replicas just read from disk,
+   * and start appending to it. If the log cannot be written, the replicas
+   * will be read from disk again on restart.
+   */
+  private void createReplicaLog(ReplicaMap volumeMap) {
+    List<ReplicaInfo> finalized = new ArrayList<>();
+    synchronized (volumeMap.getMutex()) {
+      Collection<ReplicaInfo> replicas = volumeMap.replicas(bpid);
+      if (replicas != null) {
+        for (ReplicaInfo info : replicas) {
+          if (info.getVolume() == volume &&
+              info.getState() == ReplicaState.FINALIZED) {
+            finalized.add(info);
+          }
+        }
+      }
+    }
+    if (replicaLog.startCompaction() && replicaLog.compact(finalized)) {
+      try {
+        replicaLog.open(finalized.size());
+      } catch (IOException e) {
+        LOG.warn("Failed to open replica log " + replicaLog.getFile(), e);
+        replicaLog.delete();
+      }
+    }
+  }
+
+  /**
+   * Record in the replica log that a replica has been finalized in this
+   * slice. The replica map must already hold the replica.
+   */
+  void logFinalizedReplica(Block b) {
+    if (replicaLog != null && replicaLog.add(b)) {
+      volume.compactReplicaLog(bpid, replicaLog);
+    }
+  }
+
+  /**
+   * Wait until the changes recorded in the replica log so far are synced to
+   * disk.
+   */
+  void syncReplicaLog() {
+    if (replicaLog != null) {
+      replicaLog.sync();
+    }
+  }
+
+  /**
+   * Record in the replica log that a finalized replica has been removed
+   * from this slice. The replica map must no longer hold the replica.
+   */
+  void logRemovedReplica(long blockId) {
+    if (replicaLog != null && replicaLog.remove(blockId)) {
+      volume.compactReplicaLog(bpid, replicaLog);
+    }
   }
 
   /**
@@ -734,7 +879,15 @@ public String toString() {
   }
 
   void shutdown(BlockListAsLongs blocksListToPersist) {
-    saveReplicas(blocksListToPersist);
+    if (replicaLog != null) {
+      // The replica log supersedes the replica cache file.
+      if (blocksListToPersist != null && replicaLog.startCompaction()) {
+        replicaLog.compact(blocksListToPersist);
+      }
+      replicaLog.close();
+    } else {
+      saveReplicas(blocksListToPersist);
+    }
     saveDfsUsed();
     dfsUsedSaved = true;
 
@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.apache.hadoop.hdfs.server.datanode.DataNode;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.AutoCloseableLock;
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
+
+/**
+ * The locks of a {@link FsDatasetImpl}.
+ * <p/>
+ * An operation on the replica of a block holds the dataset lock shared and
+ * the stripe lock of the block exclusively. The stripe of a block is chosen
+ * by its block pool and its ID, so operations on different blocks rarely
+ * wait for each other, whatever volume they are on. Operations which change
+ * the whole dataset, such as adding or removing volumes, hold the dataset
+ * lock exclusively and so exclude every other operation.
+ * <p/>
+ * The dataset lock is not upgradable: an operation holding a block lock
+ * must not acquire the dataset lock exclusively. An operation which needs
+ * the locks of several blocks must acquire them one at a time.
+ * <p/>
+ * The time an operation waits for a lock held by another one is recorded in
+ * the DataNode metrics, keyed by the name of the operation.
+ */
+class DatasetLockManager {
+  private final DataNode datanode;
+  private final ReentrantReadWriteLock datasetLock =
+      new ReentrantReadWriteLock();
+  private final int numStripes;
+  private final ConcurrentMap<String, ReentrantLock[]> stripesByBlockPool =
+      new ConcurrentHashMap<>();
+
+  DatasetLockManager(DataNode datanode, int numStripes) {
+    this.datanode = datanode;
+    this.numStripes = Math.max(1, numStripes);
+  }
+
+  /** Acquire the dataset lock exclusively. */
+  AutoCloseableLock acquireDatasetLock(String op) {
+    return new AutoCloseableLock(lock(op, datasetLock.writeLock()));
+  }
+
+  /** Acquire the dataset lock shared and the stripe lock of a block. */
+  AutoCloseableLock acquireBlockLock(String op, String bpid, long blockId) {
+    Lock shared = lock(op, datasetLock.readLock());
+    try {
+      return new AutoCloseableLock(shared,
+          lock(op, getStripe(bpid, blockId)));
+    } catch (RuntimeException e) {
+      shared.unlock();
+      throw e;
+    }
+  }
+
+  /**
+   * @return a condition of the exclusive dataset lock, which lets a thread
+   * holding it wait for operations which need the lock to make progress.
+   */
+  Condition newDatasetLockCondition() {
+    return datasetLock.writeLock().newCondition();
+  }
+
+  @VisibleForTesting
+  boolean isDatasetLockedByCurrentThread() {
+    return datasetLock.isWriteLockedByCurrentThread();
+  }
+
+  @VisibleForTesting
+  boolean isBlockLockedByCurrentThread(String bpid, long blockId) {
+    return getStripe(bpid, blockId).isHeldByCurrentThread();
+  }
+
+  private ReentrantLock getStripe(String bpid, long blockId) {
+    ReentrantLock[] stripes = stripesByBlockPool.get(bpid);
+    if (stripes == null) {
+      ReentrantLock[] newStripes = new ReentrantLock[numStripes];
+      for (int i = 0; i < numStripes; i++) {
+        newStripes[i] = new ReentrantLock();
+      }
+      stripes = stripesByBlockPool.putIfAbsent(bpid, newStripes);
+      if (stripes == null) {
+        stripes = newStripes;
+      }
+    }
+    // block IDs are mostly sequential, so adjacent blocks use adjacent stripes
+    int hash = (int) (blockId ^ (blockId >>> 32));
+    return stripes[(hash & Integer.MAX_VALUE) % numStripes];
+  }
+
+  /**
+   * Acquire the lock, recording the time waited if it was held by another
+   * thread. The uncontended case does not read the clock.
+   */
+  private Lock lock(String op, Lock lock) {
+    if (tryLock(lock)) {
+      return lock;
+    }
+    long start = System.nanoTime();
+    lock.lock();
+    DataNodeMetrics metrics = datanode.getMetrics();
+    if (metrics != null) {
+      metrics.addDatasetLockWaitNanos(op, System.nanoTime() - start);
+    }
+    return lock;
+  }
+
+  /**
+   * Unlike {@link Lock#tryLock()}, a timed try follows the fairness policy
+   * of the lock. The locks are non-fair, so it may still barge ahead of
+   * queued threads, but like {@link Lock#lock()} the non-fair read lock of
+   * the dataset is not taken while a writer is first in its queue, so
+   * operations on blocks cannot starve a thread waiting to remove a volume.
+   */
+  private static boolean tryLock(Lock lock) {
+    try {
+      return lock.tryLock(0, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+}
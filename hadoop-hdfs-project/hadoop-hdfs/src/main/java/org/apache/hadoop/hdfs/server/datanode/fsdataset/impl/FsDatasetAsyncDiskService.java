@@ -280,6 +280,8 @@ public void run() {
       final long metaLength = metaFile.length();
       boolean result;
 
+      // the replica log must not list a replica whose files are gone
+      volume.syncReplicaLog(block.getBlockPoolId());
       result = (trashDirectory == null) ? deleteFiles() : moveFiles();
 
       if (!result) {
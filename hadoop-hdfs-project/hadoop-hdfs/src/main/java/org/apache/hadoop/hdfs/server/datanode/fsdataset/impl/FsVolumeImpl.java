@@ -49,8 +49,10 @@
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.BlockListAsLongs;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.ReplicaState;
 import org.apache.hadoop.hdfs.server.datanode.DataStorage;
 import org.apache.hadoop.hdfs.server.datanode.DatanodeUtil;
+import org.apache.hadoop.hdfs.server.datanode.ReplicaInfo;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsDatasetSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeReference;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
@@ -302,45 +304,97 @@ void onMetaFileDeletion(String bpid, long value) {
     decDfsUsedAndNumBlocks(bpid, value, false);
   }
 
+  /**
+   * Called after a replica of the block pool has been finalized on this
+   * volume, or a finalized replica has changed.
+   */
+  void onReplicaFinalized(String bpid, Block b) {
+    BlockPoolSlice bp = bpSlices.get(bpid);
+    if (bp != null) {
+      bp.logFinalizedReplica(b);
+    }
+  }
+
+  /**
+   * Wait until the finalized and removed replicas of the block pool on this
+   * volume are recorded on disk, so that they survive a crash. Called
+   * without holding the dataset lock, so that the threads finalizing
+   * replicas at the same time share a sync.
+   */
+  void syncReplicaLog(String bpid) {
+    BlockPoolSlice bp = bpSlices.get(bpid);
+    if (bp != null) {
+      bp.syncReplicaLog();
+    }
+  }
+
+  /**
+   * Called after a replica of the block pool on this volume has been
+   * removed from the replica map.
+   */
+  void onReplicaRemoved(String bpid, ReplicaInfo replica) {
+    // A replica under recovery may have been finalized.
+    if (replica.getState() != ReplicaState.FINALIZED &&
+        replica.getState() != ReplicaState.RUR) {
+      return;
+    }
+    BlockPoolSlice bp = bpSlices.get(bpid);
+    if (bp != null) {
+      bp.logRemovedReplica(replica.getBlockId());
+    }
+  }
+
+  /**
+   * Compact the replica log of a block pool slice, on the thread which
+   * deletes the replicas of this volume.
+   */
+  void compactReplicaLog(final String bpid, final ReplicaLog log) {
+    Runnable task = new Runnable() {
+      @Override
+      public void run() {
+        log.compact(dataset.getFinalizedReplicas(bpid, FsVolumeImpl.this));
+      }
+    };
+    try {
+      dataset.asyncDiskService.execute(currentDir, task);
+    } catch (RuntimeException e) {
+      FsDatasetImpl.LOG.warn("Failed to schedule the compaction of "
+          + log.getFile(), e);
+      log.abortCompaction();
+    }
+  }
+
   private void decDfsUsedAndNumBlocks(String bpid, long value,
                                       boolean blockFileDeleted) {
-    synchronized(dataset) {
-      BlockPoolSlice bp = bpSlices.get(bpid);
-      if (bp != null) {
-        bp.decDfsUsed(value);
-        if (blockFileDeleted) {
-          bp.decrNumBlocks();
-        }
+    BlockPoolSlice bp = bpSlices.get(bpid);
+    if (bp != null) {
+      bp.decDfsUsed(value);
+      if (blockFileDeleted) {
+        bp.decrNumBlocks();
       }
     }
   }
 
   void incDfsUsedAndNumBlocks(String bpid, long value) {
-    synchronized (dataset) {
-      BlockPoolSlice bp = bpSlices.get(bpid);
-      if (bp != null) {
-        bp.incDfsUsed(value);
-        bp.incrNumBlocks();
-      }
+    BlockPoolSlice bp = bpSlices.get(bpid);
+    if (bp != null) {
+      bp.incDfsUsed(value);
+      bp.incrNumBlocks();
     }
   }
 
   void incDfsUsed(String bpid, long value) {
-    synchronized(dataset) {
-      BlockPoolSlice bp = bpSlices.get(bpid);
-      if (bp != null) {
-        bp.incDfsUsed(value);
-      }
+    BlockPoolSlice bp = bpSlices.get(bpid);
+    if (bp != null) {
+      bp.incDfsUsed(value);
     }
   }
 
   @VisibleForTesting
   public long getDfsUsed() throws IOException {
     long dfsUsed = 0;
-    synchronized(dataset) {
-      for(BlockPoolSlice s : bpSlices.values()) {
-        dfsUsed += s.getDfsUsed();
-      }
+    for(BlockPoolSlice s : bpSlices.values()) {
+      dfsUsed += s.getDfsUsed();
     }
     return dfsUsed;
   }
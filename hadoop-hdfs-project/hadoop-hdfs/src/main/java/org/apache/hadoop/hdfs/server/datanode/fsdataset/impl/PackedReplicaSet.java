@@ -0,0 +1,434 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import java.io.File;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.apache.hadoop.hdfs.server.datanode.FinalizedReplica;
+import org.apache.hadoop.hdfs.server.datanode.ReplicaInfo;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
+
+/**
+ * The replicas of a block pool, keyed by block ID.
+ * <p/>
+ * Most replicas of a DataNode are finalized, and a finalized replica is
+ * fully described by its block ID, length, generation stamp, volume and
+ * directory. Rather than as objects, finalized replicas are packed into
+ * dense primitive arrays, which are indexed by an open addressing hash table
+ * keyed by block ID. The volume and base directory of a replica are kept as
+ * the code of an entry in a table of the directories; the state of a packed
+ * replica is always FINALIZED. The other replicas, e.g. those being
+ * written, are kept as objects.
+ * <p/>
+ * A packed replica is materialized as a {@link FinalizedReplica} when it is
+ * looked up. Changes of the length, generation stamp or directory of the
+ * materialized replica are written back to the set, as long as the replica
+ * has not been removed or replaced in the meantime.
+ * <p/>
+ * Like {@link ReplicaMap}, this class is not synchronized, except for the
+ * write-back of materialized replicas which synchronizes on the mutex of the
+ * map. Replicas are iterated in the order of their block IDs, as required
+ * for block reports. For that, a sorted index of the block IDs is kept, at
+ * the cost of 8 bytes per replica. The IDs added since the last iteration
+ * are kept aside and merged into the index by the next one, which takes
+ * linear time plus the time to sort the added IDs only.
+ */
+class PackedReplicaSet extends AbstractCollection<ReplicaInfo> {
+  /** A free slot of the hash table. */
+  private static final int FREE = 0;
+  private static final int MIN_CAPACITY = 16;
+  private static final float MAX_LOAD = 0.75f;
+
+  /** The directory of packed replicas. */
+  private static final class Dir {
+    private final FsVolumeSpi volume;
+    private final File baseDir;
+    private final boolean hasSubdirs;
+
+    Dir(FsVolumeSpi volume, File baseDir, boolean hasSubdirs) {
+      this.volume = volume;
+      this.baseDir = baseDir;
+      this.hasSubdirs = hasSubdirs;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Dir)) {
+        return false;
+      }
+      Dir that = (Dir) o;
+      return volume == that.volume && hasSubdirs == that.hasSubdirs
+          && (baseDir == null ? that.baseDir == null
+              : baseDir.equals(that.baseDir));
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(volume) * 31
+          + (baseDir == null ? 0 : baseDir.hashCode()) + (hasSubdirs ? 1 : 0);
+    }
+  }
+
+  /** A materialized packed replica, whose changes are written back. */
+  private final class PackedReplica extends FinalizedReplica {
+    /** The code of the directory the replica was packed with. */
+    private int code;
+
+    PackedReplica(int index) {
+      super(ids[index], lengths[index], genStamps[index],
+          dirs.get(codes[index]).volume, dirs.get(codes[index]).baseDir,
+          dirs.get(codes[index]).hasSubdirs);
+      this.code = codes[index];
+    }
+
+    @Override
+    public void setNumBytes(long len) {
+      synchronized (mutex) {
+        final long oldLen = getNumBytes();
+        super.setNumBytes(len);
+        writeBack(oldLen, getGenerationStamp(), code);
+      }
+    }
+
+    @Override
+    public void setGenerationStamp(long stamp) {
+      synchronized (mutex) {
+        final long oldGenStamp = getGenerationStamp();
+        super.setGenerationStamp(stamp);
+        writeBack(getNumBytes(), oldGenStamp, code);
+      }
+    }
+
+    @Override
+    public void setDir(File dir) {
+      synchronized (mutex) {
+        super.setDir(dir);
+        writeBack(getNumBytes(), getGenerationStamp(), code);
+      }
+    }
+
+    /**
+     * Write the replica back to the set if the set still holds it as it was
+     * before the change.
+     */
+    private void writeBack(long oldLen, long oldGenStamp, int oldCode) {
+      final int index = find(getBlockId());
+      if (index >= 0 && lengths[index] == oldLen
+          && genStamps[index] == oldGenStamp && codes[index] == oldCode) {
+        code = getCode(getVolume(), getBaseDir(), hasSubdirs());
+        lengths[index] = getNumBytes();
+        genStamps[index] = getGenerationStamp();
+        codes[index] = code;
+      }
+    }
+  }
+
+  private final Object mutex;
+  /** The packed replicas are the first numPacked entries of the arrays. */
+  private long[] ids;
+  private long[] lengths;
+  private long[] genStamps;
+  /** The directory of each packed replica, as an index into dirs. */
+  private int[] codes;
+  private int numPacked = 0;
+  /** The hash table, holding one plus the index of each packed replica. */
+  private int[] table;
+
+  private final List<Dir> dirs = new ArrayList<>();
+  private final Map<Dir, Integer> dirCodes = new HashMap<>();
+  /** The replicas which are not packed. */
+  private final Map<Long, ReplicaInfo> others = new HashMap<>();
+
+  /**
+   * The block IDs of the replicas in ascending order, as of the last
+   * iteration. It may hold the IDs of replicas removed since.
+   */
+  private long[] sortedIds = new long[0];
+  /** The block IDs added since the last iteration, in no order. */
+  private long[] addedIds = new long[MIN_CAPACITY];
+  private int numAdded = 0;
+
+  /**
+   * @param mutex the object on which the changes of materialized replicas
+   *              are synchronized.
+   */
+  PackedReplicaSet(Object mutex) {
+    this.mutex = mutex;
+    ids = new long[MIN_CAPACITY];
+    lengths = new long[MIN_CAPACITY];
+    genStamps = new long[MIN_CAPACITY];
+    codes = new int[MIN_CAPACITY];
+    table = new int[MIN_CAPACITY * 2];
+  }
+
+  private static int hash(long blockId, int mask) {
+    final long h = blockId * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32)) & mask;
+  }
+
+  /** @return the index of the packed replica with the given ID, or -1. */
+  private int find(long blockId) {
+    final int mask = table.length - 1;
+    for (int i = hash(blockId, mask); table[i] != FREE; i = (i + 1) & mask) {
+      if (ids[table[i] - 1] == blockId) {
+        return table[i] - 1;
+      }
+    }
+    return -1;
+  }
+
+  /** @return the slot of the hash table holding the given index. */
+  private int findSlot(int index) {
+    final int mask = table.length - 1;
+    int i = hash(ids[index], mask);
+    while (table[i] != index + 1) {
+      i = (i + 1) & mask;
+    }
+    return i;
+  }
+
+  private void insertSlot(int index) {
+    final int mask = table.length - 1;
+    int i = hash(ids[index], mask);
+    while (table[i] != FREE) {
+      i = (i + 1) & mask;
+    }
+    table[i] = index + 1;
+  }
+
+  /**
+   * Free a slot of the hash table, moving back the following slots which
+   * would not be found any more.
+   */
+  private void freeSlot(int slot) {
+    final int mask = table.length - 1;
+    int free = slot;
+    table[free] = FREE;
+    for (int i = (free + 1) & mask; table[i] != FREE; i = (i + 1) & mask) {
+      final int home = hash(ids[table[i] - 1], mask);
+      // Move the slot back unless its home is cyclically in (free, i].
+      if (free <= i ? free < home && home <= i : free < home || home <= i) {
+        continue;
+      }
+      table[free] = table[i];
+      table[i] = FREE;
+      free = i;
+    }
+  }
+
+  private int getCode(FsVolumeSpi volume, File baseDir, boolean hasSubdirs) {
+    final Dir dir = new Dir(volume, baseDir, hasSubdirs);
+    Integer code = dirCodes.get(dir);
+    if (code == null) {
+      code = dirs.size();
+      dirs.add(dir);
+      dirCodes.put(dir, code);
+    }
+    return code;
+  }
+
+  private static boolean isPackable(ReplicaInfo replica) {
+    return replica.getClass() == FinalizedReplica.class
+        || replica.getClass() == PackedReplica.class;
+  }
+
+  /**
+   * Get the replica with the given block ID.
+   * @return the replica, or null if there is none.
+   */
+  ReplicaInfo get(long blockId) {
+    final int index = find(blockId);
+    return index >= 0 ? new PackedReplica(index) : others.get(blockId);
+  }
+
+  /**
+   * Add a replica, replacing the one with the same block ID.
+   * @return the replaced replica, or null if there was none.
+   */
+  ReplicaInfo addOrReplace(ReplicaInfo replica) {
+    final ReplicaInfo old = remove(replica.getBlockId());
+    if (isPackable(replica)) {
+      pack(replica.getBlockId(), replica.getNumBytes(),
+          replica.getGenerationStamp(), getCode(replica.getVolume(),
+              replica.getBaseDir(), replica.hasSubdirs()));
+    } else {
+      others.put(replica.getBlockId(), replica);
+      addSortedId(replica.getBlockId());
+    }
+    return old;
+  }
+
+  /** Add the block ID of an added replica to the sorted index. */
+  private void addSortedId(long blockId) {
+    if (numAdded == addedIds.length) {
+      addedIds = Arrays.copyOf(addedIds, numAdded + (numAdded >> 1));
+    }
+    addedIds[numAdded++] = blockId;
+  }
+
+  private boolean contains(long blockId) {
+    return find(blockId) >= 0 || others.containsKey(blockId);
+  }
+
+  /**
+   * Bring the sorted index up to date, by merging the sorted IDs added since
+   * the last update into it, and dropping the IDs removed since.
+   *
+   * @return the block IDs of the replicas in ascending order. The array is
+   * not changed by later updates.
+   */
+  private long[] getSortedIds() {
+    // Without additions, the set shrinks exactly by the removed IDs.
+    if (numAdded == 0 && sortedIds.length == size()) {
+      return sortedIds;
+    }
+    final long[] added = Arrays.copyOf(addedIds, numAdded);
+    Arrays.sort(added);
+    final long[] merged = new long[size()];
+    int n = 0;
+    for (int i = 0, j = 0; i < sortedIds.length || j < added.length; ) {
+      final long blockId = j == added.length
+          || (i < sortedIds.length && sortedIds[i] <= added[j])
+          ? sortedIds[i++] : added[j++];
+      // A replaced replica may be both in the index and added.
+      if ((n == 0 || merged[n - 1] != blockId) && contains(blockId)) {
+        merged[n++] = blockId;
+      }
+    }
+    sortedIds = merged;
+    numAdded = 0;
+    if (addedIds.length > MIN_CAPACITY) {
+      addedIds = new long[MIN_CAPACITY];
+    }
+    return sortedIds;
+  }
+
+  /** Add a replica which is not in the set. */
+  private void pack(long blockId, long len, long genStamp, int code) {
+    if (numPacked == ids.length) {
+      final int capacity = numPacked + (numPacked >> 1);
+      ids = Arrays.copyOf(ids, capacity);
+      lengths = Arrays.copyOf(lengths, capacity);
+      genStamps = Arrays.copyOf(genStamps, capacity);
+      codes = Arrays.copyOf(codes, capacity);
+    }
+    final int index = numPacked++;
+    addSortedId(blockId);
+    ids[index] = blockId;
+    lengths[index] = len;
+    genStamps[index] = genStamp;
+    codes[index] = code;
+    if (numPacked > table.length * MAX_LOAD) {
+      table = new int[table.length * 2];
+      for (int i = 0; i < numPacked; i++) {
+        insertSlot(i);
+      }
+    } else {
+      insertSlot(index);
+    }
+  }
+
+  /**
+   * Remove the replica with the given block ID.
+   * @return the removed replica, or null if there was none.
+   */
+  ReplicaInfo remove(long blockId) {
+    final int index = find(blockId);
+    if (index < 0) {
+      return others.remove(blockId);
+    }
+    final ReplicaInfo replica = new PackedReplica(index);
+    freeSlot(findSlot(index));
+    // Fill the hole with the last packed replica.
+    final int last = --numPacked;
+    if (index != last) {
+      final int slot = findSlot(last);
+      ids[index] = ids[last];
+      lengths[index] = lengths[last];
+      genStamps[index] = genStamps[last];
+      codes[index] = codes[last];
+      table[slot] = index + 1;
+    }
+    return replica;
+  }
+
+  /** Add all the replicas of another set, replacing those of this set. */
+  void addAll(PackedReplicaSet other) {
+    for (int i = 0; i < other.numPacked; i++) {
+      final Dir dir = other.dirs.get(other.codes[i]);
+      final long blockId = other.ids[i];
+      remove(blockId);
+      pack(blockId, other.lengths[i], other.genStamps[i],
+          getCode(dir.volume, dir.baseDir, dir.hasSubdirs));
+    }
+    for (ReplicaInfo replica : other.others.values()) {
+      addOrReplace(replica);
+    }
+  }
+
+  @Override
+  public int size() {
+    return numPacked + others.size();
+  }
+
+  /**
+   * Iterate over the replicas in the order of their block IDs. The replicas
+   * may be removed by the iterator, but not otherwise while iterating. Each
+   * packed replica is materialized as it is returned.
+   */
+  @Override
+  public Iterator<ReplicaInfo> iterator() {
+    final long[] sorted = getSortedIds();
+
+    return new Iterator<ReplicaInfo>() {
+      private int index = 0;
+      private ReplicaInfo last = null;
+
+      @Override
+      public boolean hasNext() {
+        return index < sorted.length;
+      }
+
+      @Override
+      public ReplicaInfo next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        last = get(sorted[index++]);
+        return last;
+      }
+
+      @Override
+      public void remove() {
+        if (last == null) {
+          throw new IllegalStateException();
+        }
+        PackedReplicaSet.this.remove(last.getBlockId());
+        last = null;
+      }
+    };
+  }
+}
@@ -0,0 +1,450 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.ReplicaState;
+import org.apache.hadoop.hdfs.server.datanode.Replica;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.nativeio.NativeIO;
+import org.apache.hadoop.util.Shell;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * An append-only log of the finalized replicas of a {@link BlockPoolSlice},
+ * from which the replicas are read on restart instead of listing the
+ * finalized directory.
+ * <p/>
+ * Each finalize and removal of a replica appends a fixed-size record with a
+ * checksum. A record is synced to disk before the NameNode is told of the
+ * finalized replica, or before the files of the removed replica are
+ * deleted, so the log may be loaded after a crash as well as after a clean
+ * shutdown. The records are synced in groups: a thread which needs its
+ * record on disk syncs every record appended so far, and the threads
+ * appending meanwhile wait for that sync or start the next one, as for the
+ * edit log of the NameNode.
+ * <p/>
+ * Loading stops at the first record which is incomplete or fails its
+ * checksum, and drops the rest of the log. Those records were never synced,
+ * so the NameNode was not told of their replicas; the directory scanner
+ * adds any such replica found on disk to the replica map.
+ * <p/>
+ * A log holding many more records than replicas is compacted: a record for
+ * each replica is written to a new file, which then atomically replaces the
+ * log. Records appended while the replicas are written out are kept aside
+ * and copied to the new file before it replaces the log, so the replicas
+ * may be read without blocking appends.
+ */
+class ReplicaLog {
+  static final Log LOG = LogFactory.getLog(ReplicaLog.class);
+
+  static final String FILE_NAME = "replicas.log";
+  private static final int MAGIC = 0x52504c47;
+  private static final int LAYOUT_VERSION = 1;
+  private static final int HEADER_SIZE = 8;
+  private static final byte OP_ADD = 1;
+  private static final byte OP_REMOVE = 2;
+  /** Op, block id, generation stamp, length and checksum. */
+  @VisibleForTesting
+  static final int RECORD_SIZE = 1 + 8 + 8 + 8 + 4;
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /** Applies the records of a log as it is loaded. */
+  interface Handler {
+    void add(long blockId, long genStamp, long numBytes);
+
+    void remove(long blockId);
+  }
+
+  private final File file;
+  private final long compactionThreshold;
+  private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+  private final CRC32 crc = new CRC32();
+  /** The channel records are appended to, or null if not open. */
+  private FileChannel channel;
+  private boolean closed = false;
+  private long numRecords = 0;
+  /** An estimate of the number of replicas in the log. */
+  private long numReplicas = 0;
+  /** The records appended during a compaction, or null if none runs. */
+  private ByteArrayOutputStream pending;
+  /** The number of records appended since the log was created. */
+  private long lastAppended = 0;
+  /** The number of those records known to be synced to disk. */
+  private long lastSynced = 0;
+  /** Whether a thread is syncing the log. */
+  private boolean isSyncRunning = false;
+
+  ReplicaLog(File file, long compactionThreshold) {
+    this.file = file;
+    this.compactionThreshold = compactionThreshold;
+  }
+
+  File getFile() {
+    return file;
+  }
+
+  /**
+   * Read the records of the log, and truncate it after its last intact
+   * record.
+   *
+   * @return false if there is no log or it has an unknown layout.
+   */
+  synchronized boolean load(Handler handler) throws IOException {
+    if (!file.exists()) {
+      LOG.info("Replica log " + file + " does not exist");
+      return false;
+    }
+    final long length = file.length();
+    long valid = HEADER_SIZE;
+    long n = 0;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(file), BUFFER_SIZE))) {
+      if (length < HEADER_SIZE || in.readInt() != MAGIC
+          || in.readInt() != LAYOUT_VERSION) {
+        LOG.warn("Replica log " + file + " has an unknown layout");
+        return false;
+      }
+      final byte[] buf = new byte[RECORD_SIZE];
+      final ByteBuffer r = ByteBuffer.wrap(buf);
+      for (; valid + RECORD_SIZE <= length; valid += RECORD_SIZE, n++) {
+        in.readFully(buf);
+        crc.reset();
+        crc.update(buf, 0, RECORD_SIZE - 4);
+        r.clear();
+        final byte op = r.get();
+        final long blockId = r.getLong();
+        final long genStamp = r.getLong();
+        final long numBytes = r.getLong();
+        if (r.getInt() != (int) crc.getValue()) {
+          break;
+        } else if (op == OP_ADD) {
+          handler.add(blockId, genStamp, numBytes);
+        } else if (op == OP_REMOVE) {
+          handler.remove(blockId);
+        } else {
+          break;
+        }
+      }
+    }
+    if (valid < length) {
+      LOG.warn("Dropping the last " + (length - valid) + " bytes of replica"
+          + " log " + file + ", which do not hold an intact record");
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+        raf.setLength(valid);
+      }
+    }
+    numRecords = n;
+    return true;
+  }
+
+  /**
+   * Start appending to the log, which must have been loaded or compacted.
+   *
+   * @param replicas the number of replicas in the log.
+   */
+  synchronized void open(long replicas) throws IOException {
+    if (channel == null) {
+      channel = new FileOutputStream(file, true).getChannel();
+    }
+    numReplicas = replicas;
+  }
+
+  /**
+   * Record that a replica has been finalized.
+   *
+   * @return whether the log should be compacted. If so, a compaction has
+   * been started, and the caller must call {@link #compact} or
+   * {@link #abortCompaction}.
+   */
+  boolean add(Block b) {
+    return append(OP_ADD, b.getBlockId(), b.getGenerationStamp(),
+        b.getNumBytes());
+  }
+
+  /**
+   * Record that a finalized replica has been removed.
+   *
+   * @return whether the log should be compacted, as for {@link #add}.
+   */
+  boolean remove(long blockId) {
+    return append(OP_REMOVE, blockId, 0, 0);
+  }
+
+  private synchronized boolean append(byte op, long blockId, long genStamp,
+      long numBytes) {
+    if (channel == null) {
+      return false;
+    }
+    encode(op, blockId, genStamp, numBytes);
+    try {
+      while (record.hasRemaining()) {
+        channel.write(record);
+      }
+    } catch (IOException e) {
+      abandon(e);
+      return false;
+    }
+    if (pending != null) {
+      pending.write(record.array(), 0, RECORD_SIZE);
+    }
+    numRecords++;
+    lastAppended++;
+    numReplicas = op == OP_ADD ? numReplicas + 1 : Math.max(0, numReplicas - 1);
+    return isCompactionDue() && startCompaction();
+  }
+
+  private void encode(byte op, long blockId, long genStamp, long numBytes) {
+    record.clear();
+    record.put(op).putLong(blockId).putLong(genStamp).putLong(numBytes);
+    crc.reset();
+    crc.update(record.array(), 0, RECORD_SIZE - 4);
+    record.putInt((int) crc.getValue());
+    record.flip();
+  }
+
+  /**
+   * Wait until every record appended so far, by any thread, is synced to
+   * disk. A sync which fails abandons the log, which is then read from the
+   * disk on restart. An interrupted thread does not sync the log itself,
+   * since an interrupt would close the channel of the log.
+   */
+  void sync() {
+    final long syncUpTo;
+    final FileChannel syncChannel;
+    synchronized (this) {
+      final long mine = lastAppended;
+      try {
+        while (lastSynced < mine && isSyncRunning) {
+          wait();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      if (lastSynced >= mine || channel == null ||
+          Thread.currentThread().isInterrupted()) {
+        return;
+      }
+      // sync the records other threads appended meanwhile as well
+      syncUpTo = lastAppended;
+      syncChannel = channel;
+      isSyncRunning = true;
+    }
+    boolean synced = false;
+    try {
+      syncChannel.force(false);
+      synced = true;
+    } catch (IOException e) {
+      synchronized (this) {
+        if (syncChannel == channel) {
+          abandon(e);
+        }
+      }
+    } finally {
+      synchronized (this) {
+        if (synced) {
+          lastSynced = Math.max(lastSynced, syncUpTo);
+        }
+        isSyncRunning = false;
+        notifyAll();
+      }
+    }
+  }
+
+  /** @return whether the log holds many more records than replicas. */
+  synchronized boolean isCompactionDue() {
+    return numRecords > Math.max(compactionThreshold, 2 * numReplicas);
+  }
+
+  /**
+   * Start a compaction, keeping aside the records appended from now on.
+   *
+   * @return false if a compaction is already running.
+   */
+  synchronized boolean startCompaction() {
+    if (pending != null) {
+      return false;
+    }
+    pending = new ByteArrayOutputStream();
+    return true;
+  }
+
+  synchronized void abortCompaction() {
+    pending = null;
+  }
+
+  /**
+   * Replace the log by one holding a record for each given finalized
+   * replica, followed by the records appended since the compaction started.
+   * The replicas must include every change made to them before the
+   * compaction started.
+   *
+   * @return whether the log was replaced.
+   */
+  boolean compact(Iterable<? extends Replica> replicas) {
+    final File tmpFile = new File(file.getParentFile(), FILE_NAME + ".tmp");
+    FileOutputStream fos = null;
+    boolean replaced = false;
+    try {
+      fos = new FileOutputStream(tmpFile);
+      final DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(fos, BUFFER_SIZE));
+      out.writeInt(MAGIC);
+      out.writeInt(LAYOUT_VERSION);
+      final ByteBuffer buf = ByteBuffer.allocate(RECORD_SIZE);
+      final CRC32 sum = new CRC32();
+      long n = 0;
+      for (Replica r : replicas) {
+        if (r.getState() != ReplicaState.FINALIZED) {
+          continue;
+        }
+        buf.clear();
+        buf.put(OP_ADD).putLong(r.getBlockId())
+            .putLong(r.getGenerationStamp()).putLong(r.getNumBytes());
+        sum.reset();
+        sum.update(buf.array(), 0, RECORD_SIZE - 4);
+        buf.putInt((int) sum.getValue());
+        out.write(buf.array());
+        n++;
+      }
+
+      synchronized (this) {
+        // do not close the channel under a running sync
+        while (isSyncRunning) {
+          wait();
+        }
+        if (closed || pending == null) {
+          return false;
+        }
+        final long replicaCount = n;
+        pending.writeTo(out);
+        n += pending.size() / RECORD_SIZE;
+        out.flush();
+        fos.getChannel().force(true);
+        fos.close();
+        NativeIO.renameTo(tmpFile, file);
+        replaced = true;
+        try {
+          // records synced to the new log must not be lost by a crash
+          // reverting the rename
+          syncDir();
+          if (channel != null) {
+            IOUtils.cleanup(null, channel);
+            channel = null;
+            channel = new FileOutputStream(file, true).getChannel();
+          }
+        } catch (IOException e) {
+          abandon(e);
+          return false;
+        }
+        numRecords = n;
+        numReplicas = replicaCount;
+        // the new log holds every record appended, synced
+        lastSynced = lastAppended;
+      }
+      LOG.info("Compacted replica log " + file + " to " + n + " records");
+      return true;
+    } catch (IOException e) {
+      LOG.warn("Failed to compact replica log " + file, e);
+      return false;
+    } catch (InterruptedException e) {
+      LOG.warn("Interrupted while compacting replica log " + file);
+      Thread.currentThread().interrupt();
+      return false;
+    } finally {
+      synchronized (this) {
+        pending = null;
+      }
+      IOUtils.cleanup(null, fos);
+      if (!replaced && tmpFile.exists() && !tmpFile.delete()) {
+        LOG.warn("Failed to delete " + tmpFile);
+      }
+    }
+  }
+
+  /** Sync the directory of the log, so that a rename of the log is durable. */
+  private void syncDir() throws IOException {
+    if (Shell.WINDOWS) {
+      // a directory cannot be opened to sync it
+      return;
+    }
+    try (FileChannel dir = FileChannel.open(file.getParentFile().toPath(),
+        StandardOpenOption.READ)) {
+      dir.force(true);
+    }
+  }
+
+  /**
+   * Stop using a log which may have missed a change, and delete it so that
+   * it is not read on restart.
+   */
+  private void abandon(IOException e) {
+    LOG.warn("Failed to write replica log " + file + ", deleting it", e);
+    closed = true;
+    delete();
+  }
+
+  /** Stop appending to the log and delete it. */
+  synchronized void delete() {
+    IOUtils.cleanup(null, channel);
+    channel = null;
+    if (file.exists() && !file.delete()) {
+      LOG.warn("Failed to delete replica log " + file);
+    }
+  }
+
+  /** Stop appending to the log, and sync it if it is open. */
+  synchronized void close() {
+    closed = true;
+    if (channel == null) {
+      return;
+    }
+    try {
+      channel.force(true);
+      channel.close();
+      channel = null;
+      lastSynced = lastAppended;
+    } catch (IOException e) {
+      abandon(e);
+    }
+  }
+
+  @VisibleForTesting
+  synchronized long getNumRecords() {
+    return numRecords;
+  }
+}
@@ -18,36 +18,25 @@
 package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
 
 import java.util.Collection;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.hadoop.HadoopIllegalArgumentException;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.server.datanode.ReplicaInfo;
-import org.apache.hadoop.hdfs.util.FoldedTreeSet;
 
 /**
- * Maintains the replica map. 
+ * Maintains the replica map. The replicas of each block pool are kept in a
+ * {@link PackedReplicaSet}, so the replicas returned by the map may be
+ * materialized on lookup: they are equal to, but not the same objects as,
+ * the replicas which were added.
  */
 class ReplicaMap {
   // Object using which this class is synchronized
   private final Object mutex;
   
   // Map of block pool Id to a set of ReplicaInfo.
-  private final Map<String, FoldedTreeSet<ReplicaInfo>> map = new HashMap<>();
-
-  // Special comparator used to compare Long to Block ID in the TreeSet.
-  private static final Comparator<Object> LONG_AND_BLOCK_COMPARATOR
-      = new Comparator<Object>() {
-
-        @Override
-        public int compare(Object o1, Object o2) {
-          long lookup = (long) o1;
-          long stored = ((Block) o2).getBlockId();
-          return lookup > stored ? 1 : lookup < stored ? -1 : 0;
-        }
-      };
+  private final Map<String, PackedReplicaSet> map = new HashMap<>();
 
   ReplicaMap(Object mutex) {
     if (mutex == null) {
@@ -104,11 +93,11 @@ ReplicaInfo get(String bpid, Block block) {
   ReplicaInfo get(String bpid, long blockId) {
     checkBlockPool(bpid);
     synchronized(mutex) {
-      FoldedTreeSet<ReplicaInfo> set = map.get(bpid);
+      PackedReplicaSet set = map.get(bpid);
       if (set == null) {
         return null;
       }
-      return set.get(blockId, LONG_AND_BLOCK_COMPARATOR);
+      return set.get(blockId);
     }
   }
 
@@ -124,10 +113,10 @@ ReplicaInfo add(String bpid, ReplicaInfo replicaInfo) {
     checkBlockPool(bpid);
     checkBlock(replicaInfo);
     synchronized(mutex) {
-      FoldedTreeSet<ReplicaInfo> set = map.get(bpid);
+      PackedReplicaSet set = map.get(bpid);
       if (set == null) {
         // Add an entry for block pool if it does not exist already
-        set = new FoldedTreeSet<>();
+        set = new PackedReplicaSet(mutex);
         map.put(bpid, set);
       }
       return set.addOrReplace(replicaInfo);
@@ -138,7 +127,16 @@ ReplicaInfo add(String bpid, ReplicaInfo replicaInfo) {
    * Add all entries from the given replica map into the local replica map.
    */
   void addAll(ReplicaMap other) {
-    map.putAll(other.map);
+    synchronized(mutex) {
+      for (Map.Entry<String, PackedReplicaSet> e : other.map.entrySet()) {
+        PackedReplicaSet set = map.get(e.getKey());
+        if (set == null) {
+          set = new PackedReplicaSet(mutex);
+          map.put(e.getKey(), set);
+        }
+        set.addAll(e.getValue());
+      }
+    }
   }
   
   /**
@@ -153,13 +151,12 @@ ReplicaInfo remove(String bpid, Block block) {
     checkBlockPool(bpid);
     checkBlock(block);
     synchronized(mutex) {
-      FoldedTreeSet<ReplicaInfo> set = map.get(bpid);
+      PackedReplicaSet set = map.get(bpid);
       if (set != null) {
-        ReplicaInfo replicaInfo =
-            set.get(block.getBlockId(), LONG_AND_BLOCK_COMPARATOR);
+        ReplicaInfo replicaInfo = set.get(block.getBlockId());
         if (replicaInfo != null &&
             block.getGenerationStamp() == replicaInfo.getGenerationStamp()) {
-          return set.removeAndGet(replicaInfo);
+          return set.remove(block.getBlockId());
         }
       }
     }
@@ -176,9 +173,9 @@ ReplicaInfo remove(String bpid, Block block) {
   ReplicaInfo remove(String bpid, long blockId) {
     checkBlockPool(bpid);
     synchronized(mutex) {
-      FoldedTreeSet<ReplicaInfo> set = map.get(bpid);
+      PackedReplicaSet set = map.get(bpid);
       if (set != null) {
-        return set.removeAndGet(blockId, LONG_AND_BLOCK_COMPARATOR);
+        return set.remove(blockId);
       }
     }
     return null;
@@ -191,7 +188,7 @@ ReplicaInfo remove(String bpid, long blockId) {
    */
   int size(String bpid) {
     synchronized(mutex) {
-      FoldedTreeSet<ReplicaInfo> set = map.get(bpid);
+      PackedReplicaSet set = map.get(bpid);
       return set != null ? set.size() : 0;
     }
   }
@@ -213,10 +210,10 @@ Collection<ReplicaInfo> replicas(String bpid) {
   void initBlockPool(String bpid) {
     checkBlockPool(bpid);
     synchronized(mutex) {
-      FoldedTreeSet<ReplicaInfo> set = map.get(bpid);
+      PackedReplicaSet set = map.get(bpid);
       if (set == null) {
         // Add an entry for block pool if it does not exist already
-        set = new FoldedTreeSet<>();
+        set = new PackedReplicaSet(mutex);
         map.put(bpid, set);
       }
     }
@@ -33,6 +33,8 @@
 import org.apache.hadoop.metrics2.lib.MutableGaugeInt;
 import org.apache.hadoop.metrics2.source.JvmMetrics;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ThreadLocalRandom;
 
 /**
@@ -105,6 +107,15 @@ public class DataNodeMetrics {
   @Metric("Count of active dataNode xceivers")
   private MutableGaugeInt dataNodeActiveXceiversCount;
 
+  @Metric("Count of data transfer ops waiting for a worker thread")
+  private MutableGaugeInt dataNodeQueuedXceiverOpsCount;
+
+  @Metric("Count of data transfer ops running on a worker thread")
+  private MutableGaugeInt dataNodeActiveTransfersCount;
+
+  @Metric("Count of idle keep-alive connections waiting without a thread")
+  private MutableGaugeInt dataNodeIdleXceiversCount;
+
   @Metric MutableRate readBlockOp;
   @Metric MutableRate writeBlockOp;
   @Metric MutableRate blockChecksumOp;
@@ -116,6 +127,10 @@ public class DataNodeMetrics {
   @Metric MutableRate blockReports;
   @Metric MutableRate incrementalBlockReports;
   @Metric MutableRate cacheReports;
+  @Metric("Duration of directory scans in ms") MutableRate directoryScans;
+  @Metric("Time the directory scanner spent reconciling a batch of"
+      + " differences, holding the locks of their blocks, in ns")
+  MutableRate directoryScanReconcileNanos;
   @Metric MutableRate packetAckRoundTripTimeNanos;
   final MutableQuantiles[] packetAckRoundTripTimeNanosQuantiles;
   
@@ -135,6 +150,10 @@ public class DataNodeMetrics {
   @Metric("Count of erasure coding failed reconstruction tasks")
   MutableCounterLong ecFailedReconstructionTasks;
 
+  /** Time spent waiting for the dataset locks, by operation. */
+  private final ConcurrentMap<String, MutableRate> datasetLockWaitNanos =
+      new ConcurrentHashMap<>();
+
   final MetricsRegistry registry = new MetricsRegistry("datanode");
   final String name;
   JvmMetrics jvmMetrics = null;
@@ -210,6 +229,14 @@ public void addHeartbeat(long latency) {
     heartbeats.add(latency);
   }
 
+  public void addDirectoryScan(long latency) {
+    directoryScans.add(latency);
+  }
+
+  public void addDirectoryScanReconcileNanos(long latencyNanos) {
+    directoryScanReconcileNanos.add(latencyNanos);
+  }
+
   public void addHeartbeatTotal(long latency) {
     heartbeatsTotal.add(latency);
   }
@@ -325,6 +352,25 @@ public void addFsyncNanos(long latencyNanos) {
     }
   }
 
+  /**
+   * Record the time an operation waited for a dataset lock which another
+   * operation held. Uncontended acquisitions are not recorded.
+   */
+  public void addDatasetLockWaitNanos(String op, long waitNanos) {
+    MutableRate rate = datasetLockWaitNanos.get(op);
+    if (rate == null) {
+      synchronized (datasetLockWaitNanos) {
+        rate = datasetLockWaitNanos.get(op);
+        if (rate == null) {
+          rate = registry.newRate("DatasetLockWait" + op + "Nanos",
+              "Time " + op + " waited for a dataset lock in ns", false);
+          datasetLockWaitNanos.put(op, rate);
+        }
+      }
+    }
+    rate.add(waitNanos);
+  }
+
   public void shutdown() {
     DefaultMetricsSystem.shutdown();
   }
@@ -445,4 +491,28 @@ public void setDataNodeActiveXceiversCount(int value) {
     this.dataNodeActiveXceiversCount.set(value);
   }
 
+  public void incrDataNodeQueuedXceiverOpsCount() {
+    dataNodeQueuedXceiverOpsCount.incr();
+  }
+
+  public void decrDataNodeQueuedXceiverOpsCount() {
+    dataNodeQueuedXceiverOpsCount.decr();
+  }
+
+  public void incrDataNodeActiveTransfersCount() {
+    dataNodeActiveTransfersCount.incr();
+  }
+
+  public void decrDataNodeActiveTransfersCount() {
+    dataNodeActiveTransfersCount.decr();
+  }
+
+  public void incrDataNodeIdleXceiversCount() {
+    dataNodeIdleXceiversCount.incr();
+  }
+
+  public void decrDataNodeIdleXceiversCount() {
+    dataNodeIdleXceiversCount.decr();
+  }
+
 }
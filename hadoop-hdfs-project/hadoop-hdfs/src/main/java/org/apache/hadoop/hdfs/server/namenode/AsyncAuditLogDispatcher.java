@@ -0,0 +1,173 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.ipc.CallerContext;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.util.Daemon;
+
+/**
+ * Passes audit events to the audit loggers on a background thread, so that
+ * the RPC handlers do not wait for the audit loggers to format and write
+ * them. The handlers capture the event, including its thread-local context,
+ * into a bounded queue, which the background thread drains in batches.
+ * When the queue is full the handler either waits for space or the event is
+ * dropped and counted, as configured.
+ */
+class AsyncAuditLogDispatcher implements Runnable {
+  static final Log LOG = LogFactory.getLog(AsyncAuditLogDispatcher.class);
+
+  /** Maximum number of events taken from the queue at once. */
+  private static final int MAX_BATCH_SIZE = 1024;
+
+  /** An audit event, as captured on the handler thread. */
+  static class AuditEvent {
+    final boolean succeeded;
+    final UserGroupInformation ugi;
+    final InetAddress addr;
+    final String cmd;
+    final String src;
+    final String dst;
+    final HdfsFileStatus stat;
+    final CallerContext callerContext;
+    final boolean webHdfs;
+    /** Namesystem lock hold time of the RPC call, for nntop. */
+    final long lockTimeUs;
+    /** Processing time of the RPC call so far, for nntop. */
+    final long rpcTimeUs;
+
+    AuditEvent(boolean succeeded, UserGroupInformation ugi, InetAddress addr,
+        String cmd, String src, String dst, HdfsFileStatus stat,
+        CallerContext callerContext, boolean webHdfs, long lockTimeUs,
+        long rpcTimeUs) {
+      this.succeeded = succeeded;
+      this.ugi = ugi;
+      this.addr = addr;
+      this.cmd = cmd;
+      this.src = src;
+      this.dst = dst;
+      this.stat = stat;
+      this.callerContext = callerContext;
+      this.webHdfs = webHdfs;
+      this.lockTimeUs = lockTimeUs;
+      this.rpcTimeUs = rpcTimeUs;
+    }
+  }
+
+  private final FSNamesystem fsn;
+  private final BlockingQueue<AuditEvent> queue;
+  private final boolean dropWhenFull;
+  private final AtomicLong droppedEvents = new AtomicLong();
+  private volatile boolean running = true;
+  private final Daemon thread;
+
+  AsyncAuditLogDispatcher(FSNamesystem fsn, int queueSize,
+      boolean dropWhenFull) {
+    this.fsn = fsn;
+    this.queue = new ArrayBlockingQueue<>(queueSize);
+    this.dropWhenFull = dropWhenFull;
+    this.thread = new Daemon(this);
+    thread.setName(getClass().getSimpleName());
+  }
+
+  void start() {
+    thread.start();
+  }
+
+  /**
+   * Stop the background thread once it has passed the queued events to the
+   * audit loggers. Events logged afterwards are passed on synchronously.
+   */
+  void stop() {
+    running = false;
+    thread.interrupt();
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  void logAuditEvent(AuditEvent event) {
+    if (!running) {
+      fsn.dispatchAuditEvent(event);
+      return;
+    }
+    if (dropWhenFull) {
+      if (!queue.offer(event)) {
+        droppedEvents.incrementAndGet();
+      }
+      return;
+    }
+    try {
+      queue.put(event);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      droppedEvents.incrementAndGet();
+    }
+  }
+
+  /** @return the number of events waiting to be passed to the loggers. */
+  int getQueueSize() {
+    return queue.size();
+  }
+
+  /** @return the number of events dropped as the queue was full. */
+  long getDroppedEvents() {
+    return droppedEvents.get();
+  }
+
+  @Override
+  public void run() {
+    final List<AuditEvent> batch = new ArrayList<>(MAX_BATCH_SIZE);
+    while (running) {
+      try {
+        batch.add(queue.take());
+      } catch (InterruptedException e) {
+        break;
+      }
+      queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+      dispatch(batch);
+    }
+    while (queue.drainTo(batch, MAX_BATCH_SIZE) > 0) {
+      dispatch(batch);
+    }
+  }
+
+  private void dispatch(List<AuditEvent> batch) {
+    for (AuditEvent event : batch) {
+      try {
+        fsn.dispatchAuditEvent(event);
+      } catch (Throwable t) {
+        LOG.warn("Failed to log audit event " + event.cmd + " on "
+            + event.src, t);
+      }
+    }
+    batch.clear();
+  }
+}
@@ -0,0 +1,62 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.hdfs.util.ByteArray;
+
+/**
+ * A {@link NameCache} of byte arrays, such as inode names and packed xattrs,
+ * which keeps an estimate of the heap saved by sharing the cached arrays.
+ */
+class ByteArrayCache extends NameCache<ByteArray> {
+  /** Size of a byte array header on a 64 bit JVM */
+  private static final int ARRAY_HEADER_SIZE = 16;
+
+  private final AtomicLong bytesSaved = new AtomicLong();
+
+  ByteArrayCache(int useThreshold, int maxSize) {
+    super(useThreshold, maxSize);
+  }
+
+  /**
+   * @return the cached array with the same contents as the given array, or
+   *         the given array if there is none
+   */
+  byte[] intern(byte[] bytes) {
+    ByteArray internal = put(new ByteArray(bytes));
+    if (internal == null) {
+      return bytes;
+    }
+    byte[] shared = internal.getBytes();
+    if (shared != bytes) {
+      // the given array can be collected once the caller switches over.
+      bytesSaved.addAndGet(ARRAY_HEADER_SIZE + ((bytes.length + 7) & ~7));
+    }
+    return shared;
+  }
+
+  /**
+   * @return estimated number of heap bytes saved by sharing cached arrays,
+   *         since the cache was created
+   */
+  long getBytesSaved() {
+    return bytesSaved.get();
+  }
+}
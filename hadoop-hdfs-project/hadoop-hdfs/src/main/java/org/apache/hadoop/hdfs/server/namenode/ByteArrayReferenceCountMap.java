@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.hdfs.util.ByteArray;
+import org.apache.hadoop.hdfs.util.ReferenceCountMap;
+
+/**
+ * De-duplicates byte arrays, such as packed xattrs, between the inodes using
+ * them, like {@link ReferenceCountMap} does for ACLs. An array is kept while
+ * it is referenced, and the arrays kept take at most a given number of heap
+ * bytes; arrays which do not fit are used unshared.<br>
+ * Only the references to the arrays returned by {@link #put(byte[])} are
+ * counted, so removing a reference to an array which is not shared has no
+ * effect.<br>
+ * Note: The methods are synchronized since the map may be updated by
+ * several threads while the fsimage is loaded in parallel.
+ */
+class ByteArrayReferenceCountMap {
+  /** Size of a byte array header on a 64 bit JVM */
+  private static final int ARRAY_HEADER_SIZE = 16;
+  /** Estimated size of a map entry with its key and reference count */
+  private static final int ENTRY_SIZE = 80;
+
+  /** A shared array and the number of references to it */
+  private static class Entry {
+    private final byte[] bytes;
+    private int refCount;
+
+    Entry(byte[] bytes) {
+      this.bytes = bytes;
+    }
+  }
+
+  private final Map<ByteArray, Entry> referenceMap =
+      new HashMap<ByteArray, Entry>();
+  private final long maxBytes;
+
+  /** Estimated heap bytes taken by the shared arrays and their entries */
+  private long bytes = 0;
+  /** Estimated heap bytes saved by the references beyond the first */
+  private long bytesSaved = 0;
+  private long hits = 0;
+  private long misses = 0;
+
+  ByteArrayReferenceCountMap(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  private static long sizeOf(byte[] array) {
+    return ARRAY_HEADER_SIZE + ((array.length + 7) & ~7);
+  }
+
+  /**
+   * Add a reference to the array with the same contents as the given array.
+   *
+   * @return the shared array with the same contents as the given array, or
+   *         the given array if it cannot be shared
+   */
+  synchronized byte[] put(byte[] array) {
+    final ByteArray key = new ByteArray(array);
+    Entry entry = referenceMap.get(key);
+    if (entry == null) {
+      misses++;
+      final long size = sizeOf(array) + ENTRY_SIZE;
+      if (bytes + size > maxBytes) {
+        return array;
+      }
+      entry = new Entry(array);
+      referenceMap.put(key, entry);
+      bytes += size;
+    } else {
+      hits++;
+      bytesSaved += sizeOf(array);
+    }
+    entry.refCount++;
+    return entry.bytes;
+  }
+
+  /**
+   * Delete a reference to the given array, if it is shared. On all
+   * references removal delete the array from the map.
+   */
+  synchronized void remove(byte[] array) {
+    final ByteArray key = new ByteArray(array);
+    final Entry entry = referenceMap.get(key);
+    if (entry == null || entry.bytes != array) {
+      return;
+    }
+    if (--entry.refCount == 0) {
+      referenceMap.remove(key);
+      bytes -= sizeOf(array) + ENTRY_SIZE;
+    } else {
+      bytesSaved -= sizeOf(array);
+    }
+  }
+
+  /** @return number of unique shared arrays */
+  synchronized int getUniqueElementsSize() {
+    return referenceMap.size();
+  }
+
+  /** @return estimated heap bytes taken by the shared arrays */
+  synchronized long getBytes() {
+    return bytes;
+  }
+
+  /** @return estimated heap bytes currently saved by sharing the arrays */
+  synchronized long getBytesSaved() {
+    return bytesSaved;
+  }
+
+  /** @return number of references added to an already shared array */
+  synchronized long getHits() {
+    return hits;
+  }
+
+  /** @return number of references added to an array not yet shared */
+  synchronized long getMisses() {
+    return misses;
+  }
+
+  /** Clear the contents */
+  synchronized void clear() {
+    referenceMap.clear();
+    bytes = 0;
+    bytesSaved = 0;
+  }
+}
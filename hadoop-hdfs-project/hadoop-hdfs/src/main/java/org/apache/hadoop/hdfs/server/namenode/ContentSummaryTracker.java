@@ -0,0 +1,330 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.apache.hadoop.hdfs.protocol.HdfsConstants.BLOCK_STORAGE_POLICY_ID_UNSPECIFIED;
+import static org.apache.hadoop.hdfs.server.namenode.snapshot.Snapshot.CURRENT_STATE_ID;
+
+import org.apache.hadoop.fs.ContentSummary;
+import org.apache.hadoop.util.Time;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the content counts of every directory up to date as the namespace
+ * changes, so that the content summary of a directory can be returned
+ * without walking its subtree.
+ *
+ * Each directory holds a {@link DirectoryContentSummaryFeature} with the
+ * counts of its subtree, excluding files under construction. The counts
+ * are initialized by a full walk of the namespace in
+ * {@link #initialize()}; afterwards every change to the namespace that
+ * affects the counts applies the difference to the ancestors of the changed
+ * inode. Files under construction change with every block written, so
+ * their contribution is added when the summary is requested instead. Each
+ * directory also counts the files under construction in its subtree, so
+ * that only the directories which have some are visited to find them.
+ * A moved directory keeps its counts, unless the storage policy inherited
+ * by its subtree changes with its new parent.
+ *
+ * Snapshots keep deleted content in the summary of a directory, which the
+ * counts do not track. The tracker is therefore deactivated as soon as the
+ * namespace has a snapshottable directory, and all requests fall back to
+ * computing the summary.
+ *
+ * All methods must be called with the FSDirectory lock held.
+ */
+class ContentSummaryTracker {
+  static final Logger LOG = LoggerFactory.getLogger(ContentSummaryTracker.class);
+
+  private final FSDirectory fsd;
+  private final boolean enabled;
+  private boolean active = false;
+
+  ContentSummaryTracker(FSDirectory fsd, boolean enabled) {
+    this.fsd = fsd;
+    this.enabled = enabled;
+  }
+
+  boolean isActive() {
+    if (active && fsd.getFSNamesystem().getSnapshotManager()
+        .getNumSnapshottableDirs() > 0) {
+      LOG.info("Deactivating incremental content summary since the "
+          + "namespace has snapshottable directories");
+      active = false;
+    }
+    return active;
+  }
+
+  /**
+   * Compute the counts of all the directories in the namespace and start
+   * tracking changes.
+   */
+  void initialize() {
+    assert fsd.hasWriteLock();
+    if (!enabled) {
+      return;
+    }
+    active = false;
+    if (fsd.getFSNamesystem().getSnapshotManager()
+        .getNumSnapshottableDirs() > 0) {
+      LOG.info("Incremental content summary is not used since the "
+          + "namespace has snapshottable directories");
+      return;
+    }
+    long start = Time.monotonicNow();
+    ContentCounts counts = recompute(fsd.getRoot()).getCounts();
+    active = true;
+    LOG.info("Initialized incremental content summary in {} ms: {} "
+        + "directories, {} files", Time.monotonicNow() - start,
+        counts.getDirectoryCount(), counts.getFileCount());
+  }
+
+  /**
+   * @return the counts the given inode contributes to its ancestors, or null
+   *         if changes are not tracked. Files under construction contribute
+   *         nothing.
+   */
+  ContentCounts get(INode inode) {
+    if (!isActive()) {
+      return null;
+    }
+    if (inode.isDirectory()) {
+      DirectoryContentSummaryFeature f = getFeature(inode.asDirectory());
+      ContentCounts counts = newCounts();
+      counts.addContents(f != null ? f.getCounts()
+          : recompute(inode.asDirectory()).getCounts());
+      return counts;
+    }
+    return computeCounts(inode);
+  }
+
+  /** Add the counts of a newly added inode to its ancestors. */
+  void added(INode inode) {
+    if (!isActive()) {
+      return;
+    }
+    if (!inode.isDirectory()) {
+      addToAncestors(inode.getParent(), computeCounts(inode),
+          isUnderConstruction(inode) ? 1 : 0, false);
+      return;
+    }
+    final INodeDirectory dir = inode.asDirectory();
+    DirectoryContentSummaryFeature f = getFeature(dir);
+    // The subtree of a moved directory is only recomputed if the storage
+    // policy it inherits changed with its new parent.
+    if (f == null || f.getStoragePolicyId() != dir.getStoragePolicyID()) {
+      f = recompute(dir);
+    }
+    addToAncestors(dir.getParent(), f.getCounts(), f.getUnderConstruction(),
+        false);
+  }
+
+  /**
+   * Remove the counts of an inode removed from the given parent.
+   * @param counts the counts of the inode taken by {@link #get(INode)}
+   *               before it was removed.
+   */
+  void removed(INodeDirectory parent, INode inode, ContentCounts counts) {
+    if (counts != null && isActive()) {
+      addToAncestors(parent, counts, countUnderConstruction(inode), true);
+    }
+  }
+
+  /**
+   * Apply the change of the counts of a modified inode to its ancestors.
+   * @param before the counts of the inode taken by {@link #get(INode)}
+   *               before it was modified.
+   */
+  void updated(INode inode, ContentCounts before) {
+    if (before == null || !isActive()) {
+      return;
+    }
+    ContentCounts delta = newCounts();
+    long underConstructionDelta = 0;
+    if (inode.isDirectory()) {
+      delta.addContents(recompute(inode.asDirectory()).getCounts());
+    } else {
+      delta.addContents(computeCounts(inode));
+      if (inode.isFile()) {
+        // a file under construction has no counts at all, not even its own
+        final boolean wasUnderConstruction = before.getFileCount() == 0;
+        underConstructionDelta = (isUnderConstruction(inode) ? 1 : 0)
+            - (wasUnderConstruction ? 1 : 0);
+      }
+    }
+    delta.subtractContents(before);
+    addToAncestors(inode.getParent(), delta, underConstructionDelta, false);
+  }
+
+  /**
+   * @return the content summary of the given directory, or null if it is
+   *         not tracked.
+   */
+  ContentSummary getContentSummary(INodeDirectory dir) {
+    if (!isActive()) {
+      return null;
+    }
+    final DirectoryContentSummaryFeature f = getFeature(dir);
+    if (f == null) {
+      return null;
+    }
+    final ContentCounts counts = newCounts();
+    counts.addContents(f.getCounts());
+    // add the files being written under the directory
+    if (f.getUnderConstruction() > 0) {
+      final ContentSummaryComputationContext context = newContext();
+      addUnderConstruction(dir, f.getUnderConstruction(), context);
+      counts.addContents(context.getCounts());
+    }
+    final QuotaCounts q = dir.getQuotaCounts();
+    return new ContentSummary.Builder().
+        length(counts.getLength()).
+        fileCount(counts.getFileCount() + counts.getSymlinkCount()).
+        directoryCount(counts.getDirectoryCount()).
+        quota(q.getNameSpace()).
+        spaceConsumed(counts.getStoragespace()).
+        spaceQuota(q.getStorageSpace()).
+        typeConsumed(counts.getTypeSpaces()).
+        typeQuota(q.getTypeSpaces().asArray()).
+        build();
+  }
+
+  /**
+   * Add the files under construction in the subtree to the context, only
+   * descending into the directories which have some.
+   * @param expected the number of files under construction in the subtree.
+   * @return the number of files under construction found.
+   */
+  private static long addUnderConstruction(INodeDirectory dir, long expected,
+      ContentSummaryComputationContext context) {
+    long found = 0;
+    for (INode child : dir.getChildrenList(CURRENT_STATE_ID)) {
+      if (found >= expected) {
+        break;
+      }
+      if (isUnderConstruction(child)) {
+        child.computeContentSummary(CURRENT_STATE_ID, context);
+        found++;
+      } else if (child.isDirectory()) {
+        final DirectoryContentSummaryFeature f =
+            getFeature(child.asDirectory());
+        if (f != null && f.getUnderConstruction() > 0) {
+          found += addUnderConstruction(child.asDirectory(),
+              f.getUnderConstruction(), context);
+        }
+      }
+    }
+    return found;
+  }
+
+  private static boolean isUnderConstruction(INode inode) {
+    return inode.isFile() && inode.asFile().isUnderConstruction();
+  }
+
+  /** @return the number of files under construction in the subtree. */
+  private static long countUnderConstruction(INode inode) {
+    if (inode.isDirectory()) {
+      final DirectoryContentSummaryFeature f = getFeature(inode.asDirectory());
+      return f != null ? f.getUnderConstruction() : 0;
+    }
+    return isUnderConstruction(inode) ? 1 : 0;
+  }
+
+  private static ContentCounts newCounts() {
+    return new ContentCounts.Builder().build();
+  }
+
+  private ContentSummaryComputationContext newContext() {
+    return new ContentSummaryComputationContext(
+        fsd.getBlockStoragePolicySuite());
+  }
+
+  private static DirectoryContentSummaryFeature getFeature(
+      INodeDirectory dir) {
+    return dir.getFeature(DirectoryContentSummaryFeature.class);
+  }
+
+  /** Compute the counts of a file or symlink. */
+  private ContentCounts computeCounts(INode inode) {
+    if (isUnderConstruction(inode)) {
+      return newCounts();
+    }
+    return inode.computeContentSummary(CURRENT_STATE_ID, newContext())
+        .getCounts();
+  }
+
+  /**
+   * Recompute and set the counts of all the directories in the subtree.
+   * @return the feature holding the counts of the subtree.
+   */
+  private DirectoryContentSummaryFeature recompute(INodeDirectory dir) {
+    return recompute(dir, dir.getStoragePolicyID());
+  }
+
+  /**
+   * @param storagePolicyId the storage policy the directory applies to its
+   *                        subtree, either its own or the inherited one.
+   */
+  private DirectoryContentSummaryFeature recompute(INodeDirectory dir,
+      byte storagePolicyId) {
+    final ContentCounts counts = newCounts();
+    counts.addContent(Content.DIRECTORY, 1);
+    long underConstruction = 0;
+    for (INode child : dir.getChildrenList(CURRENT_STATE_ID)) {
+      if (child.isDirectory()) {
+        final byte local = child.getLocalStoragePolicyID();
+        final DirectoryContentSummaryFeature f = recompute(
+            child.asDirectory(), local != BLOCK_STORAGE_POLICY_ID_UNSPECIFIED
+                ? local : storagePolicyId);
+        counts.addContents(f.getCounts());
+        underConstruction += f.getUnderConstruction();
+      } else {
+        counts.addContents(computeCounts(child));
+        if (isUnderConstruction(child)) {
+          underConstruction++;
+        }
+      }
+    }
+    final DirectoryContentSummaryFeature old = getFeature(dir);
+    if (old != null) {
+      dir.removeFeature(old);
+    }
+    final DirectoryContentSummaryFeature f = new DirectoryContentSummaryFeature(
+        counts, storagePolicyId, underConstruction);
+    dir.addFeature(f);
+    return f;
+  }
+
+  private static void addToAncestors(INodeDirectory parent,
+      ContentCounts delta, long underConstructionDelta, boolean subtract) {
+    for (INodeDirectory d = parent; d != null; d = d.getParent()) {
+      final DirectoryContentSummaryFeature f = getFeature(d);
+      if (f == null) {
+        continue;
+      }
+      if (subtract) {
+        f.getCounts().subtractContents(delta);
+        f.addUnderConstruction(-underConstructionDelta);
+      } else {
+        f.getCounts().addContents(delta);
+        f.addUnderConstruction(underConstructionDelta);
+      }
+    }
+  }
+}
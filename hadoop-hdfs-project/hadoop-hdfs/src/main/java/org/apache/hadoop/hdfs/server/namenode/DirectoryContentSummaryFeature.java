@@ -0,0 +1,54 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+/**
+ * Feature for {@link INodeDirectory} holding the content counts of the
+ * subtree rooted at the directory, maintained by
+ * {@link ContentSummaryTracker}.
+ */
+final class DirectoryContentSummaryFeature implements INode.Feature {
+  private final ContentCounts counts;
+  /** The storage policy the files of the subtree inherit by default. */
+  private final byte storagePolicyId;
+  /** The number of files under construction in the subtree. */
+  private long underConstruction;
+
+  DirectoryContentSummaryFeature(ContentCounts counts, byte storagePolicyId,
+      long underConstruction) {
+    this.counts = counts;
+    this.storagePolicyId = storagePolicyId;
+    this.underConstruction = underConstruction;
+  }
+
+  ContentCounts getCounts() {
+    return counts;
+  }
+
+  byte getStoragePolicyId() {
+    return storagePolicyId;
+  }
+
+  long getUnderConstruction() {
+    return underConstruction;
+  }
+
+  void addUnderConstruction(long delta) {
+    underConstruction += delta;
+  }
+}
@@ -187,7 +187,11 @@ static LocatedBlock prepareFileForAppend(final FSNamesystem fsn,
     final QuotaCounts delta = verifyQuotaForUCBlock(fsn, file, iip);
 
     file.recordModification(iip.getLatestSnapshotId());
+    final ContentSummaryTracker tracker =
+        fsn.getFSDirectory().getContentSummaryTracker();
+    final ContentCounts counts = tracker.get(file);
     file.toUnderConstruction(leaseHolder, clientMachine);
+    tracker.updated(file, counts);
 
     fsn.getLeaseManager().addLease(
         file.getFileUnderConstructionFeature().getClientName(), file.getId());
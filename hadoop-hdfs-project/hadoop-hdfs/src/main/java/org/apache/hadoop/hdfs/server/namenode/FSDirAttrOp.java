@@ -424,6 +424,8 @@ static BlockInfo[] unprotectedSetReplication(
     }
 
     INodeFile file = inode.asFile();
+    final ContentSummaryTracker tracker = fsd.getContentSummaryTracker();
+    final ContentCounts counts = tracker.get(file);
     // Make sure the directory has sufficient quotas
     short oldBR = file.getPreferredBlockReplication();
 
@@ -447,6 +449,7 @@ static BlockInfo[] unprotectedSetReplication(
       }
       bm.setReplication(oldBR, targetReplication, b);
     }
+    tracker.updated(file, counts);
 
     if (oldBR != -1) {
       if (oldBR > targetReplication) {
@@ -470,6 +473,8 @@ static void unprotectedSetStoragePolicy(FSDirectory fsd, BlockManager bm,
           + iip.getPath());
     }
     final int snapshotId = iip.getLatestSnapshotId();
+    final ContentSummaryTracker tracker = fsd.getContentSummaryTracker();
+    final ContentCounts counts = tracker.get(inode);
     if (inode.isFile()) {
       if (policyId != HdfsConstants.BLOCK_STORAGE_POLICY_ID_UNSPECIFIED) {
         BlockStoragePolicy newPolicy = bm.getStoragePolicy(policyId);
@@ -495,6 +500,7 @@ static void unprotectedSetStoragePolicy(FSDirectory fsd, BlockManager bm,
       throw new FileNotFoundException(iip.getPath()
           + " is not a file or directory");
     }
+    tracker.updated(inode, counts);
   }
 
   private static void setDirStoragePolicy(
@@ -514,7 +520,8 @@ private static void setDirStoragePolicy(
           Arrays.asList(xAttr),
           EnumSet.of(XAttrSetFlag.CREATE, XAttrSetFlag.REPLACE));
     }
-    XAttrStorage.updateINodeXAttrs(inode, newXAttrs, latestSnapshotId);
+    XAttrStorage.updateINodeXAttrs(fsd, inode, newXAttrs,
+        latestSnapshotId);
   }
 
   private static boolean unprotectedSetTimes(
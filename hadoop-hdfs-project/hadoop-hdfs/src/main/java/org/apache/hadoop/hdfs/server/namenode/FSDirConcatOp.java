@@ -246,18 +246,30 @@ static void unprotectedConcat(FSDirectory fsd, INodesInPath targetIIP,
     // the target file can be included in a snapshot
     trgInode.recordModification(targetIIP.getLatestSnapshotId());
     INodeDirectory trgParent = targetIIP.getINode(-2).asDirectory();
+    final ContentSummaryTracker tracker = fsd.getContentSummaryTracker();
+    final ContentCounts trgCounts = tracker.get(trgInode);
+    final ContentCounts[] srcCounts = new ContentCounts[srcList.length];
+    for (int i = 0; i < srcList.length; i++) {
+      if (srcList[i] != null) {
+        srcCounts[i] = tracker.get(srcList[i]);
+      }
+    }
     trgInode.concatBlocks(srcList, fsd.getBlockManager());
 
     // since we are in the same dir - we can use same parent to remove files
     int count = 0;
-    for (INodeFile nodeToRemove : srcList) {
+    for (int i = 0; i < srcList.length; i++) {
+      final INodeFile nodeToRemove = srcList[i];
       if(nodeToRemove != null) {
         nodeToRemove.clearBlocks();
-        nodeToRemove.getParent().removeChild(nodeToRemove);
+        final INodeDirectory srcParent = nodeToRemove.getParent();
+        srcParent.removeChild(nodeToRemove);
+        tracker.removed(srcParent, srcCounts[i]);
         fsd.getINodeMap().remove(nodeToRemove);
         count++;
       }
     }
+    tracker.updated(trgInode, trgCounts);
 
     trgInode.setModificationTime(timestamp, targetIIP.getLatestSnapshotId());
     trgParent.updateModificationTime(timestamp, targetIIP.getLatestSnapshotId());
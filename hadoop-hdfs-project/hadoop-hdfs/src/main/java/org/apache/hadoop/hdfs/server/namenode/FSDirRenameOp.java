@@ -669,7 +669,7 @@ long removeDst() {
 
     boolean addSourceToDestination() {
       final INode dstParent = dstParentIIP.getLastINode();
-      final byte[] dstChildName = dstIIP.getLastLocalName();
+      final byte[] dstChildName = fsd.internName(dstIIP.getLastLocalName());
       final INode toDst;
       if (withCount == null) {
         srcChild.setLocalName(dstChildName);
@@ -24,6 +24,7 @@
 import org.apache.hadoop.hdfs.DFSUtil;
 import org.apache.hadoop.hdfs.protocol.FSLimitException;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReportListing;
 import org.apache.hadoop.hdfs.protocol.SnapshotException;
 import org.apache.hadoop.hdfs.protocol.SnapshottableDirectoryStatus;
 import org.apache.hadoop.hdfs.server.namenode.snapshot.DirectorySnapshottableFeature;
@@ -163,6 +164,29 @@ static SnapshotDiffReport getSnapshotDiffReport(FSDirectory fsd,
     return diffs;
   }
 
+  static SnapshotDiffReportListing getSnapshotDiffReportListing(
+      FSDirectory fsd, SnapshotManager snapshotManager, String path,
+      String fromSnapshot, String toSnapshot, long listingId, int startIndex,
+      int limit) throws IOException {
+    SnapshotDiffReportListing diffs;
+    final FSPermissionChecker pc = fsd.getPermissionChecker();
+    fsd.readLock();
+    try {
+      // The subtrees are only read when the report is computed for the first
+      // part; the later parts are bound to the user who started the listing.
+      if (fsd.isPermissionEnabled() && startIndex == 0) {
+        checkSubtreeReadPermission(fsd, pc, path, fromSnapshot);
+        checkSubtreeReadPermission(fsd, pc, path, toSnapshot);
+      }
+      INodesInPath iip = fsd.getINodesInPath(path, true);
+      diffs = snapshotManager.diffListing(iip, path, fromSnapshot, toSnapshot,
+          pc.getUser(), listingId, startIndex, limit);
+    } finally {
+      fsd.readUnlock();
+    }
+    return diffs;
+  }
+
   /** Get a collection of full snapshot paths given file and snapshot dir.
    * @param lsf a list of snapshottable features
    * @param file full path of the file
@@ -53,6 +53,12 @@
 class FSDirStatAndListingOp {
   static DirectoryListing getListingInt(FSDirectory fsd, final String srcArg,
       byte[] startAfter, boolean needLocation) throws IOException {
+    return getListingInt(fsd, srcArg, startAfter, needLocation, null);
+  }
+
+  static DirectoryListing getListingInt(FSDirectory fsd, final String srcArg,
+      byte[] startAfter, boolean needLocation, byte[] prefix)
+      throws IOException {
     byte[][] pathComponents = FSDirectory
         .getPathComponentsForReservedPath(srcArg);
     final String startAfterString = new String(startAfter, Charsets.UTF_8);
@@ -91,7 +97,8 @@ static DirectoryListing getListingInt(FSDirectory fsd, final String srcArg,
       }
       isSuperUser = pc.isSuperUser();
     }
-    return getListing(fsd, iip, src, startAfter, needLocation, isSuperUser);
+    return getListing(fsd, iip, src, startAfter, needLocation, isSuperUser,
+        prefix);
   }
 
   /**
@@ -233,11 +240,13 @@ private static byte getStoragePolicyID(byte inodePolicy, byte parentPolicy) {
    * @param src the directory name
    * @param startAfter the name to start listing after
    * @param needLocation if block locations are returned
+   * @param prefix if not null, only the children whose name starts with the
+   *               prefix are listed
    * @return a partial listing starting after startAfter
    */
   private static DirectoryListing getListing(FSDirectory fsd, INodesInPath iip,
-      String src, byte[] startAfter, boolean needLocation, boolean isSuperUser)
-      throws IOException {
+      String src, byte[] startAfter, boolean needLocation, boolean isSuperUser,
+      byte[] prefix) throws IOException {
     String srcs = FSDirectory.normalizePath(src);
     final boolean isRawPath = FSDirectory.isReservedRawName(src);
     if (FSDirectory.isExactReservedName(srcs)) {
@@ -274,6 +283,17 @@ private static DirectoryListing getListing(FSDirectory fsd, INodesInPath iip,
       final ReadOnlyList<INode> contents = dirInode.getChildrenList(snapshot);
       int startChild = INodeDirectory.nextChild(contents, startAfter);
       int totalNumChildren = contents.size();
+      if (prefix != null && prefix.length > 0) {
+        // the children are sorted by name, so the ones with the prefix are
+        // a contiguous range
+        int prefixStart = ReadOnlyList.Util.binarySearch(contents, prefix);
+        if (prefixStart < 0) {
+          prefixStart = -prefixStart - 1;
+        }
+        totalNumChildren = endOfPrefix(contents, prefixStart, prefix);
+        startChild = Math.min(Math.max(startChild, prefixStart),
+            totalNumChildren);
+      }
       int numOfListing = Math.min(totalNumChildren - startChild,
           fsd.getLsLimit());
       int locationBudget = fsd.getLsLimit();
@@ -314,6 +334,38 @@ needLocation, getStoragePolicyID(curPolicy, parentStoragePolicy),
     }
   }
 
+  /**
+   * @return the index of the first child at or after start whose name does
+   *         not start with the prefix. All the children from start on whose
+   *         name starts with the prefix must precede the others.
+   */
+  private static int endOfPrefix(ReadOnlyList<INode> contents, int start,
+      byte[] prefix) {
+    int low = start;
+    int high = contents.size();
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (startsWith(contents.get(mid).getLocalNameBytes(), prefix)) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private static boolean startsWith(byte[] name, byte[] prefix) {
+    if (name.length < prefix.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      if (name[i] != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   /**
    * Get a listing of all the snapshots of a snapshottable directory
    */
@@ -611,17 +663,24 @@ private static ContentSummary getContentSummaryInt(FSDirectory fsd,
       if (targetNode == null) {
         throw new FileNotFoundException("File does not exist: " + iip.getPath());
       }
-      else {
-        // Make it relinquish locks everytime contentCountLimit entries are
-        // processed. 0 means disabled. I.e. blocking for the entire duration.
-        ContentSummaryComputationContext cscc =
-            new ContentSummaryComputationContext(fsd, fsd.getFSNamesystem(),
-                fsd.getContentCountLimit(), fsd.getContentSleepMicroSec());
-        ContentSummary cs = targetNode.computeAndConvertContentSummary(
-            iip.getPathSnapshotId(), cscc);
-        fsd.addYieldCount(cscc.getYieldCount());
-        return cs;
+      // Use the tracked counts of the directory if available.
+      if (targetNode.isDirectory()
+          && iip.getPathSnapshotId() == Snapshot.CURRENT_STATE_ID) {
+        ContentSummary cs = fsd.getContentSummaryTracker()
+            .getContentSummary(targetNode.asDirectory());
+        if (cs != null) {
+          return cs;
+        }
       }
+      // Make it relinquish locks everytime contentCountLimit entries are
+      // processed. 0 means disabled. I.e. blocking for the entire duration.
+      ContentSummaryComputationContext cscc =
+          new ContentSummaryComputationContext(fsd, fsd.getFSNamesystem(),
+              fsd.getContentCountLimit(), fsd.getContentSleepMicroSec());
+      ContentSummary cs = targetNode.computeAndConvertContentSummary(
+          iip.getPathSnapshotId(), cscc);
+      fsd.addYieldCount(cscc.getYieldCount());
+      return cs;
     } finally {
       fsd.readUnlock();
     }
@@ -219,7 +219,11 @@ static Block prepareFileForTruncate(FSNamesystem fsn, INodesInPath iip,
     INodeFile file = iip.getLastINode().asFile();
     assert !file.isStriped();
     file.recordModification(iip.getLatestSnapshotId());
+    final ContentSummaryTracker tracker =
+        fsn.getFSDirectory().getContentSummaryTracker();
+    final ContentCounts counts = tracker.get(file);
     file.toUnderConstruction(leaseHolder, clientMachine);
+    tracker.updated(file, counts);
     assert file.isUnderConstruction() : "inode should be under construction.";
     fsn.getLeaseManager().addLease(
         file.getFileUnderConstructionFeature().getClientName(), file.getId());
@@ -300,9 +304,13 @@ private static boolean unprotectedTruncate(FSNamesystem fsn,
 
     verifyQuotaForTruncate(fsn, iip, file, newLength, delta);
 
+    final ContentSummaryTracker tracker =
+        fsn.getFSDirectory().getContentSummaryTracker();
+    final ContentCounts counts = tracker.get(file);
     Set<BlockInfo> toRetain = file.getSnapshotBlocksToRetain(latestSnapshot);
     long remainingLength = file.collectBlocksBeyondMax(newLength,
         collectedBlocks, toRetain);
+    tracker.updated(file, counts);
     file.setModificationTime(mtime);
     // return whether on a block boundary
     return (remainingLength - newLength) == 0;
@@ -523,7 +523,8 @@ static INodeFile addFileForEditLog(
           AclStorage.updateINodeAcl(newNode, aclEntries, CURRENT_STATE_ID);
         }
         if (xAttrs != null) {
-          XAttrStorage.updateINodeXAttrs(newNode, xAttrs, CURRENT_STATE_ID);
+          XAttrStorage.updateINodeXAttrs(fsd, newNode, xAttrs,
+              CURRENT_STATE_ID);
         }
         return newNode;
       }
@@ -202,7 +202,7 @@ static List<XAttr> unprotectedRemoveXAttrs(
     List<XAttr> newXAttrs = filterINodeXAttrs(existingXAttrs, toRemove,
                                               removedXAttrs);
     if (existingXAttrs.size() != newXAttrs.size()) {
-      XAttrStorage.updateINodeXAttrs(inode, newXAttrs, snapshotId);
+      XAttrStorage.updateINodeXAttrs(fsd, inode, newXAttrs, snapshotId);
       return removedXAttrs;
     }
     return null;
@@ -294,7 +294,7 @@ static INode unprotectedSetXAttrs(
       }
     }
 
-    XAttrStorage.updateINodeXAttrs(inode, newXAttrs, snapshotId);
+    XAttrStorage.updateINodeXAttrs(fsd, inode, newXAttrs, snapshotId);
     return inode;
   }
 
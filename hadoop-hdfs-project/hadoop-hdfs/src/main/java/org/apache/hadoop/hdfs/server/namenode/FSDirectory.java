@@ -51,7 +51,6 @@
 import org.apache.hadoop.hdfs.server.blockmanagement.BlockStoragePolicySuite;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants;
 import org.apache.hadoop.hdfs.server.namenode.INode.BlocksMapUpdateInfo.UpdatedReplicationInfo;
-import org.apache.hadoop.hdfs.util.ByteArray;
 import org.apache.hadoop.hdfs.util.EnumCounters;
 import org.apache.hadoop.hdfs.util.ReadOnlyList;
 import org.apache.hadoop.security.AccessControlException;
@@ -137,6 +136,7 @@ private static INodeDirectory createRoot(FSNamesystem namesystem) {
   private final int maxDirItems;
   private final int lsLimit;  // max list limit
   private final int contentCountLimit; // max content summary counts per run
+  private final ContentSummaryTracker contentSummaryTracker;
   private final long contentSleepMicroSec;
   private final INodeMap inodeMap; // Synchronized by dirLock
   private long yieldCount = 0; // keep track of lock yield count.
@@ -225,7 +225,10 @@ public int getWriteHoldCount() {
    * Caches frequently used file names used in {@link INode} to reuse 
    * byte[] objects and reduce heap usage.
    */
-  private final NameCache<ByteArray> nameCache;
+  private final ByteArrayCache nameCache;
+
+  /** Packed xattrs shared between the inodes using them. */
+  private final ByteArrayReferenceCountMap sharedXAttrs;
 
   FSDirectory(FSNamesystem ns, Configuration conf) throws IOException {
     this.dirLock = new ReentrantReadWriteLock(true); // fair
@@ -282,6 +285,9 @@ public int getWriteHoldCount() {
     this.contentSleepMicroSec = conf.getLong(
         DFSConfigKeys.DFS_CONTENT_SUMMARY_SLEEP_MICROSEC_KEY,
         DFSConfigKeys.DFS_CONTENT_SUMMARY_SLEEP_MICROSEC_DEFAULT);
+    this.contentSummaryTracker = new ContentSummaryTracker(this,
+        conf.getBoolean(DFSConfigKeys.DFS_CONTENT_SUMMARY_INCREMENTAL_KEY,
+            DFSConfigKeys.DFS_CONTENT_SUMMARY_INCREMENTAL_DEFAULT));
     
     // filesystem limits
     this.maxComponentLength = conf.getInt(
@@ -311,9 +317,15 @@ public int getWriteHoldCount() {
     int threshold = conf.getInt(
         DFSConfigKeys.DFS_NAMENODE_NAME_CACHE_THRESHOLD_KEY,
         DFSConfigKeys.DFS_NAMENODE_NAME_CACHE_THRESHOLD_DEFAULT);
-    NameNode.LOG.info("Caching file names occuring more than " + threshold
-        + " times");
-    nameCache = new NameCache<ByteArray>(threshold);
+    int maxCachedNames = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_NAME_CACHE_MAX_SIZE_KEY,
+        DFSConfigKeys.DFS_NAMENODE_NAME_CACHE_MAX_SIZE_DEFAULT);
+    NameNode.LOG.info("Caching up to " + maxCachedNames
+        + " names occuring more than " + threshold + " times");
+    nameCache = new ByteArrayCache(threshold, maxCachedNames);
+    sharedXAttrs = new ByteArrayReferenceCountMap(conf.getLong(
+        DFSConfigKeys.DFS_NAMENODE_XATTR_CACHE_MAX_BYTES_KEY,
+        DFSConfigKeys.DFS_NAMENODE_XATTR_CACHE_MAX_BYTES_DEFAULT));
     namesystem = ns;
     this.editLog = ns.getEditLog();
     ezManager = new EncryptionZoneManager(this, conf);
@@ -469,6 +481,10 @@ int getContentCountLimit() {
     return contentCountLimit;
   }
 
+  ContentSummaryTracker getContentSummaryTracker() {
+    return contentSummaryTracker;
+  }
+
   long getContentSleepMicroSec() {
     return contentSleepMicroSec;
   }
@@ -613,6 +629,7 @@ void updateCountForQuota(int initThreads) {
       p.shutdown();
       LOG.info("Quota initialization completed in " + (Time.now() - start) +
           " milliseconds\n" + counts);
+      contentSummaryTracker.initialize();
     } finally {
       writeUnlock();
     }
@@ -1112,6 +1129,7 @@ public INodesInPath addLastINode(INodesInPath existing, INode inode,
         AclStorage.copyINodeDefaultAcl(inode);
       }
       addToInodeMap(inode);
+      contentSummaryTracker.added(inode);
     }
     return INodesInPath.append(existing, inode, inode.getLocalNameBytes());
   }
@@ -1139,9 +1157,11 @@ public long removeLastINode(final INodesInPath iip) {
     final int latestSnapshot = iip.getLatestSnapshotId();
     final INode last = iip.getLastINode();
     final INodeDirectory parent = iip.getINode(-2).asDirectory();
+    final ContentCounts counts = contentSummaryTracker.get(last);
     if (!parent.removeChild(last, latestSnapshot)) {
       return -1;
     }
+    contentSummaryTracker.removed(parent, last, counts);
 
     return (!last.isInLatestSnapshot(latestSnapshot)
         && INodeReference.tryRemoveReference(last) > 0) ? 0 : 1;
@@ -1252,6 +1272,7 @@ public final void removeFromInodeMap(List<? extends INode> inodes) {
         if (inode != null && inode instanceof INodeWithAdditionalFields) {
           inodeMap.remove(inode);
           ezManager.removeEncryptionZone(inode.getId());
+          releaseXAttrs(inode.getXAttrFeature());
         }
       }
     }
@@ -1290,6 +1311,7 @@ void reset() {
       inodeMap.clear();
       addToInodeMap(rootDir);
       nameCache.reset();
+      sharedXAttrs.clear();
       inodeId.setCurrentValue(INodeId.LAST_RESERVED_ID);
     } finally {
       writeUnlock();
@@ -1305,23 +1327,87 @@ static INode resolveLastINode(INodesInPath iip) throws FileNotFoundException {
   }
 
   /**
-   * Caches frequently used file names to reuse file name objects and
-   * reduce heap size.
+   * Caches frequently used file and directory names to reuse name objects
+   * and reduce heap size.
    */
   void cacheName(INode inode) {
-    // Name is cached only for files
-    if (!inode.isFile()) {
+    byte[] name = inode.getLocalNameBytes();
+    // the name of a reference may be immutable
+    if (inode.isReference() || name == null || name.length == 0) {
       return;
     }
-    ByteArray name = new ByteArray(inode.getLocalNameBytes());
-    name = nameCache.put(name);
-    if (name != null) {
-      inode.setLocalName(name.getBytes());
+    byte[] internal = nameCache.intern(name);
+    if (internal != name) {
+      inode.setLocalName(internal);
     }
   }
+
+  /**
+   * @return the cached name with the same bytes as the given name, or the
+   *         given name if it is not cached
+   */
+  byte[] internName(byte[] name) {
+    return nameCache.intern(name);
+  }
+
+  /** @return number of name lookups which found a cached name */
+  long getNameCacheHits() {
+    return nameCache.getLookupCount();
+  }
+
+  /** @return number of name lookups which did not find a cached name */
+  long getNameCacheMisses() {
+    return nameCache.getMissCount();
+  }
+
+  /** @return estimated heap bytes saved by sharing cached names */
+  long getNameCacheBytesSaved() {
+    return nameCache.getBytesSaved();
+  }
+
+  /**
+   * Shares the packed xattrs of a feature added to an inode with the other
+   * inodes using the same xattrs, until the feature is released.
+   */
+  void shareXAttrs(XAttrFeature f) {
+    if (f != null) {
+      f.share(sharedXAttrs);
+    }
+  }
+
+  /**
+   * Releases the shared xattrs of a feature removed from an inode, or of a
+   * removed inode.
+   */
+  void releaseXAttrs(XAttrFeature f) {
+    if (f != null) {
+      f.release(sharedXAttrs);
+    }
+  }
+
+  /** @return number of xattr references which found shared xattrs */
+  long getXAttrCacheHits() {
+    return sharedXAttrs.getHits();
+  }
+
+  /** @return number of xattr references which found no shared xattrs */
+  long getXAttrCacheMisses() {
+    return sharedXAttrs.getMisses();
+  }
+
+  /** @return estimated heap bytes currently saved by sharing xattrs */
+  long getXAttrCacheBytesSaved() {
+    return sharedXAttrs.getBytesSaved();
+  }
+
+  /** @return estimated heap bytes taken by the shared xattrs */
+  long getXAttrCacheBytes() {
+    return sharedXAttrs.getBytes();
+  }
   
   void shutdown() {
     nameCache.reset();
+    sharedXAttrs.clear();
     inodeMap.clear();
   }
   
@@ -155,7 +155,8 @@ private enum State {
   private EditLogOutputStream editLogStream = null;
 
   // a monotonically increasing counter that represents transactionIds.
-  private long txid = 0;
+  // Only updated while holding the lock; volatile for the lock-free reader.
+  private volatile long txid = 0;
 
   // stores the last synced transactionId.
   private long synctxid = 0;
@@ -274,7 +275,9 @@ private synchronized void initJournals(List<URI> dirs) {
         DFSConfigKeys.DFS_NAMENODE_EDITS_DIR_MINIMUM_DEFAULT);
 
     synchronized(journalSetLock) {
-      journalSet = new JournalSet(minimumRedundantJournals);
+      journalSet = new JournalSet(minimumRedundantJournals, conf.getBoolean(
+          DFSConfigKeys.DFS_NAMENODE_EDITS_PARALLEL_FLUSH_KEY,
+          DFSConfigKeys.DFS_NAMENODE_EDITS_PARALLEL_FLUSH_DEFAULT));
 
       for (URI u : dirs) {
         boolean required = FSNamesystem.getRequiredNamespaceEditsDirs(conf)
@@ -522,6 +525,15 @@ private void endTransaction(long start) {
   public synchronized long getLastWrittenTxId() {
     return txid;
   }
+
+  /**
+   * Same as {@link #getLastWrittenTxId()}, without waiting for a thread
+   * which is logging an edit, for the callers which only need a recent
+   * value.
+   */
+  long getLastWrittenTxIdWithoutLock() {
+    return txid;
+  }
   
   /**
    * @return the first transaction ID in the current log segment
@@ -1199,6 +1211,11 @@ synchronized void setJournalSetForTesting(JournalSet js) {
     this.journalSet = js;
   }
   
+  /** @return the NameNode metrics, or null outside of a NameNode. */
+  NameNodeMetrics getMetrics() {
+    return metrics;
+  }
+
   /**
    * Used only by tests.
    */
@@ -29,6 +29,7 @@
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
 import org.apache.hadoop.ipc.Server;
 import org.apache.hadoop.util.ExitUtil;
 import com.google.common.annotations.VisibleForTesting;
@@ -159,6 +160,11 @@ private void enqueueEdit(Edit edit) {
       // should never happen!  failure to enqueue an edit is fatal
       terminate(t);
     }
+    NameNodeMetrics metrics = getMetrics();
+    if (metrics != null && edit.op != null) {
+      metrics.addEditLogEnqueue(
+          (System.nanoTime() - edit.enqueueNanos) / 1000);
+    }
   }
 
   private Edit dequeueEdit() throws InterruptedException {
@@ -172,9 +178,15 @@ public void run() {
       while (true) {
         boolean doSync;
         Edit edit = dequeueEdit();
+        final NameNodeMetrics metrics = getMetrics();
         if (edit != null) {
           // sync if requested by edit log.
+          long serializeStart = System.nanoTime();
           doSync = edit.logEdit();
+          if (metrics != null && edit.op != null) {
+            metrics.addEditLogSerialize(
+                (System.nanoTime() - serializeStart) / 1000);
+          }
           syncWaitQ.add(edit);
         } else {
           // sync when editq runs dry, but have edits pending a sync.
@@ -189,7 +201,12 @@ public void run() {
           } catch (RuntimeException ex) {
             syncEx = ex;
           }
+          long syncedNanos = System.nanoTime();
           while ((edit = syncWaitQ.poll()) != null) {
+            if (metrics != null && edit.op != null) {
+              metrics.addEditLogDurable(
+                  (syncedNanos - edit.enqueueNanos) / 1000);
+            }
             edit.logSyncNotify(syncEx);
           }
         }
@@ -222,6 +239,8 @@ private Edit getEditInstance(FSEditLogOp op) {
   private abstract static class Edit {
     final FSEditLog log;
     final FSEditLogOp op;
+    /** When the edit was created, to measure the edit pipeline stages. */
+    final long enqueueNanos = System.nanoTime();
 
     Edit(FSEditLog log, FSEditLogOp op) {
       this.log = log;
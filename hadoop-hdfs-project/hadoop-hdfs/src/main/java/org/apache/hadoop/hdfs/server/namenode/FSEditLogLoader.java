@@ -457,8 +457,11 @@ private long applyEditLogOp(FSEditLogOp op, FSDirectory fsDir,
       // but OP_CLOSE doesn't serialize the holder. So, remove the inode.
       if (file.isUnderConstruction()) {
         fsNamesys.getLeaseManager().removeLease(file.getId());
+        final ContentCounts counts =
+            fsDir.getContentSummaryTracker().get(file);
         file.toCompleteFile(file.getModificationTime(), 0,
             fsNamesys.getBlockManager().getMinReplication());
+        fsDir.getContentSummaryTracker().updated(file, counts);
       }
       break;
     }
@@ -34,6 +34,7 @@
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
@@ -425,6 +426,9 @@ public void load(File curFile) throws IOException {
         }
 
         loadFilesUnderConstruction(in, supportSnapshot, counter);
+        if (supportSnapshot) {
+          updateLastSubtreeDiffs();
+        }
         prog.endStep(Phase.LOADING_FSIMAGE, step);
         // Now that the step is finished, set counter equal to total to adjust
         // for possible under-counting due to reference inodes.
@@ -449,6 +453,18 @@ public void load(File curFile) throws IOException {
           + " seconds.");
     }
 
+  /**
+   * Record the loaded snapshot diffs in the ancestors of their inodes, once
+   * the whole namespace is loaded.
+   */
+  private void updateLastSubtreeDiffs() {
+    final Iterator<INodeWithAdditionalFields> it =
+        namesystem.dir.getINodeMap().getMapIterator();
+    while (it.hasNext()) {
+      INodeDirectory.updateLastSubtreeDiff(it.next());
+    }
+  }
+
   /** Update the root node's attributes */
   private void updateRootAttr(INodeWithAdditionalFields root) {                                                           
     final QuotaCounts q = root.getQuotaCounts();
@@ -18,13 +18,24 @@
 
 package org.apache.hadoop.hdfs.server.namenode;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -66,9 +77,11 @@
 import org.apache.hadoop.hdfs.server.namenode.startupprogress.Step;
 import org.apache.hadoop.hdfs.util.EnumCounters;
 import org.apache.hadoop.hdfs.util.ReadOnlyList;
+import org.apache.hadoop.io.IOUtils;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.protobuf.ByteString;
 
 @InterfaceAudience.Private
@@ -105,6 +118,10 @@ public final class FSImageFormatPBINode {
 
   private static final Log LOG = LogFactory.getLog(FSImageFormatPBINode.class);
 
+  /** Number of inodes loaded or serialized by a worker at a time. */
+  private static final int INODE_BATCH_SIZE = 1024;
+  private static final int DIRECTORY_ENTRY_BATCH_SIZE = 1024;
+
   public final static class Loader {
     public static PermissionStatus loadPermission(long id,
         final String[] stringTable) {
@@ -257,13 +274,80 @@ void loadINodeDirectorySection(InputStream in) throws IOException {
       }
     }
 
+    /**
+     * Load the INODE_DIR sub-sections concurrently. Every directory appears
+     * in exactly one DirEntry, so the children lists are only modified by
+     * a single thread; the name cache and the blocks map are shared and are
+     * updated in batches under a lock.
+     */
+    void loadINodeDirectorySectionInParallel(ExecutorService service,
+        List<FileSummary.Section> sections, final String compressionCodec)
+        throws IOException {
+      LOG.info("Loading the INodeDirectory section in parallel with "
+          + sections.size() + " sub-sections");
+      final CountDownLatch latch = new CountDownLatch(sections.size());
+      final List<IOException> exceptions = new CopyOnWriteArrayList<>();
+      for (final FileSummary.Section s : sections) {
+        service.submit(new Runnable() {
+          @Override
+          public void run() {
+            InputStream ins = null;
+            try {
+              ins = parent.getInputStreamForSection(s, compressionCodec);
+              loadINodeDirectoriesInSection(ins);
+            } catch (Exception e) {
+              LOG.error("An exception occurred loading INodeDirectories in " +
+                  "parallel", e);
+              exceptions.add(e instanceof IOException ? (IOException) e
+                  : new IOException(e));
+            } finally {
+              latch.countDown();
+              IOUtils.cleanup(LOG, ins);
+            }
+          }
+        });
+      }
+      awaitSubSections(latch);
+      if (!exceptions.isEmpty()) {
+        throw exceptions.get(0);
+      }
+    }
+
+    private void loadINodeDirectoriesInSection(InputStream in)
+        throws IOException {
+      final List<INodeReference> refList = parent.getLoaderContext()
+          .getRefList();
+      final List<INode> added = new ArrayList<>(DIRECTORY_ENTRY_BATCH_SIZE);
+      while (true) {
+        INodeDirectorySection.DirEntry e = INodeDirectorySection.DirEntry
+            .parseDelimitedFrom(in);
+        if (e == null) {
+          break;
+        }
+        INodeDirectory p = dir.getInode(e.getParent()).asDirectory();
+        for (long id : e.getChildrenList()) {
+          INode child = dir.getInode(id);
+          if (addToParentNoCache(p, child)) {
+            added.add(child);
+          }
+        }
+        for (int refId : e.getRefChildrenList()) {
+          INodeReference ref = refList.get(refId);
+          if (addToParentNoCache(p, ref)) {
+            added.add(ref);
+          }
+        }
+        if (added.size() >= DIRECTORY_ENTRY_BATCH_SIZE) {
+          addToCacheAndBlockMap(added);
+          added.clear();
+        }
+      }
+      addToCacheAndBlockMap(added);
+    }
+
     void loadINodeSection(InputStream in, StartupProgress prog,
         Step currentStep) throws IOException {
-      INodeSection s = INodeSection.parseDelimitedFrom(in);
-      fsn.dir.resetLastInodeId(s.getLastInodeId());
-      long numInodes = s.getNumInodes();
-      LOG.info("Loading " + numInodes + " INodes.");
-      prog.setTotal(Phase.LOADING_FSIMAGE, currentStep, numInodes);
+      long numInodes = loadINodeSectionHeader(in, prog, currentStep);
       Counter counter = prog.getCounter(Phase.LOADING_FSIMAGE, currentStep);
       for (int i = 0; i < numInodes; ++i) {
         INodeSection.INode p = INodeSection.INode.parseDelimitedFrom(in);
@@ -272,11 +356,132 @@ void loadINodeSection(InputStream in, StartupProgress prog,
         } else {
           INode n = loadINode(p);
           dir.addToInodeMap(n);
+          dir.shareXAttrs(n.getXAttrFeature());
         }
         counter.increment();
       }
     }
 
+    private long loadINodeSectionHeader(InputStream in, StartupProgress prog,
+        Step currentStep) throws IOException {
+      INodeSection s = INodeSection.parseDelimitedFrom(in);
+      fsn.dir.resetLastInodeId(s.getLastInodeId());
+      long numInodes = s.getNumInodes();
+      LOG.info("Loading " + numInodes + " INodes.");
+      prog.setTotal(Phase.LOADING_FSIMAGE, currentStep, numInodes);
+      return numInodes;
+    }
+
+    /**
+     * Load the INODE sub-sections concurrently. The first sub-section starts
+     * with the INodeSection header, which is read before the workers are
+     * started. The inode map is not thread safe, so the loaded inodes are
+     * added to it in batches under a lock.
+     */
+    void loadINodeSectionInParallel(ExecutorService service,
+        List<FileSummary.Section> sections, final String compressionCodec,
+        StartupProgress prog, Step currentStep) throws IOException {
+      LOG.info("Loading the INode section in parallel with "
+          + sections.size() + " sub-sections");
+      final Counter counter = prog.getCounter(Phase.LOADING_FSIMAGE,
+          currentStep);
+      final AtomicLong totalLoaded = new AtomicLong(0);
+      final CountDownLatch latch = new CountDownLatch(sections.size());
+      final List<IOException> exceptions = new CopyOnWriteArrayList<>();
+      long expectedInodes = 0;
+      for (int i = 0; i < sections.size(); i++) {
+        final FileSummary.Section s = sections.get(i);
+        InputStream in = parent.getInputStreamForSection(s, compressionCodec);
+        if (i == 0) {
+          try {
+            expectedInodes = loadINodeSectionHeader(in, prog, currentStep);
+          } catch (IOException e) {
+            IOUtils.cleanup(LOG, in);
+            throw e;
+          }
+        }
+        final InputStream ins = in;
+        service.submit(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              totalLoaded.addAndGet(loadINodesInSection(ins, counter));
+            } catch (Exception e) {
+              LOG.error("An exception occurred loading INodes in parallel", e);
+              exceptions.add(e instanceof IOException ? (IOException) e
+                  : new IOException(e));
+            } finally {
+              latch.countDown();
+              IOUtils.cleanup(LOG, ins);
+            }
+          }
+        });
+      }
+      awaitSubSections(latch);
+      if (!exceptions.isEmpty()) {
+        throw exceptions.get(0);
+      }
+      if (totalLoaded.get() != expectedInodes) {
+        throw new IOException("Expected to load " + expectedInodes
+            + " INodes in parallel but loaded " + totalLoaded.get()
+            + ". The image may be corrupt.");
+      }
+    }
+
+    private long loadINodesInSection(InputStream in, Counter counter)
+        throws IOException {
+      List<INode> batch = new ArrayList<>(INODE_BATCH_SIZE);
+      long loaded = 0;
+      while (true) {
+        INodeSection.INode p = INodeSection.INode.parseDelimitedFrom(in);
+        if (p == null) {
+          break;
+        }
+        if (p.getId() == INodeId.ROOT_INODE_ID) {
+          synchronized (this) {
+            loadRootINode(p);
+          }
+        } else {
+          batch.add(loadINode(p));
+          if (batch.size() >= INODE_BATCH_SIZE) {
+            addToInodeMap(batch);
+            batch.clear();
+          }
+        }
+        counter.increment();
+        loaded++;
+      }
+      addToInodeMap(batch);
+      return loaded;
+    }
+
+    private synchronized void addToInodeMap(List<INode> inodes) {
+      for (INode n : inodes) {
+        dir.addToInodeMap(n);
+        dir.shareXAttrs(n.getXAttrFeature());
+      }
+    }
+
+    private synchronized void addToCacheAndBlockMap(List<INode> inodes) {
+      for (INode child : inodes) {
+        dir.cacheName(child);
+        if (child.isFile()) {
+          updateBlocksMap(child.asFile(), fsn.getBlockManager());
+        }
+      }
+    }
+
+    private static void awaitSubSections(CountDownLatch latch)
+        throws IOException {
+      try {
+        latch.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException(
+            "Interrupted waiting for the image sub-sections to load");
+      }
+    }
+
     /**
      * Load the under-construction files section, and update the lease map
      */
@@ -297,14 +502,7 @@ void loadFilesUnderConstructionSection(InputStream in) throws IOException {
     }
 
     private void addToParent(INodeDirectory parent, INode child) {
-      if (parent == dir.rootDir && FSDirectory.isReservedName(child)) {
-        throw new HadoopIllegalArgumentException("File name \""
-            + child.getLocalName() + "\" is reserved. Please "
-            + " change the name of the existing file or directory to another "
-            + "name before upgrading to this release.");
-      }
-      // NOTE: This does not update space counts for parents
-      if (!parent.addChild(child)) {
+      if (!addToParentNoCache(parent, child)) {
         return;
       }
       dir.cacheName(child);
@@ -314,6 +512,17 @@ private void addToParent(INodeDirectory parent, INode child) {
       }
     }
 
+    private boolean addToParentNoCache(INodeDirectory parent, INode child) {
+      if (parent == dir.rootDir && FSDirectory.isReservedName(child)) {
+        throw new HadoopIllegalArgumentException("File name \""
+            + child.getLocalName() + "\" is reserved. Please "
+            + " change the name of the existing file or directory to another "
+            + "name before upgrading to this release.");
+      }
+      // NOTE: This does not update space counts for parents
+      return parent.addChild(child);
+    }
+
     private INode loadINode(INodeSection.INode n) {
       switch (n.getType()) {
       case FILE:
@@ -426,6 +635,7 @@ private void loadRootINode(INodeSection.INode p) {
       final XAttrFeature f = root.getXAttrFeature();
       if (f != null) {
         dir.rootDir.addXAttrFeature(f);
+        dir.shareXAttrs(f);
       }
       dir.addRootDirToEncryptionZone(f);
     }
@@ -558,7 +768,11 @@ void serializeINodeDirectorySection(OutputStream out) throws IOException {
           .getINodeMap().getMapIterator();
       final ArrayList<INodeReference> refList = parent.getSaverContext()
           .getRefList();
+      // The reference ids are assigned in order, so the directory section
+      // is always written serially; it is only split into sub-sections.
+      final int entriesPerSubSection = parent.getInodesPerSubSection();
       int i = 0;
+      int entries = 0;
       while (iter.hasNext()) {
         INodeWithAdditionalFields n = iter.next();
         if (!n.isDirectory()) {
@@ -580,6 +794,11 @@ void serializeINodeDirectorySection(OutputStream out) throws IOException {
           }
           INodeDirectorySection.DirEntry e = b.build();
           e.writeDelimitedTo(out);
+          if (parent.isWriteSubSections()
+              && ++entries % entriesPerSubSection == 0) {
+            parent.commitSubSection(summary,
+                FSImageFormatProtobuf.SectionName.INODE_DIR_SUB);
+          }
         }
 
         ++i;
@@ -587,8 +806,9 @@ void serializeINodeDirectorySection(OutputStream out) throws IOException {
           context.checkCancelled();
         }
       }
-      parent.commitSection(summary,
-          FSImageFormatProtobuf.SectionName.INODE_DIR);
+      parent.commitSectionAndSubSection(summary,
+          FSImageFormatProtobuf.SectionName.INODE_DIR,
+          FSImageFormatProtobuf.SectionName.INODE_DIR_SUB);
     }
 
     void serializeINodeSection(OutputStream out) throws IOException {
@@ -599,17 +819,103 @@ void serializeINodeSection(OutputStream out) throws IOException {
       INodeSection s = b.build();
       s.writeDelimitedTo(out);
 
-      int i = 0;
-      Iterator<INodeWithAdditionalFields> iter = inodesMap.getMapIterator();
-      while (iter.hasNext()) {
-        INodeWithAdditionalFields n = iter.next();
-        save(out, n);
-        ++i;
-        if (i % FSImageFormatProtobuf.Saver.CHECK_CANCEL_INTERVAL == 0) {
-          context.checkCancelled();
+      if (parent.isWriteSubSections() && parent.getParallelThreads() > 1) {
+        serializeINodesInParallel(out, inodesMap);
+      } else {
+        final int inodesPerSubSection = parent.getInodesPerSubSection();
+        int i = 0;
+        Iterator<INodeWithAdditionalFields> iter = inodesMap.getMapIterator();
+        while (iter.hasNext()) {
+          INodeWithAdditionalFields n = iter.next();
+          save(out, n);
+          ++i;
+          if (i % FSImageFormatProtobuf.Saver.CHECK_CANCEL_INTERVAL == 0) {
+            context.checkCancelled();
+          }
+          if (parent.isWriteSubSections() && i % inodesPerSubSection == 0) {
+            parent.commitSubSection(summary,
+                FSImageFormatProtobuf.SectionName.INODE_SUB);
+          }
         }
       }
-      parent.commitSection(summary, FSImageFormatProtobuf.SectionName.INODE);
+      parent.commitSectionAndSubSection(summary,
+          FSImageFormatProtobuf.SectionName.INODE,
+          FSImageFormatProtobuf.SectionName.INODE_SUB);
+    }
+
+    /**
+     * Serialize the inodes on a thread pool. The main thread walks the inode
+     * map and hands out batches which never straddle a sub-section boundary;
+     * the serialized batches are written out in the order they were handed
+     * out, so the image is identical in layout to a serial save.
+     */
+    private void serializeINodesInParallel(final OutputStream out,
+        INodeMap inodesMap) throws IOException {
+      final int inodesPerSubSection = parent.getInodesPerSubSection();
+      final int threads = parent.getParallelThreads();
+      final int maxPending = threads * 2;
+      ExecutorService service = Executors.newFixedThreadPool(threads,
+          new ThreadFactoryBuilder().setDaemon(true)
+              .setNameFormat("FSImageSaver-%d").build());
+      ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+      ArrayDeque<Boolean> endsSubSection = new ArrayDeque<>();
+      try {
+        Iterator<INodeWithAdditionalFields> iter = inodesMap.getMapIterator();
+        List<INode> batch = new ArrayList<>(INODE_BATCH_SIZE);
+        int i = 0;
+        while (iter.hasNext()) {
+          batch.add(iter.next());
+          ++i;
+          boolean subSectionFull = i % inodesPerSubSection == 0;
+          if (batch.size() >= INODE_BATCH_SIZE || subSectionFull
+              || !iter.hasNext()) {
+            if (pending.size() >= maxPending) {
+              writeSerializedBatch(out, pending.poll(), endsSubSection.poll());
+              context.checkCancelled();
+            }
+            pending.add(service.submit(serializeBatch(batch)));
+            endsSubSection.add(subSectionFull);
+            batch = new ArrayList<>(INODE_BATCH_SIZE);
+          }
+        }
+        while (!pending.isEmpty()) {
+          writeSerializedBatch(out, pending.poll(), endsSubSection.poll());
+        }
+      } finally {
+        service.shutdownNow();
+      }
+    }
+
+    private Callable<byte[]> serializeBatch(final List<INode> batch) {
+      return new Callable<byte[]>() {
+        @Override
+        public byte[] call() throws IOException {
+          ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+          for (INode n : batch) {
+            save(bytes, n);
+          }
+          return bytes.toByteArray();
+        }
+      };
+    }
+
+    private void writeSerializedBatch(OutputStream out, Future<byte[]> f,
+        boolean endsSubSection) throws IOException {
+      try {
+        out.write(f.get());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException(
+            "Interrupted while serializing INodes");
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        throw cause instanceof IOException ? (IOException) cause
+            : new IOException(cause);
+      }
+      if (endsSubSection) {
+        parent.commitSubSection(summary,
+            FSImageFormatProtobuf.SectionName.INODE_SUB);
+      }
     }
 
     void serializeFilesUCSection(OutputStream out) throws IOException {
@@ -36,14 +36,18 @@
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CacheDirectiveInfoProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CachePoolInfoProto;
 import org.apache.hadoop.hdfs.security.token.delegation.DelegationTokenSecretManager;
@@ -69,6 +73,7 @@
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.protobuf.CodedOutputStream;
 
 /**
@@ -101,7 +106,9 @@ static <T> DeduplicationMap<T> newMap() {
         return new DeduplicationMap<T>();
       }
 
-      int getId(E value) {
+      // Synchronized since the INode section may be serialized by several
+      // threads, see FSImageFormatPBINode.Saver#serializeINodeSection.
+      synchronized int getId(E value) {
         if (value == null) {
           return 0;
         }
@@ -114,11 +121,11 @@ int getId(E value) {
         return v;
       }
 
-      int size() {
+      synchronized int size() {
         return map.size();
       }
 
-      Set<Entry<E, Integer>> entrySet() {
+      synchronized Set<Entry<E, Integer>> entrySet() {
         return map.entrySet();
       }
     }
@@ -151,6 +158,8 @@ public static final class Loader implements FSImageFormat.AbstractLoader {
      * when we're doing (rollingUpgrade rollback).
      */
     private final boolean requireSameLayoutVersion;
+    /** The image file being loaded, re-opened to read sub-sections. */
+    private File filename;
 
     Loader(Configuration conf, FSNamesystem fsn,
         boolean requireSameLayoutVersion) {
@@ -175,6 +184,7 @@ public LoaderContext getLoaderContext() {
     }
 
     void load(File file) throws IOException {
+      filename = file;
       long start = Time.monotonicNow();
       imgDigest = MD5FileUtils.computeMd5ForFile(file);
       RandomAccessFile raFile = new RandomAccessFile(file, "r");
@@ -234,63 +244,168 @@ public int compare(FileSummary.Section s1, FileSummary.Section s2) {
        */
       Step currentStep = null;
 
-      for (FileSummary.Section s : sections) {
-        channel.position(s.getOffset());
-        InputStream in = new BufferedInputStream(new LimitInputStream(fin,
-            s.getLength()));
-
-        in = FSImageUtil.wrapInputStreamForCompression(conf,
-            summary.getCodec(), in);
+      ExecutorService executorService = null;
+      if (isParallelLoadEnabled(conf, summary)) {
+        int threads = conf.getInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_KEY,
+            DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_DEFAULT);
+        LOG.info("The fsimage will be loaded in parallel using {} threads",
+            threads);
+        executorService = Executors.newFixedThreadPool(threads,
+            new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("FSImageLoader-%d").build());
+      }
 
-        String n = s.getName();
+      try {
+        for (FileSummary.Section s : sections) {
+          channel.position(s.getOffset());
+          InputStream in = new BufferedInputStream(new LimitInputStream(fin,
+              s.getLength()));
+
+          in = FSImageUtil.wrapInputStreamForCompression(conf,
+              summary.getCodec(), in);
+
+          String n = s.getName();
+          SectionName sectionName = SectionName.fromString(n);
+          if (sectionName == null) {
+            LOG.warn("Unrecognized section {}", n);
+            continue;
+          }
 
-        switch (SectionName.fromString(n)) {
-        case NS_INFO:
-          loadNameSystemSection(in);
-          break;
-        case STRING_TABLE:
-          loadStringTableSection(in);
-          break;
-        case INODE: {
-          currentStep = new Step(StepType.INODES);
-          prog.beginStep(Phase.LOADING_FSIMAGE, currentStep);
-          inodeLoader.loadINodeSection(in, prog, currentStep);
+          switch (sectionName) {
+          case NS_INFO:
+            loadNameSystemSection(in);
+            break;
+          case STRING_TABLE:
+            loadStringTableSection(in);
+            break;
+          case INODE: {
+            currentStep = new Step(StepType.INODES);
+            prog.beginStep(Phase.LOADING_FSIMAGE, currentStep);
+            List<FileSummary.Section> subSections = getSubSections(
+                sections, s, SectionName.INODE_SUB);
+            if (executorService != null && !subSections.isEmpty()) {
+              inodeLoader.loadINodeSectionInParallel(executorService,
+                  subSections, summary.getCodec(), prog, currentStep);
+            } else {
+              inodeLoader.loadINodeSection(in, prog, currentStep);
+            }
+          }
+            break;
+          case INODE_SUB:
+          case INODE_DIR_SUB:
+            // loaded together with their parent section
+            break;
+          case INODE_REFERENCE:
+            snapshotLoader.loadINodeReferenceSection(in);
+            break;
+          case INODE_DIR: {
+            List<FileSummary.Section> subSections = getSubSections(
+                sections, s, SectionName.INODE_DIR_SUB);
+            if (executorService != null && !subSections.isEmpty()) {
+              inodeLoader.loadINodeDirectorySectionInParallel(
+                  executorService, subSections, summary.getCodec());
+            } else {
+              inodeLoader.loadINodeDirectorySection(in);
+            }
+          }
+            break;
+          case FILES_UNDERCONSTRUCTION:
+            inodeLoader.loadFilesUnderConstructionSection(in);
+            break;
+          case SNAPSHOT:
+            snapshotLoader.loadSnapshotSection(in);
+            break;
+          case SNAPSHOT_DIFF:
+            snapshotLoader.loadSnapshotDiffSection(in);
+            break;
+          case SECRET_MANAGER: {
+            prog.endStep(Phase.LOADING_FSIMAGE, currentStep);
+            Step step = new Step(StepType.DELEGATION_TOKENS);
+            prog.beginStep(Phase.LOADING_FSIMAGE, step);
+            loadSecretManagerSection(in, prog, step);
+            prog.endStep(Phase.LOADING_FSIMAGE, step);
+          }
+            break;
+          case CACHE_MANAGER: {
+            Step step = new Step(StepType.CACHE_POOLS);
+            prog.beginStep(Phase.LOADING_FSIMAGE, step);
+            loadCacheManagerSection(in, prog, step);
+            prog.endStep(Phase.LOADING_FSIMAGE, step);
+          }
+            break;
+          default:
+            LOG.warn("Unrecognized section {}", n);
+            break;
+          }
         }
-          break;
-        case INODE_REFERENCE:
-          snapshotLoader.loadINodeReferenceSection(in);
-          break;
-        case INODE_DIR:
-          inodeLoader.loadINodeDirectorySection(in);
-          break;
-        case FILES_UNDERCONSTRUCTION:
-          inodeLoader.loadFilesUnderConstructionSection(in);
-          break;
-        case SNAPSHOT:
-          snapshotLoader.loadSnapshotSection(in);
-          break;
-        case SNAPSHOT_DIFF:
-          snapshotLoader.loadSnapshotDiffSection(in);
-          break;
-        case SECRET_MANAGER: {
-          prog.endStep(Phase.LOADING_FSIMAGE, currentStep);
-          Step step = new Step(StepType.DELEGATION_TOKENS);
-          prog.beginStep(Phase.LOADING_FSIMAGE, step);
-          loadSecretManagerSection(in, prog, step);
-          prog.endStep(Phase.LOADING_FSIMAGE, step);
+      } finally {
+        if (executorService != null) {
+          executorService.shutdownNow();
         }
-          break;
-        case CACHE_MANAGER: {
-          Step step = new Step(StepType.CACHE_POOLS);
-          prog.beginStep(Phase.LOADING_FSIMAGE, step);
-          loadCacheManagerSection(in, prog, step);
-          prog.endStep(Phase.LOADING_FSIMAGE, step);
+      }
+    }
+
+    private static boolean isParallelLoadEnabled(Configuration conf,
+        FileSummary summary) {
+      if (!conf.getBoolean(DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_DEFAULT)) {
+        return false;
+      }
+      if (summary.hasCodec() && !summary.getCodec().isEmpty()) {
+        LOG.info("The fsimage is compressed and cannot be loaded in parallel");
+        return false;
+      }
+      return true;
+    }
+
+    /**
+     * Get the sub-sections of the given parent section. The sub-sections
+     * are only returned if they exactly tile the parent section, otherwise
+     * the parent is loaded serially.
+     */
+    private static List<FileSummary.Section> getSubSections(
+        List<FileSummary.Section> sections, FileSummary.Section parent,
+        SectionName subSectionName) {
+      List<FileSummary.Section> subSections = Lists.newArrayList();
+      for (FileSummary.Section s : sections) {
+        if (subSectionName.name.equals(s.getName())) {
+          subSections.add(s);
         }
+      }
+      long offset = parent.getOffset();
+      for (FileSummary.Section s : subSections) {
+        if (s.getOffset() != offset) {
+          offset = -1;
           break;
-        default:
-          LOG.warn("Unrecognized section {}", n);
-          break;
         }
+        offset += s.getLength();
+      }
+      if (offset != parent.getOffset() + parent.getLength()) {
+        if (!subSections.isEmpty()) {
+          LOG.warn("Ignoring {} sub-sections which do not match section {}",
+              subSectionName, parent.getName());
+        }
+        return Collections.emptyList();
+      }
+      return subSections;
+    }
+
+    /**
+     * Open an independent stream over a section of the image, so that
+     * sub-sections can be read concurrently.
+     */
+    InputStream getInputStreamForSection(FileSummary.Section section,
+        String compressionCodec) throws IOException {
+      FileInputStream fin = new FileInputStream(filename);
+      try {
+        fin.getChannel().position(section.getOffset());
+        InputStream in = new BufferedInputStream(new LimitInputStream(fin,
+            section.getLength()));
+        return FSImageUtil.wrapInputStreamForCompression(conf,
+            compressionCodec, in);
+      } catch (IOException e) {
+        fin.close();
+        throw e;
       }
     }
 
@@ -382,9 +497,30 @@ public static final class Saver {
     private CompressionCodec codec;
     private OutputStream underlyingOutputStream;
 
-    Saver(SaveNamespaceContext context) {
+    private final boolean parallelEnabled;
+    private final int parallelTargetSections;
+    private final int parallelInodeThreshold;
+    private final int parallelThreads;
+    /** Whether sub-section entries are written for this image. */
+    private boolean writeSubSections = false;
+    private int inodesPerSubSection = Integer.MAX_VALUE;
+    private long subSectionOffset = currentOffset;
+
+    Saver(SaveNamespaceContext context, Configuration conf) {
       this.context = context;
       this.saverContext = new SaverContext();
+      this.parallelEnabled = conf.getBoolean(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_DEFAULT);
+      this.parallelTargetSections = Math.max(1, conf.getInt(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_TARGET_SECTIONS_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_TARGET_SECTIONS_DEFAULT));
+      this.parallelInodeThreshold = conf.getInt(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_INODE_THRESHOLD_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_INODE_THRESHOLD_DEFAULT);
+      this.parallelThreads = Math.max(1, conf.getInt(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_DEFAULT));
     }
 
     public MD5Hash getSavedDigest() {
@@ -399,6 +535,18 @@ public SaverContext getSaverContext() {
       return saverContext;
     }
 
+    boolean isWriteSubSections() {
+      return writeSubSections;
+    }
+
+    int getInodesPerSubSection() {
+      return inodesPerSubSection;
+    }
+
+    int getParallelThreads() {
+      return parallelThreads;
+    }
+
     public void commitSection(FileSummary.Builder summary, SectionName name)
         throws IOException {
       long oldOffset = currentOffset;
@@ -413,6 +561,35 @@ public void commitSection(FileSummary.Builder summary, SectionName name)
       summary.addSections(FileSummary.Section.newBuilder().setName(name.name)
           .setLength(length).setOffset(currentOffset));
       currentOffset += length;
+      subSectionOffset = currentOffset;
+    }
+
+    /**
+     * Record a sub-section covering everything written since the previous
+     * sub-section or section. Sub-sections are index entries only: the
+     * parent section still covers the same bytes, so the image remains
+     * loadable serially.
+     */
+    public void commitSubSection(FileSummary.Builder summary,
+        SectionName name) throws IOException {
+      if (!writeSubSections) {
+        return;
+      }
+      // flush so that the channel position covers all written data
+      sectionOutputStream.flush();
+      long length = fileChannel.position() - subSectionOffset;
+      if (length == 0) {
+        return;
+      }
+      summary.addSections(FileSummary.Section.newBuilder().setName(name.name)
+          .setLength(length).setOffset(subSectionOffset));
+      subSectionOffset += length;
+    }
+
+    public void commitSectionAndSubSection(FileSummary.Builder summary,
+        SectionName name, SectionName subSectionName) throws IOException {
+      commitSubSection(summary, subSectionName);
+      commitSection(summary, name);
     }
 
     private void flushSectionOutputStream() throws IOException {
@@ -487,6 +664,26 @@ private void saveInternal(FileOutputStream fout,
         sectionOutputStream = underlyingOutputStream;
       }
 
+      if (parallelEnabled) {
+        if (codec != null) {
+          LOG.info("Sub-sections are not written for compressed images, " +
+              "the image will not be loadable in parallel");
+        } else if (context.getSourceNamesystem().isRollingUpgrade()) {
+          // Releases without sub-sections cannot load such an image, and a
+          // rolling upgrade may still be rolled back or downgraded.
+          LOG.info("Sub-sections are not written during a rolling upgrade, " +
+              "the image will not be loadable in parallel");
+        } else {
+          int numInodes = context.getSourceNamesystem().dir.getINodeMap()
+              .size();
+          if (numInodes >= parallelInodeThreshold) {
+            writeSubSections = true;
+            inodesPerSubSection = Math.max(1,
+                numInodes / parallelTargetSections);
+          }
+        }
+      }
+
       saveNameSystemSection(b);
       // Check for cancellation right after serializing the name system section.
       // Some unit tests, such as TestSaveNamespace#testCancelSaveNameSpace
@@ -603,9 +800,11 @@ public enum SectionName {
     STRING_TABLE("STRING_TABLE"),
     EXTENDED_ACL("EXTENDED_ACL"),
     INODE("INODE"),
+    INODE_SUB("INODE_SUB"),
     INODE_REFERENCE("INODE_REFERENCE"),
     SNAPSHOT("SNAPSHOT"),
     INODE_DIR("INODE_DIR"),
+    INODE_DIR_SUB("INODE_DIR_SUB"),
     FILES_UNDERCONSTRUCTION("FILES_UNDERCONSTRUCTION"),
     SNAPSHOT_DIFF("SNAPSHOT_DIFF"),
     SECRET_MANAGER("SECRET_MANAGER"),
@@ -42,6 +42,12 @@
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOGGERS_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_ASYNC_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_ASYNC_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOGGERS_ASYNC_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOGGERS_ASYNC_DROP_WHEN_FULL_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOGGERS_ASYNC_DROP_WHEN_FULL_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOGGERS_ASYNC_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOGGERS_ASYNC_QUEUE_SIZE_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOGGERS_ASYNC_QUEUE_SIZE_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_TOKEN_TRACKING_ID_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_TOKEN_TRACKING_ID_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_CHECKPOINT_TXNS_DEFAULT;
@@ -80,12 +86,15 @@
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_LEASE_RECHECK_INTERVAL_MS_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_MAX_LOCK_HOLD_TO_RELEASE_LEASE_MS_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_MAX_LOCK_HOLD_TO_RELEASE_LEASE_MS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_WRITE_LOCK_REPORTING_THRESHOLD_MS_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_PERMISSIONS_ENABLED_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_PERMISSIONS_ENABLED_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_PERMISSIONS_SUPERUSERGROUP_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_PERMISSIONS_SUPERUSERGROUP_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_REPLICATION_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_REPLICATION_KEY;
+import static org.apache.hadoop.hdfs.server.common.HdfsServerConstants.MAX_PATH_DEPTH;
+import static org.apache.hadoop.hdfs.server.common.HdfsServerConstants.MAX_PATH_LENGTH;
 import static org.apache.hadoop.hdfs.server.namenode.FSDirStatAndListingOp.*;
 import static org.apache.hadoop.util.Time.now;
 import static org.apache.hadoop.util.Time.monotonicNow;
@@ -169,6 +178,8 @@
 import org.apache.hadoop.hdfs.HdfsConfiguration;
 import org.apache.hadoop.hdfs.UnknownCryptoProtocolVersionException;
 import org.apache.hadoop.hdfs.protocol.AlreadyBeingCreatedException;
+import org.apache.hadoop.hdfs.protocol.BatchOp;
+import org.apache.hadoop.hdfs.protocol.BatchOpResult;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.BlockStoragePolicy;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
@@ -195,6 +206,7 @@
 import org.apache.hadoop.hdfs.protocol.SnapshotAccessControlException;
 import org.apache.hadoop.hdfs.protocol.SnapshotException;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReportListing;
 import org.apache.hadoop.hdfs.protocol.SnapshottableDirectoryStatus;
 import org.apache.hadoop.hdfs.protocol.datatransfer.ReplaceDatanodeOnFailure;
 import org.apache.hadoop.hdfs.security.token.block.BlockTokenIdentifier;
@@ -218,6 +230,7 @@
 import org.apache.hadoop.hdfs.server.common.Storage.StorageDirType;
 import org.apache.hadoop.hdfs.server.common.Storage.StorageDirectory;
 import org.apache.hadoop.hdfs.server.common.Util;
+import org.apache.hadoop.hdfs.server.namenode.AsyncAuditLogDispatcher.AuditEvent;
 import org.apache.hadoop.hdfs.server.namenode.FsImageProto.SecretManagerSection;
 import org.apache.hadoop.hdfs.server.namenode.INode.BlocksMapUpdateInfo;
 import org.apache.hadoop.hdfs.server.namenode.JournalSet.JournalAndStream;
@@ -265,6 +278,7 @@
 import org.apache.hadoop.metrics2.annotation.Metric;
 import org.apache.hadoop.metrics2.annotation.Metrics;
 import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.metrics2.lib.MetricsRegistry;
 import org.apache.hadoop.metrics2.util.MBeans;
 import org.apache.hadoop.net.Node;
 import org.apache.hadoop.security.AccessControlException;
@@ -345,6 +359,28 @@ private void logAuditEvent(boolean succeeded, String cmd, String src,
   private void logAuditEvent(boolean succeeded,
       UserGroupInformation ugi, InetAddress addr, String cmd, String src,
       String dst, HdfsFileStatus stat) {
+    long lockTimeUs = 0;
+    long rpcTimeUs = 0;
+    if (topMetrics != null) {
+      lockTimeUs = TimeUnit.NANOSECONDS.toMicros(fsLock.takeThreadHoldNanos());
+      rpcTimeUs = TimeUnit.NANOSECONDS.toMicros(
+          Math.max(0, Server.getCurCallProcessingNanos()));
+    }
+    final AuditEvent event = new AuditEvent(succeeded, ugi, addr, cmd, src,
+        dst, stat, CallerContext.getCurrent(),
+        NamenodeWebHdfsMethods.isWebHdfsInvocation(), lockTimeUs, rpcTimeUs);
+    if (auditLogDispatcher != null) {
+      auditLogDispatcher.logAuditEvent(event);
+    } else {
+      dispatchAuditEvent(event);
+    }
+  }
+
+  /** Pass the audit event to each of the audit loggers. */
+  void dispatchAuditEvent(AuditEvent event) {
+    final HdfsFileStatus stat = event.stat;
+    final String src = event.src;
+    final String dst = event.dst;
     FileStatus status = null;
     if (stat != null) {
       Path symlink = stat.isSymlink() ? new Path(stat.getSymlink()) : null;
@@ -355,14 +391,25 @@ private void logAuditEvent(boolean succeeded,
           stat.getAccessTime(), stat.getPermission(), stat.getOwner(),
           stat.getGroup(), symlink, path);
     }
+    final UserGroupInformation ugi = event.ugi;
     final String ugiStr = ugi.toString();
     for (AuditLogger logger : auditLoggers) {
-      if (logger instanceof HdfsAuditLogger) {
+      if (logger instanceof DefaultAuditLogger) {
+        ((DefaultAuditLogger) logger).logAuditEvent(event.succeeded, ugiStr,
+            event.addr, event.cmd, src, dst, status, event.callerContext, ugi,
+            dtSecretManager, event.webHdfs);
+      } else if (logger instanceof TopAuditLogger) {
+        ((TopAuditLogger) logger).logAuditEvent(event.succeeded, ugiStr,
+            event.addr, event.cmd, src, dst, status, event.lockTimeUs,
+            event.rpcTimeUs);
+      } else if (logger instanceof HdfsAuditLogger) {
         HdfsAuditLogger hdfsLogger = (HdfsAuditLogger) logger;
-        hdfsLogger.logAuditEvent(succeeded, ugiStr, addr, cmd, src, dst,
-            status, CallerContext.getCurrent(), ugi, dtSecretManager);
+        hdfsLogger.logAuditEvent(event.succeeded, ugiStr, event.addr,
+            event.cmd, src, dst, status, event.callerContext, ugi,
+            dtSecretManager);
       } else {
-        logger.logAuditEvent(succeeded, ugiStr, addr, cmd, src, dst, status);
+        logger.logAuditEvent(event.succeeded, ugiStr, event.addr, event.cmd,
+            src, dst, status);
       }
     }
   }
@@ -409,6 +456,8 @@ private void logAuditEvent(boolean succeeded,
   // underlying logger is disabled, and avoid some unnecessary work.
   private final boolean isDefaultAuditLogger;
   private final List<AuditLogger> auditLoggers;
+  /** Passes audit events to the audit loggers, if they are logged async. */
+  private final AsyncAuditLogDispatcher auditLogDispatcher;
 
   /** The namespace tree. */
   FSDirectory dir;
@@ -476,11 +525,15 @@ private void logAuditEvent(boolean succeeded,
   private final long maxFsObjects;          // maximum number of fs objects
 
   private final long minBlockSize;         // minimum block size
+  private final int maxBatchMetadataOps;   // maximum # of ops per batch
   final long maxBlocksPerFile;     // maximum # of blocks per file
   private final int numCommittedAllowed;
+  private final int snapshotDiffListingLimit;
 
   /** Lock to protect FSNamesystem. */
   private final FSNamesystemLock fsLock;
+  /** Holds the metrics created at runtime, such as the lock quantiles. */
+  private final MetricsRegistry registry = new MetricsRegistry("FSNamesystem");
 
   /** 
    * Checkpoint lock to protect FSNamesystem modification on standby NNs.
@@ -554,7 +607,7 @@ void setImageLoaded() {
       dir.markNameCacheInitialized();
       cond.signalAll();
     } finally {
-      writeUnlock();
+      writeUnlock("setImageLoaded");
     }
   }
 
@@ -708,7 +761,7 @@ static FSNamesystem loadFromDisk(Configuration conf) throws IOException {
     }
     boolean fair = conf.getBoolean("dfs.namenode.fslock.fair", true);
     LOG.info("fsLock is fair:" + fair);
-    fsLock = new FSNamesystemLock(fair);
+    fsLock = new FSNamesystemLock(fair, conf, registry);
     cond = fsLock.writeLock().newCondition();
     cpLock = new ReentrantLock();
 
@@ -775,9 +828,18 @@ static FSNamesystem loadFromDisk(Configuration conf) throws IOException {
           DFSConfigKeys.DFS_NAMENODE_MIN_BLOCK_SIZE_DEFAULT);
       this.maxBlocksPerFile = conf.getLong(DFSConfigKeys.DFS_NAMENODE_MAX_BLOCKS_PER_FILE_KEY,
           DFSConfigKeys.DFS_NAMENODE_MAX_BLOCKS_PER_FILE_DEFAULT);
+      this.maxBatchMetadataOps = conf.getInt(
+          DFSConfigKeys.DFS_NAMENODE_BATCH_METADATA_OPS_MAX_KEY,
+          DFSConfigKeys.DFS_NAMENODE_BATCH_METADATA_OPS_MAX_DEFAULT);
       this.numCommittedAllowed = conf.getInt(
           DFSConfigKeys.DFS_NAMENODE_FILE_CLOSE_NUM_COMMITTED_ALLOWED_KEY,
           DFSConfigKeys.DFS_NAMENODE_FILE_CLOSE_NUM_COMMITTED_ALLOWED_DEFAULT);
+      this.snapshotDiffListingLimit = conf.getInt(
+          DFSConfigKeys.DFS_NAMENODE_SNAPSHOT_DIFF_LISTING_LIMIT,
+          DFSConfigKeys.DFS_NAMENODE_SNAPSHOT_DIFF_LISTING_LIMIT_DEFAULT);
+      Preconditions.checkArgument(snapshotDiffListingLimit > 0,
+          DFSConfigKeys.DFS_NAMENODE_SNAPSHOT_DIFF_LISTING_LIMIT
+          + " must be greater than zero.");
 
       this.dtpReplaceDatanodeOnFailure = ReplaceDatanodeOnFailure.get(conf);
       
@@ -831,9 +893,26 @@ static FSNamesystem loadFromDisk(Configuration conf) throws IOException {
       this.cacheManager = new CacheManager(this, conf, blockManager);
       this.ecPolicyManager = new ErasureCodingPolicyManager();
       this.topConf = new TopConf(conf);
+      fsLock.setTrackThreadHoldTime(topConf.isEnabled);
       this.auditLoggers = initAuditLoggers(conf);
       this.isDefaultAuditLogger = auditLoggers.size() == 1 &&
         auditLoggers.get(0) instanceof DefaultAuditLogger;
+      if (conf.getBoolean(DFS_NAMENODE_AUDIT_LOGGERS_ASYNC_KEY,
+          DFS_NAMENODE_AUDIT_LOGGERS_ASYNC_DEFAULT)) {
+        int queueSize = conf.getInt(
+            DFS_NAMENODE_AUDIT_LOGGERS_ASYNC_QUEUE_SIZE_KEY,
+            DFS_NAMENODE_AUDIT_LOGGERS_ASYNC_QUEUE_SIZE_DEFAULT);
+        boolean dropWhenFull = conf.getBoolean(
+            DFS_NAMENODE_AUDIT_LOGGERS_ASYNC_DROP_WHEN_FULL_KEY,
+            DFS_NAMENODE_AUDIT_LOGGERS_ASYNC_DROP_WHEN_FULL_DEFAULT);
+        LOG.info("Logging audit events async, queue size " + queueSize
+            + ", drop when full " + dropWhenFull);
+        this.auditLogDispatcher =
+            new AsyncAuditLogDispatcher(this, queueSize, dropWhenFull);
+        auditLogDispatcher.start();
+      } else {
+        this.auditLogDispatcher = null;
+      }
       this.retryCache = ignoreRetryCache ? null : initRetryCache(conf);
       Class<? extends INodeAttributeProvider> klass = conf.getClass(
           DFS_NAMENODE_INODE_ATTRIBUTES_PROVIDER_KEY,
@@ -1040,7 +1119,7 @@ private void loadFSImage(StartupOption startOpt) throws IOException {
       if (!success) {
         fsImage.close();
       }
-      writeUnlock();
+      writeUnlock("loadFSImage");
     }
     imageLoadComplete();
   }
@@ -1092,7 +1171,7 @@ void startCommonServices(Configuration conf, HAContext haContext) throws IOExcep
           completeBlocksTotal);
       blockManager.activate(conf, completeBlocksTotal);
     } finally {
-      writeUnlock();
+      writeUnlock("startCommonServices");
     }
     
     registerMXBean();
@@ -1116,7 +1195,7 @@ void stopCommonServices() {
     try {
       if (blockManager != null) blockManager.close();
     } finally {
-      writeUnlock();
+      writeUnlock("stopCommonServices");
     }
     RetryCache.clear(retryCache);
   }
@@ -1211,7 +1290,7 @@ void startActiveServices() throws IOException {
     } finally {
       startingActiveService = false;
       blockManager.checkSafeMode();
-      writeUnlock();
+      writeUnlock("startActiveServices");
     }
   }
 
@@ -1274,7 +1353,7 @@ void stopActiveServices() {
         blockManager.setInitializedReplQueues(false);
       }
     } finally {
-      writeUnlock();
+      writeUnlock("stopActiveServices");
     }
   }
   
@@ -1497,46 +1576,45 @@ public static List<URI> getSharedEditsDirs(Configuration conf) {
     return Util.stringCollectionAsURIs(dirNames);
   }
 
-  /** Threshold (ms) for long holding write lock report. */
-  static final short WRITELOCK_REPORTING_THRESHOLD = 1000;
-  /** Last time stamp for write lock. Keep the longest one for multi-entrance.*/
-  private long writeLockHeldTimeStamp;
+  /** Default threshold (ms) for long holding write lock report. */
+  static final short WRITELOCK_REPORTING_THRESHOLD =
+      (short) DFS_NAMENODE_WRITE_LOCK_REPORTING_THRESHOLD_MS_DEFAULT;
 
   @Override
   public void readLock() {
-    this.fsLock.readLock().lock();
+    this.fsLock.lockRead();
   }
   @Override
   public void readUnlock() {
-    this.fsLock.readLock().unlock();
+    this.fsLock.unlockRead(null);
+  }
+  /**
+   * Release the read lock, accounting the time it was held to the given
+   * operation.
+   */
+  void readUnlock(String opName) {
+    this.fsLock.unlockRead(opName);
   }
   @Override
   public void writeLock() {
-    this.fsLock.writeLock().lock();
-    if (fsLock.getWriteHoldCount() == 1) {
-      writeLockHeldTimeStamp = monotonicNow();
-    }
+    this.fsLock.lockWrite();
   }
   @Override
   public void writeLockInterruptibly() throws InterruptedException {
-    this.fsLock.writeLock().lockInterruptibly();
-    if (fsLock.getWriteHoldCount() == 1) {
-      writeLockHeldTimeStamp = monotonicNow();
-    }
+    this.fsLock.lockWriteInterruptibly();
   }
   @Override
   public void writeUnlock() {
-    final boolean needReport = fsLock.getWriteHoldCount() == 1 &&
-        fsLock.isWriteLockedByCurrentThread();
-    final long writeLockInterval = monotonicNow() - writeLockHeldTimeStamp;
-
-    this.fsLock.writeLock().unlock();
-
-    if (needReport && writeLockInterval >= WRITELOCK_REPORTING_THRESHOLD) {
-      LOG.info("FSNamesystem write lock held for " + writeLockInterval +
-          " ms via\n" + StringUtils.getStackTrace(Thread.currentThread()));
-    }
+    this.fsLock.unlockWrite(null);
   }
+  /**
+   * Release the write lock, accounting the time it was held to the given
+   * operation.
+   */
+  void writeUnlock(String opName) {
+    this.fsLock.unlockWrite(opName);
+  }
+
   @Override
   public boolean hasWriteLock() {
     return this.fsLock.isWriteLockedByCurrentThread();
@@ -1550,6 +1628,7 @@ public int getReadHoldCount() {
     return this.fsLock.getReadHoldCount();
   }
 
+  @Override
   public int getWriteHoldCount() {
     return this.fsLock.getWriteHoldCount();
   }
@@ -1575,7 +1654,7 @@ NamespaceInfo getNamespaceInfo() {
     try {
       return unprotectedGetNamespaceInfo();
     } finally {
-      readUnlock();
+      readUnlock("getNamespaceInfo");
     }
   }
 
@@ -1618,6 +1697,9 @@ void close() {
       } finally {
         IOUtils.cleanup(LOG, dir);
         IOUtils.cleanup(LOG, fsImage);
+        if (auditLogDispatcher != null) {
+          auditLogDispatcher.stop();
+        }
       }
     }
   }
@@ -1653,7 +1735,7 @@ public BlocksWithLocations getBlocks(DatanodeID datanode, long size)
       checkOperation(OperationCategory.READ);
       return getBlockManager().getBlocksWithLocations(datanode, size);
     } finally {
-      readUnlock();
+      readUnlock("getBlocks");
     }
   }
 
@@ -1673,7 +1755,7 @@ void metaSave(String filename) throws IOException {
       out.flush();
       out.close();
     } finally {
-      writeUnlock();
+      writeUnlock("metaSave");
     }
   }
 
@@ -1722,7 +1804,7 @@ void setPermission(String src, FsPermission permission) throws IOException {
       logAuditEvent(false, "setPermission", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("setPermission");
     }
     getEditLog().logSync();
     logAuditEvent(true, "setPermission", src, null, auditStat);
@@ -1745,7 +1827,7 @@ void setOwner(String src, String username, String group)
       logAuditEvent(false, "setOwner", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("setOwner");
     }
     getEditLog().logSync();
     logAuditEvent(true, "setOwner", src, null, auditStat);
@@ -1784,7 +1866,7 @@ LocatedBlocks getBlockLocations(String clientMachine, String srcArg,
       logAuditEvent(false, "open", srcArg);
       throw e;
     } finally {
-      readUnlock();
+      readUnlock("open");
     }
 
     logAuditEvent(true, "open", srcArg);
@@ -1830,7 +1912,7 @@ LocatedBlocks getBlockLocations(String clientMachine, String srcArg,
       } catch (Throwable e) {
         LOG.warn("Failed to update the access time of " + src, e);
       } finally {
-        writeUnlock();
+        writeUnlock("open");
       }
     }
 
@@ -1883,7 +1965,7 @@ void concat(String target, String [] srcs, boolean logRetryCache)
       logAuditEvent(success, "concat", Arrays.toString(srcs), target, stat);
       throw ace;
     } finally {
-      writeUnlock();
+      writeUnlock("concat");
       if (success) {
         getEditLog().logSync();
       }
@@ -1908,7 +1990,7 @@ void setTimes(String src, long mtime, long atime) throws IOException {
       logAuditEvent(false, "setTimes", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("setTimes");
     }
     getEditLog().logSync();
     logAuditEvent(true, "setTimes", src, null, auditStat);
@@ -1946,7 +2028,7 @@ boolean truncate(String src, long newLength, String clientName,
         r = FSDirTruncateOp.truncate(this, src, newLength, clientName,
             clientMachine, mtime, toRemoveBlocks, pc);
       } finally {
-        writeUnlock();
+        writeUnlock("truncate");
       }
       getEditLog().logSync();
       if (!toRemoveBlocks.getToDeleteList().isEmpty()) {
@@ -1981,7 +2063,7 @@ void createSymlink(String target, String link,
       logAuditEvent(false, "createSymlink", link, target, null);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("createSymlink");
     }
     getEditLog().logSync();
     logAuditEvent(true, "createSymlink", link, target, auditStat);
@@ -2013,7 +2095,7 @@ boolean setReplication(final String src, final short replication)
       logAuditEvent(false, "setReplication", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("setReplication");
     }
     if (success) {
       getEditLog().logSync();
@@ -2041,7 +2123,7 @@ void setStoragePolicy(String src, String policyName) throws IOException {
       logAuditEvent(false, "setStoragePolicy", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("setStoragePolicy");
     }
     getEditLog().logSync();
     logAuditEvent(true, "setStoragePolicy", src, null, auditStat);
@@ -2064,7 +2146,7 @@ void unsetStoragePolicy(String src) throws IOException {
       logAuditEvent(false, "unsetStoragePolicy", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("unsetStoragePolicy");
     }
     getEditLog().logSync();
     logAuditEvent(true, "unsetStoragePolicy", src, null, auditStat);
@@ -2083,7 +2165,7 @@ BlockStoragePolicy getStoragePolicy(String src) throws IOException {
       checkOperation(OperationCategory.READ);
       return FSDirAttrOp.getStoragePolicy(dir, blockManager, src);
     } finally {
-      readUnlock();
+      readUnlock("getStoragePolicy");
     }
   }
 
@@ -2097,7 +2179,7 @@ BlockStoragePolicy[] getStoragePolicies() throws IOException {
       checkOperation(OperationCategory.READ);
       return FSDirAttrOp.getStoragePolicies(blockManager);
     } finally {
-      readUnlock();
+      readUnlock("getStoragePolicies");
     }
   }
 
@@ -2108,7 +2190,7 @@ long getPreferredBlockSize(String src) throws IOException {
       checkOperation(OperationCategory.READ);
       return FSDirAttrOp.getPreferredBlockSize(dir, src);
     } finally {
-      readUnlock();
+      readUnlock("getPreferredBlockSize");
     }
   }
 
@@ -2208,7 +2290,7 @@ private HdfsFileStatus startFileInt(final String src,
         blockManager.verifyReplication(src, replication, clientMachine);
       }
     } finally {
-      readUnlock();
+      readUnlock("create");
     }
     
     checkOperation(OperationCategory.WRITE);
@@ -2241,7 +2323,7 @@ private HdfsFileStatus startFileInt(final String src,
         ezInfo = FSDirWriteFileOp
             .getEncryptionKeyInfo(this, pc, src, supportedVersions);
       } finally {
-        readUnlock();
+        readUnlock("create");
       }
 
       // Generate EDEK if necessary while not holding the lock
@@ -2275,7 +2357,7 @@ private HdfsFileStatus startFileInt(final String src,
       skipSync = e instanceof StandbyException;
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("create");
       // There might be transactions logged while trying to recover the lease.
       // They need to be sync'ed even when an exception was thrown.
       if (!skipSync) {
@@ -2330,7 +2412,7 @@ boolean recoverLease(String src, String holder, String clientMachine)
       skipSync = true;
       throw se;
     } finally {
-      writeUnlock();
+      writeUnlock("recoverLease");
       // There might be transactions logged while trying to recover the lease.
       // They need to be sync'ed even when an exception was thrown.
       if (!skipSync) {
@@ -2459,7 +2541,7 @@ LastBlockWithStatus appendFile(String srcArg, String holder,
         skipSync = true;
         throw se;
       } finally {
-        writeUnlock();
+        writeUnlock("append");
         // There might be transactions logged while trying to recover the lease
         // They need to be sync'ed even when an exception was thrown.
         if (!skipSync) {
@@ -2510,7 +2592,7 @@ LocatedBlock getAdditionalBlock(
       r = FSDirWriteFileOp.validateAddBlock(this, pc, src, fileId, clientName,
                                             previous, onRetryBlock);
     } finally {
-      readUnlock();
+      readUnlock("getAdditionalBlock");
     }
 
     if (r == null) {
@@ -2530,7 +2612,7 @@ LocatedBlock getAdditionalBlock(
       lb = FSDirWriteFileOp.storeAllocatedBlock(
           this, src, fileId, clientName, previous, targets);
     } finally {
-      writeUnlock();
+      writeUnlock("getAdditionalBlock");
     }
     getEditLog().logSync();
     return lb;
@@ -2586,7 +2668,7 @@ LocatedBlock getAdditionalDatanode(String src, long fileId,
           "src=%s, fileId=%d, blk=%s, clientName=%s, clientMachine=%s",
           src, fileId, blk, clientName, clientMachine));
     } finally {
-      readUnlock();
+      readUnlock("getAdditionalDatanode");
     }
 
     if (clientnode == null) {
@@ -2620,7 +2702,7 @@ void abandonBlock(ExtendedBlock b, long fileId, String src, String holder)
       NameNode.stateChangeLog.debug("BLOCK* NameSystem.abandonBlock: {} is " +
           "removed from pendingCreates", b);
     } finally {
-      writeUnlock();
+      writeUnlock("abandonBlock");
     }
     getEditLog().logSync();
   }
@@ -2682,7 +2764,7 @@ boolean completeFile(final String src, String holder,
       success = FSDirWriteFileOp.completeFile(this, pc, src, holder, last,
                                               fileId);
     } finally {
-      writeUnlock();
+      writeUnlock("completeFile");
     }
     getEditLog().logSync();
     if (success) {
@@ -2760,7 +2842,7 @@ boolean renameTo(String src, String dst, boolean logRetryCache)
       logAuditEvent(false, "rename", src, dst, null);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("rename");
     }
     boolean success = ret != null && ret.success;
     if (success) {
@@ -2784,7 +2866,7 @@ void renameTo(final String src, final String dst,
           ")", src, dst, null);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("rename");
     }
 
     getEditLog().logSync();
@@ -2821,7 +2903,7 @@ boolean delete(String src, boolean recursive, boolean logRetryCache)
       logAuditEvent(false, "delete", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("delete");
     }
     getEditLog().logSync();
     if (toRemovedBlocks != null) {
@@ -2831,6 +2913,169 @@ boolean delete(String src, boolean recursive, boolean logRetryCache)
     return ret;
   }
 
+  /**
+   * Execute a batch of namespace operations. The operations are executed in
+   * order under one acquisition of the write lock, and their edits are
+   * synced once. An operation which fails does not affect the others.
+   * The edits of the operations are logged with the IDs of the call, if
+   * logRetryCache is set.
+   *
+   * @see ClientProtocol#batchMetadataOps(List, String) for detailed
+   * description and description of exceptions
+   */
+  List<BatchOpResult> batchMetadataOps(List<BatchOp> ops, String user,
+      String clientName, String clientMachine, boolean logRetryCache)
+      throws IOException {
+    if (ops.size() > maxBatchMetadataOps) {
+      throw new IOException("A batch of " + ops.size() + " operations is"
+          + " larger than the configured maximum ("
+          + DFSConfigKeys.DFS_NAMENODE_BATCH_METADATA_OPS_MAX_KEY + "): "
+          + maxBatchMetadataOps);
+    }
+    final List<BatchOpResult> results = new ArrayList<>(ops.size());
+    final HdfsFileStatus[] auditStats = new HdfsFileStatus[ops.size()];
+    final List<BlocksMapUpdateInfo> toRemoveBlocks = new ArrayList<>();
+    checkOperation(OperationCategory.WRITE);
+    FSPermissionChecker pc = getPermissionChecker();
+    writeLock();
+    try {
+      checkOperation(OperationCategory.WRITE);
+      checkNameNodeSafeMode("Cannot execute a batch of " + ops.size()
+          + " operations");
+      for (int i = 0; i < ops.size(); i++) {
+        final BatchOp op = ops.get(i);
+        final BlocksMapUpdateInfo collectedBlocks = new BlocksMapUpdateInfo();
+        BatchOpResult result;
+        try {
+          boolean ret = true;
+          switch (op.getType()) {
+          case CREATE:
+            auditStats[i] = createEmptyFile(op, pc, user, clientName,
+                clientMachine, collectedBlocks, logRetryCache);
+            break;
+          case DELETE:
+            BlocksMapUpdateInfo deleted = FSDirDeleteOp.delete(
+                this, op.getSrc(), op.isRecursive(), logRetryCache);
+            ret = deleted != null;
+            if (deleted != null) {
+              toRemoveBlocks.add(deleted);
+            }
+            break;
+          case SET_PERMISSION:
+            auditStats[i] = FSDirAttrOp.setPermission(dir, op.getSrc(),
+                op.getPermission());
+            break;
+          case RENAME:
+            if (!NameNodeRpcServer.checkPathLength(op.getDst())) {
+              throw new IOException("rename: Pathname too long.  Limit "
+                  + MAX_PATH_LENGTH + " characters, " + MAX_PATH_DEPTH
+                  + " levels.");
+            }
+            Map.Entry<BlocksMapUpdateInfo, HdfsFileStatus> res =
+                FSDirRenameOp.renameToInt(dir, op.getSrc(), op.getDst(),
+                    logRetryCache, op.isOverwrite() ? Options.Rename.OVERWRITE
+                        : Options.Rename.NONE);
+            toRemoveBlocks.add(res.getKey());
+            auditStats[i] = res.getValue();
+            break;
+          default:
+            throw new IOException("Unsupported operation " + op);
+          }
+          result = BatchOpResult.success(ret);
+        } catch (IOException e) {
+          result = BatchOpResult.failure(e);
+        }
+        if (!collectedBlocks.getToDeleteList().isEmpty()) {
+          toRemoveBlocks.add(collectedBlocks);
+        }
+        results.add(result);
+      }
+    } finally {
+      writeUnlock("batchMetadataOps");
+    }
+    getEditLog().logSync();
+    for (BlocksMapUpdateInfo blocks : toRemoveBlocks) {
+      removeBlocks(blocks);
+    }
+    for (int i = 0; i < ops.size(); i++) {
+      final BatchOp op = ops.get(i);
+      final BatchOpResult result = results.get(i);
+      final String cmd = getBatchOpAuditCmd(op);
+      if (result.isSuccess()) {
+        logAuditEvent(true, cmd, op.getSrc(), op.getDst(), auditStats[i]);
+      } else if (result.getException() instanceof AccessControlException) {
+        logAuditEvent(false, cmd, op.getSrc(), op.getDst(), null);
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Create an empty file and close it, as a batched operation.
+   * Files in encryption zones cannot be created this way, since their keys
+   * have to be generated without holding the lock.
+   */
+  private HdfsFileStatus createEmptyFile(BatchOp op, FSPermissionChecker pc,
+      String user, String clientName, String clientMachine,
+      BlocksMapUpdateInfo toRemoveBlocks, boolean logRetryCache)
+      throws IOException {
+    assert hasWriteLock();
+    final String src = op.getSrc();
+    if (!DFSUtil.isValidName(src)) {
+      throw new InvalidPathException(src);
+    }
+    if (!NameNodeRpcServer.checkPathLength(src)) {
+      throw new IOException("create: Pathname too long.  Limit "
+          + MAX_PATH_LENGTH + " characters, " + MAX_PATH_DEPTH + " levels.");
+    }
+    if (op.getBlockSize() < minBlockSize) {
+      throw new IOException("Specified block size is less than configured" +
+          " minimum value (" + DFSConfigKeys.DFS_NAMENODE_MIN_BLOCK_SIZE_KEY
+          + "): " + op.getBlockSize() + " < " + minBlockSize);
+    }
+    if (!FSDirErasureCodingOp.hasErasureCodingPolicy(this, src)) {
+      blockManager.verifyReplication(src, op.getReplication(), clientMachine);
+    }
+    final EnumSet<CreateFlag> flag = op.isOverwrite()
+        ? EnumSet.of(CreateFlag.CREATE, CreateFlag.OVERWRITE)
+        : EnumSet.of(CreateFlag.CREATE);
+    final PermissionStatus permissions =
+        new PermissionStatus(user, null, op.getPermission());
+    final HdfsFileStatus stat;
+    dir.writeLock();
+    try {
+      stat = FSDirWriteFileOp.startFile(this, pc, src, permissions,
+          clientName, clientMachine, flag, op.isCreateParent(),
+          op.getReplication(), op.getBlockSize(), null, toRemoveBlocks,
+          logRetryCache);
+    } catch (RetryStartFileException e) {
+      throw new IOException("Cannot create " + src + " in a batch, since it"
+          + " is in an encryption zone");
+    } finally {
+      dir.writeUnlock();
+    }
+    FSDirWriteFileOp.completeFile(this, pc, src, clientName, null,
+        stat.getFileId());
+    return stat;
+  }
+
+  private static String getBatchOpAuditCmd(BatchOp op) {
+    switch (op.getType()) {
+    case CREATE:
+      return "create";
+    case DELETE:
+      return "delete";
+    case SET_PERMISSION:
+      return "setPermission";
+    case RENAME:
+      return "rename (options=["
+          + (op.isOverwrite() ? Options.Rename.OVERWRITE : Options.Rename.NONE)
+          + "])";
+    default:
+      return op.getType().toString();
+    }
+  }
+
   FSPermissionChecker getPermissionChecker()
       throws AccessControlException {
     return dir.getPermissionChecker();
@@ -2855,7 +3100,7 @@ void removeBlocks(BlocksMapUpdateInfo blocks) {
           blockManager.removeBlock(iter.next());
         }
       } finally {
-        writeUnlock();
+        writeUnlock("removeBlocks");
       }
     }
   }
@@ -2916,7 +3161,7 @@ HdfsFileStatus getFileInfo(final String src, boolean resolveLink)
       logAuditEvent(false, "getfileinfo", src);
       throw e;
     } finally {
-      readUnlock();
+      readUnlock("getfileinfo");
     }
     logAuditEvent(true, "getfileinfo", src);
     return stat;
@@ -2935,7 +3180,7 @@ boolean isFileClosed(final String src) throws IOException {
       logAuditEvent(false, "isFileClosed", src);
       throw e;
     } finally {
-      readUnlock();
+      readUnlock("isFileClosed");
     }
   }
 
@@ -2955,7 +3200,7 @@ boolean mkdirs(String src, PermissionStatus permissions,
       logAuditEvent(false, "mkdirs", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("mkdirs");
     }
     getEditLog().logSync();
     logAuditEvent(true, "mkdirs", src, null, auditStat);
@@ -2989,7 +3234,7 @@ ContentSummary getContentSummary(final String src) throws IOException {
       logAuditEvent(success, "contentSummary", src);
       throw ace;
     } finally {
-      readUnlock();
+      readUnlock("contentSummary");
     }
     logAuditEvent(success, "contentSummary", src);
     return cs;
@@ -3022,7 +3267,7 @@ QuotaUsage getQuotaUsage(final String src) throws IOException {
       logAuditEvent(success, "quotaUsage", src);
       throw ace;
     } finally {
-      readUnlock();
+      readUnlock("quotaUsage");
     }
     logAuditEvent(success, "quotaUsage", src);
     return quotaUsage;
@@ -3052,7 +3297,7 @@ void setQuota(String src, long nsQuota, long ssQuota, StorageType type)
       logAuditEvent(success, "setQuota", src);
       throw ace;
     } finally {
-      writeUnlock();
+      writeUnlock("setQuota");
       if (success) {
         getEditLog().logSync();
       }
@@ -3098,7 +3343,7 @@ void fsync(String src, long fileId, String clientName, long lastBlockLength)
       }
       FSDirWriteFileOp.persistBlocks(dir, src, pendingFile, false);
     } finally {
-      writeUnlock();
+      writeUnlock("fsync");
     }
     getEditLog().logSync();
   }
@@ -3341,9 +3586,12 @@ void finalizeINodeFileUnderConstruction(String src, INodeFile pendingFile,
     // The file is no longer pending.
     // Create permanent INode, update blocks. No need to replace the inode here
     // since we just remove the uc feature from pendingFile
+    final ContentSummaryTracker tracker = dir.getContentSummaryTracker();
+    final ContentCounts counts = tracker.get(pendingFile);
     pendingFile.toCompleteFile(now(),
         allowCommittedBlock? numCommittedAllowed: 0,
         blockManager.getMinReplication());
+    tracker.updated(pendingFile, counts);
 
     // close file and persist block allocations for this file
     closeFile(src, pendingFile);
@@ -3546,7 +3794,7 @@ void commitBlockSynchronization(ExtendedBlock oldBlock,
         FSDirWriteFileOp.persistBlocks(dir, src, iFile, false);
       }
     } finally {
-      writeUnlock();
+      writeUnlock("commitBlockSynchronization");
     }
     getEditLog().logSync();
     if (closeFile) {
@@ -3591,7 +3839,7 @@ void renewLease(String holder) throws IOException {
       checkNameNodeSafeMode("Cannot renew lease for " + holder);
       leaseManager.renewLease(holder);
     } finally {
-      readUnlock();
+      readUnlock("renewLease");
     }
   }
 
@@ -3610,17 +3858,26 @@ void renewLease(String holder) throws IOException {
   DirectoryListing getListing(String src, byte[] startAfter,
       boolean needLocation) 
       throws IOException {
+    return getListing(src, startAfter, needLocation, null);
+  }
+
+  /**
+   * Get a partial listing of the entries of the indicated directory whose
+   * name starts with the given prefix.
+   */
+  DirectoryListing getListing(String src, byte[] startAfter,
+      boolean needLocation, byte[] prefix) throws IOException {
     checkOperation(OperationCategory.READ);
     DirectoryListing dl = null;
     readLock();
     try {
       checkOperation(NameNode.OperationCategory.READ);
-      dl = getListingInt(dir, src, startAfter, needLocation);
+      dl = getListingInt(dir, src, startAfter, needLocation, prefix);
     } catch (AccessControlException e) {
       logAuditEvent(false, "listStatus", src);
       throw e;
     } finally {
-      readUnlock();
+      readUnlock("listStatus");
     }
     logAuditEvent(true, "listStatus", src);
     return dl;
@@ -3659,7 +3916,7 @@ void registerDatanode(DatanodeRegistration nodeReg) throws IOException {
     try {
       blockManager.registerDatanode(nodeReg);
     } finally {
-      writeUnlock();
+      writeUnlock("registerDatanode");
     }
   }
   
@@ -3709,7 +3966,7 @@ nodeReg, reports, getBlockPoolId(), cacheCapacity, cacheUsed,
       return new HeartbeatResponse(cmds, haState, rollingUpgradeInfo,
           blockReportLeaseId);
     } finally {
-      readUnlock();
+      readUnlock("handleHeartbeat");
     }
   }
 
@@ -3903,7 +4160,7 @@ private void clearCorruptLazyPersistFiles()
           }
         }
       } finally {
-        writeUnlock();
+        writeUnlock("clearCorruptLazyPersistFiles");
       }
       if (changed) {
         getEditLog().logSync();
@@ -3991,6 +4248,59 @@ public long getLastWrittenTransactionId() {
     return getEditLog().getLastWrittenTxId();
   }
   
+  @Metric({"NameCacheHits",
+      "Number of inode name lookups which found a shared name"})
+  public long getNameCacheHits() {
+    return dir.getNameCacheHits();
+  }
+
+  @Metric({"NameCacheMisses",
+      "Number of inode name lookups which found no shared name"})
+  public long getNameCacheMisses() {
+    return dir.getNameCacheMisses();
+  }
+
+  @Metric({"NameCacheBytesSaved",
+      "Estimated heap bytes saved by sharing inode names"})
+  public long getNameCacheBytesSaved() {
+    return dir.getNameCacheBytesSaved();
+  }
+
+  @Metric({"XAttrCacheHits",
+      "Number of inode xattr updates which found shared xattrs"})
+  public long getXAttrCacheHits() {
+    return dir.getXAttrCacheHits();
+  }
+
+  @Metric({"XAttrCacheMisses",
+      "Number of inode xattr updates which found no shared xattrs"})
+  public long getXAttrCacheMisses() {
+    return dir.getXAttrCacheMisses();
+  }
+
+  @Metric({"XAttrCacheBytesSaved",
+      "Estimated heap bytes currently saved by sharing xattrs"})
+  public long getXAttrCacheBytesSaved() {
+    return dir.getXAttrCacheBytesSaved();
+  }
+
+  @Metric({"XAttrCacheBytes",
+      "Estimated heap bytes taken by the shared xattrs"})
+  public long getXAttrCacheBytes() {
+    return dir.getXAttrCacheBytes();
+  }
+
+  @Metric({"UniqueAclFeatures", "Number of distinct ACLs in the namespace"})
+  public int getUniqueAclFeatures() {
+    return AclStorage.getUniqueAclFeatures().getUniqueElementsSize();
+  }
+
+  @Metric({"AclFeatureReferences",
+      "Number of inodes sharing the distinct ACLs"})
+  public long getAclFeatureReferences() {
+    return AclStorage.getUniqueAclFeatures().getReferenceCount();
+  }
+
   @Metric({"LastCheckpointTime",
       "Time in milliseconds since the epoch of the last checkpoint"})
   public long getLastCheckpointTime() {
@@ -4109,7 +4419,7 @@ int getNumberOfDatanodes(DatanodeReportType type) {
       return getBlockManager().getDatanodeManager().getDatanodeListForReport(
           type).size(); 
     } finally {
-      readUnlock();
+      readUnlock("getNumberOfDatanodes");
     }
   }
 
@@ -4129,7 +4439,7 @@ DatanodeInfo[] datanodeReport(final DatanodeReportType type
       }
       return arr;
     } finally {
-      readUnlock();
+      readUnlock("datanodeReport");
     }
   }
 
@@ -4151,7 +4461,7 @@ DatanodeStorageReport[] getDatanodeStorageReport(final DatanodeReportType type
       }
       return reports;
     } finally {
-      readUnlock();
+      readUnlock("getDatanodeStorageReport");
     }
   }
 
@@ -4177,7 +4487,7 @@ boolean saveNamespace(final long timeWindow, final long txGap)
       }
       saved = getFSImage().saveNamespace(timeWindow, txGap, this);
     } finally {
-      readUnlock();
+      readUnlock("saveNamespace");
       cpUnlock();
     }
     if (saved) {
@@ -4210,7 +4520,7 @@ boolean restoreFailedStorage(String arg) throws AccessControlException,
       
       return val;
     } finally {
-      writeUnlock();
+      writeUnlock("restoreFailedStorage");
       cpUnlock();
     }
   }
@@ -4228,7 +4538,7 @@ void finalizeUpgrade() throws IOException {
       checkOperation(OperationCategory.UNCHECKED);
       getFSImage().finalizeUpgrade(this.isHaEnabled() && inActiveState());
     } finally {
-      writeUnlock();
+      writeUnlock("finalizeUpgrade");
       cpUnlock();
     }
   }
@@ -4304,7 +4614,7 @@ public long getCompleteBlocksTotal() {
       numUCBlocks = leaseManager.getNumUnderConstructionBlocks();
       return getBlocksTotal() - numUCBlocks;
     } finally {
-      readUnlock();
+      readUnlock("getCompleteBlocksTotal");
     }
   }
 
@@ -4343,7 +4653,7 @@ void enterSafeMode(boolean resourcesLow) throws IOException {
       NameNode.stateChangeLog.info("STATE* Safe mode is ON.\n" +
           getSafeModeTip());
     } finally {
-      writeUnlock();
+      writeUnlock("enterSafeMode");
     }
   }
 
@@ -4363,7 +4673,7 @@ void leaveSafeMode(boolean force) {
         startSecretManagerIfNecessary();
       }
     } finally {
-      writeUnlock();
+      writeUnlock("leaveSafeMode");
     }
   }
 
@@ -4408,7 +4718,7 @@ CheckpointSignature rollEditLog() throws IOException {
       }
       return getFSImage().rollEditLog(getEffectiveLayoutVersion());
     } finally {
-      writeUnlock();
+      writeUnlock("rollEditLog");
     }
   }
 
@@ -4426,7 +4736,7 @@ NamenodeCommand startCheckpoint(NamenodeRegistration backupNode,
       getEditLog().logSync();
       return cmd;
     } finally {
-      writeUnlock();
+      writeUnlock("startCheckpoint");
     }
   }
 
@@ -4437,7 +4747,7 @@ public void processIncrementalBlockReport(final DatanodeID nodeID,
     try {
       blockManager.processIncrementalBlockReport(nodeID, srdb);
     } finally {
-      writeUnlock();
+      writeUnlock("processIncrementalBlockReport");
     }
   }
   
@@ -4451,7 +4761,7 @@ void endCheckpoint(NamenodeRegistration registration,
       LOG.info("End checkpoint for " + registration.getAddress());
       getFSImage().endCheckpoint(sig);
     } finally {
-      readUnlock();
+      readUnlock("endCheckpoint");
     }
   }
 
@@ -4719,6 +5029,41 @@ public String getTopUserOpCounts() {
     return null;
   }
 
+  @Override // FSNamesystemMBean
+  public String getTopUsage() {
+    return getTopUsage(null);
+  }
+
+  /**
+   * @param usageName the name of the only {@link TopMetrics.Usage} to list,
+   *          or null to list all of them.
+   * @return the top usage as JSON, or null if nntop is disabled.
+   */
+  String getTopUsage(String usageName) {
+    if (!topConf.isEnabled) {
+      return null;
+    }
+
+    Date now = new Date();
+    Map<String, Object> usageMap = new TreeMap<String, Object>();
+    for (Map.Entry<TopMetrics.Usage, List<RollingWindowManager.TopWindow>> e
+        : topMetrics.getTopUsage().entrySet()) {
+      String name = e.getKey().getName();
+      if (usageName == null || usageName.equals(name)) {
+        usageMap.put(name, e.getValue());
+      }
+    }
+    Map<String, Object> topMap = new TreeMap<String, Object>();
+    topMap.put("usage", usageMap);
+    topMap.put("timestamp", DFSUtil.dateToIso8601String(now));
+    try {
+      return JsonUtil.toJsonString(topMap);
+    } catch (IOException e) {
+      LOG.warn("Failed to fetch top usage metrics", e);
+    }
+    return null;
+  }
+
   /**
    * Increments, logs and then returns the stamp
    */
@@ -4845,7 +5190,7 @@ void reportBadBlocks(LocatedBlock[] blocks) throws IOException {
         }
       }
     } finally {
-      writeUnlock();
+      writeUnlock("reportBadBlocks");
     }
   }
 
@@ -4881,7 +5226,7 @@ LocatedBlock bumpBlockGenerationStamp(ExtendedBlock block,
       blockManager.setBlockToken(locatedBlock,
           BlockTokenIdentifier.AccessMode.WRITE);
     } finally {
-      writeUnlock();
+      writeUnlock("bumpBlockGenerationStamp");
     }
     // Ensure we record the new generation stamp
     getEditLog().logSync();
@@ -4916,7 +5261,7 @@ void updatePipeline(
       updatePipelineInternal(clientName, oldBlock, newBlock, newNodes,
           newStorageIDs, logRetryCache);
     } finally {
-      writeUnlock();
+      writeUnlock("updatePipeline");
     }
     getEditLog().logSync();
     LOG.info("updatePipeline(" + oldBlock.getLocalBlock() + " => "
@@ -4990,7 +5335,7 @@ void registerBackupNode(NamenodeRegistration bnReg,
             bnReg, nnReg);
       }
     } finally {
-      writeUnlock();
+      writeUnlock("registerBackupNode");
     }
   }
 
@@ -5015,7 +5360,7 @@ void releaseBackupNode(NamenodeRegistration registration)
             " node namespaceID = " + registration.getNamespaceID());
       getEditLog().releaseBackupStream(registration);
     } finally {
-      writeUnlock();
+      writeUnlock("releaseBackupNode");
     }
   }
 
@@ -5100,7 +5445,7 @@ Collection<CorruptFileBlockInfo> listCorruptFileBlocks(String path,
       }
       return corruptFiles;
     } finally {
-      readUnlock();
+      readUnlock("listCorruptFileBlocks");
     }
   }
 
@@ -5184,7 +5529,7 @@ Token<DelegationTokenIdentifier> getDelegationToken(Text renewer)
       long expiryTime = dtSecretManager.getTokenExpiryTime(dtId);
       getEditLog().logGetDelegationToken(dtId, expiryTime);
     } finally {
-      writeUnlock();
+      writeUnlock("getDelegationToken");
     }
     getEditLog().logSync();
     return token;
@@ -5218,7 +5563,7 @@ long renewDelegationToken(Token<DelegationTokenIdentifier> token)
       id.readFields(in);
       getEditLog().logRenewDelegationToken(id, expiryTime);
     } finally {
-      writeUnlock();
+      writeUnlock("renewDelegationToken");
     }
     getEditLog().logSync();
     return expiryTime;
@@ -5242,7 +5587,7 @@ void cancelDelegationToken(Token<DelegationTokenIdentifier> token)
         .cancelToken(token, canceller);
       getEditLog().logCancelDelegationToken(id);
     } finally {
-      writeUnlock();
+      writeUnlock("cancelDelegationToken");
     }
     getEditLog().logSync();
   }
@@ -5560,6 +5905,8 @@ public String getDecomNodes() {
               node.decommissioningStatus.getDecommissionOnlyReplicas())
           .put("underReplicateInOpenFiles",
               node.decommissioningStatus.getUnderReplicatedInOpenFiles())
+          .put("initialUnderReplicatedBlocks",
+              node.decommissioningStatus.getInitialUnderReplicatedBlocks())
           .build();
       info.put(node.getHostName() + ":" + node.getXferPort(), innerinfo);
     }
@@ -5709,6 +6056,11 @@ public String getCompileInfo() {
         " from " + VersionInfo.getBranch();
   }
 
+  @Override  // NameNodeMXBean
+  public String getLockStats() {
+    return JSON.toString(fsLock.getLockStats());
+  }
+
   /** @return the block manager. */
   public BlockManager getBlockManager() {
     return blockManager;
@@ -5900,7 +6252,7 @@ void allowSnapshot(String path) throws IOException {
       FSDirSnapshotOp.allowSnapshot(dir, snapshotManager, path);
       success = true;
     } finally {
-      writeUnlock();
+      writeUnlock("allowSnapshot");
     }
     getEditLog().logSync();
     logAuditEvent(success, "allowSnapshot", path, null, null);
@@ -5918,7 +6270,7 @@ void disallowSnapshot(String path) throws IOException {
       FSDirSnapshotOp.disallowSnapshot(dir, snapshotManager, path);
       success = true;
     } finally {
-      writeUnlock();
+      writeUnlock("disallowSnapshot");
     }
     getEditLog().logSync();
     logAuditEvent(success, "disallowSnapshot", path, null, null);
@@ -5945,7 +6297,7 @@ String createSnapshot(String snapshotRoot, String snapshotName,
           snapshotPath, null);
       throw ace;
     } finally {
-      writeUnlock();
+      writeUnlock("createSnapshot");
     }
     getEditLog().logSync();
     logAuditEvent(success, "createSnapshot", snapshotRoot,
@@ -5979,7 +6331,7 @@ void renameSnapshot(
           newSnapshotRoot, null);
       throw ace;
     } finally {
-      writeUnlock();
+      writeUnlock("renameSnapshot");
     }
     getEditLog().logSync();
     logAuditEvent(success, "renameSnapshot", oldSnapshotRoot,
@@ -6007,7 +6359,7 @@ public SnapshottableDirectoryStatus[] getSnapshottableDirListing()
       logAuditEvent(success, "listSnapshottableDirectory", null, null, null);
       throw ace;
     } finally {
-      readUnlock();
+      readUnlock("listSnapshottableDirectory");
     }
     logAuditEvent(success, "listSnapshottableDirectory", null, null, null);
     return status;
@@ -6048,12 +6400,59 @@ SnapshotDiffReport getSnapshotDiffReport(String path,
           toSnapshotRoot, null);
       throw ace;
     } finally {
-      readUnlock();
+      readUnlock("computeSnapshotDiff");
     }
     logAuditEvent(success, "computeSnapshotDiff", fromSnapshotRoot,
         toSnapshotRoot, null);
     return diffs;
   }
+
+  /**
+   * Get a part of the difference between two snapshots (or between a snapshot
+   * and the current status) of a snapshottable directory.
+   *
+   * @param path The full path of the snapshottable directory.
+   * @param fromSnapshot Name of the snapshot to calculate the diff from. Null
+   *          or empty string indicates the current tree.
+   * @param toSnapshot Name of the snapshot to calculated the diff to. Null or
+   *          empty string indicates the current tree.
+   * @param listingId The id of the listing, if startIndex is not 0.
+   * @param startIndex The index of the first entry of the diff to return.
+   * @return The id of the listing and a report holding at most
+   *         {@link #snapshotDiffListingLimit} entries of the diff, starting at
+   *         {@code startIndex}.
+   * @throws IOException
+   */
+  SnapshotDiffReportListing getSnapshotDiffReportListing(String path,
+      String fromSnapshot, String toSnapshot, long listingId, int startIndex)
+      throws IOException {
+    SnapshotDiffReportListing diffs = null;
+    checkOperation(OperationCategory.READ);
+    boolean success = false;
+    String fromSnapshotRoot = (fromSnapshot == null || fromSnapshot.isEmpty()) ?
+        path : Snapshot.getSnapshotPath(path, fromSnapshot);
+    String toSnapshotRoot = (toSnapshot == null || toSnapshot.isEmpty()) ?
+        path : Snapshot.getSnapshotPath(path, toSnapshot);
+    readLock();
+    try {
+      checkOperation(OperationCategory.READ);
+      diffs = FSDirSnapshotOp.getSnapshotDiffReportListing(dir,
+          snapshotManager, path, fromSnapshot, toSnapshot, listingId,
+          startIndex, snapshotDiffListingLimit);
+      success = true;
+    } catch (AccessControlException ace) {
+      logAuditEvent(success, "computeSnapshotDiff", fromSnapshotRoot,
+          toSnapshotRoot, null);
+      throw ace;
+    } finally {
+      readUnlock("computeSnapshotDiff");
+    }
+    if (startIndex == 0) {
+      logAuditEvent(success, "computeSnapshotDiff", fromSnapshotRoot,
+          toSnapshotRoot, null);
+    }
+    return diffs;
+  }
   
   /**
    * Delete a snapshot of a snapshottable directory
@@ -6079,7 +6478,7 @@ void deleteSnapshot(String snapshotRoot, String snapshotName,
       logAuditEvent(success, "deleteSnapshot", rootPath, null, null);
       throw ace;
     } finally {
-      writeUnlock();
+      writeUnlock("deleteSnapshot");
     }
     getEditLog().logSync();
 
@@ -6114,7 +6513,7 @@ RollingUpgradeInfo queryRollingUpgrade() throws IOException {
       rollingUpgradeInfo.setCreatedRollbackImages(hasRollbackImage);
       return rollingUpgradeInfo;
     } finally {
-      readUnlock();
+      readUnlock("queryRollingUpgrade");
     }
   }
 
@@ -6141,7 +6540,7 @@ RollingUpgradeInfo startRollingUpgrade() throws IOException {
         getFSImage().rollEditLog(getEffectiveLayoutVersion());
       }
     } finally {
-      writeUnlock();
+      writeUnlock("startRollingUpgrade");
     }
 
     getEditLog().logSync();
@@ -6229,7 +6628,7 @@ public RollingUpgradeInfo.Bean getRollingUpgradeStatus() {
     } catch (IOException ioe) {
       LOG.warn("Encountered exception setting Rollback Image", ioe);
     } finally {
-      readUnlock();
+      readUnlock("getRollingUpgradeStatus");
     }
     return new RollingUpgradeInfo.Bean(upgradeInfo);
   }
@@ -6329,7 +6728,7 @@ RollingUpgradeInfo finalizeRollingUpgrade() throws IOException {
       getFSImage().renameCheckpoint(NameNodeFile.IMAGE_ROLLBACK,
           NameNodeFile.IMAGE);
     } finally {
-      writeUnlock();
+      writeUnlock("finalizeRollingUpgrade");
     }
 
     if (!haEnabled) {
@@ -6366,7 +6765,7 @@ long addCacheDirective(CacheDirectiveInfo directive,
           null, null);
       throw ace;
     } finally {
-      writeUnlock();
+      writeUnlock("addCacheDirective");
       if (success) {
         getEditLog().logSync();
       }
@@ -6396,7 +6795,7 @@ void modifyCacheDirective(CacheDirectiveInfo directive,
           directive.toString(), null);
       throw ace;
     } finally {
-      writeUnlock();
+      writeUnlock("modifyCacheDirective");
       if (success) {
         getEditLog().logSync();
       }
@@ -6418,7 +6817,7 @@ void removeCacheDirective(long id, boolean logRetryCache) throws IOException {
       logAuditEvent(success, "removeCacheDirective", idStr, null, null);
       throw ace;
     } finally {
-      writeUnlock();
+      writeUnlock("removeCacheDirective");
     }
     logAuditEvent(success, "removeCacheDirective", idStr, null, null);
     getEditLog().logSync();
@@ -6441,7 +6840,7 @@ BatchedListEntries<CacheDirectiveEntry> listCacheDirectives(
           null);
       throw ace;
     } finally {
-      readUnlock();
+      readUnlock("listCacheDirectives");
     }
     logAuditEvent(success, "listCacheDirectives", filter.toString(), null,
         null);
@@ -6465,7 +6864,7 @@ void addCachePool(CachePoolInfo req, boolean logRetryCache)
       logAuditEvent(success, "addCachePool", poolInfoStr, null, null);
       throw ace;
     } finally {
-      writeUnlock();
+      writeUnlock("addCachePool");
     }
     logAuditEvent(success, "addCachePool", poolInfoStr, null, null);
     getEditLog().logSync();
@@ -6488,7 +6887,7 @@ void modifyCachePool(CachePoolInfo req, boolean logRetryCache)
           req == null ? null : req.toString(), null);
       throw ace;
     } finally {
-      writeUnlock();
+      writeUnlock("modifyCachePool");
     }
     logAuditEvent(success, "modifyCachePool", poolNameStr,
         req == null ? null : req.toString(), null);
@@ -6511,7 +6910,7 @@ void removeCachePool(String cachePoolName, boolean logRetryCache)
       logAuditEvent(success, "removeCachePool", poolNameStr, null, null);
       throw ace;
     } finally {
-      writeUnlock();
+      writeUnlock("removeCachePool");
     }
     logAuditEvent(success, "removeCachePool", poolNameStr, null, null);
     getEditLog().logSync();
@@ -6532,7 +6931,7 @@ BatchedListEntries<CachePoolEntry> listCachePools(String prevKey)
       logAuditEvent(success, "listCachePools", null, null, null);
       throw ace;
     } finally {
-      readUnlock();
+      readUnlock("listCachePools");
     }
     logAuditEvent(success, "listCachePools", null, null, null);
     return results;
@@ -6551,7 +6950,7 @@ void modifyAclEntries(final String src, List<AclEntry> aclSpec)
       logAuditEvent(false, "modifyAclEntries", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("modifyAclEntries");
     }
     getEditLog().logSync();
     logAuditEvent(true, "modifyAclEntries", src, null, auditStat);
@@ -6570,7 +6969,7 @@ void removeAclEntries(final String src, List<AclEntry> aclSpec)
       logAuditEvent(false, "removeAclEntries", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("removeAclEntries");
     }
     getEditLog().logSync();
     logAuditEvent(true, "removeAclEntries", src, null, auditStat);
@@ -6588,7 +6987,7 @@ void removeDefaultAcl(final String src) throws IOException {
       logAuditEvent(false, "removeDefaultAcl", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("removeDefaultAcl");
     }
     getEditLog().logSync();
     logAuditEvent(true, "removeDefaultAcl", src, null, auditStat);
@@ -6606,7 +7005,7 @@ void removeAcl(final String src) throws IOException {
       logAuditEvent(false, "removeAcl", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("removeAcl");
     }
     getEditLog().logSync();
     logAuditEvent(true, "removeAcl", src, null, auditStat);
@@ -6624,7 +7023,7 @@ void setAcl(final String src, List<AclEntry> aclSpec) throws IOException {
       logAuditEvent(false, "setAcl", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("setAcl");
     }
     getEditLog().logSync();
     logAuditEvent(true, "setAcl", src, null, auditStat);
@@ -6641,7 +7040,7 @@ AclStatus getAclStatus(String src) throws IOException {
       logAuditEvent(false, "getAclStatus", src);
       throw ace;
     } finally {
-      readUnlock();
+      readUnlock("getAclStatus");
     }
     logAuditEvent(true, "getAclStatus", src);
     return ret;
@@ -6676,7 +7075,7 @@ void createEncryptionZone(final String src, final String keyName,
         resultingStat = FSDirEncryptionZoneOp.createEncryptionZone(dir, src,
             pc, metadata.getCipher(), keyName, logRetryCache);
       } finally {
-        writeUnlock();
+        writeUnlock("createEncryptionZone");
       }
 
       getEditLog().logSync();
@@ -6714,7 +7113,7 @@ EncryptionZone getEZForPath(final String srcArg)
       logAuditEvent(success, "getEZForPath", srcArg, null, resultingStat);
       throw ace;
     } finally {
-      readUnlock();
+      readUnlock("getEZForPath");
     }
     logAuditEvent(success, "getEZForPath", srcArg, null, resultingStat);
     return encryptionZone;
@@ -6734,7 +7133,7 @@ BatchedListEntries<EncryptionZone> listEncryptionZones(long prevId)
       success = true;
       return ret;
     } finally {
-      readUnlock();
+      readUnlock("listEncryptionZones");
       logAuditEvent(success, "listEncryptionZones", null);
     }
   }
@@ -6766,7 +7165,7 @@ void setErasureCodingPolicy(final String srcArg, final ErasureCodingPolicy
           resultingStat);
       throw ace;
     } finally {
-      writeUnlock();
+      writeUnlock("setErasureCodingPolicy");
       if (success) {
         getEditLog().logSync();
       }
@@ -6786,7 +7185,7 @@ ErasureCodingPolicy getErasureCodingPolicy(String src)
       checkOperation(OperationCategory.READ);
       return FSDirErasureCodingOp.getErasureCodingPolicy(this, src);
     } finally {
-      readUnlock();
+      readUnlock("getErasureCodingPolicy");
     }
   }
 
@@ -6800,7 +7199,7 @@ ErasureCodingPolicy[] getErasureCodingPolicies() throws IOException {
       checkOperation(OperationCategory.READ);
       return FSDirErasureCodingOp.getErasureCodingPolicies(this);
     } finally {
-      readUnlock();
+      readUnlock("getErasureCodingPolicies");
     }
   }
 
@@ -6817,7 +7216,7 @@ void setXAttr(String src, XAttr xAttr, EnumSet<XAttrSetFlag> flag,
       logAuditEvent(false, "setXAttr", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("setXAttr");
     }
     getEditLog().logSync();
     logAuditEvent(true, "setXAttr", src, null, auditStat);
@@ -6835,7 +7234,7 @@ List<XAttr> getXAttrs(final String src, List<XAttr> xAttrs)
       logAuditEvent(false, "getXAttrs", src);
       throw e;
     } finally {
-      readUnlock();
+      readUnlock("getXAttrs");
     }
     logAuditEvent(true, "getXAttrs", src);
     return fsXattrs;
@@ -6852,7 +7251,7 @@ List<XAttr> listXAttrs(String src) throws IOException {
       logAuditEvent(false, "listXAttrs", src);
       throw e;
     } finally {
-      readUnlock();
+      readUnlock("listXAttrs");
     }
     logAuditEvent(true, "listXAttrs", src);
     return fsXattrs;
@@ -6870,7 +7269,7 @@ void removeXAttr(String src, XAttr xAttr, boolean logRetryCache)
       logAuditEvent(false, "removeXAttr", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("removeXAttr");
     }
     getEditLog().logSync();
     logAuditEvent(true, "removeXAttr", src, null, auditStat);
@@ -6896,7 +7295,7 @@ void checkAccess(String src, FsAction mode) throws IOException {
       logAuditEvent(false, "checkAccess", src);
       throw e;
     } finally {
-      readUnlock();
+      readUnlock("checkAccess");
     }
   }
 
@@ -6966,7 +7365,20 @@ public void logAuditEvent(boolean succeeded, String userName,
         InetAddress addr, String cmd, String src, String dst,
         FileStatus status, CallerContext callerContext, UserGroupInformation ugi,
         DelegationTokenSecretManager dtSecretManager) {
+      logAuditEvent(succeeded, userName, addr, cmd, src, dst, status,
+          callerContext, ugi, dtSecretManager,
+          NamenodeWebHdfsMethods.isWebHdfsInvocation());
+    }
 
+    /**
+     * Log the audit event, which was received over WebHDFS if webHdfs is
+     * true. The protocol is given as the event may be logged on a thread
+     * other than the handler of the request.
+     */
+    void logAuditEvent(boolean succeeded, String userName,
+        InetAddress addr, String cmd, String src, String dst,
+        FileStatus status, CallerContext callerContext, UserGroupInformation ugi,
+        DelegationTokenSecretManager dtSecretManager, boolean webHdfs) {
       if (auditLog.isDebugEnabled() ||
           (auditLog.isInfoEnabled() && !debugCmdSet.contains(cmd))) {
         final StringBuilder sb = STRING_BUILDER.get();
@@ -7002,7 +7414,7 @@ public void logAuditEvent(boolean succeeded, String userName,
           sb.append(trackingId);
         }
         sb.append("\t").append("proto=");
-        sb.append(NamenodeWebHdfsMethods.isWebHdfsInvocation() ? "webhdfs" : "rpc");
+        sb.append(webHdfs ? "webhdfs" : "rpc");
         if (isCallerContextEnabled &&
             callerContext != null &&
             callerContext.isContextValid()) {
@@ -7049,6 +7461,19 @@ private static void enableAsyncAuditLog() {
       logger.addAppender(asyncAppender);        
     }
   }
+  @Metric({"AuditEventQueueSize",
+      "Number of audit events waiting to be logged async"})
+  public int getAuditEventQueueSize() {
+    return auditLogDispatcher == null ? 0 : auditLogDispatcher.getQueueSize();
+  }
+
+  @Metric({"DroppedAuditEvents",
+      "Number of audit events dropped as the async queue was full"})
+  public long getDroppedAuditEvents() {
+    return auditLogDispatcher == null ? 0
+        : auditLogDispatcher.getDroppedEvents();
+  }
+
   /**
    * Return total number of Sync Operations on FSEditLog.
    */
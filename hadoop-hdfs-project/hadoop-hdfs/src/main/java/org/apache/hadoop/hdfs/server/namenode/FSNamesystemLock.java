@@ -1,4 +1,3 @@
-
 /**
  * Licensed to the Apache Software Foundation (ASF) under one
  * or more contributor license agreements.  See the NOTICE file
@@ -19,22 +18,169 @@
 
 package org.apache.hadoop.hdfs.server.namenode;
 
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_METRICS_PERCENTILES_INTERVALS_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_LOCK_DETAILED_METRICS_ENABLED_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_LOCK_DETAILED_METRICS_ENABLED_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_READ_LOCK_REPORTING_THRESHOLD_MS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_READ_LOCK_REPORTING_THRESHOLD_MS_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_WRITE_LOCK_REPORTING_THRESHOLD_MS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_WRITE_LOCK_REPORTING_THRESHOLD_MS_KEY;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.ipc.Server;
+import org.apache.hadoop.metrics2.lib.MetricsRegistry;
+import org.apache.hadoop.metrics2.lib.MutableQuantiles;
+import org.apache.hadoop.util.StringUtils;
+import org.apache.hadoop.util.Time;
+
 import com.google.common.annotations.VisibleForTesting;
 
 /**
  * Mimics a ReentrantReadWriteLock so more sophisticated locking capabilities
  * are possible.
+ *
+ * The time for which each thread waits for and holds the lock is measured
+ * from its outermost acquisition to its outermost release, and accounted to
+ * the operation named on release. Holds longer than the configured read or
+ * write threshold are logged with the stack of the holder. With detailed
+ * metrics enabled, the wait and hold times are also kept per operation and
+ * published as quantiles.
  */
 class FSNamesystemLock implements ReadWriteLock {
   @VisibleForTesting
   protected ReentrantReadWriteLock coarseLock;
-  
+
+  /** Operation name used when the caller does not name one. */
+  static final String OTHER_OP = "OTHER";
+  /** Number of long holds kept for {@link #getLockStats()}. */
+  private static final int MAX_LONG_HOLDS = 16;
+
+  /**
+   * Lock state of a thread. Nested acquisitions are only counted once, in
+   * the mode of the outermost acquisition.
+   */
+  private static class ThreadHoldTime {
+    private int depth;
+    private boolean write;
+    private long waitNanos;
+    private long acquiredNanos;
+    /** The RPC call being served and its hold time not yet taken, for nntop. */
+    private Server.Call call;
+    private long heldNanos;
+    private long accountedNanos;
+  }
+
+  /** Whether to account the hold time of each RPC handler, for nntop. */
+  private boolean trackThreadHoldTime = false;
+  private final ThreadLocal<ThreadHoldTime> threadHoldTime =
+      new ThreadLocal<ThreadHoldTime>() {
+        @Override
+        protected ThreadHoldTime initialValue() {
+          return new ThreadHoldTime();
+        }
+      };
+
+  /** Wait and hold times of the operations holding the lock in one mode. */
+  private static class OpStats {
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong holdNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong maxHoldNanos = new AtomicLong();
+    private final MutableQuantiles[] waitQuantiles;
+    private final MutableQuantiles[] holdQuantiles;
+
+    OpStats(MutableQuantiles[] waitQuantiles,
+        MutableQuantiles[] holdQuantiles) {
+      this.waitQuantiles = waitQuantiles;
+      this.holdQuantiles = holdQuantiles;
+    }
+
+    void add(long wait, long hold) {
+      count.incrementAndGet();
+      waitNanos.addAndGet(wait);
+      holdNanos.addAndGet(hold);
+      updateMax(maxWaitNanos, wait);
+      updateMax(maxHoldNanos, hold);
+      for (MutableQuantiles q : waitQuantiles) {
+        q.add(TimeUnit.NANOSECONDS.toMicros(wait));
+      }
+      for (MutableQuantiles q : holdQuantiles) {
+        q.add(TimeUnit.NANOSECONDS.toMicros(hold));
+      }
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+      long current = max.get();
+      while (value > current && !max.compareAndSet(current, value)) {
+        current = max.get();
+      }
+    }
+
+    Map<String, Long> toMap() {
+      final Map<String, Long> m = new LinkedHashMap<>();
+      final long n = count.get();
+      m.put("count", n);
+      m.put("avgWaitMicros", n == 0 ? 0 : toMicros(waitNanos.get()) / n);
+      m.put("maxWaitMicros", toMicros(maxWaitNanos.get()));
+      m.put("avgHoldMicros", n == 0 ? 0 : toMicros(holdNanos.get()) / n);
+      m.put("maxHoldMicros", toMicros(maxHoldNanos.get()));
+      return m;
+    }
+  }
+
+  private final long readLockReportingThresholdNanos;
+  private final long writeLockReportingThresholdNanos;
+  /** Per operation stats, null when detailed metrics are disabled. */
+  private final ConcurrentMap<String, OpStats> readOpStats;
+  private final ConcurrentMap<String, OpStats> writeOpStats;
+  private final MetricsRegistry registry;
+  private final int[] quantileIntervals;
+  /** The most recent long holds, guarded by itself. */
+  private final Deque<Map<String, Object>> longHolds = new ArrayDeque<>();
+
   FSNamesystemLock(boolean fair) {
+    this(fair, new Configuration(false), null);
+  }
+
+  /**
+   * @param registry the registry to publish the per operation quantiles to,
+   *                 or null not to publish them.
+   */
+  FSNamesystemLock(boolean fair, Configuration conf,
+      MetricsRegistry registry) {
+    this.readLockReportingThresholdNanos = TimeUnit.MILLISECONDS.toNanos(
+        conf.getLong(DFS_NAMENODE_READ_LOCK_REPORTING_THRESHOLD_MS_KEY,
+            DFS_NAMENODE_READ_LOCK_REPORTING_THRESHOLD_MS_DEFAULT));
+    this.writeLockReportingThresholdNanos = TimeUnit.MILLISECONDS.toNanos(
+        conf.getLong(DFS_NAMENODE_WRITE_LOCK_REPORTING_THRESHOLD_MS_KEY,
+            DFS_NAMENODE_WRITE_LOCK_REPORTING_THRESHOLD_MS_DEFAULT));
+    if (conf.getBoolean(DFS_NAMENODE_LOCK_DETAILED_METRICS_ENABLED_KEY,
+        DFS_NAMENODE_LOCK_DETAILED_METRICS_ENABLED_DEFAULT)) {
+      readOpStats = new ConcurrentHashMap<>();
+      writeOpStats = new ConcurrentHashMap<>();
+    } else {
+      readOpStats = null;
+      writeOpStats = null;
+    }
+    this.registry = registry;
+    this.quantileIntervals = registry == null ? new int[0]
+        : conf.getInts(DFS_METRICS_PERCENTILES_INTERVALS_KEY);
     this.coarseLock = new ReentrantReadWriteLock(fair);
   }
   
@@ -48,6 +194,208 @@ public Lock writeLock() {
     return coarseLock.writeLock();
   }
 
+  /** Acquire the read lock. */
+  void lockRead() {
+    final long start = System.nanoTime();
+    coarseLock.readLock().lock();
+    acquired(false, start);
+  }
+
+  /**
+   * Release the read lock.
+   * @param opName the operation to account the hold time to, or null.
+   */
+  void unlockRead(String opName) {
+    final long longHoldNanos = released(opName);
+    coarseLock.readLock().unlock();
+    reportLongHold(longHoldNanos, "read", opName);
+  }
+
+  /** Acquire the write lock. */
+  void lockWrite() {
+    final long start = System.nanoTime();
+    coarseLock.writeLock().lock();
+    acquired(true, start);
+  }
+
+  void lockWriteInterruptibly() throws InterruptedException {
+    final long start = System.nanoTime();
+    coarseLock.writeLock().lockInterruptibly();
+    acquired(true, start);
+  }
+
+  /**
+   * Release the write lock.
+   * @param opName the operation to account the hold time to, or null.
+   */
+  void unlockWrite(String opName) {
+    final long longHoldNanos = released(opName);
+    coarseLock.writeLock().unlock();
+    reportLongHold(longHoldNanos, "write", opName);
+  }
+
+  /** Set whether to account the lock hold time of each RPC handler. */
+  void setTrackThreadHoldTime(boolean track) {
+    this.trackThreadHoldTime = track;
+  }
+
+  private void acquired(boolean write, long start) {
+    final ThreadHoldTime t = threadHoldTime.get();
+    if (t.depth++ > 0) {
+      return;
+    }
+    final long now = System.nanoTime();
+    t.write = write;
+    t.waitNanos = now - start;
+    t.acquiredNanos = now;
+    t.accountedNanos = now;
+    if (trackThreadHoldTime) {
+      final Server.Call call = Server.getCurCall().get();
+      if (call != t.call) {
+        t.call = call;
+        t.heldNanos = 0;
+      }
+    }
+  }
+
+  /**
+   * Account the hold time on the outermost release.
+   * @return the hold time if it is to be reported as a long hold, else 0.
+   */
+  private long released(String opName) {
+    final ThreadHoldTime t = threadHoldTime.get();
+    if (t.depth == 0 || --t.depth > 0) {
+      return 0;
+    }
+    final long now = System.nanoTime();
+    final long held = now - t.acquiredNanos;
+    if (trackThreadHoldTime) {
+      t.heldNanos += now - t.accountedNanos;
+    }
+    final ConcurrentMap<String, OpStats> opStats =
+        t.write ? writeOpStats : readOpStats;
+    if (opStats != null) {
+      getOpStats(opStats, t.write, opName == null ? OTHER_OP : opName)
+          .add(t.waitNanos, held);
+    }
+    final long threshold = t.write ? writeLockReportingThresholdNanos
+        : readLockReportingThresholdNanos;
+    return held >= threshold ? held : 0;
+  }
+
+  private OpStats getOpStats(ConcurrentMap<String, OpStats> opStats,
+      boolean write, String opName) {
+    OpStats stats = opStats.get(opName);
+    if (stats != null) {
+      return stats;
+    }
+    synchronized (opStats) {
+      stats = opStats.get(opName);
+      if (stats == null) {
+        final String prefix = "FSN" + (write ? "Write" : "Read") + "Lock"
+            + Character.toUpperCase(opName.charAt(0)) + opName.substring(1);
+        final MutableQuantiles[] waitQuantiles =
+            new MutableQuantiles[quantileIntervals.length];
+        final MutableQuantiles[] holdQuantiles =
+            new MutableQuantiles[quantileIntervals.length];
+        for (int i = 0; i < quantileIntervals.length; i++) {
+          final int interval = quantileIntervals[i];
+          waitQuantiles[i] = registry.newQuantiles(
+              prefix + "Wait" + interval + "s",
+              "Wait for the " + opName + " lock", "ops", "waitMicros",
+              interval);
+          holdQuantiles[i] = registry.newQuantiles(
+              prefix + "Hold" + interval + "s",
+              "Hold of the " + opName + " lock", "ops", "holdMicros",
+              interval);
+        }
+        stats = new OpStats(waitQuantiles, holdQuantiles);
+        opStats.put(opName, stats);
+      }
+    }
+    return stats;
+  }
+
+  /** Log a long hold of the lock by the current thread. */
+  private void reportLongHold(long heldNanos, String mode, String opName) {
+    if (heldNanos == 0) {
+      return;
+    }
+    final long heldMs = TimeUnit.NANOSECONDS.toMillis(heldNanos);
+    final String op = opName == null ? OTHER_OP : opName;
+    final String stack = StringUtils.getStackTrace(Thread.currentThread());
+    FSNamesystem.LOG.info("FSNamesystem " + mode + " lock held for " + heldMs
+        + " ms by " + op + " via\n" + stack);
+    final Map<String, Object> hold = new LinkedHashMap<>();
+    hold.put("time", Time.now());
+    hold.put("mode", mode);
+    hold.put("op", op);
+    hold.put("thread", Thread.currentThread().getName());
+    hold.put("heldMs", heldMs);
+    hold.put("stack", stack);
+    synchronized (longHolds) {
+      if (longHolds.size() == MAX_LONG_HOLDS) {
+        longHolds.removeFirst();
+      }
+      longHolds.addLast(hold);
+    }
+  }
+
+  /**
+   * @return the wait and hold times of the lock per operation and mode, if
+   *         detailed metrics are enabled, and the most recent long holds.
+   */
+  Map<String, Object> getLockStats() {
+    final Map<String, Object> stats = new LinkedHashMap<>();
+    if (readOpStats != null) {
+      stats.put("read", toMap(readOpStats));
+      stats.put("write", toMap(writeOpStats));
+    }
+    final List<Map<String, Object>> holds;
+    synchronized (longHolds) {
+      holds = new ArrayList<>(longHolds);
+    }
+    stats.put("longHolds", holds);
+    return stats;
+  }
+
+  private static Map<String, Map<String, Long>> toMap(
+      Map<String, OpStats> opStats) {
+    final Map<String, Map<String, Long>> m = new TreeMap<>();
+    for (Map.Entry<String, OpStats> e : opStats.entrySet()) {
+      m.put(e.getKey(), e.getValue().toMap());
+    }
+    return m;
+  }
+
+  private static long toMicros(long nanos) {
+    return TimeUnit.NANOSECONDS.toMicros(nanos);
+  }
+
+  /**
+   * @return the time in nanoseconds for which the current thread has held the
+   *         lock while serving its current RPC call, since the previous call
+   *         to this method. 0 if the hold time is not tracked.
+   */
+  long takeThreadHoldNanos() {
+    if (!trackThreadHoldTime) {
+      return 0;
+    }
+    final ThreadHoldTime t = threadHoldTime.get();
+    final Server.Call call = Server.getCurCall().get();
+    if (call == null || call != t.call) {
+      return 0;
+    }
+    long held = t.heldNanos;
+    t.heldNanos = 0;
+    if (t.depth > 0) {
+      final long now = System.nanoTime();
+      held += now - t.accountedNanos;
+      t.accountedNanos = now;
+    }
+    return held;
+  }
+
   public int getReadHoldCount() {
     return coarseLock.getReadHoldCount();
   }
@@ -0,0 +1,140 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.lang.reflect.Method;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.protocol.ClientProtocol;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.apache.hadoop.hdfs.server.namenode.ha.ReadOnly;
+import org.apache.hadoop.ipc.AlignmentContext;
+import org.apache.hadoop.ipc.RpcConstants;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcRequestHeaderProto;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcResponseHeaderProto;
+
+/**
+ * The server side {@link AlignmentContext} of the NameNode. The state id is
+ * the id of the last transaction applied to or written by the namesystem.
+ * Clients send back the highest state id they have seen, which a Standby
+ * NameNode uses to serve reads only once it has caught up to the client.
+ */
+@InterfaceAudience.Private
+class GlobalStateIdContext implements AlignmentContext {
+  private final FSNamesystem namesystem;
+  private final long maxWaitMs;
+  /** The {@link ClientProtocol} methods annotated {@link ReadOnly}. */
+  private final Set<String> coordinatedMethods = new HashSet<>();
+
+  GlobalStateIdContext(FSNamesystem namesystem, long maxWaitMs) {
+    this.namesystem = namesystem;
+    this.maxWaitMs = maxWaitMs;
+    for (Method method : ClientProtocol.class.getDeclaredMethods()) {
+      if (method.isAnnotationPresent(ReadOnly.class)) {
+        coordinatedMethods.add(method.getName());
+      }
+    }
+  }
+
+  /**
+   * Server side implementation for providing state alignment info in
+   * responses.
+   */
+  @Override
+  public void updateResponseState(RpcResponseHeaderProto.Builder header) {
+    header.setStateId(getLastSeenStateId());
+  }
+
+  /**
+   * Server side implementation only provides state alignment info.
+   * It does not receive state alignment info therefore this does nothing.
+   */
+  @Override
+  public void receiveResponseState(RpcResponseHeaderProto header) {
+    // Do nothing.
+  }
+
+  /**
+   * Server side implementation only receives state alignment info.
+   * It does not build RPC requests therefore this does nothing.
+   */
+  @Override
+  public void updateRequestState(RpcRequestHeaderProto.Builder header) {
+    // Do nothing.
+  }
+
+  /**
+   * Server side implementation for processing state alignment info in
+   * requests.
+   */
+  @Override
+  public long receiveRequestState(RpcRequestHeaderProto header) {
+    return header.hasStateId() ?
+        header.getStateId() : RpcConstants.INVALID_STATE_ID;
+  }
+
+  @Override
+  public long getLastSeenStateId() {
+    return namesystem.getFSImage().getLastAppliedOrWrittenTxIdWithoutLock();
+  }
+
+  /**
+   * A Standby NameNode postpones requests from clients which have seen
+   * newer transactions than it has applied, rather than holding an RPC
+   * handler while the edit log tailer catches up.
+   */
+  @Override
+  public long getMaxCallDeferralMs() {
+    return maxWaitMs;
+  }
+
+  @Override
+  public boolean shouldDeferCall(long clientStateId) {
+    return clientStateId != RpcConstants.INVALID_STATE_ID &&
+        namesystem.isInStandbyState() &&
+        getLastSeenStateId() < clientStateId;
+  }
+
+  /**
+   * Only the {@link ReadOnly} methods of {@link ClientProtocol} may be
+   * served by a Standby NameNode which has caught up to the client.
+   */
+  @Override
+  public boolean isCoordinatedCall(String protocolName, String methodName) {
+    return HdfsConstants.CLIENT_NAMENODE_PROTOCOL_NAME.equals(protocolName) &&
+        coordinatedMethods.contains(methodName);
+  }
+
+  /**
+   * Check whether the namesystem has caught up to the state id a client has
+   * seen. Does not wait: the RPC server postpones the requests for which
+   * {@link #shouldDeferCall(long)} holds for up to the maximum wait before
+   * they are processed.
+   *
+   * @param clientStateId the state id sent by the client
+   * @return true if the namesystem has applied all the transactions up to
+   *         the client state id, false if the client did not send a state
+   *         id or the namesystem has not caught up
+   */
+  boolean isCaughtUp(long clientStateId) {
+    return clientStateId != RpcConstants.INVALID_STATE_ID &&
+        getLastSeenStateId() >= clientStateId;
+  }
+}
@@ -37,6 +37,7 @@
 import org.apache.hadoop.hdfs.server.namenode.snapshot.DirectorySnapshottableFeature;
 import org.apache.hadoop.hdfs.server.namenode.snapshot.DirectoryWithSnapshotFeature;
 import org.apache.hadoop.hdfs.server.namenode.snapshot.DirectoryWithSnapshotFeature.DirectoryDiffList;
+import org.apache.hadoop.hdfs.server.namenode.snapshot.FileDiffList;
 import org.apache.hadoop.hdfs.server.namenode.snapshot.Snapshot;
 import org.apache.hadoop.hdfs.util.Diff.ListType;
 import org.apache.hadoop.hdfs.util.ReadOnlyList;
@@ -69,7 +70,14 @@ public static INodeDirectory valueOf(INode inode, Object path
   final static byte[] ROOT_NAME = DFSUtil.string2Bytes("");
 
   private List<INode> children = null;
-  
+  /**
+   * The id of the latest snapshot for which a snapshot diff was added to this
+   * directory or to an inode in its subtree. Snapshot diff reports skip the
+   * subtrees which did not change after the earlier snapshot. It is not
+   * lowered when snapshots are deleted, which only makes it conservative.
+   */
+  private int lastSubtreeDiffSnapshotId = Snapshot.NO_SNAPSHOT_ID;
+
   /** constructor */
   public INodeDirectory(long id, byte[] name, PermissionStatus permissions,
       long mtime) {
@@ -88,6 +96,7 @@ public INodeDirectory(INodeDirectory other, boolean adopt,
       Feature... featuresToCopy) {
     super(other);
     this.children = other.children;
+    this.lastSubtreeDiffSnapshotId = other.lastSubtreeDiffSnapshotId;
     if (adopt && this.children != null) {
       for (INode child : children) {
         child.setParent(this);
@@ -227,6 +236,53 @@ public DirectoryDiffList getDiffs() {
     DirectoryWithSnapshotFeature sf = getDirectoryWithSnapshotFeature();
     return sf != null ? sf.getDiffs() : null;
   }
+
+  /**
+   * @return the id of the latest snapshot for which a snapshot diff was added
+   *         in the subtree of this directory, or
+   *         {@link Snapshot#NO_SNAPSHOT_ID} if there was none.
+   */
+  public int getLastSubtreeDiffSnapshotId() {
+    return lastSubtreeDiffSnapshotId;
+  }
+
+  /**
+   * Record that a diff for the given snapshot was added to the inode, in the
+   * inode if it is a directory and in its current ancestors.
+   */
+  public static void updateLastSubtreeDiff(INode inode, int snapshotId) {
+    if (snapshotId == Snapshot.CURRENT_STATE_ID
+        || snapshotId == Snapshot.NO_SNAPSHOT_ID) {
+      return;
+    }
+    INodeDirectory dir = inode.isDirectory() ? inode.asDirectory()
+        : inode.getParent();
+    for (; dir != null; dir = dir.getParent()) {
+      if (dir.lastSubtreeDiffSnapshotId < snapshotId) {
+        dir.lastSubtreeDiffSnapshotId = snapshotId;
+      }
+    }
+  }
+
+  /**
+   * Record the latest diff of the inode in its ancestors, for the snapshot
+   * diffs which are loaded with the fsimage.
+   */
+  public static void updateLastSubtreeDiff(INode inode) {
+    final int lastSnapshotId;
+    if (inode.isFile()) {
+      FileDiffList diffs = inode.asFile().getDiffs();
+      lastSnapshotId = diffs == null ? Snapshot.NO_SNAPSHOT_ID
+          : diffs.getLastSnapshotId();
+    } else if (inode.isDirectory()) {
+      DirectoryDiffList diffs = inode.asDirectory().getDiffs();
+      lastSnapshotId = diffs == null ? Snapshot.NO_SNAPSHOT_ID
+          : diffs.getLastSnapshotId();
+    } else {
+      return;
+    }
+    updateLastSubtreeDiff(inode, lastSnapshotId);
+  }
   
   @Override
   public INodeDirectoryAttributes getSnapshotINode(int snapshotId) {
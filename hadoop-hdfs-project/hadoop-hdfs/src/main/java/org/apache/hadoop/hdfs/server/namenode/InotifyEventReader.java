@@ -0,0 +1,315 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import org.apache.hadoop.hdfs.inotify.Event;
+import org.apache.hadoop.hdfs.inotify.EventBatch;
+import org.apache.hadoop.hdfs.inotify.EventBatchList;
+import org.apache.hadoop.hdfs.inotify.EventFilter;
+import org.apache.hadoop.ipc.Server;
+import org.apache.hadoop.util.Time;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the inotify events for edit log transactions on behalf of the inotify
+ * clients of the NameNode.
+ * <p/>
+ * Inotify clients usually tail the edit log close to its end, so the events
+ * of recently synced transactions are kept in a cache shared by all clients,
+ * which saves reading and translating the same edits once per client. The
+ * cache holds a fixed number of consecutive txids, so its memory is bounded.
+ * <p/>
+ * A client which is up to date may ask for the call to wait for new edits.
+ * The waiting call does not hold an RPC handler: it is deferred, put back in
+ * the call queue every {@link #WAIT_POLL_MS} and processed again until new
+ * edits are synced or its wait time is up. The time a call may wait and the
+ * number of calls waiting at once are both limited.
+ */
+class InotifyEventReader {
+  static final Logger LOG = LoggerFactory.getLogger(InotifyEventReader.class);
+
+  /** Cached for transactions which do not translate to any events. */
+  private static final EventBatch NO_EVENTS =
+      new EventBatch(-1, new Event[0]);
+
+  /** How often a waiting call checks for new edits. */
+  @VisibleForTesting
+  static final long WAIT_POLL_MS = 50;
+
+  private final int maxEventsPerRPC;
+  private final long maxWaitMs;
+  private final int maxWaitingCalls;
+  /** The calls waiting for new edits, with the time their wait ends. */
+  private final Map<Server.Call, Long> waitingCalls =
+      new IdentityHashMap<Server.Call, Long>();
+
+  /** The txids of the cached transactions, indexed by txid modulo size. */
+  private final long[] cachedTxids;
+  /** The events of the cached transactions, null for empty slots. */
+  private final EventBatch[] cachedBatches;
+  private long cacheHits;
+  private long cacheMisses;
+
+  InotifyEventReader(int maxEventsPerRPC, int cacheSize, long maxWaitMs,
+      int maxWaitingCalls) {
+    this.maxEventsPerRPC = maxEventsPerRPC;
+    this.maxWaitMs = maxWaitMs;
+    this.maxWaitingCalls = maxWaitingCalls;
+    this.cachedTxids = new long[Math.max(0, cacheSize)];
+    this.cachedBatches = new EventBatch[cachedTxids.length];
+  }
+
+  private static FSEditLogOp readOp(EditLogInputStream elis)
+      throws IOException {
+    try {
+      return elis.readOp();
+      // we can get the below two exceptions if a segment is deleted
+      // (because we have accumulated too many edits) or (for the local journal/
+      // no-QJM case only) if a in-progress segment is finalized under us ...
+      // no need to throw an exception back to the client in this case
+    } catch (FileNotFoundException e) {
+      LOG.debug("Tried to read from deleted or moved edit log segment", e);
+      return null;
+    } catch (TransferFsImage.HttpGetFailedException e) {
+      LOG.debug("Tried to read from deleted edit log segment", e);
+      return null;
+    }
+  }
+
+  /**
+   * @return the cached events of the given synced transaction, NO_EVENTS if
+   * it has none, or null if it is not cached.
+   */
+  private synchronized EventBatch getCached(long txid) {
+    if (cachedTxids.length == 0) {
+      return null;
+    }
+    int slot = (int) (txid % cachedTxids.length);
+    if (cachedBatches[slot] == null || cachedTxids[slot] != txid) {
+      cacheMisses++;
+      return null;
+    }
+    cacheHits++;
+    return cachedBatches[slot];
+  }
+
+  private synchronized void cache(long txid, EventBatch batch) {
+    if (cachedTxids.length == 0) {
+      return;
+    }
+    int slot = (int) (txid % cachedTxids.length);
+    cachedTxids[slot] = txid;
+    cachedBatches[slot] = batch == null ? NO_EVENTS : batch;
+  }
+
+  @VisibleForTesting
+  synchronized long getCacheHits() {
+    return cacheHits;
+  }
+
+  @VisibleForTesting
+  synchronized long getCacheMisses() {
+    return cacheMisses;
+  }
+
+  @VisibleForTesting
+  synchronized int getWaitingCalls() {
+    return waitingCalls.size();
+  }
+
+  /**
+   * Defer the current call to wait for new edits, if it may wait, or end its
+   * wait.
+   *
+   * @return true if the call was deferred and its response is discarded
+   */
+  private synchronized boolean deferForEdits(boolean wait, long waitMs) {
+    Server.Call call = Server.getCurCall().get();
+    if (call == null) {
+      return false;
+    }
+    Long deadline = waitingCalls.get(call);
+    if (!wait) {
+      if (deadline != null) {
+        waitingCalls.remove(call);
+      }
+      return false;
+    }
+    long now = Time.monotonicNow();
+    if (deadline == null) {
+      if (waitingCalls.size() >= maxWaitingCalls) {
+        // forget the calls which were dropped while deferred, e.g. as their
+        // clients went away
+        for (Iterator<Long> it = waitingCalls.values().iterator();
+            it.hasNext();) {
+          if (it.next() <= now) {
+            it.remove();
+          }
+        }
+        if (waitingCalls.size() >= maxWaitingCalls) {
+          return false;
+        }
+      }
+      deadline = now + Math.min(waitMs, maxWaitMs);
+    }
+    if (now >= deadline ||
+        !Server.deferCurCall(deadline - now, WAIT_POLL_MS)) {
+      waitingCalls.remove(call);
+      return false;
+    }
+    waitingCalls.put(call, deadline);
+    return true;
+  }
+
+  /**
+   * Get the events accepted by the filter for the transactions from txid on.
+   * At most maxEventsPerRPC events are read, whether the filter accepts them
+   * or not, so the returned txid range always covers every transaction read.
+   */
+  EventBatchList getEditsFromTxid(FSEditLog log, long txid,
+      EventFilter filter, long waitMs) throws IOException {
+    long syncTxid = log.getSyncTxId();
+    if (deferForEdits(syncTxid > 0 && txid > syncTxid && waitMs > 0,
+        waitMs)) {
+      return new EventBatchList(Lists.<EventBatch>newArrayList(), -1, -1,
+          syncTxid);
+    }
+    // If we haven't synced anything yet, we can only read finalized
+    // segments since we can't reliably determine which txns in in-progress
+    // segments have actually been committed (e.g. written to a quorum of JNs).
+    // If we have synced txns, we can definitely read up to syncTxid since
+    // syncTxid is only updated after a transaction is committed to all
+    // journals. (In-progress segments written by old writers are already
+    // discarded for us, so if we read any in-progress segments they are
+    // guaranteed to have been written by this NameNode.)
+    boolean readInProgress = syncTxid > 0;
+
+    List<EventBatch> batches = Lists.newArrayList();
+    int totalEvents = 0;
+    long maxSeenTxid = -1;
+    long firstSeenTxid = -1;
+
+    if (syncTxid > 0 && txid > syncTxid) {
+      // we can't read past syncTxid, so there's no point in going any further
+      return new EventBatchList(batches, firstSeenTxid, maxSeenTxid, syncTxid);
+    }
+
+    // Serve what we can from the cache, which only holds synced txns.
+    long nextTxid = txid;
+    while (syncTxid > 0 && nextTxid <= syncTxid) {
+      EventBatch eventBatch = getCached(nextTxid);
+      if (eventBatch == null) {
+        break;
+      }
+      addEvents(batches, eventBatch, filter);
+      totalEvents += eventBatch.getEvents().length;
+      if (firstSeenTxid == -1) {
+        firstSeenTxid = nextTxid;
+      }
+      maxSeenTxid = nextTxid++;
+      if (totalEvents >= maxEventsPerRPC || maxSeenTxid == syncTxid) {
+        return new EventBatchList(batches, firstSeenTxid, maxSeenTxid,
+            syncTxid);
+      }
+    }
+
+    Collection<EditLogInputStream> streams = null;
+    try {
+      streams = log.selectInputStreams(nextTxid, 0, null, readInProgress);
+    } catch (IllegalStateException e) { // can happen if we have
+      // transitioned out of active and haven't yet transitioned to standby
+      // and are using QJM -- the edit log will be closed and this exception
+      // will result
+      LOG.info("NN is transitioning from active to standby and FSEditLog " +
+      "is closed -- could not read edits");
+      return new EventBatchList(batches, firstSeenTxid, maxSeenTxid, syncTxid);
+    }
+
+    boolean breakOuter = false;
+    for (EditLogInputStream elis : streams) {
+      // our assumption in this code is the EditLogInputStreams are ordered by
+      // starting txid
+      try {
+        FSEditLogOp op = null;
+        while ((op = readOp(elis)) != null) {
+          // break out of here in the unlikely event that syncTxid is so
+          // out of date that its segment has already been deleted, so the first
+          // txid we get is greater than syncTxid
+          if (syncTxid > 0 && op.getTransactionId() > syncTxid) {
+            breakOuter = true;
+            break;
+          }
+          // don't hide a gap after the cached txns from the client, it sees
+          // the gap at the start of its next call instead
+          if (firstSeenTxid != -1 && op.getTransactionId() > maxSeenTxid + 1) {
+            breakOuter = true;
+            break;
+          }
+
+          EventBatch eventBatch = InotifyFSEditLogOpTranslator.translate(op);
+          cache(op.getTransactionId(), eventBatch);
+          if (eventBatch != null) {
+            addEvents(batches, eventBatch, filter);
+            totalEvents += eventBatch.getEvents().length;
+          }
+          if (op.getTransactionId() > maxSeenTxid) {
+            maxSeenTxid = op.getTransactionId();
+          }
+          if (firstSeenTxid == -1) {
+            firstSeenTxid = op.getTransactionId();
+          }
+          if (totalEvents >= maxEventsPerRPC || (syncTxid > 0 &&
+              op.getTransactionId() == syncTxid)) {
+            // we're done
+            breakOuter = true;
+            break;
+          }
+        }
+      } finally {
+        elis.close();
+      }
+      if (breakOuter) {
+        break;
+      }
+    }
+
+    return new EventBatchList(batches, firstSeenTxid, maxSeenTxid, syncTxid);
+  }
+
+  private static void addEvents(List<EventBatch> batches,
+      EventBatch eventBatch, EventFilter filter) {
+    if (eventBatch.getEvents().length == 0) {
+      return;
+    }
+    EventBatch accepted = filter.filter(eventBatch);
+    if (accepted != null) {
+      batches.add(accepted);
+    }
+  }
+}
@@ -28,7 +28,14 @@
 import java.util.List;
 import java.util.PriorityQueue;
 import java.util.SortedSet;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -46,6 +53,7 @@
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimaps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Manages a collection of Journals. None of the methods are synchronized, it is
@@ -191,11 +199,29 @@ public boolean isShared() {
   private final List<JournalAndStream> journals =
       new CopyOnWriteArrayList<JournalSet.JournalAndStream>();
   final int minimumRedundantJournals;
+  /**
+   * Used to flush the journals concurrently, so that a sync takes as long
+   * as the slowest journal rather than the sum of all of them. Null if the
+   * journals are flushed one after another.
+   */
+  private final ExecutorService flushExecutor;
 
   private boolean closed;
   
   JournalSet(int minimumRedundantResources) {
+    this(minimumRedundantResources, false);
+  }
+
+  JournalSet(int minimumRedundantResources, boolean parallelFlush) {
     this.minimumRedundantJournals = minimumRedundantResources;
+    if (parallelFlush) {
+      flushExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+          60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+          new ThreadFactoryBuilder().setDaemon(true)
+              .setNameFormat("JournalSetFlusher-%d").build());
+    } else {
+      flushExecutor = null;
+    }
   }
   
   @Override
@@ -247,6 +273,9 @@ public void apply(JournalAndStream jas) throws IOException {
       }
     }, "close journal");
     closed = true;
+    if (flushExecutor != null) {
+      flushExecutor.shutdown();
+    }
   }
 
   public boolean isOpen() {
@@ -391,27 +420,92 @@ private void mapJournalsAndReportErrors(
       try {
         closure.apply(jas);
       } catch (Throwable t) {
-        if (jas.isRequired()) {
-          final String msg = "Error: " + status + " failed for required journal ("
-            + jas + ")";
-          LOG.fatal(msg, t);
-          // If we fail on *any* of the required journals, then we must not
-          // continue on any of the other journals. Abort them to ensure that
-          // retry behavior doesn't allow them to keep going in any way.
-          abortAllJournals();
-          // the current policy is to shutdown the NN on errors to shared edits
-          // dir. There are many code paths to shared edits failures - syncs,
-          // roll of edits etc. All of them go through this common function 
-          // where the isRequired() check is made. Applying exit policy here 
-          // to catch all code paths.
-          terminate(1, msg);
-        } else {
-          LOG.error("Error: " + status + " failed for (journal " + jas + ")", t);
-          badJAS.add(jas);          
+        handleJournalError(jas, t, status, badJAS);
+      }
+    }
+    disableAndReportErrorOnJournals(badJAS);
+    checkEnoughJournals(status);
+  }
+
+  /**
+   * Same as {@link #mapJournalsAndReportErrors} but, if parallel flushing
+   * is enabled and more than one journal is active, the operation is applied
+   * to the journals concurrently. Errors are handled once all the journals
+   * have completed.
+   */
+  private void mapJournalsAndReportErrorsParallel(
+      final JournalClosure closure, String status) throws IOException {
+    if (flushExecutor == null || journals.size() < 2) {
+      mapJournalsAndReportErrors(closure, status);
+      return;
+    }
+    List<JournalAndStream> targets = Lists.newArrayList();
+    List<Future<?>> futures = Lists.newArrayList();
+    for (final JournalAndStream jas : journals) {
+      targets.add(jas);
+      futures.add(flushExecutor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          closure.apply(jas);
+          return null;
+        }
+      }));
+    }
+    // Wait for every journal before handling any error: a failed required
+    // journal aborts all the streams, which must not happen under a flush
+    // still running on another journal.
+    Throwable[] errors = new Throwable[futures.size()];
+    boolean interrupted = false;
+    for (int i = 0; i < futures.size(); i++) {
+      while (true) {
+        try {
+          futures.get(i).get();
+        } catch (InterruptedException ie) {
+          // the journals must all complete before the streams are reused.
+          interrupted = true;
+          continue;
+        } catch (ExecutionException ee) {
+          errors[i] = ee.getCause();
         }
+        break;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    List<JournalAndStream> badJAS = Lists.newLinkedList();
+    for (int i = 0; i < errors.length; i++) {
+      if (errors[i] != null) {
+        handleJournalError(targets.get(i), errors[i], status, badJAS);
       }
     }
     disableAndReportErrorOnJournals(badJAS);
+    checkEnoughJournals(status);
+  }
+
+  private void handleJournalError(JournalAndStream jas, Throwable t,
+      String status, List<JournalAndStream> badJAS) {
+    if (jas.isRequired()) {
+      final String msg = "Error: " + status + " failed for required journal ("
+        + jas + ")";
+      LOG.fatal(msg, t);
+      // If we fail on *any* of the required journals, then we must not
+      // continue on any of the other journals. Abort them to ensure that
+      // retry behavior doesn't allow them to keep going in any way.
+      abortAllJournals();
+      // the current policy is to shutdown the NN on errors to shared edits
+      // dir. There are many code paths to shared edits failures - syncs,
+      // roll of edits etc. All of them go through this common function 
+      // where the isRequired() check is made. Applying exit policy here 
+      // to catch all code paths.
+      terminate(1, msg);
+    } else {
+      LOG.error("Error: " + status + " failed for (journal " + jas + ")", t);
+      badJAS.add(jas);          
+    }
+  }
+
+  private void checkEnoughJournals(String status) throws IOException {
     if (!NameNodeResourcePolicy.areResourcesAvailable(journals,
         minimumRedundantJournals)) {
       String message = status + " failed for too many journals";
@@ -513,7 +607,7 @@ public void apply(JournalAndStream jas) throws IOException {
 
     @Override
     protected void flushAndSync(final boolean durable) throws IOException {
-      mapJournalsAndReportErrors(new JournalClosure() {
+      mapJournalsAndReportErrorsParallel(new JournalClosure() {
         @Override
         public void apply(JournalAndStream jas) throws IOException {
           if (jas.isActive()) {
@@ -525,7 +619,7 @@ public void apply(JournalAndStream jas) throws IOException {
     
     @Override
     public void flush() throws IOException {
-      mapJournalsAndReportErrors(new JournalClosure() {
+      mapJournalsAndReportErrorsParallel(new JournalClosure() {
         @Override
         public void apply(JournalAndStream jas) throws IOException {
           if (jas.isActive()) {
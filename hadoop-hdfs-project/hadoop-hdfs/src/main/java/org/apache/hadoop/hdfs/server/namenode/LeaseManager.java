@@ -23,11 +23,10 @@
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.PriorityQueue;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
@@ -78,14 +77,10 @@ public class LeaseManager {
   // Mapping: leaseHolder -> Lease
   //
   private final SortedMap<String, Lease> leases = new TreeMap<>();
-  // Set of: Lease
-  private final PriorityQueue<Lease> sortedLeases = new PriorityQueue<>(512,
-      new Comparator<Lease>() {
-        @Override
-        public int compare(Lease o1, Lease o2) {
-          return Long.signum(o1.getLastUpdate() - o2.getLastUpdate());
-        }
-  });
+  // Set of: Lease, from the least to the most recently renewed.
+  // A lease is always renewed to the current monotonic time, so moving it to
+  // the tail on renewal keeps the set sorted by lastUpdate in O(1).
+  private final LinkedHashSet<Lease> sortedLeases = new LinkedHashSet<>(512);
   // INodeID -> Lease
   private final HashMap<Long, Lease> leasesById = new HashMap<>();
 
@@ -232,6 +227,12 @@ synchronized void renewLease(Lease lease) {
     }
   }
 
+  /** @return the least recently renewed lease, or null if there is none. */
+  @VisibleForTesting
+  synchronized Lease getOldestLease() {
+    return sortedLeases.isEmpty() ? null : sortedLeases.iterator().next();
+  }
+
   /**
    * Renew all of the currently open leases.
    */
@@ -316,6 +317,8 @@ public void setLeasePeriod(long softLimit, long hardLimit) {
    ******************************************************/
   class Monitor implements Runnable {
     final String name = getClass().getSimpleName();
+    /** Time spent releasing leases in the last check, or -1 if completed. */
+    private long interruptedCheckMs = -1;
 
     /** Check leases periodically. */
     @Override
@@ -324,9 +327,14 @@ public void run() {
         boolean needSync = false;
         try {
           fsnamesystem.writeLockInterruptibly();
+          final long start = monotonicNow();
+          interruptedCheckMs = -1;
           try {
             if (!fsnamesystem.isInSafeMode()) {
               needSync = checkLeases();
+              if (hasExpiredLease()) {
+                interruptedCheckMs = monotonicNow() - start;
+              }
             }
           } finally {
             fsnamesystem.writeUnlock();
@@ -335,8 +343,15 @@ public void run() {
               fsnamesystem.getEditLog().logSync();
             }
           }
-  
-          Thread.sleep(fsnamesystem.getLeaseRecheckIntervalMs());
+
+          // Resume releasing the remaining expired leases once the lock has
+          // been given up for as long as it was held, rather than waiting for
+          // the whole recheck interval.
+          long interval = fsnamesystem.getLeaseRecheckIntervalMs();
+          if (interruptedCheckMs >= 0) {
+            interval = Math.min(interval, Math.max(1, interruptedCheckMs));
+          }
+          Thread.sleep(interval);
         } catch(InterruptedException ie) {
           if (LOG.isDebugEnabled()) {
             LOG.debug(name + " is interrupted", ie);
@@ -358,9 +373,8 @@ synchronized boolean checkLeases() {
 
     long start = monotonicNow();
 
-    while(!sortedLeases.isEmpty() && sortedLeases.peek().expiredHardLimit()
-      && !isMaxLockHoldToReleaseLease(start)) {
-      Lease leaseToCheck = sortedLeases.peek();
+    while(hasExpiredLease() && !isMaxLockHoldToReleaseLease(start)) {
+      Lease leaseToCheck = getOldestLease();
       LOG.info(leaseToCheck + " has expired hard limit");
 
       final List<Long> removing = new ArrayList<>();
@@ -415,6 +429,12 @@ synchronized boolean checkLeases() {
     return needSync;
   }
 
+  /** @return true if the oldest lease has expired the hard limit. */
+  @VisibleForTesting
+  synchronized boolean hasExpiredLease() {
+    Lease oldest = getOldestLease();
+    return oldest != null && oldest.expiredHardLimit();
+  }
 
   /** @return true if max lock hold is reached */
   private boolean isMaxLockHoldToReleaseLease(long start) {
@@ -19,6 +19,8 @@
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -36,7 +38,13 @@
  * discarded and cache is ready for use.
  * 
  * <p>
- * This class must be synchronized externally.
+ * After initialization, names added by later operations are still promoted
+ * to the cache. Their use count is then tracked in a fixed number of slots,
+ * so that names used only once do not take up heap. The cache stops taking
+ * new names once it holds {@code maxSize} of them.
+ * 
+ * <p>
+ * This class is thread safe.
  * 
  * @param <K> name to be added to the cache
  */
@@ -64,28 +72,51 @@ int get() {
 
   static final Log LOG = LogFactory.getLog(NameCache.class.getName());
 
+  /** Number of slots tracking the use count of names after initialization */
+  static final int CANDIDATE_SLOTS = 4096;
+
   /** indicates initialization is in progress */
-  private boolean initialized = false;
+  private volatile boolean initialized = false;
 
   /** names used more than {@code useThreshold} is added to the cache */
   private final int useThreshold;
 
+  /** no names are added to the cache once it holds this many */
+  private final int maxSize;
+
   /** of times a cache look up was successful */
-  private int lookups = 0;
+  private final AtomicLong lookups = new AtomicLong();
+
+  /** of times a cache look up was not successful */
+  private final AtomicLong misses = new AtomicLong();
 
   /** Cached names */
-  final HashMap<K, K> cache = new HashMap<K, K>();
+  final Map<K, K> cache = new ConcurrentHashMap<K, K>();
 
   /** Names and with number of occurrences tracked during initialization */
   Map<K, UseCount> transientMap = new HashMap<K, UseCount>();
 
+  /** Names with their number of occurrences tracked after initialization */
+  private final Object[] candidates = new Object[CANDIDATE_SLOTS];
+
   /**
    * Constructor
    * @param useThreshold names occurring more than this is promoted to the
    *          cache
    */
   NameCache(int useThreshold) {
+    this(useThreshold, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Constructor
+   * @param useThreshold names occurring more than this is promoted to the
+   *          cache
+   * @param maxSize maximum number of names in the cache
+   */
+  NameCache(int useThreshold, int maxSize) {
     this.useThreshold = useThreshold;
+    this.maxSize = maxSize;
   }
   
   /**
@@ -97,33 +128,74 @@ int get() {
    */
   K put(final K name) {
     K internal = cache.get(name);
+    if (internal == null) {
+      internal = track(name);
+    }
     if (internal != null) {
-      lookups++;
-      return internal;
+      lookups.incrementAndGet();
+    } else {
+      misses.incrementAndGet();
     }
+    return internal;
+  }
 
-    // Track the usage count only during initialization
+  /**
+   * Track the use count of a name which is not cached.
+   * @return internal value for the name if it was used before; otherwise null
+   */
+  private K track(final K name) {
+    // Track the usage count in the transient map during initialization
     if (!initialized) {
-      UseCount useCount = transientMap.get(name);
-      if (useCount != null) {
-        useCount.increment();
-        if (useCount.get() >= useThreshold) {
-          promote(name);
+      synchronized (this) {
+        if (!initialized) {
+          UseCount useCount = transientMap.get(name);
+          if (useCount != null) {
+            useCount.increment();
+            if (useCount.get() >= useThreshold) {
+              promote(name);
+            }
+            return useCount.value;
+          }
+          useCount = new UseCount(name);
+          transientMap.put(name, useCount);
+          return null;
         }
-        return useCount.value;
       }
-      useCount = new UseCount(name);
-      transientMap.put(name, useCount);
     }
-    return null;
+    if (cache.size() >= maxSize) {
+      return null;
+    }
+    int slot = (name.hashCode() & Integer.MAX_VALUE) % candidates.length;
+    synchronized (candidates) {
+      @SuppressWarnings("unchecked")
+      UseCount useCount = (UseCount) candidates[slot];
+      if (useCount == null || !useCount.value.equals(name)) {
+        // the slot goes to the most recently used name.
+        candidates[slot] = new UseCount(name);
+        return null;
+      }
+      useCount.increment();
+      if (useCount.get() >= useThreshold) {
+        candidates[slot] = null;
+        cache.put(useCount.value, useCount.value);
+      }
+      return useCount.value;
+    }
   }
   
   /**
    * Lookup count when a lookup for a name returned cached object
    * @return number of successful lookups
    */
-  int getLookupCount() {
-    return lookups;
+  long getLookupCount() {
+    return lookups.get();
+  }
+
+  /**
+   * @return number of lookups for a name which was not cached
+   */
+  long getMissCount() {
+    return misses.get();
   }
 
   /**
@@ -136,10 +208,9 @@ int size() {
 
   /**
    * Mark the name cache as initialized. The use count is no longer tracked
-   * and the transient map used for initializing the cache is discarded to
-   * save heap space.
+   * in the transient map, which is discarded to save heap space.
    */
-  void initialized() {
+  synchronized void initialized() {
     LOG.info("initialized with " + size() + " entries " + lookups + " lookups");
     this.initialized = true;
     transientMap.clear();
@@ -150,10 +221,9 @@ void initialized() {
   private void promote(final K name) {
     transientMap.remove(name);
     cache.put(name, name);
-    lookups += useThreshold;
   }
 
-  public void reset() {
+  public synchronized void reset() {
     initialized = false;
     cache.clear();
     if (transientMap == null) {
@@ -161,5 +231,10 @@ public void reset() {
     } else {
       transientMap.clear();
     }
+    synchronized (candidates) {
+      for (int i = 0; i < candidates.length; i++) {
+        candidates[i] = null;
+      }
+    }
   }
 }
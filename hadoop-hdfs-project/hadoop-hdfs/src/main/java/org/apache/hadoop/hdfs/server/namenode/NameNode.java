@@ -1920,6 +1920,14 @@ public boolean allowStaleReads() {
       return allowStaleStandbyReads;
     }
 
+    @Override
+    public boolean canServeConsistentRead() {
+      GlobalStateIdContext stateIdContext =
+          rpcServer == null ? null : rpcServer.getStateIdContext();
+      return stateIdContext != null &&
+          stateIdContext.isCaughtUp(Server.getClientStateId());
+    }
+
   }
   
   public boolean isStandbyState() {
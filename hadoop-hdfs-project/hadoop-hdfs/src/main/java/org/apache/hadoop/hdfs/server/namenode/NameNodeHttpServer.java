@@ -283,6 +283,8 @@ void setStartupProgress(StartupProgress prog) {
   private static void setupServlets(HttpServer2 httpServer, Configuration conf) {
     httpServer.addInternalServlet("startupProgress",
         StartupProgressServlet.PATH_SPEC, StartupProgressServlet.class);
+    httpServer.addInternalServlet("topUsage", TopUsageServlet.PATH_SPEC,
+        TopUsageServlet.class);
     httpServer.addInternalServlet("fsck", "/fsck", FsckServlet.class,
         true);
     httpServer.addInternalServlet("imagetransfer", ImageServlet.PATH_SPEC,
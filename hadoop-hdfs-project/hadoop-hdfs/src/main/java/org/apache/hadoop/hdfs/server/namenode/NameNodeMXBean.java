@@ -244,6 +244,15 @@ public interface NameNodeMXBean {
    */
   public String getCompileInfo();
 
+  /**
+   * Get the time spent waiting for and holding the namesystem lock per
+   * operation and lock mode, if detailed lock metrics are enabled, and the
+   * most recent holds of the lock which exceeded the reporting threshold.
+   *
+   * @return the lock statistics, as a JSON string.
+   */
+  public String getLockStats();
+
   /**
    * Get the list of corrupt files
    *
@@ -79,10 +79,12 @@
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.DFSUtil;
 import org.apache.hadoop.hdfs.HDFSPolicyProvider;
-import org.apache.hadoop.hdfs.inotify.EventBatch;
 import org.apache.hadoop.hdfs.inotify.EventBatchList;
+import org.apache.hadoop.hdfs.inotify.EventFilter;
 import org.apache.hadoop.hdfs.protocol.AclException;
 import org.apache.hadoop.hdfs.protocol.AlreadyBeingCreatedException;
+import org.apache.hadoop.hdfs.protocol.BatchOp;
+import org.apache.hadoop.hdfs.protocol.BatchOpResult;
 import org.apache.hadoop.hdfs.protocol.BlockListAsLongs;
 import org.apache.hadoop.hdfs.protocol.BlockStoragePolicy;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
@@ -111,6 +113,7 @@
 import org.apache.hadoop.hdfs.protocol.RecoveryInProgressException;
 import org.apache.hadoop.hdfs.protocol.RollingUpgradeInfo;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReportListing;
 import org.apache.hadoop.hdfs.protocol.SnapshottableDirectoryStatus;
 import org.apache.hadoop.hdfs.protocol.UnregisteredNodeException;
 import org.apache.hadoop.hdfs.protocol.UnresolvedPathException;
@@ -238,15 +241,29 @@ public class NameNodeRpcServer implements NamenodeProtocols {
   /** The RPC server that listens to requests from clients */
   protected final RPC.Server clientRpcServer;
   protected final InetSocketAddress clientRpcAddress;
+  /** Aligns the client and namesystem state ids, null if disabled */
+  private final GlobalStateIdContext stateIdContext;
   
   private final String minimumDataNodeVersion;
 
+  /** Reads the events for inotify clients. */
+  private final InotifyEventReader inotifyEventReader;
+
   public NameNodeRpcServer(Configuration conf, NameNode nn)
       throws IOException {
     this.nn = nn;
     this.namesystem = nn.getNamesystem();
     this.retryCache = namesystem.getRetryCache();
     this.metrics = NameNode.getNameNodeMetrics();
+    this.inotifyEventReader = new InotifyEventReader(
+        conf.getInt(DFSConfigKeys.DFS_NAMENODE_INOTIFY_MAX_EVENTS_PER_RPC_KEY,
+            DFSConfigKeys.DFS_NAMENODE_INOTIFY_MAX_EVENTS_PER_RPC_DEFAULT),
+        conf.getInt(DFSConfigKeys.DFS_NAMENODE_INOTIFY_CACHE_TXIDS_KEY,
+            DFSConfigKeys.DFS_NAMENODE_INOTIFY_CACHE_TXIDS_DEFAULT),
+        conf.getLong(DFSConfigKeys.DFS_NAMENODE_INOTIFY_MAX_WAIT_MS_KEY,
+            DFSConfigKeys.DFS_NAMENODE_INOTIFY_MAX_WAIT_MS_DEFAULT),
+        conf.getInt(DFSConfigKeys.DFS_NAMENODE_INOTIFY_MAX_WAITING_CALLS_KEY,
+            DFSConfigKeys.DFS_NAMENODE_INOTIFY_MAX_WAITING_CALLS_DEFAULT));
     
     int handlerCount = 
       conf.getInt(DFS_NAMENODE_HANDLER_COUNT_KEY, 
@@ -507,6 +524,15 @@ public NameNodeRpcServer(Configuration conf, NameNode nn)
     clientRpcServer.addSuppressedLoggingExceptions(StandbyException.class);
 
     clientRpcServer.setTracer(nn.tracer);
+    if (conf.getBoolean(DFSConfigKeys.DFS_NAMENODE_STATE_CONTEXT_ENABLED_KEY,
+        DFSConfigKeys.DFS_NAMENODE_STATE_CONTEXT_ENABLED_DEFAULT)) {
+      stateIdContext = new GlobalStateIdContext(namesystem, conf.getLong(
+          DFSConfigKeys.DFS_NAMENODE_STATE_CONTEXT_MAX_WAIT_MS_KEY,
+          DFSConfigKeys.DFS_NAMENODE_STATE_CONTEXT_MAX_WAIT_MS_DEFAULT));
+      clientRpcServer.setAlignmentContext(stateIdContext);
+    } else {
+      stateIdContext = null;
+    }
     if (serviceRpcServer != null) {
       serviceRpcServer.setTracer(nn.tracer);
     }
@@ -586,6 +612,11 @@ InetSocketAddress getRpcAddress() {
     return clientRpcAddress;
   }
 
+  /** @return the state id context of the client RPC server, or null */
+  GlobalStateIdContext getStateIdContext() {
+    return stateIdContext;
+  }
+
   private static UserGroupInformation getRemoteUser() throws IOException {
     return NameNode.getRemoteUser();
   }
@@ -1073,12 +1104,73 @@ public boolean delete(String src, boolean recursive) throws IOException {
     return ret;
   }
 
+  @Override // ClientProtocol
+  public List<BatchOpResult> batchMetadataOps(List<BatchOp> ops,
+      String clientName) throws IOException {
+    checkNNStartup();
+    String clientMachine = getClientMachine();
+    if (stateChangeLog.isDebugEnabled()) {
+      stateChangeLog.debug("*DIR* NameNode.batchMetadataOps: " + ops.size()
+          + " operations for " + clientName + " at " + clientMachine);
+    }
+    namesystem.checkOperation(OperationCategory.WRITE);
+    // Each operation of the batch logs the call, so the entry loaded from
+    // the edit log on another NameNode is the one of the last operation.
+    CacheEntry cacheEntry =
+        RetryCache.waitForCompletionOfAnyEntry(retryCache, null);
+    if (cacheEntry != null && cacheEntry.isSuccess()) {
+      Object previous = cacheEntry instanceof CacheEntryWithPayload
+          ? ((CacheEntryWithPayload) cacheEntry).getPayload() : null;
+      if (!(previous instanceof List)) {
+        throw new IOException("The batch of " + ops.size() + " operations"
+            + " was executed before this NameNode became active, its"
+            + " results are not available");
+      }
+      @SuppressWarnings("unchecked")
+      List<BatchOpResult> previousResults = (List<BatchOpResult>) previous;
+      return previousResults; // Return previous response
+    }
+
+    List<BatchOpResult> results = null;
+    try {
+      results = namesystem.batchMetadataOps(ops,
+          getRemoteUser().getShortUserName(), clientName, clientMachine,
+          cacheEntry != null);
+    } finally {
+      // An entry which is not successful was added by this NameNode.
+      RetryCache.setState((CacheEntryWithPayload) cacheEntry,
+          results != null, results);
+    }
+    for (int i = 0; i < ops.size(); i++) {
+      if (!results.get(i).isSuccess()) {
+        continue;
+      }
+      switch (ops.get(i).getType()) {
+      case CREATE:
+        metrics.incrFilesCreated();
+        metrics.incrCreateFileOps();
+        break;
+      case DELETE:
+        if (results.get(i).getResult()) {
+          metrics.incrDeleteFileOps();
+        }
+        break;
+      case RENAME:
+        metrics.incrFilesRenamed();
+        break;
+      default:
+        break;
+      }
+    }
+    return results;
+  }
+
   /**
    * Check path length does not exceed maximum.  Returns true if
    * length and depth are okay.  Returns false if length is too long 
    * or depth is too great.
    */
-  private boolean checkPathLength(String src) {
+  static boolean checkPathLength(String src) {
     Path srcPath = new Path(src);
     return (src.length() <= MAX_PATH_LENGTH &&
             srcPath.depth() <= MAX_PATH_DEPTH);
@@ -1109,9 +1201,15 @@ public void renewLease(String clientName) throws IOException {
   @Override // ClientProtocol
   public DirectoryListing getListing(String src, byte[] startAfter,
       boolean needLocation) throws IOException {
+    return getListing(src, startAfter, needLocation, null);
+  }
+
+  @Override // ClientProtocol
+  public DirectoryListing getListing(String src, byte[] startAfter,
+      boolean needLocation, byte[] prefix) throws IOException {
     checkNNStartup();
     DirectoryListing files = namesystem.getListing(
-        src, startAfter, needLocation);
+        src, startAfter, needLocation, prefix);
     if (files != null) {
       metrics.incrGetListingOps();
       metrics.incrFilesInGetListingOps(files.getPartialListing().length);
@@ -1441,7 +1539,7 @@ public DatanodeCommand blockReport(final DatanodeRegistration nodeReg,
       // call of this loop is the final updated value for noStaleStorage.
       //
       final int index = r;
-      noStaleStorages = bm.runBlockOp(new Callable<Boolean>() {
+      noStaleStorages = bm.runBlockReportOp(new Callable<Boolean>() {
         @Override
         public Boolean call() throws IOException {
           return bm.processReport(nodeReg, reports[index].getStorage(),
@@ -1813,6 +1911,21 @@ public SnapshotDiffReport getSnapshotDiffReport(String snapshotRoot,
     return report;
   }
 
+  @Override // ClientProtocol
+  public SnapshotDiffReportListing getSnapshotDiffReportListing(
+      String snapshotRoot, String earlierSnapshotName,
+      String laterSnapshotName, long listingId, int startIndex)
+      throws IOException {
+    checkNNStartup();
+    SnapshotDiffReportListing listing =
+        namesystem.getSnapshotDiffReportListing(snapshotRoot,
+            earlierSnapshotName, laterSnapshotName, listingId, startIndex);
+    if (startIndex == 0) {
+      metrics.incrSnapshotDiffReportOps();
+    }
+    return listing;
+  }
+
   @Override // ClientProtocol
   public long addCacheDirective(
       CacheDirectiveInfo path, EnumSet<CacheFlag> flags) throws IOException {
@@ -2099,107 +2212,24 @@ public long getCurrentEditLogTxid() throws IOException {
         namesystem.getEditLog().getLastWrittenTxId() : -1;
   }
 
-  private static FSEditLogOp readOp(EditLogInputStream elis)
-      throws IOException {
-    try {
-      return elis.readOp();
-      // we can get the below two exceptions if a segment is deleted
-      // (because we have accumulated too many edits) or (for the local journal/
-      // no-QJM case only) if a in-progress segment is finalized under us ...
-      // no need to throw an exception back to the client in this case
-    } catch (FileNotFoundException e) {
-      LOG.debug("Tried to read from deleted or moved edit log segment", e);
-      return null;
-    } catch (TransferFsImage.HttpGetFailedException e) {
-      LOG.debug("Tried to read from deleted edit log segment", e);
-      return null;
-    }
+  @Override // ClientProtocol
+  public EventBatchList getEditsFromTxid(long txid) throws IOException {
+    return getEditsFromTxid(txid, EventFilter.ALL, 0);
   }
 
   @Override // ClientProtocol
-  public EventBatchList getEditsFromTxid(long txid) throws IOException {
+  public EventBatchList getEditsFromTxid(long txid, EventFilter filter,
+      long waitMs) throws IOException {
     checkNNStartup();
     namesystem.checkOperation(OperationCategory.READ); // only active
     namesystem.checkSuperuserPrivilege();
-    int maxEventsPerRPC = nn.getConf().getInt(
-        DFSConfigKeys.DFS_NAMENODE_INOTIFY_MAX_EVENTS_PER_RPC_KEY,
-        DFSConfigKeys.DFS_NAMENODE_INOTIFY_MAX_EVENTS_PER_RPC_DEFAULT);
-    FSEditLog log = namesystem.getFSImage().getEditLog();
-    long syncTxid = log.getSyncTxId();
-    // If we haven't synced anything yet, we can only read finalized
-    // segments since we can't reliably determine which txns in in-progress
-    // segments have actually been committed (e.g. written to a quorum of JNs).
-    // If we have synced txns, we can definitely read up to syncTxid since
-    // syncTxid is only updated after a transaction is committed to all
-    // journals. (In-progress segments written by old writers are already
-    // discarded for us, so if we read any in-progress segments they are
-    // guaranteed to have been written by this NameNode.)
-    boolean readInProgress = syncTxid > 0;
-
-    List<EventBatch> batches = Lists.newArrayList();
-    int totalEvents = 0;
-    long maxSeenTxid = -1;
-    long firstSeenTxid = -1;
-
-    if (syncTxid > 0 && txid > syncTxid) {
-      // we can't read past syncTxid, so there's no point in going any further
-      return new EventBatchList(batches, firstSeenTxid, maxSeenTxid, syncTxid);
-    }
-
-    Collection<EditLogInputStream> streams = null;
-    try {
-      streams = log.selectInputStreams(txid, 0, null, readInProgress);
-    } catch (IllegalStateException e) { // can happen if we have
-      // transitioned out of active and haven't yet transitioned to standby
-      // and are using QJM -- the edit log will be closed and this exception
-      // will result
-      LOG.info("NN is transitioning from active to standby and FSEditLog " +
-      "is closed -- could not read edits");
-      return new EventBatchList(batches, firstSeenTxid, maxSeenTxid, syncTxid);
-    }
-
-    boolean breakOuter = false;
-    for (EditLogInputStream elis : streams) {
-      // our assumption in this code is the EditLogInputStreams are ordered by
-      // starting txid
-      try {
-        FSEditLogOp op = null;
-        while ((op = readOp(elis)) != null) {
-          // break out of here in the unlikely event that syncTxid is so
-          // out of date that its segment has already been deleted, so the first
-          // txid we get is greater than syncTxid
-          if (syncTxid > 0 && op.getTransactionId() > syncTxid) {
-            breakOuter = true;
-            break;
-          }
-
-          EventBatch eventBatch = InotifyFSEditLogOpTranslator.translate(op);
-          if (eventBatch != null) {
-            batches.add(eventBatch);
-            totalEvents += eventBatch.getEvents().length;
-          }
-          if (op.getTransactionId() > maxSeenTxid) {
-            maxSeenTxid = op.getTransactionId();
-          }
-          if (firstSeenTxid == -1) {
-            firstSeenTxid = op.getTransactionId();
-          }
-          if (totalEvents >= maxEventsPerRPC || (syncTxid > 0 &&
-              op.getTransactionId() == syncTxid)) {
-            // we're done
-            breakOuter = true;
-            break;
-          }
-        }
-      } finally {
-        elis.close();
-      }
-      if (breakOuter) {
-        break;
-      }
-    }
+    return inotifyEventReader.getEditsFromTxid(
+        namesystem.getFSImage().getEditLog(), txid, filter, waitMs);
+  }
 
-    return new EventBatchList(batches, firstSeenTxid, maxSeenTxid, syncTxid);
+  @VisibleForTesting
+  InotifyEventReader getInotifyEventReader() {
+    return inotifyEventReader;
   }
 
   @Override // TraceAdminProtocol
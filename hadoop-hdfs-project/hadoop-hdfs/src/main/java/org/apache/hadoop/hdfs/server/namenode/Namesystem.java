@@ -43,4 +43,9 @@ public interface Namesystem extends RwLock, SafeMode {
    *         middle of the starting active services.
    */
   boolean inTransitionToActive();
+
+  /**
+   * @return the number of write locks held by the current thread.
+   */
+  int getWriteHoldCount();
 }
@@ -0,0 +1,56 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * Servlet that provides the top users and path prefixes by namesystem lock
+ * hold time, RPC processing time and number of operations, as tracked by
+ * nntop. The optional "usage" parameter selects a single usage, e.g.
+ * {@code /topUsage?usage=pathLockTimeUs}.
+ */
+@InterfaceAudience.Private
+@SuppressWarnings("serial")
+public class TopUsageServlet extends DfsServlet {
+
+  private static final String USAGE = "usage";
+
+  public static final String PATH_SPEC = "/topUsage";
+
+  @Override
+  protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+      throws IOException {
+    final NameNode nn = NameNodeHttpServer.getNameNodeFromContext(
+        getServletContext());
+    final FSNamesystem fsn = nn.getNamesystem();
+    final String json = fsn == null ?
+        null : fsn.getTopUsage(req.getParameter(USAGE));
+    if (json == null) {
+      resp.sendError(HttpServletResponse.SC_NOT_FOUND,
+          "nntop is not enabled");
+      return;
+    }
+    resp.setContentType("application/json; charset=UTF-8");
+    resp.getWriter().write(json);
+  }
+}
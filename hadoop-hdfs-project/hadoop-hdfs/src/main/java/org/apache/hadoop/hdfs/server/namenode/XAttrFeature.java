@@ -65,6 +65,27 @@ public XAttrFeature(List<XAttr> xAttrs) {
     }
   }
 
+  /**
+   * Share the packed XAttrs with the other inodes using the same ones. The
+   * inode this feature is added to holds a reference to the shared XAttrs
+   * until the feature is released.
+   */
+  void share(ByteArrayReferenceCountMap sharedXAttrs) {
+    if (attrs != null) {
+      attrs = sharedXAttrs.put(attrs);
+    }
+  }
+
+  /**
+   * Release the reference of the inode this feature was added to, to the
+   * shared packed XAttrs.
+   */
+  void release(ByteArrayReferenceCountMap sharedXAttrs) {
+    if (attrs != null) {
+      sharedXAttrs.remove(attrs);
+    }
+  }
+
   /**
    * Get the XAttrs.
    * @return the XAttrs
@@ -75,18 +75,23 @@ public static List<XAttr> readINodeXAttrs(INodeAttributes inodeAttr) {
    * <p/>
    * Must be called while holding the FSDirectory write lock.
    * 
+   * @param fsd FSDirectory sharing the xAttrs between its inodes
    * @param inode INode to update
    * @param xAttrs to update xAttrs.
    * @param snapshotId id of the latest snapshot of the inode
    */
-  public static void updateINodeXAttrs(INode inode, 
+  public static void updateINodeXAttrs(FSDirectory fsd, INode inode,
       List<XAttr> xAttrs, int snapshotId) throws QuotaExceededException {
-    if (inode.getXAttrFeature() != null) {
+    final XAttrFeature f = inode.getXAttrFeature();
+    if (f != null) {
+      fsd.releaseXAttrs(f);
       inode.removeXAttrFeature(snapshotId);
     }
     if (xAttrs == null || xAttrs.isEmpty()) {
       return;
     }
-    inode.addXAttrFeature(new XAttrFeature(xAttrs), snapshotId);
+    final XAttrFeature newFeature = new XAttrFeature(xAttrs);
+    fsd.shareXAttrs(newFeature);
+    inode.addXAttrFeature(newFeature, snapshotId);
   }
 }
@@ -145,7 +145,15 @@ public Class<T> getInterface() {
    */
   @Override
   public synchronized ProxyInfo<T> getProxy() {
-    AddressRpcProxyPair<T> current = proxies.get(currentProxyIndex);
+    return getProxy(currentProxyIndex);
+  }
+
+  /**
+   * Lazily initialize the RPC proxy object of the NameNode at the given
+   * index of the configured addresses.
+   */
+  synchronized ProxyInfo<T> getProxy(int index) {
+    AddressRpcProxyPair<T> current = proxies.get(index);
     if (current.namenode == null) {
       try {
         current.namenode = factory.createProxy(conf,
@@ -167,6 +175,14 @@ synchronized void incrementProxyIndex() {
     currentProxyIndex = (currentProxyIndex + 1) % proxies.size();
   }
 
+  synchronized int getCurrentProxyIndex() {
+    return currentProxyIndex;
+  }
+
+  int getNumProxies() {
+    return proxies.size();
+  }
+
   /**
    * A little pair object to store the address and connected RPC proxy object to
    * an NN. Note that {@link AddressRpcProxyPair#namenode} may be null.
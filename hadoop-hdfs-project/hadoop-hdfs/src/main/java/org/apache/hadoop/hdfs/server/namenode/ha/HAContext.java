@@ -83,4 +83,14 @@ public interface HAContext {
    * while the namespace is not up to date)
    */
   boolean allowStaleReads();
+
+  /**
+   * Check whether the current read RPC can be served consistently, i.e. it
+   * calls a {@link ReadOnly} method, the client has sent the last state id
+   * it has seen and the namespace has caught up to it. Does not wait: the RPC server postpones such reads for
+   * a bounded time before they reach this check.
+   *
+   * @return true if the node should serve the current read operation
+   */
+  boolean canServeConsistentRead();
 }
@@ -0,0 +1,240 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode.ha;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.ClientGSIContext;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.NameNodeProxies;
+import org.apache.hadoop.hdfs.NameNodeProxiesClient;
+import org.apache.hadoop.hdfs.protocol.ClientProtocol;
+import org.apache.hadoop.hdfs.server.namenode.SafeModeException;
+import org.apache.hadoop.ipc.AlignmentContext;
+import org.apache.hadoop.ipc.Client.ConnectionId;
+import org.apache.hadoop.ipc.RPC;
+import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.ipc.RetriableException;
+import org.apache.hadoop.ipc.RpcInvocationHandler;
+import org.apache.hadoop.ipc.StandbyException;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.util.Time;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * A {@link ConfiguredFailoverProxyProvider} which sends the
+ * {@link ClientProtocol} methods annotated with {@link ReadOnly} to the
+ * NameNodes other than the one currently used for writes, and everything
+ * else to the latter, normally the active NameNode.
+ *
+ * All the proxies share a {@link ClientGSIContext}, so every request carries
+ * the id of the last transaction this client has seen. A Standby NameNode
+ * with dfs.namenode.state.context.enabled only serves a read once it has
+ * applied the edits up to that id, which gives the client read-your-writes
+ * consistency. If no other NameNode can serve a read, e.g. because it is
+ * behind or down, the read is sent to the active NameNode. A NameNode which
+ * could not be reached is skipped for
+ * dfs.client.failover.observer.unreachable.backoff.ms.
+ *
+ * For protocols other than ClientProtocol this behaves exactly like
+ * {@link ConfiguredFailoverProxyProvider}.
+ */
+public class ObserverReadProxyProvider<T> extends
+    ConfiguredFailoverProxyProvider<T> {
+
+  private static final Log LOG =
+      LogFactory.getLog(ObserverReadProxyProvider.class);
+
+  /** Creates the NameNode proxies with the shared alignment context. */
+  private static class AlignedProxyFactory<T> implements ProxyFactory<T> {
+    private final AlignmentContext alignmentContext;
+
+    AlignedProxyFactory(AlignmentContext alignmentContext) {
+      this.alignmentContext = alignmentContext;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T createProxy(Configuration conf, InetSocketAddress nnAddr,
+        Class<T> xface, UserGroupInformation ugi, boolean withRetries,
+        AtomicBoolean fallbackToSimpleAuth) throws IOException {
+      if (xface == ClientProtocol.class) {
+        return (T) NameNodeProxiesClient.createNonHAProxyWithClientProtocol(
+            nnAddr, conf, ugi, false, fallbackToSimpleAuth, alignmentContext);
+      }
+      return NameNodeProxies.createNonHAProxy(conf,
+          nnAddr, xface, ugi, false, fallbackToSimpleAuth).getProxy();
+    }
+  }
+
+  private final AlignmentContext alignmentContext;
+  private final boolean observerReads;
+  private final long unreachableBackoffMs;
+
+  /** The index of the NameNode to try first for the next read. */
+  private int observerIndex = 0;
+  /** Per NameNode, the monotonic time until which reads skip it. */
+  private final long[] unreachableUntil;
+  /** The proxy last returned by {@link #getProxy()} and its target. */
+  private ProxyInfo<T> lastProxy;
+  private T lastTarget;
+
+  public ObserverReadProxyProvider(Configuration conf, URI uri,
+      Class<T> xface) {
+    this(conf, uri, xface, new ClientGSIContext());
+  }
+
+  private ObserverReadProxyProvider(Configuration conf, URI uri,
+      Class<T> xface, AlignmentContext alignmentContext) {
+    super(conf, uri, xface, new AlignedProxyFactory<T>(alignmentContext));
+    this.alignmentContext = alignmentContext;
+    this.observerReads = xface == ClientProtocol.class;
+    this.unreachableBackoffMs = this.conf.getLong(
+        DFSConfigKeys.DFS_CLIENT_OBSERVER_UNREACHABLE_BACKOFF_MS_KEY,
+        DFSConfigKeys.DFS_CLIENT_OBSERVER_UNREACHABLE_BACKOFF_MS_DEFAULT);
+    this.unreachableUntil = new long[getNumProxies()];
+  }
+
+  @VisibleForTesting
+  AlignmentContext getAlignmentContext() {
+    return alignmentContext;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public synchronized ProxyInfo<T> getProxy() {
+    ProxyInfo<T> target = super.getProxy();
+    if (!observerReads) {
+      return target;
+    }
+    if (lastProxy == null || lastTarget != target.proxy) {
+      T proxy = (T) Proxy.newProxyInstance(xface.getClassLoader(),
+          new Class<?>[] {xface},
+          new ObserverReadInvocationHandler(target, getCurrentProxyIndex()));
+      lastProxy = new ProxyInfo<T>(proxy, target.proxyInfo);
+      lastTarget = target.proxy;
+    }
+    return lastProxy;
+  }
+
+  /**
+   * @return true if a read rejected by a NameNode other than the active one
+   *         should be sent to another NameNode instead of failing.
+   */
+  private static boolean shouldRetryElsewhere(Throwable t) {
+    if (t instanceof RemoteException) {
+      String className = ((RemoteException) t).getClassName();
+      return StandbyException.class.getName().equals(className) ||
+          RetriableException.class.getName().equals(className) ||
+          SafeModeException.class.getName().equals(className);
+    }
+    // the NameNode could not be reached
+    return t instanceof IOException;
+  }
+
+  private synchronized int getObserverIndex() {
+    return observerIndex;
+  }
+
+  private synchronized void moveObserverIndex(int failedIndex) {
+    if (observerIndex == failedIndex) {
+      observerIndex = (failedIndex + 1) % getNumProxies();
+    }
+  }
+
+  /** Stop sending reads to a NameNode which could not be reached for now. */
+  private synchronized void markUnreachable(int index) {
+    unreachableUntil[index] = Time.monotonicNow() + unreachableBackoffMs;
+  }
+
+  @VisibleForTesting
+  synchronized boolean isUnreachable(int index) {
+    return unreachableUntil[index] > Time.monotonicNow();
+  }
+
+  /**
+   * Tries the {@link ReadOnly} methods on the other NameNodes before the
+   * one used for writes.
+   */
+  private class ObserverReadInvocationHandler implements RpcInvocationHandler {
+    private final ProxyInfo<T> target;
+    private final int targetIndex;
+
+    ObserverReadInvocationHandler(ProxyInfo<T> target, int targetIndex) {
+      this.target = target;
+      this.targetIndex = targetIndex;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args)
+        throws Throwable {
+      if (method.isAnnotationPresent(ReadOnly.class)) {
+        final int numProxies = getNumProxies();
+        final int start = getObserverIndex();
+        for (int i = 0; i < numProxies; i++) {
+          int index = (start + i) % numProxies;
+          if (index == targetIndex || isUnreachable(index)) {
+            continue;
+          }
+          ProxyInfo<T> observer = getProxy(index);
+          try {
+            return method.invoke(observer.proxy, args);
+          } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (!shouldRetryElsewhere(cause)) {
+              throw cause;
+            }
+            if (LOG.isDebugEnabled()) {
+              LOG.debug("Read " + method.getName() + " rejected by "
+                  + observer.proxyInfo + ", trying the next NameNode", cause);
+            }
+            if (!(cause instanceof RemoteException)) {
+              markUnreachable(index);
+            }
+            moveObserverIndex(index);
+          }
+        }
+      }
+      try {
+        return method.invoke(target.proxy, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      // the proxies are closed by the proxy provider
+    }
+
+    @Override
+    public ConnectionId getConnectionId() {
+      return RPC.getConnectionIdForProxy(target.proxy);
+    }
+  }
+}
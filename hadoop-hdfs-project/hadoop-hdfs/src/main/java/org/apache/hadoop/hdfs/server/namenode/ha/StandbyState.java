@@ -35,7 +35,9 @@
  * received from the datanodes.</li>
  * </ul>
  * 
- * It does not handle read/write/checkpoint operations.
+ * It does not handle read/write/checkpoint operations, except for reads from
+ * clients that send the last state id they have seen when the namespace has
+ * caught up to it.
  */
 @InterfaceAudience.Private
 public class StandbyState extends HAState {
@@ -79,7 +81,8 @@ public void exitState(HAContext context) throws ServiceFailedException {
   public void checkOperation(HAContext context, OperationCategory op)
       throws StandbyException {
     if (op == OperationCategory.UNCHECKED ||
-        (op == OperationCategory.READ && context.allowStaleReads())) {
+        (op == OperationCategory.READ && (context.allowStaleReads() ||
+            context.canServeConsistentRead()))) {
       return;
     }
     String faq = ". Visit https://s.apache.org/sbnn-error";
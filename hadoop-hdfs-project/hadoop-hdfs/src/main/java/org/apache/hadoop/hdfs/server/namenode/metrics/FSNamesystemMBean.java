@@ -185,6 +185,18 @@ public interface FSNamesystemMBean {
    */
   public String getTopUserOpCounts();
 
+  /**
+   * Returns a nested JSON object listing, for each tracked resource usage,
+   * the top users or path prefixes for different RPC operations over tracked
+   * time windows. The usages are the namesystem lock hold time and RPC
+   * processing time, in microseconds, per user and per path prefix, and the
+   * number of operations per path prefix. The path prefixes are listed as
+   * the users of the operations.
+   *
+   * @return JSON string
+   */
+  public String getTopUsage();
+
   /**
    * Return the number of encryption zones in the system.
    */
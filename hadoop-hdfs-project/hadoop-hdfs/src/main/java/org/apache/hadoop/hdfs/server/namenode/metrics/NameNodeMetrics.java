@@ -80,6 +80,18 @@ public class NameNodeMetrics {
   MutableGaugeInt blockOpsQueued;
   @Metric("Number of blockReports and blockReceivedAndDeleted batch processed")
   MutableCounterLong blockOpsBatched;
+  @Metric("Number of times the write lock was released while processing a"
+      + " full blockReport")
+  MutableCounterLong blockReportLockReleases;
+  @Metric("Number of replicas of initial block reports processed in parallel")
+  MutableCounterLong initialBlockReportReplicas;
+  @Metric("Time in milliseconds spent processing initial block reports in"
+      + " parallel")
+  MutableCounterLong initialBlockReportTime;
+  @Metric("Number of blocks scheduled for reconstruction")
+  MutableCounterLong blocksScheduledForReconstruction;
+  @Metric("Duration of the replication monitor reconstruction work iterations")
+  MutableRate reconstructionWork;
 
   @Metric("Number of file system operations")
   public long totalFileOps(){
@@ -111,6 +123,17 @@ public long totalFileOps(){
   final MutableQuantiles[] syncsQuantiles;
   @Metric("Journal transactions batched in sync")
   MutableCounterLong transactionsBatchedInSync;
+  @Metric("Time blocked queueing an async edit, in microseconds")
+  MutableRate editLogEnqueue;
+  final MutableQuantiles[] editLogEnqueueQuantiles;
+  @Metric("Time serializing an async edit into the edit buffer, " +
+      "in microseconds")
+  MutableRate editLogSerialize;
+  final MutableQuantiles[] editLogSerializeQuantiles;
+  @Metric("Time from queueing an async edit until it is durable in the " +
+      "journals, in microseconds")
+  MutableRate editLogDurable;
+  final MutableQuantiles[] editLogDurableQuantiles;
   @Metric("Block report") MutableRate blockReport;
   final MutableQuantiles[] blockReportQuantiles;
   @Metric("Cache report") MutableRate cacheReport;
@@ -137,6 +160,9 @@ public long totalFileOps(){
     
     final int len = intervals.length;
     syncsQuantiles = new MutableQuantiles[len];
+    editLogEnqueueQuantiles = new MutableQuantiles[len];
+    editLogSerializeQuantiles = new MutableQuantiles[len];
+    editLogDurableQuantiles = new MutableQuantiles[len];
     blockReportQuantiles = new MutableQuantiles[len];
     cacheReportQuantiles = new MutableQuantiles[len];
     
@@ -145,6 +171,16 @@ public long totalFileOps(){
       syncsQuantiles[i] = registry.newQuantiles(
           "syncs" + interval + "s",
           "Journal syncs", "ops", "latency", interval);
+      editLogEnqueueQuantiles[i] = registry.newQuantiles(
+          "editLogEnqueue" + interval + "s",
+          "Async edit enqueue time in micros", "ops", "latency", interval);
+      editLogSerializeQuantiles[i] = registry.newQuantiles(
+          "editLogSerialize" + interval + "s",
+          "Async edit serialize time in micros", "ops", "latency", interval);
+      editLogDurableQuantiles[i] = registry.newQuantiles(
+          "editLogDurable" + interval + "s",
+          "Async edit time to durability in micros", "ops", "latency",
+          interval);
       blockReportQuantiles[i] = registry.newQuantiles(
           "blockReport" + interval + "s", 
           "Block report", "ops", "latency", interval);
@@ -279,6 +315,20 @@ public void addBlockOpsBatched(int count) {
     blockOpsBatched.incr(count);
   }
 
+  public void incrBlockReportLockReleases() {
+    blockReportLockReleases.incr();
+  }
+
+  public void addInitialBlockReport(long replicas, long time) {
+    initialBlockReportReplicas.incr(replicas);
+    initialBlockReportTime.incr(time);
+  }
+
+  public void addReconstructionWork(int scheduled, long latency) {
+    blocksScheduledForReconstruction.incr(scheduled);
+    reconstructionWork.add(latency);
+  }
+
   public void addTransaction(long latency) {
     transactions.add(latency);
   }
@@ -294,6 +344,27 @@ public void addSync(long elapsed) {
     }
   }
 
+  public void addEditLogEnqueue(long micros) {
+    editLogEnqueue.add(micros);
+    for (MutableQuantiles q : editLogEnqueueQuantiles) {
+      q.add(micros);
+    }
+  }
+
+  public void addEditLogSerialize(long micros) {
+    editLogSerialize.add(micros);
+    for (MutableQuantiles q : editLogSerializeQuantiles) {
+      q.add(micros);
+    }
+  }
+
+  public void addEditLogDurable(long micros) {
+    editLogDurable.add(micros);
+    for (MutableQuantiles q : editLogDurableQuantiles) {
+      q.add(micros);
+    }
+  }
+
   public void setFsImageLoadTime(long elapsed) {
     fsImageLoadTime.set((int) elapsed);
   }
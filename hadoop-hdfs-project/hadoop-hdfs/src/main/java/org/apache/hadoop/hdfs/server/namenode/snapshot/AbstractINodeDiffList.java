@@ -24,6 +24,7 @@
 
 import org.apache.hadoop.hdfs.server.namenode.INode;
 import org.apache.hadoop.hdfs.server.namenode.INodeAttributes;
+import org.apache.hadoop.hdfs.server.namenode.INodeDirectory;
 
 /**
  * A list of snapshot diffs for storing snapshot data.
@@ -98,7 +99,9 @@ public final void deleteSnapshotDiff(INode.ReclaimContext reclaimContext,
 
   /** Add an {@link AbstractINodeDiff} for the given snapshot. */
   final D addDiff(int latestSnapshotId, N currentINode) {
-    return addLast(createDiff(latestSnapshotId, currentINode));
+    final D diff = addLast(createDiff(latestSnapshotId, currentINode));
+    INodeDirectory.updateLastSubtreeDiff(currentINode, latestSnapshotId);
+    return diff;
   }
 
   /** Append the diff at the end of the list. */
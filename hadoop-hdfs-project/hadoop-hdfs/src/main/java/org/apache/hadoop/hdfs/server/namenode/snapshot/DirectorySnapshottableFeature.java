@@ -307,6 +307,9 @@ private void computeDiffRecursively(final INodeDirectory snapshotRoot,
       ReadOnlyList<INode> children = dir.getChildrenList(earlierSnapshot
           .getId());
       for (INode child : children) {
+        if (!isChangedAfter(child, earlierSnapshot)) {
+          continue;
+        }
         final byte[] name = child.getLocalNameBytes();
         boolean toProcess = diff.searchIndex(ListType.DELETED, name) < 0;
         if (!toProcess && child instanceof INodeReference.WithName) {
@@ -335,6 +338,19 @@ private void computeDiffRecursively(final INodeDirectory snapshotRoot,
     }
   }
 
+  /**
+   * @return false if no snapshot diff was added in the subtree of the
+   *         directory after the given snapshot, so that it is the same in the
+   *         snapshot and in all the later states. References are always
+   *         considered changed as their subtree may also be reached from
+   *         another parent.
+   */
+  private static boolean isChangedAfter(INode node, Snapshot snapshot) {
+    return node.isReference() || !node.isDirectory()
+        || node.asDirectory().getLastSubtreeDiffSnapshotId()
+            >= snapshot.getId();
+  }
+
   /**
    * We just found a deleted WithName node as the source of a rename operation.
    * However, we should include it in our snapshot diff report as rename only
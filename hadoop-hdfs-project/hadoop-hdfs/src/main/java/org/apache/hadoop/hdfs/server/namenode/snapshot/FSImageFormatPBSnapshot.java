@@ -183,6 +183,7 @@ private void loadSnapshots(InputStream in, int size) throws IOException {
     public void loadSnapshotDiffSection(InputStream in) throws IOException {
       final List<INodeReference> refList = parent.getLoaderContext()
           .getRefList();
+      final List<INode> inodesWithDiffs = new ArrayList<INode>();
       while (true) {
         SnapshotDiffSection.DiffEntry entry = SnapshotDiffSection.DiffEntry
             .parseDelimitedFrom(in);
@@ -201,6 +202,11 @@ public void loadSnapshotDiffSection(InputStream in) throws IOException {
               refList);
           break;
         }
+        inodesWithDiffs.add(inode);
+      }
+      // the parents of deleted inodes are set by the diffs of their parents.
+      for (INode inode : inodesWithDiffs) {
+        INodeDirectory.updateLastSubtreeDiff(inode);
       }
     }
 
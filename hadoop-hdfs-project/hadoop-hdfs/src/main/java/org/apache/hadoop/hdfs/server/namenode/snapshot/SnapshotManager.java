@@ -25,13 +25,16 @@
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.management.ObjectName;
 
 import org.apache.hadoop.hdfs.DFSUtil;
 import org.apache.hadoop.hdfs.DFSUtilClient;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReportListing;
 import org.apache.hadoop.hdfs.protocol.SnapshotException;
 import org.apache.hadoop.hdfs.protocol.SnapshotInfo;
 import org.apache.hadoop.hdfs.protocol.SnapshottableDirectoryStatus;
@@ -45,6 +48,9 @@
 import org.apache.hadoop.metrics2.util.MBeans;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 /**
  * Manage snapshottable directories and their snapshots.
@@ -71,6 +77,18 @@ public class SnapshotManager implements SnapshotStatsMXBean {
   private final Map<Long, INodeDirectory> snapshottables =
       new HashMap<Long, INodeDirectory>();
 
+  /**
+   * Snapshot diff reports being listed in parts, by listing id, so that the
+   * later parts of a listing are taken from the report computed for its first
+   * part.
+   */
+  private final Cache<Long, DiffListing> diffListings =
+      CacheBuilder.newBuilder()
+          .maximumSize(16)
+          .expireAfterAccess(5, TimeUnit.MINUTES)
+          .build();
+  private final AtomicLong diffListingIds = new AtomicLong();
+
   public SnapshotManager(final FSDirectory fsdir) {
     this.fsdir = fsdir;
   }
@@ -234,6 +252,7 @@ public void deleteSnapshot(final INodesInPath iip, final String snapshotName,
     INodeDirectory srcRoot = getSnapshottableRoot(iip);
     srcRoot.removeSnapshot(reclaimContext, snapshotName);
     numSnapshots.getAndDecrement();
+    diffListings.invalidateAll();
   }
 
   /**
@@ -253,6 +272,7 @@ public void renameSnapshot(final INodesInPath iip, final String snapshotRoot,
       throws IOException {
     final INodeDirectory srcRoot = getSnapshottableRoot(iip);
     srcRoot.renameSnapshot(snapshotRoot, oldSnapshotName, newSnapshotName);
+    diffListings.invalidateAll();
   }
   
   public int getNumSnapshottableDirs() {
@@ -371,6 +391,89 @@ public SnapshotDiffReport diff(final INodesInPath iip,
     return diffs != null ? diffs.generateReport() : new SnapshotDiffReport(
         snapshotRootPath, from, to, Collections.<DiffReportEntry> emptyList());
   }
+
+  /**
+   * Compute the difference between two snapshots of a directory, or between a
+   * snapshot of the directory and its current tree, and return at most
+   * {@code limit} of its entries starting at {@code startIndex}.
+   *
+   * The report is computed when the listing starts at index 0 and kept under
+   * a new listing id for listing the later parts, which are taken from that
+   * report only. The report is kept until the end of the listing is reached,
+   * it expires or is evicted, or a snapshot is deleted or renamed; asking for
+   * a later part of a listing that is no longer kept fails rather than
+   * computing the report again, since a recomputed report may not line up
+   * with the parts already returned.
+   *
+   * @param user the user listing the report; the later parts of a listing
+   *          can only be listed by the user who started it
+   * @param listingId the id of the listing, ignored if startIndex is 0
+   * @throws SnapshotException if startIndex is not 0 and the listing is not
+   *           kept, or was started for another directory, snapshots or user
+   */
+  public SnapshotDiffReportListing diffListing(final INodesInPath iip,
+      final String snapshotRootPath, final String from, final String to,
+      final String user, final long listingId, final int startIndex,
+      final int limit) throws IOException {
+    Preconditions.checkArgument(startIndex >= 0,
+        "Invalid start index %s", startIndex);
+    final long id;
+    final DiffListing listing;
+    if (startIndex == 0) {
+      id = diffListingIds.incrementAndGet();
+      listing = new DiffListing(diff(iip, snapshotRootPath, from, to),
+          snapshotRootPath, from, to, user);
+    } else {
+      id = listingId;
+      listing = diffListings.getIfPresent(id);
+      if (listing == null
+          || !listing.isListingOf(snapshotRootPath, from, to, user)) {
+        throw new SnapshotException("Snapshot diff listing " + id + " of "
+            + snapshotRootPath + " from " + Strings.nullToEmpty(from)
+            + " to " + Strings.nullToEmpty(to) + " is not available, it may"
+            + " have expired; restart the listing from index 0");
+      }
+    }
+    final SnapshotDiffReport report = listing.report;
+    final List<DiffReportEntry> entries = report.getDiffList();
+    if (startIndex >= entries.size()) {
+      diffListings.invalidate(id);
+    } else if (startIndex == 0) {
+      diffListings.put(id, listing);
+    }
+    final int fromIndex = Math.min(startIndex, entries.size());
+    final int toIndex = Math.min(entries.size(), fromIndex + limit);
+    return new SnapshotDiffReportListing(id, new SnapshotDiffReport(
+        report.getSnapshotRoot(), report.getFromSnapshot(),
+        report.getLaterSnapshotName(),
+        new ArrayList<>(entries.subList(fromIndex, toIndex))));
+  }
+
+  /** A snapshot diff report being listed in parts, and who is listing it. */
+  private static class DiffListing {
+    private final SnapshotDiffReport report;
+    private final String snapshotRootPath;
+    private final String from;
+    private final String to;
+    private final String user;
+
+    DiffListing(SnapshotDiffReport report, String snapshotRootPath,
+        String from, String to, String user) {
+      this.report = report;
+      this.snapshotRootPath = snapshotRootPath;
+      this.from = Strings.nullToEmpty(from);
+      this.to = Strings.nullToEmpty(to);
+      this.user = user;
+    }
+
+    boolean isListingOf(String snapshotRootPath, String from, String to,
+        String user) {
+      return this.snapshotRootPath.equals(snapshotRootPath)
+          && this.from.equals(Strings.nullToEmpty(from))
+          && this.to.equals(Strings.nullToEmpty(to))
+          && this.user.equals(user);
+    }
+  }
   
   public void clearSnapshottableDirs() {
     snapshottables.clear();
@@ -52,8 +52,24 @@ public void initialize(Configuration conf) {
   @Override
   public void logAuditEvent(boolean succeeded, String userName,
       InetAddress addr, String cmd, String src, String dst, FileStatus status) {
+    logAuditEvent(succeeded, userName, addr, cmd, src, dst, status, 0, 0);
+  }
+
+  /**
+   * Same as
+   * {@link #logAuditEvent(boolean, String, InetAddress, String, String,
+   * String, FileStatus)} with the namesystem lock hold time and the
+   * processing time of the RPC call which logged the event.
+   *
+   * @param lockTimeUs lock hold time of the call, in microseconds
+   * @param rpcTimeUs processing time of the call, in microseconds
+   */
+  public void logAuditEvent(boolean succeeded, String userName,
+      InetAddress addr, String cmd, String src, String dst, FileStatus status,
+      long lockTimeUs, long rpcTimeUs) {
     try {
-      topMetrics.report(succeeded, userName, addr, cmd, src, dst, status);
+      topMetrics.report(succeeded, userName, addr, cmd, src, dst, status,
+          lockTimeUs, rpcTimeUs);
     } catch (Throwable t) {
       LOG.error("An error occurred while reflecting the event in top service, "
           + "event: (cmd={},userName={})", cmd, userName);
@@ -67,6 +83,8 @@ public void logAuditEvent(boolean succeeded, String userName,
       sb.append("cmd=").append(cmd).append("\t");
       sb.append("src=").append(src).append("\t");
       sb.append("dst=").append(dst).append("\t");
+      sb.append("lockTimeUs=").append(lockTimeUs).append("\t");
+      sb.append("rpcTimeUs=").append(rpcTimeUs).append("\t");
       if (null == status) {
         sb.append("perm=null");
       } else {
@@ -18,15 +18,19 @@
 package org.apache.hadoop.hdfs.server.namenode.top.metrics;
 
 import java.net.InetAddress;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.server.namenode.top.TopConf;
 import org.apache.hadoop.hdfs.server.namenode.top.window.RollingWindowManager;
@@ -55,6 +59,13 @@
  * done by calling {@link org.apache.hadoop.hdfs.server.namenode.top.window
  * .RollingWindowManager#snapshot} on each RollingWindowManager.
  * <p/>
+ * Besides the counts, TopMetrics tracks the namesystem lock hold time and the
+ * RPC processing time of the operations per user, as well as the count, lock
+ * hold time and RPC processing time of the operations per path prefix. The
+ * path prefix is made of the first few components of the source path of the
+ * operation. These {@link Usage}s are published via {@link org.apache.hadoop
+ * .hdfs.server.namenode.metrics.FSNamesystemMBean#getTopUsage}.
+ * <p/>
  * Thread-safe: relies on thread-safety of RollingWindowManager
  */
 @InterfaceAudience.Private
@@ -68,8 +79,41 @@ private static void logConf(Configuration conf) {
         " = " +  conf.get(DFSConfigKeys.NNTOP_NUM_USERS_KEY));
     LOG.info("NNTop conf: " + DFSConfigKeys.NNTOP_WINDOWS_MINUTES_KEY +
         " = " +  conf.get(DFSConfigKeys.NNTOP_WINDOWS_MINUTES_KEY));
+    LOG.info("NNTop conf: " + DFSConfigKeys.NNTOP_PATH_DEPTH_KEY +
+        " = " +  conf.get(DFSConfigKeys.NNTOP_PATH_DEPTH_KEY));
   }
 
+  /**
+   * A resource usage which is tracked per user or per path prefix, for each
+   * operation and across all operations.
+   */
+  public enum Usage {
+    USER_LOCK_TIME("userLockTimeUs", false),
+    USER_RPC_TIME("userRpcTimeUs", false),
+    PATH_OPS("pathOps", true),
+    PATH_LOCK_TIME("pathLockTimeUs", true),
+    PATH_RPC_TIME("pathRpcTimeUs", true);
+
+    private final String name;
+    private final boolean byPath;
+
+    Usage(String name, boolean byPath) {
+      this.name = name;
+      this.byPath = byPath;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /** @return true if the usage is tracked per path prefix, not per user. */
+    public boolean isByPath() {
+      return byPath;
+    }
+  }
+
+  private static final Usage[] USAGES = Usage.values();
+
   /**
    * A map from reporting periods to WindowManager. Thread-safety is provided by
    * the fact that the mapping is not changed after construction.
@@ -77,12 +121,32 @@ private static void logConf(Configuration conf) {
   final Map<Integer, RollingWindowManager> rollingWindowManagers =
       new HashMap<Integer, RollingWindowManager>();
 
+  /**
+   * A map from reporting periods to the WindowManagers of each {@link Usage},
+   * indexed by its ordinal. Not changed after construction either.
+   */
+  final Map<Integer, RollingWindowManager[]> usageWindowManagers =
+      new HashMap<Integer, RollingWindowManager[]>();
+
+  /** Number of path components in a path prefix. */
+  private final int pathDepth;
+
   public TopMetrics(Configuration conf, int[] reportingPeriods) {
     logConf(conf);
     for (int i = 0; i < reportingPeriods.length; i++) {
       rollingWindowManagers.put(reportingPeriods[i], new RollingWindowManager(
           conf, reportingPeriods[i]));
+      RollingWindowManager[] managers =
+          new RollingWindowManager[USAGES.length];
+      for (int j = 0; j < managers.length; j++) {
+        managers[j] = new RollingWindowManager(conf, reportingPeriods[i]);
+      }
+      usageWindowManagers.put(reportingPeriods[i], managers);
     }
+    pathDepth = conf.getInt(DFSConfigKeys.NNTOP_PATH_DEPTH_KEY,
+        DFSConfigKeys.NNTOP_PATH_DEPTH_DEFAULT);
+    Preconditions.checkArgument(pathDepth > 0,
+        "the path depth must be at least 1");
   }
 
   /**
@@ -101,6 +165,26 @@ public List<TopWindow> getTopWindows() {
     return windows;
   }
 
+  /**
+   * Get the current top users and path prefixes of each {@link Usage}, one
+   * TopWindow per tracked time interval. The path prefixes are reported as
+   * the users of the operations.
+   */
+  public Map<Usage, List<TopWindow>> getTopUsage() {
+    long monoTime = Time.monotonicNow();
+    Map<Usage, List<TopWindow>> usage =
+        new EnumMap<Usage, List<TopWindow>>(Usage.class);
+    for (Usage u : USAGES) {
+      List<TopWindow> windows = Lists.newArrayListWithCapacity(
+          usageWindowManagers.size());
+      for (RollingWindowManager[] managers : usageWindowManagers.values()) {
+        windows.add(managers[u.ordinal()].snapshot(monoTime));
+      }
+      usage.put(u, windows);
+    }
+    return usage;
+  }
+
   /**
    * Pick the same information that DefaultAuditLogger does before writing to a
    * log file. This is to be consistent when {@link TopMetrics} is charged with
@@ -113,6 +197,67 @@ public void report(boolean succeeded, String userName, InetAddress addr,
     report(userName, cmd);
   }
 
+  /**
+   * Same as {@link #report(boolean, String, InetAddress, String, String,
+   * String, FileStatus)}, also recording the usage of the operation.
+   *
+   * @param lockTimeUs namesystem lock hold time of the operation
+   * @param rpcTimeUs RPC processing time of the operation
+   */
+  public void report(boolean succeeded, String userName, InetAddress addr,
+      String cmd, String src, String dst, FileStatus status, long lockTimeUs,
+      long rpcTimeUs) {
+    report(Time.monotonicNow(), userName, cmd, src, lockTimeUs, rpcTimeUs);
+  }
+
+  public void report(long currTime, String userName, String cmd, String src,
+      long lockTimeUs, long rpcTimeUs) {
+    report(currTime, userName, cmd);
+    userName = UserGroupInformation.trimLoginMethod(userName);
+    final String prefix = getPathPrefix(src);
+    for (RollingWindowManager[] managers : usageWindowManagers.values()) {
+      record(managers[Usage.USER_LOCK_TIME.ordinal()], currTime, cmd,
+          userName, lockTimeUs);
+      record(managers[Usage.USER_RPC_TIME.ordinal()], currTime, cmd,
+          userName, rpcTimeUs);
+      if (prefix != null) {
+        record(managers[Usage.PATH_OPS.ordinal()], currTime, cmd, prefix, 1);
+        record(managers[Usage.PATH_LOCK_TIME.ordinal()], currTime, cmd,
+            prefix, lockTimeUs);
+        record(managers[Usage.PATH_RPC_TIME.ordinal()], currTime, cmd,
+            prefix, rpcTimeUs);
+      }
+    }
+  }
+
+  private static void record(RollingWindowManager manager, long currTime,
+      String cmd, String name, long delta) {
+    // windows with a zero sum are dropped anyway, do not create them
+    if (delta > 0) {
+      manager.recordMetric(currTime, cmd, name, delta);
+      manager.recordMetric(currTime, TopConf.ALL_CMDS, name, delta);
+    }
+  }
+
+  /**
+   * @return the first {@link #pathDepth} components of the given absolute
+   *         path, or null if the path is not absolute.
+   */
+  @VisibleForTesting
+  String getPathPrefix(String src) {
+    if (src == null || !src.startsWith(Path.SEPARATOR)) {
+      return null;
+    }
+    int end = 0;
+    for (int i = 0; i < pathDepth; i++) {
+      end = src.indexOf(Path.SEPARATOR_CHAR, end + 1);
+      if (end < 0) {
+        return src;
+      }
+    }
+    return src.substring(0, end);
+  }
+
   public void report(String userName, String cmd) {
     long currTime = Time.monotonicNow();
     report(currTime, userName, cmd);
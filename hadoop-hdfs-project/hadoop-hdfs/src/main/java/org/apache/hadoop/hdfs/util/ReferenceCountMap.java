@@ -31,7 +31,8 @@
  * Hold the references count to a single instance. If there are no references
  * then the entry will be removed.<br>
  * Type E should implement {@link ReferenceCounter}<br>
- * Note: This class is NOT thread-safe.
+ * Note: The methods are synchronized since the map may be updated by
+ * several threads while the fsimage is loaded in parallel.
  */
 @InterfaceAudience.Private
 @InterfaceStability.Evolving
@@ -39,6 +40,9 @@
 
   private Map<E, E> referenceMap = new HashMap<E, E>();
 
+  /** Total number of references to all instances */
+  private long references = 0;
+
   /**
    * Add the reference. If the instance already present, just increase the
    * reference count.
@@ -46,13 +50,14 @@
    * @param key Key to put in reference map
    * @return Referenced instance
    */
-  public E put(E key) {
+  public synchronized E put(E key) {
     E value = referenceMap.get(key);
     if (value == null) {
       value = key;
       referenceMap.put(key, value);
     }
     value.incrementAndGetRefCount();
+    references++;
     return value;
   }
 
@@ -62,9 +67,13 @@ public E put(E key) {
    * 
    * @param key Key to remove the reference.
    */
-  public void remove(E key) {
+  public synchronized void remove(E key) {
     E value = referenceMap.get(key);
-    if (value != null && value.decrementAndGetRefCount() == 0) {
+    if (value == null) {
+      return;
+    }
+    references--;
+    if (value.decrementAndGetRefCount() == 0) {
       referenceMap.remove(key);
     }
   }
@@ -75,14 +84,14 @@ public void remove(E key) {
    * @return
    */
   @VisibleForTesting
-  public ImmutableList<E> getEntries() {
+  public synchronized ImmutableList<E> getEntries() {
     return new ImmutableList.Builder<E>().addAll(referenceMap.keySet()).build();
   }
 
   /**
    * Get the reference count for the key
    */
-  public long getReferenceCount(E key) {
+  public synchronized long getReferenceCount(E key) {
     ReferenceCounter counter = referenceMap.get(key);
     if (counter != null) {
       return counter.getRefCount();
@@ -93,16 +102,25 @@ public long getReferenceCount(E key) {
   /**
    * Get the number of unique elements
    */
-  public int getUniqueElementsSize() {
+  public synchronized int getUniqueElementsSize() {
     return referenceMap.size();
   }
 
+  /**
+   * Get the total number of references to all instances. Each reference
+   * beyond the first to an instance is an instance saved by de-duplication.
+   */
+  public synchronized long getReferenceCount() {
+    return references;
+  }
+
   /**
    * Clear the contents
    */
   @VisibleForTesting
-  public void clear() {
+  public synchronized void clear() {
     referenceMap.clear();
+    references = 0;
   }
 
   /**
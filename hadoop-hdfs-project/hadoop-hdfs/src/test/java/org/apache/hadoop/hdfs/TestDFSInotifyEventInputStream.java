@@ -23,25 +23,37 @@
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.CreateFlag;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Options;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.XAttrSetFlag;
 import org.apache.hadoop.fs.permission.AclEntry;
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.hdfs.inotify.Event;
 import org.apache.hadoop.hdfs.inotify.EventBatch;
+import org.apache.hadoop.hdfs.inotify.EventFilter;
 import org.apache.hadoop.hdfs.inotify.MissingEventsException;
 import org.apache.hadoop.hdfs.qjournal.MiniQJMHACluster;
 import org.apache.hadoop.hdfs.server.namenode.FSEditLogOpCodes;
+import org.apache.hadoop.hdfs.server.namenode.NameNode;
+import org.apache.hadoop.hdfs.server.namenode.NameNodeAdapter;
 import org.apache.hadoop.hdfs.server.namenode.ha.HATestUtil;
+import org.apache.hadoop.test.GenericTestUtils;
 import org.apache.hadoop.util.ExitUtil;
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.google.common.base.Supplier;
+
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -523,4 +535,108 @@ public void run() {
       cluster.shutdown();
     }
   }
+
+  @Test(timeout = 120000)
+  public void testFilteredEvents() throws IOException, InterruptedException,
+      MissingEventsException {
+    Configuration conf = new HdfsConfiguration();
+    MiniQJMHACluster cluster = new MiniQJMHACluster.Builder(conf).build();
+
+    try {
+      cluster.getDfsCluster().waitActive();
+      cluster.getDfsCluster().transitionToActive(0);
+      DFSClient client = new DFSClient(cluster.getDfsCluster().getNameNode(0)
+          .getNameNodeAddress(), conf);
+      EventFilter filter = new EventFilter(
+          Collections.singletonList("/watched/"),
+          Arrays.asList(Event.EventType.CREATE, Event.EventType.RENAME));
+      DFSInotifyEventInputStream all = client.getInotifyEventStream();
+      DFSInotifyEventInputStream filtered =
+          client.getInotifyEventStream(filter);
+
+      client.mkdirs("/watched/a", null, true);
+      client.mkdirs("/watchedother", null, false);
+      client.mkdirs("/other", null, false);
+      client.rename("/other", "/watched/b", Options.Rename.NONE);
+      client.delete("/watched/a", true);
+      client.mkdirs("/watched/c", null, false);
+
+      // mkdirs with createParent logs both /watched and /watched/a
+      String[] expected = {"/watched", "/watched/a", null, "/watched/c"};
+      for (String path : expected) {
+        EventBatch batch = filtered.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(batch);
+        Assert.assertEquals(1, batch.getEvents().length);
+        Event event = batch.getEvents()[0];
+        if (path == null) {
+          Assert.assertEquals(Event.EventType.RENAME, event.getEventType());
+          Assert.assertEquals("/watched/b",
+              ((Event.RenameEvent) event).getDstPath());
+        } else {
+          Assert.assertEquals(Event.EventType.CREATE, event.getEventType());
+          Assert.assertEquals(path, ((Event.CreateEvent) event).getPath());
+        }
+      }
+      Assert.assertNull(filtered.poll());
+
+      // the unfiltered stream reads the same transactions from the cache.
+      long cacheHits = NameNodeAdapter.getInotifyCacheHits(
+          cluster.getDfsCluster().getNameNode(0));
+      int events = 0;
+      EventBatch batch;
+      while ((batch = all.poll(1, TimeUnit.SECONDS)) != null) {
+        events += batch.getEvents().length;
+      }
+      Assert.assertEquals(7, events);
+      Assert.assertTrue(NameNodeAdapter.getInotifyCacheHits(
+          cluster.getDfsCluster().getNameNode(0)) > cacheHits);
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  @Test(timeout = 120000)
+  public void testWaitingCallDoesNotHoldHandler() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_HANDLER_COUNT_KEY, 1);
+    conf.setLong(DFSConfigKeys.DFS_NAMENODE_INOTIFY_MAX_WAIT_MS_KEY, 60000);
+    MiniQJMHACluster cluster = new MiniQJMHACluster.Builder(conf).build();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    try {
+      cluster.getDfsCluster().waitActive();
+      cluster.getDfsCluster().transitionToActive(0);
+      final NameNode nn = cluster.getDfsCluster().getNameNode(0);
+      DFSClient client = new DFSClient(nn.getNameNodeAddress(), conf);
+      final DFSInotifyEventInputStream eis = client.getInotifyEventStream();
+
+      Future<EventBatch> waiting = executor.submit(
+          new Callable<EventBatch>() {
+            @Override
+            public EventBatch call() throws Exception {
+              return eis.poll(60, TimeUnit.SECONDS);
+            }
+          });
+      GenericTestUtils.waitFor(new Supplier<Boolean>() {
+        @Override
+        public Boolean get() {
+          return NameNodeAdapter.getInotifyWaitingCalls(nn) == 1;
+        }
+      }, 10, 30000);
+
+      // the only handler is free to serve other calls while the inotify
+      // call waits, and the waiting call returns the new edits
+      client.mkdirs("/dir", null, false);
+      EventBatch batch = waiting.get(30, TimeUnit.SECONDS);
+      Assert.assertNotNull(batch);
+      Assert.assertEquals(Event.EventType.CREATE,
+          batch.getEvents()[0].getEventType());
+      Assert.assertEquals("/dir",
+          ((Event.CreateEvent) batch.getEvents()[0]).getPath());
+      Assert.assertEquals(0, NameNodeAdapter.getInotifyWaitingCalls(nn));
+    } finally {
+      executor.shutdownNow();
+      cluster.shutdown();
+    }
+  }
 }
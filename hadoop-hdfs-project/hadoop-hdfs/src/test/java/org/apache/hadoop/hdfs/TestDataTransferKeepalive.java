@@ -27,6 +27,8 @@
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.apache.hadoop.test.MetricsAsserts.getIntGauge;
+import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
 
 import java.io.InputStream;
 
@@ -121,6 +123,48 @@ public void testDatanodeRespectsKeepAliveTimeout() throws Exception {
     assertEquals(-1, peer.getInputStream().read());
   }
 
+  /**
+   * Test that an idle keep-alive connection is parked without a thread, and
+   * that the next op on it is still served.
+   */
+  @Test(timeout=30000)
+  public void testIdleConnectionIsParked() throws Exception {
+    Configuration clientConf = new Configuration(conf);
+    clientConf.setLong(DFS_CLIENT_SOCKET_CACHE_EXPIRY_MSEC_KEY, 60000L);
+    clientConf.set(DFS_CLIENT_CONTEXT, "testIdleConnectionIsParked");
+    DistributedFileSystem fs =
+        (DistributedFileSystem)FileSystem.get(cluster.getURI(),
+            clientConf);
+    PeerCache peerCache = ClientContext.getFromConf(clientConf).getPeerCache();
+
+    DFSTestUtil.createFile(fs, TEST_FILE, 1L, (short)1, 0L);
+    DFSTestUtil.readFile(fs, TEST_FILE);
+    assertEquals(1, peerCache.size());
+    waitForIdleXceivers(1);
+    assertEquals(0, getIntGauge("DataNodeActiveTransfersCount",
+        getMetrics(dn.getMetrics().name())));
+    assertXceiverCount(1);
+
+    // The parked connection is taken from the cache and serves the next read.
+    DFSTestUtil.readFile(fs, TEST_FILE);
+    assertEquals(1, peerCache.size());
+    waitForIdleXceivers(1);
+
+    // It is closed once it has been idle for the keepalive timeout.
+    waitForIdleXceivers(0);
+    assertXceiverCount(0);
+  }
+
+  private void waitForIdleXceivers(final int expected) throws Exception {
+    GenericTestUtils.waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        return getIntGauge("DataNodeIdleXceiversCount",
+            getMetrics(dn.getMetrics().name())) == expected;
+      }
+    }, 10, 10000);
+  }
+
   /**
    * Test that the client respects its keepalive timeout.
    */
@@ -1155,6 +1155,52 @@ public void testPendingNodes() throws Exception {
     assertTrackedAndPending(decomManager, 1, 0);
   }
 
+  /**
+   * Test that a tracked block stops holding back the decommission as soon as
+   * its new replica is reported, without waiting for the monitor.
+   */
+  @Test(timeout=120000)
+  public void testTrackedBlocksPrunedOnReplicaAdded() throws Exception {
+    Configuration newConf = new Configuration(conf);
+    // Disable the normal monitor runs
+    newConf.setInt(DFSConfigKeys.DFS_NAMENODE_DECOMMISSION_INTERVAL_KEY,
+        Integer.MAX_VALUE);
+    startCluster(1, 2, newConf);
+    final FileSystem fs = cluster.getFileSystem();
+    final DatanodeManager datanodeManager =
+        cluster.getNamesystem().getBlockManager().getDatanodeManager();
+    DFSTestUtil.createFile(fs, new Path("/file1"), fileSize, (short) 2, seed);
+
+    // Decommission one node. Its blocks cannot be replicated elsewhere yet.
+    ArrayList<DatanodeInfo> decommissionedNodes = Lists.newArrayList();
+    final DataNode d = cluster.getDataNodes().get(0);
+    decommissionedNodes.add(decommissionNode(0, d.getDatanodeUuid(),
+        decommissionedNodes, AdminStates.DECOMMISSION_INPROGRESS));
+    BlockManagerTestUtil.recheckDecommissionState(datanodeManager);
+    final DatanodeDescriptor dn = datanodeManager.getDatanode(
+        d.getDatanodeId());
+    assertEquals(1,
+        dn.decommissioningStatus.getInitialUnderReplicatedBlocks());
+    assertEquals(1, dn.decommissioningStatus.getUnderReplicatedBlocks());
+
+    // Once a new node takes the replicas the blocks are no longer tracked.
+    cluster.startDataNodes(newConf, 1, true, null, null, null);
+    GenericTestUtils.waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        return dn.decommissioningStatus.getUnderReplicatedBlocks() == 0;
+      }
+    }, 500, 30000);
+    assertEquals(1,
+        dn.decommissioningStatus.getInitialUnderReplicatedBlocks());
+    assertTrue(dn.isDecommissionInProgress());
+
+    // The next monitor run completes the decommission.
+    BlockManagerTestUtil.recheckDecommissionState(datanodeManager);
+    assertTrue(dn.isDecommissioned());
+    assertTrackedAndPending(datanodeManager.getDecomManager(), 0, 0);
+  }
+
   private void assertTrackedAndPending(DecommissionManager decomManager,
       int tracked, int pending) {
     assertEquals("Unexpected number of tracked nodes", tracked,
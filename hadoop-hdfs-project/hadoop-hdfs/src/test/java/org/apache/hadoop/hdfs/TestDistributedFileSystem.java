@@ -58,6 +58,7 @@
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem.Statistics.StatisticsData;
 import org.apache.hadoop.fs.FsServerDefaults;
+import org.apache.hadoop.fs.FileAlreadyExistsException;
 import org.apache.hadoop.fs.FileChecksum;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
@@ -73,15 +74,20 @@
 import org.apache.hadoop.hdfs.client.HdfsClientConfigKeys;
 import org.apache.hadoop.hdfs.DFSOpsCountStatistics.OpType;
 import org.apache.hadoop.hdfs.net.Peer;
+import org.apache.hadoop.hdfs.protocol.BatchOp;
+import org.apache.hadoop.hdfs.protocol.BatchOpResult;
+import org.apache.hadoop.hdfs.protocol.DirectoryListing;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants.RollingUpgradeAction;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants.SafeModeAction;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
 import org.apache.hadoop.hdfs.protocol.LocatedBlock;
 import org.apache.hadoop.hdfs.server.datanode.DataNode;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsDatasetSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
 import org.apache.hadoop.hdfs.server.namenode.top.window.RollingWindowManager.Op;
 import org.apache.hadoop.hdfs.web.WebHdfsConstants;
+import org.apache.hadoop.ipc.RemoteException;
 import org.apache.hadoop.net.DNSToSwitchMapping;
 import org.apache.hadoop.net.NetUtils;
 import org.apache.hadoop.net.ScriptBasedMapping;
@@ -1259,6 +1265,134 @@ public void testListFiles() throws IOException {
     }
   }
 
+  @Test(timeout=60000)
+  public void testListStatusWithPrefixAndPrefetch() throws IOException {
+    Configuration conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_LIST_LIMIT, 3);
+    conf.setInt(
+        HdfsClientConfigKeys.DFS_CLIENT_LISTING_PREFETCH_THREADPOOL_SIZE_KEY, 2);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).build();
+
+    try {
+      DistributedFileSystem fs = cluster.getFileSystem();
+      final Path dir = new Path("/list");
+      final Set<String> names = new HashSet<>();
+      for (int i = 0; i < 10; i++) {
+        names.add("a" + i);
+        names.add("ab" + i);
+        names.add("b" + i);
+      }
+      for (String name : names) {
+        fs.create(new Path(dir, name)).close();
+      }
+
+      // batches are fetched in the background
+      Set<String> listed = new HashSet<>();
+      for (FileStatus stat : fs.listStatus(dir)) {
+        listed.add(stat.getPath().getName());
+      }
+      assertEquals(names, listed);
+      listed.clear();
+      RemoteIterator<FileStatus> it = fs.listStatusIterator(dir);
+      while (it.hasNext()) {
+        assertTrue(listed.add(it.next().getPath().getName()));
+      }
+      assertEquals(names, listed);
+
+      // only the entries with the prefix are returned by the namenode
+      DirectoryListing listing = fs.getClient().listPaths("/list",
+          HdfsFileStatus.EMPTY_NAME, false, DFSUtil.string2Bytes("ab"));
+      assertEquals(3, listing.getPartialListing().length);
+      assertEquals(7, listing.getRemainingEntries());
+      assertEquals("ab0", listing.getPartialListing()[0].getLocalName());
+      listed.clear();
+      it = fs.listStatusIterator(dir, "ab");
+      while (it.hasNext()) {
+        String name = it.next().getPath().getName();
+        assertTrue(name, name.startsWith("ab"));
+        assertTrue(listed.add(name));
+      }
+      assertEquals(10, listed.size());
+      assertFalse(fs.listStatusIterator(dir, "c").hasNext());
+      assertFalse(fs.listStatusIterator(dir, "b9x").hasNext());
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  @Test(timeout=60000)
+  public void testBatchMetadataOps() throws IOException {
+    Configuration conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_BATCH_METADATA_OPS_MAX_KEY, 8);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).build();
+
+    try {
+      DistributedFileSystem fs = cluster.getFileSystem();
+      final Path dir = new Path("/batch");
+      fs.mkdirs(dir);
+      final FsPermission perm = new FsPermission((short) 0644);
+      final long blockSize = fs.getDefaultBlockSize(dir);
+      final List<BatchOp> ops = new ArrayList<>();
+      ops.add(BatchOp.create("/batch/a", perm, false, false, (short) 1,
+          blockSize));
+      ops.add(BatchOp.create("/batch/b", perm, false, false, (short) 1,
+          blockSize));
+      // fails, the file exists
+      ops.add(BatchOp.create("/batch/a", perm, false, false, (short) 1,
+          blockSize));
+      // fails, the parent does not exist
+      ops.add(BatchOp.create("/batch/x/y", perm, false, false, (short) 1,
+          blockSize));
+      ops.add(BatchOp.setPermission("/batch/b", new FsPermission((short) 0600)));
+      ops.add(BatchOp.rename("/batch/b", "/batch/c", false));
+      ops.add(BatchOp.delete("/batch/a", false));
+      ops.add(BatchOp.delete("/batch/missing", false));
+
+      final long opCount = getOpStatistics(OpType.BATCH_METADATA_OPS);
+      final long txid = cluster.getNamesystem().getEditLog()
+          .getLastWrittenTxId();
+      List<BatchOpResult> results = fs.batchMetadataOps(ops);
+      assertEquals(ops.size(), results.size());
+      for (int i : new int[] {0, 1, 4, 5, 6}) {
+        assertTrue(results.get(i).toString(), results.get(i).isSuccess());
+        assertTrue(results.get(i).getResult());
+      }
+      assertFalse(results.get(2).isSuccess());
+      assertEquals(FileAlreadyExistsException.class,
+          ((RemoteException) results.get(2).getException())
+              .unwrapRemoteException().getClass());
+      assertFalse(results.get(3).isSuccess());
+      assertTrue(results.get(7).isSuccess());
+      assertFalse(results.get(7).getResult());
+      // the failed operations do not log edits
+      assertEquals(txid + 7, cluster.getNamesystem().getEditLog()
+          .getLastWrittenTxId());
+
+      assertFalse(fs.exists(new Path(dir, "a")));
+      assertFalse(fs.exists(new Path(dir, "b")));
+      FileStatus stat = fs.getFileStatus(new Path(dir, "c"));
+      assertEquals(0, stat.getLen());
+      assertEquals(1, stat.getReplication());
+      assertEquals(new FsPermission((short) 0600), stat.getPermission());
+      // the created file is closed
+      assertTrue(fs.isFileClosed(new Path(dir, "c")));
+      checkOpStatistics(OpType.BATCH_METADATA_OPS, opCount + 1);
+
+      // batches larger than the limit are rejected as a whole
+      ops.add(BatchOp.delete("/batch/c", false));
+      try {
+        fs.batchMetadataOps(ops);
+        fail("The batch should be rejected");
+      } catch (IOException e) {
+        GenericTestUtils.assertExceptionContains(
+            DFSConfigKeys.DFS_NAMENODE_BATCH_METADATA_OPS_MAX_KEY, e);
+      }
+      assertTrue(fs.exists(new Path(dir, "c")));
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
   @Test(timeout=10000)
   public void testDFSClientPeerReadTimeout() throws IOException {
     final int timeout = 1000;
@@ -40,6 +40,7 @@
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map.Entry;
@@ -103,6 +104,7 @@
 import org.mockito.Mockito;
 
 import com.google.common.base.Joiner;
+import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.LinkedListMultimap;
 import com.google.common.collect.Lists;
@@ -903,6 +905,58 @@ public void testFullBR() throws Exception {
     }
   }
 
+  @Test
+  public void testParallelFirstBlockReport() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_INITIAL_BLOCK_REPORT_THREADS_KEY,
+        4);
+    bm = new BlockManager(fsn, false, conf);
+    doReturn(true).when(fsn).isInStartupSafeMode();
+
+    DatanodeDescriptor node = nodes.get(0);
+    DatanodeStorageInfo ds = node.getStorageInfos()[0];
+    node.setAlive(true);
+    DatanodeRegistration nodeReg =
+        new DatanodeRegistration(node, null, null, "");
+    bm.getDatanodeManager().registerDatanode(nodeReg);
+    bm.getDatanodeManager().addDatanode(node);
+
+    final int numBlocks = 3 * BlockManager.MIN_PARALLEL_INITIAL_REPORT_SIZE;
+    BlockListAsLongs.Builder builder = BlockListAsLongs.builder();
+    List<BlockInfo> complete = new ArrayList<>();
+    for (long id = 1; id <= numBlocks; id++) {
+      BlockInfo block = addBlockToBM(id);
+      complete.add(block);
+      builder.add(new FinalizedReplica(block, null, null));
+      if (id % 100 == 0) {
+        // duplicates are processed serially.
+        builder.add(new FinalizedReplica(block, null, null));
+      }
+    }
+    // under construction and unknown blocks are processed serially.
+    BlockInfo ucBlock = addUcBlockToBM(numBlocks + 1);
+    builder.add(new ReplicaBeingWritten(ucBlock, null, null, null));
+    builder.add(new FinalizedReplica(new Block(numBlocks + 2), null, null));
+
+    bm.processReport(node, new DatanodeStorage(ds.getStorageID()),
+        builder.build(),
+        new BlockReportContext(1, 0, System.nanoTime(), 0, true), false);
+    assertEquals(1, ds.getBlockReportCount());
+    assertEquals(numBlocks, ds.numBlocks());
+    for (BlockInfo block : complete) {
+      assertEquals(1, block.numNodes());
+      assertTrue(block.findStorageInfo(ds) >= 0);
+    }
+    // the storage blocks are kept sorted.
+    Iterator<BlockInfo> it = ds.getBlockIterator();
+    for (BlockInfo block : complete) {
+      assertEquals(block, it.next());
+    }
+    assertEquals(1, ucBlock.getUnderConstructionFeature()
+        .getNumExpectedLocations());
+    assertNull(bm.getStoredBlock(new Block(numBlocks + 2)));
+  }
+
   private BlockListAsLongs generateReport(List<BlockInfo> blocks) {
     BlockListAsLongs.Builder builder = BlockListAsLongs.builder();
     for (BlockInfo block : blocks) {
@@ -1152,6 +1206,79 @@ public void run() {
     }
   }
 
+  @Test(timeout = 120000)
+  public void testChunkedFullBlockReports() throws Exception {
+    final int numFiles = 30;
+    final Configuration conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_FULL_BLOCK_REPORT_CHUNK_SIZE_KEY, 3);
+    final MiniDFSCluster cluster =
+        new MiniDFSCluster.Builder(conf).numDataNodes(2).build();
+    try {
+      cluster.waitActive();
+      final DistributedFileSystem fs = cluster.getFileSystem();
+      final Path[] files = new Path[numFiles];
+      for (int i = 0; i < numFiles; i++) {
+        files[i] = new Path("/file" + i);
+        DFSTestUtil.createFile(fs, files[i], 1024L, (short) 2, i);
+      }
+
+      // drop half of the replicas on one datanode from the namenode, the
+      // next full block reports have to add them back.
+      final FSNamesystem fsn = cluster.getNamesystem();
+      final BlockManager blockManager = fsn.getBlockManager();
+      final DatanodeDescriptor dn = blockManager.getDatanodeManager()
+          .getDatanode(cluster.getDataNodes().get(0).getDatanodeId());
+      final List<Block> dropped = new ArrayList<>();
+      for (int i = 0; i < numFiles; i += 2) {
+        dropped.add(DFSTestUtil.getFirstBlock(fs, files[i]).getLocalBlock());
+      }
+      fsn.writeLock();
+      try {
+        for (Block b : dropped) {
+          blockManager.removeStoredBlock(blockManager.getStoredBlock(b), dn);
+        }
+      } finally {
+        fsn.writeUnlock();
+      }
+      cluster.triggerBlockReports();
+      waitForLiveReplicas(cluster, files, 2);
+      MetricsRecordBuilder rb = getMetrics("NameNodeActivity");
+      assertTrue(MetricsAsserts.getLongCounter(
+          "BlockReportLockReleases", rb) > 0);
+
+      // the first block reports after a restart are processed in chunks too.
+      cluster.restartNameNode();
+      cluster.waitActive();
+      waitForLiveReplicas(cluster, files, 2);
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  private static void waitForLiveReplicas(final MiniDFSCluster cluster,
+      final Path[] files, final int expected)
+      throws TimeoutException, InterruptedException {
+    final BlockManager blockManager =
+        cluster.getNamesystem().getBlockManager();
+    GenericTestUtils.waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        try {
+          for (Path file : files) {
+            BlockInfo stored = blockManager.getStoredBlock(DFSTestUtil
+                .getFirstBlock(cluster.getFileSystem(), file).getLocalBlock());
+            if (blockManager.countNodes(stored).liveReplicas() != expected) {
+              return false;
+            }
+          }
+          return true;
+        } catch (IOException e) {
+          return false;
+        }
+      }
+    }, 100, 60000);
+  }
+
   @Test
   public void testMetaSaveCorruptBlocks() throws Exception {
     List<DatanodeStorageInfo> origStorages = getStorages(0, 1);
@@ -0,0 +1,118 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.blockmanagement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.net.Node;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link PlacementCandidateIndex}.
+ */
+public class TestPlacementCandidateIndex {
+  private static final long MIN_REMAINING = 1024;
+  private static final String[] RACKS = {
+      "/r1", "/r1", "/r2", "/r2", "/r3", "/r3"};
+
+  private PlacementCandidateIndex index;
+  private DatanodeDescriptor[] nodes;
+
+  private static void setRemaining(DatanodeDescriptor dn, long remaining) {
+    BaseReplicationPolicyTest.updateHeartbeatWithUsage(dn,
+        2 * MIN_REMAINING, 0L, remaining, 0L, 0L, 0L, 0, 0);
+  }
+
+  @Before
+  public void setUp() {
+    index = new PlacementCandidateIndex(MIN_REMAINING);
+    DatanodeStorageInfo[] storages =
+        DFSTestUtil.createDatanodeStorageInfos(RACKS);
+    nodes = DFSTestUtil.toDatanodeDescriptor(storages);
+    for (DatanodeDescriptor dn : nodes) {
+      dn.setAlive(true);
+      setRemaining(dn, 2 * MIN_REMAINING);
+      index.update(dn);
+    }
+  }
+
+  @Test
+  public void testCandidates() {
+    assertEquals(nodes.length, index.size());
+
+    // full, decommissioning and dead nodes are not candidates.
+    setRemaining(nodes[0], MIN_REMAINING - 1);
+    index.update(nodes[0]);
+    nodes[1].startDecommission();
+    index.update(nodes[1]);
+    nodes[2].setAlive(false);
+    index.update(nodes[2]);
+    index.remove(nodes[3]);
+    assertEquals(2, index.size());
+    assertNull(index.chooseRandom("/r1", null));
+    assertNull(index.chooseRandom("/r2", null));
+
+    // and become candidates again once they can take blocks.
+    setRemaining(nodes[0], MIN_REMAINING);
+    index.update(nodes[0]);
+    nodes[1].stopDecommission();
+    index.update(nodes[1]);
+    assertEquals(4, index.size());
+    Set<Node> chosen = new HashSet<>();
+    for (int i = 0; i < 100; i++) {
+      chosen.add(index.chooseRandom("/r1", null));
+    }
+    assertEquals(2, chosen.size());
+
+    // a moved node is found in its new location.
+    nodes[0].setNetworkLocation("/r3");
+    index.update(nodes[0]);
+    for (int i = 0; i < 20; i++) {
+      assertEquals(nodes[1], index.chooseRandom("/r1", null));
+    }
+  }
+
+  @Test
+  public void testChooseRandomWithExclusions() {
+    Set<Node> excluded = new HashSet<>();
+    for (int i = 0; i < nodes.length; i++) {
+      DatanodeDescriptor dn = index.chooseRandom("", excluded);
+      assertTrue(excluded.add(dn));
+    }
+    assertNull(index.chooseRandom("", excluded));
+
+    excluded.clear();
+    excluded.add(nodes[4]);
+    for (int i = 0; i < 20; i++) {
+      assertEquals(nodes[5], index.chooseRandom("/r3", excluded));
+      DatanodeDescriptor dn = index.chooseRandom("~/r1", excluded);
+      assertNotEquals("/r1", dn.getNetworkLocation());
+      assertNotEquals(nodes[4], dn);
+    }
+    // scopes which are not indexed are left to the network topology.
+    assertNull(index.chooseRandom("/r4", null));
+  }
+}
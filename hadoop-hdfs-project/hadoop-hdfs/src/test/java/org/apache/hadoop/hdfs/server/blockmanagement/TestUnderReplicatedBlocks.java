@@ -30,6 +30,7 @@
 import org.apache.hadoop.hdfs.MiniDFSCluster;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.server.datanode.DataNodeTestUtils;
+import org.apache.hadoop.test.MetricsAsserts;
 import org.junit.Test;
 import org.mockito.internal.util.reflection.Whitebox;
 
@@ -151,4 +152,53 @@ public void testNumberOfBlocksToBeReplicated() throws Exception {
 
   }
 
+  /**
+   * Verify the targets of the reconstruction work are chosen correctly when
+   * they are chosen by several threads.
+   */
+  @Test(timeout=60000) // 1 min timeout
+  public void testParallelReconstructionWork() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setLong(DFSConfigKeys.DFS_NAMENODE_MIN_BLOCK_SIZE_KEY, 0);
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, 1);
+    conf.setInt(DFSConfigKeys.DFS_BYTES_PER_CHECKSUM_KEY, 1);
+    conf.setInt(DFSConfigKeys.DFS_HEARTBEAT_INTERVAL_KEY, 100);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_THREADS_KEY, 3);
+    conf.setInt(
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_STREAMS_HARD_LIMIT_KEY, 20);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_REPLICATION_MAX_STREAMS_KEY, 20);
+
+    final int NUM_OF_BLOCKS = 10;
+    final short REP_FACTOR = 2;
+    final Path FILE_PATH = new Path("/testFile");
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).numDataNodes(
+        REP_FACTOR).build();
+    try {
+      final FileSystem fs = cluster.getFileSystem();
+      DFSTestUtil.createFile(fs, FILE_PATH, NUM_OF_BLOCKS, REP_FACTOR, 1L);
+      DFSTestUtil.waitReplication(fs, FILE_PATH, REP_FACTOR);
+
+      cluster.startDataNodes(conf, 1, true, null, null, null, null);
+
+      final BlockManager bm = cluster.getNamesystem().getBlockManager();
+      ExtendedBlock b = DFSTestUtil.getFirstBlock(fs, FILE_PATH);
+      Iterator<DatanodeStorageInfo> storageInfos =
+          bm.blocksMap.getStorages(b.getLocalBlock()).iterator();
+      DatanodeDescriptor firstDn = storageInfos.next().getDatanodeDescriptor();
+      DatanodeDescriptor secondDn = storageInfos.next().getDatanodeDescriptor();
+      bm.getDatanodeManager().removeDatanode(firstDn);
+
+      int scheduled = bm.computeBlockReconstructionWork(NUM_OF_BLOCKS);
+      assertTrue(scheduled > 0);
+      assertEquals(0, (int) (Integer) Whitebox.getInternalState(secondDn,
+          "pendingReplicationWithoutTargets"));
+      assertTrue(secondDn.getNumberOfBlocksToBeReplicated() >= scheduled);
+      assertTrue(MetricsAsserts.getLongCounter(
+          "BlocksScheduledForReconstruction",
+          MetricsAsserts.getMetrics("NameNodeActivity")) >= scheduled);
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
 }
@@ -31,6 +31,7 @@
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.management.NotCompliantMBeanException;
 import javax.management.ObjectName;
@@ -45,6 +46,7 @@
 import org.apache.hadoop.hdfs.protocol.BlockLocalPathInfo;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.ReplicaState;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.AutoCloseableLock;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsDatasetSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeReference;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
@@ -528,6 +530,7 @@ public FsDatasetSpi getDataset() {
   private final SimulatedVolume volume;
   private final String datanodeUuid;
   private final DataNode datanode;
+  private final ReentrantLock datasetLock = new ReentrantLock();
   
 
   public SimulatedFSDataset(DataStorage storage, Configuration conf) {
@@ -1316,6 +1319,18 @@ public FsVolumeSpi getVolume(ExtendedBlock b) {
     return volume;
   }
 
+  @Override
+  public AutoCloseableLock acquireDatasetLock(String op) {
+    datasetLock.lock();
+    return new AutoCloseableLock(datasetLock);
+  }
+
+  @Override
+  public AutoCloseableLock acquireBlockLock(String op, String bpid,
+      long blockId) {
+    return acquireDatasetLock(op);
+  }
+
   @Override
   public synchronized void removeVolumes(Set<File> volumes, boolean clearFailure) {
     throw new UnsupportedOperationException();
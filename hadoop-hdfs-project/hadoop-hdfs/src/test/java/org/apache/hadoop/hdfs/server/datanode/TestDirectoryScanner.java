@@ -24,6 +24,8 @@
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.apache.hadoop.test.MetricsAsserts.getLongCounter;
+import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
 
 import java.io.File;
 import java.io.FileOutputStream;
@@ -62,6 +64,7 @@
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.impl.FsDatasetTestUtil;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.impl.LazyPersistTestCase;
 import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
 import org.apache.hadoop.test.GenericTestUtils;
 import org.apache.hadoop.util.Time;
 import org.junit.Before;
@@ -560,6 +563,72 @@ public void runTest(int parallelism) throws Exception {
    *
    * @throws Exception thrown on unexpected failure
    */
+  /**
+   * Test that the differences of each chunk are reconciled in batches, and
+   * that a block found in the subdir of a later chunk than its own is not
+   * reported missing.
+   */
+  @Test (timeout=300000)
+  public void testIncrementalScan() throws Exception {
+    Configuration conf = new Configuration(CONF);
+    conf.setInt(
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_RECONCILE_BATCH_SIZE_KEY, 2);
+    conf.setLong(DFSConfigKeys.
+        DFS_DATANODE_DIRECTORYSCAN_RECONCILE_BATCH_INTERVAL_MS_KEY, 1);
+    cluster = new MiniDFSCluster.Builder(conf).build();
+    try {
+      cluster.waitActive();
+      bpid = cluster.getNamesystem().getBlockPoolId();
+      fds = DataNodeTestUtils.getFSDataset(cluster.getDataNodes().get(0));
+      client = cluster.getFileSystem().getClient();
+      DataNode dataNode = cluster.getDataNodes().get(0);
+      scanner = new DirectoryScanner(dataNode, fds, conf);
+      scanner.setRetainDiffs(true);
+
+      List<LocatedBlock> blocks = createFile(GenericTestUtils.getMethodName(),
+          BLOCK_LENGTH * 10, false);
+      scan(10, 0, 0, 0, 0, 0);
+
+      MetricsRecordBuilder rb = getMetrics(dataNode.getMetrics().name());
+      long scans = getLongCounter("DirectoryScansNumOps", rb);
+      long batches = getLongCounter("DirectoryScanReconcileNanosNumOps", rb);
+      for (int i = 0; i < 5; i++) {
+        createBlockFile();
+      }
+      scan(15, 5, 5, 0, 5, 0);
+      scan(15, 0, 0, 0, 0, 0);
+
+      rb = getMetrics(dataNode.getMetrics().name());
+      assertEquals(scans + 2,
+          getLongCounter("DirectoryScansNumOps", rb));
+      assertTrue(getLongCounter("DirectoryScanReconcileNanosNumOps", rb)
+          >= batches + 3);
+
+      // Move a block to the last subdir of its finalized directory. It is
+      // found after its chunk was diffed, but still matches the block in
+      // memory.
+      long blockId = blocks.get(0).getBlock().getBlockId();
+      ReplicaInfo replica =
+          FsDatasetTestUtil.fetchReplicaInfo(fds, bpid, blockId);
+      File dir = new File(replica.getVolume().getFinalizedDir(bpid),
+          DataStorage.BLOCK_SUBDIR_PREFIX + 31);
+      assertTrue(dir.mkdirs());
+      assertTrue(replica.getBlockFile().renameTo(
+          new File(dir, replica.getBlockFile().getName())));
+      assertTrue(replica.getMetaFile().renameTo(
+          new File(dir, replica.getMetaFile().getName())));
+      scan(15, 1, 0, 0, 0, 0, 1);
+      assertNotNull(FsDatasetTestUtil.fetchReplicaInfo(fds, bpid, blockId));
+    } finally {
+      if (scanner != null) {
+        scanner.shutdown();
+        scanner = null;
+      }
+      cluster.shutdown();
+      cluster = null;
+    }
+  }
+
   @Test (timeout=600000)
   public void testThrottling() throws Exception {
     Configuration conf = new Configuration(CONF);
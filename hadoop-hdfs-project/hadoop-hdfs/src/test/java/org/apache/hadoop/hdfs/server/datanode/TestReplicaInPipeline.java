@@ -0,0 +1,107 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.junit.Test;
+
+/**
+ * Test that stopping the writer of a {@link ReplicaInPipeline} does not
+ * interrupt a pooled DataXceiver thread once it has released the replica
+ * and moved on to another op.
+ */
+public class TestReplicaInPipeline {
+  private static final long STOP_TIMEOUT_MS = 10000;
+
+  /**
+   * A writer interrupted while it owns the replica does not carry the
+   * interrupt into its next op.
+   */
+  @Test(timeout=30000)
+  public void testInterruptClearedOnRelease() throws Exception {
+    final AtomicReference<ReplicaInPipeline> replica =
+        new AtomicReference<ReplicaInPipeline>();
+    final AtomicReference<String> failure = new AtomicReference<String>();
+    final CountDownLatch writing = new CountDownLatch(1);
+    Thread worker = new Thread() {
+      @Override
+      public void run() {
+        writing.countDown();
+        // The op writing the replica runs until stopWriter interrupts it.
+        while (!Thread.currentThread().isInterrupted()) {
+          Thread.yield();
+        }
+        replica.get().releaseWriter();
+        // The next op served by this thread must not see the interrupt.
+        if (Thread.currentThread().isInterrupted()) {
+          failure.set("The next op was interrupted");
+        }
+      }
+    };
+    replica.set(new ReplicaInPipeline(new Block(1, 0, 1), null, null,
+        worker));
+    worker.start();
+    writing.await();
+    replica.get().stopWriter(STOP_TIMEOUT_MS);
+    worker.join();
+    assertNull(failure.get(), failure.get());
+  }
+
+  /**
+   * A writer which has released the replica and serves another op is not
+   * interrupted.
+   */
+  @Test(timeout=30000)
+  public void testStopWriterAfterWriterMovedOn() throws Exception {
+    final AtomicReference<ReplicaInPipeline> replica =
+        new AtomicReference<ReplicaInPipeline>();
+    final CountDownLatch released = new CountDownLatch(1);
+    final CountDownLatch nextOpDone = new CountDownLatch(1);
+    final AtomicReference<Boolean> interrupted =
+        new AtomicReference<Boolean>(false);
+    Thread worker = new Thread() {
+      @Override
+      public void run() {
+        replica.get().releaseWriter();
+        released.countDown();
+        // The next op, e.g. a read for another client.
+        try {
+          nextOpDone.await(STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          interrupted.set(true);
+        }
+      }
+    };
+    replica.set(new ReplicaInPipeline(new Block(1, 0, 1), null, null,
+        worker));
+    worker.start();
+    released.await();
+    replica.get().stopWriter(STOP_TIMEOUT_MS);
+    replica.get().interruptThread();
+    nextOpDone.countDown();
+    worker.join();
+    assertFalse(interrupted.get());
+  }
+}
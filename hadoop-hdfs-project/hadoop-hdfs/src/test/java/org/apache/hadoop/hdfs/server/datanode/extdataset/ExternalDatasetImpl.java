@@ -29,6 +29,7 @@
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.ReplicaState;
 import org.apache.hadoop.hdfs.server.datanode.*;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.AutoCloseableLock;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsDatasetSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.LengthInputStream;
@@ -80,6 +81,17 @@ public ExternalVolumeImpl getVolume(ExtendedBlock b) {
     return null;
   }
 
+  @Override
+  public AutoCloseableLock acquireDatasetLock(String op) {
+    return new AutoCloseableLock();
+  }
+
+  @Override
+  public AutoCloseableLock acquireBlockLock(String op, String bpid,
+      long blockId) {
+    return new AutoCloseableLock();
+  }
+
   @Override
   public Map<String, Object> getVolumeInfoMap() {
     return null;
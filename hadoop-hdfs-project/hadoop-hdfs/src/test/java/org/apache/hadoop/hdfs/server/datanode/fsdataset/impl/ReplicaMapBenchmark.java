@@ -0,0 +1,137 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import java.io.File;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.server.datanode.DatanodeUtil;
+import org.apache.hadoop.hdfs.server.datanode.FinalizedReplica;
+import org.apache.hadoop.hdfs.server.datanode.ReplicaInfo;
+import org.apache.hadoop.hdfs.util.FoldedTreeSet;
+
+/**
+ * This class benchmarks the memory used by the finalized replicas of a
+ * DataNode, and the cost of looking them up and of iterating over them in
+ * the order of their block IDs, as for a block report, when they are kept in a
+ * {@link ReplicaMap} and when they are kept as objects in a
+ * {@link FoldedTreeSet}, as the replica map did before. The user should
+ * invoke the main of this class, optionally with the number of replicas and
+ * the number of lookups, e.g. with -Xmx4g for 10 million replicas.
+ */
+public class ReplicaMapBenchmark {
+  private static final String BPID = "BP-BENCHMARK";
+  private static final File BASE_DIR =
+      new File("/data/current/" + BPID + "/current/finalized");
+
+  private static final Comparator<Object> LONG_AND_BLOCK_COMPARATOR
+      = new Comparator<Object>() {
+        @Override
+        public int compare(Object o1, Object o2) {
+          long lookup = (long) o1;
+          long stored = ((Block) o2).getBlockId();
+          return lookup > stored ? 1 : lookup < stored ? -1 : 0;
+        }
+      };
+
+  private static long usedMemory() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private static FinalizedReplica replica(long blockId) {
+    return new FinalizedReplica(blockId, blockId % 134217728, 1000 + blockId,
+        null, DatanodeUtil.idToBlockDir(BASE_DIR, blockId));
+  }
+
+  private static void report(String name, int numReplicas, long bytes,
+      long lookupNanos, int numLookups, long iterationNanos) {
+    System.out.printf(
+        "%-16s %8.1f bytes/replica %8.1f ns/lookup %8.1f ns/replica iterated%n",
+        name, (double) bytes / numReplicas, (double) lookupNanos / numLookups,
+        (double) iterationNanos / numReplicas);
+  }
+
+  /** @return the time taken to iterate over the replicas. */
+  private static long iterate(Iterable<ReplicaInfo> replicas) {
+    long last = -1;
+    long start = System.nanoTime();
+    for (ReplicaInfo replica : replicas) {
+      if (replica.getBlockId() <= last) {
+        throw new IllegalStateException("Replicas out of order");
+      }
+      last = replica.getBlockId();
+    }
+    return System.nanoTime() - start;
+  }
+
+  public static void main(String[] args) {
+    final int numReplicas =
+        args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    final int numLookups =
+        args.length > 1 ? Integer.parseInt(args[1]) : 10000000;
+    final long firstId = 1073741825L;
+    final long[] lookups = new long[numLookups];
+    Random random = new Random(0);
+    for (int i = 0; i < numLookups; i++) {
+      lookups[i] = firstId + random.nextInt(numReplicas);
+    }
+
+    for (int round = 0; round < 2; round++) {
+      long before = usedMemory();
+      FoldedTreeSet<ReplicaInfo> set = new FoldedTreeSet<>();
+      for (int i = 0; i < numReplicas; i++) {
+        set.add(replica(firstId + i));
+      }
+      long bytes = usedMemory() - before;
+      long sum = 0;
+      long start = System.nanoTime();
+      for (long blockId : lookups) {
+        sum += set.get(blockId, LONG_AND_BLOCK_COMPARATOR).getNumBytes();
+      }
+      long nanos = System.nanoTime() - start;
+      report("FoldedTreeSet", numReplicas, bytes, nanos, numLookups,
+          iterate(set));
+      set = null;
+
+      before = usedMemory();
+      ReplicaMap map = new ReplicaMap(ReplicaMapBenchmark.class);
+      for (int i = 0; i < numReplicas; i++) {
+        map.add(BPID, replica(firstId + i));
+      }
+      // The first iteration builds the sorted index of the block IDs.
+      iterate(map.replicas(BPID));
+      bytes = usedMemory() - before;
+      start = System.nanoTime();
+      for (long blockId : lookups) {
+        sum += map.get(BPID, blockId).getNumBytes();
+      }
+      nanos = System.nanoTime() - start;
+      report("ReplicaMap", numReplicas, bytes, nanos, numLookups,
+          iterate(map.replicas(BPID)));
+      if (map.size(BPID) != numReplicas || sum == 0) {
+        throw new IllegalStateException("Lost replicas");
+      }
+    }
+  }
+}
@@ -49,9 +49,11 @@
 import org.apache.hadoop.hdfs.server.datanode.ReplicaInfo;
 import org.apache.hadoop.hdfs.server.datanode.ShortCircuitRegistry;
 import org.apache.hadoop.hdfs.server.datanode.StorageLocation;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.AutoCloseableLock;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsDatasetSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeReference;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.RoundRobinVolumeChoosingPolicy;
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
 import org.apache.hadoop.hdfs.server.protocol.NamespaceInfo;
 import org.apache.hadoop.io.MultipleIOException;
 import org.apache.hadoop.test.GenericTestUtils;
@@ -75,6 +77,7 @@
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -415,6 +418,54 @@ public void testAddVolumeFailureReleasesInUseLock() throws IOException {
     FsDatasetTestUtil.assertFileLockReleased(badDir.toString());
   }
   
+  @Test(timeout = 30000)
+  public void testStripedBlockLocks() throws Exception {
+    final DataNodeMetrics metrics = mock(DataNodeMetrics.class);
+    when(datanode.getMetrics()).thenReturn(metrics);
+    final String bpid = BLOCK_POOL_IDS[0];
+    AutoCloseableLock blockLock = dataset.acquireBlockLock("Test", bpid, 1);
+    try {
+      // Other blocks, including the same block ID of another block pool,
+      // can be locked while the lock of the first block is held.
+      final CountDownLatch otherBlocksLocked = new CountDownLatch(2);
+      new Thread() {
+        @Override
+        public void run() {
+          try (AutoCloseableLock lock =
+                   dataset.acquireBlockLock("Test", bpid, 2)) {
+            otherBlocksLocked.countDown();
+          }
+          try (AutoCloseableLock lock =
+                   dataset.acquireBlockLock("Test", BLOCK_POOL_IDS[1], 1)) {
+            otherBlocksLocked.countDown();
+          }
+        }
+      }.start();
+      assertTrue(otherBlocksLocked.await(10, TimeUnit.SECONDS));
+
+      // The dataset lock excludes every block lock.
+      final CountDownLatch datasetLocked = new CountDownLatch(1);
+      new Thread() {
+        @Override
+        public void run() {
+          try (AutoCloseableLock lock =
+                   dataset.acquireDatasetLock("ExclusiveTest")) {
+            datasetLocked.countDown();
+          }
+        }
+      }.start();
+      assertFalse(datasetLocked.await(500, TimeUnit.MILLISECONDS));
+      blockLock.close();
+      assertTrue(datasetLocked.await(10, TimeUnit.SECONDS));
+      verify(metrics).addDatasetLockWaitNanos(eq("ExclusiveTest"),
+          Matchers.anyLong());
+      verify(metrics, never()).addDatasetLockWaitNanos(eq("Test"),
+          Matchers.anyLong());
+    } finally {
+      blockLock.close();
+    }
+  }
+
   @Test
   public void testDeletingBlocks() throws IOException {
     HdfsConfiguration conf = new HdfsConfiguration();
@@ -0,0 +1,269 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.server.datanode.DataNode;
+import org.apache.hadoop.hdfs.server.datanode.FinalizedReplica;
+import org.apache.hadoop.hdfs.server.datanode.Replica;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.apache.hadoop.test.GenericTestUtils.LogCapturer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Supplier;
+
+/**
+ * Tests the log of finalized replicas kept by each block pool slice.
+ */
+public class TestReplicaLog {
+  private File dir;
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = GenericTestUtils.getTestDir(TestReplicaLog.class.getSimpleName());
+    FileUtil.fullyDelete(dir);
+    assertTrue(dir.mkdirs());
+    file = new File(dir, ReplicaLog.FILE_NAME);
+  }
+
+  @After
+  public void tearDown() {
+    FileUtil.fullyDelete(dir);
+  }
+
+  /** Load a log, returning the replicas it holds by block id. */
+  private static Map<Long, Block> load(ReplicaLog log) throws IOException {
+    final Map<Long, Block> replicas = new TreeMap<>();
+    assertTrue(log.load(new ReplicaLog.Handler() {
+      @Override
+      public void add(long blockId, long genStamp, long numBytes) {
+        replicas.put(blockId, new Block(blockId, numBytes, genStamp));
+      }
+
+      @Override
+      public void remove(long blockId) {
+        replicas.remove(blockId);
+      }
+    }));
+    return replicas;
+  }
+
+  /** Create a log holding the given replicas, and open it. */
+  private ReplicaLog create(Replica... replicas) throws IOException {
+    ReplicaLog log = new ReplicaLog(file, 1000);
+    assertTrue(log.startCompaction());
+    assertTrue(log.compact(Arrays.asList(replicas)));
+    log.open(replicas.length);
+    return log;
+  }
+
+  private static FinalizedReplica finalized(long blockId, long numBytes,
+      long genStamp) {
+    return new FinalizedReplica(blockId, numBytes, genStamp, null, null);
+  }
+
+  @Test
+  public void testReplayAddsAndRemoves() throws IOException {
+    ReplicaLog log = create(finalized(1, 10, 100), finalized(2, 20, 100));
+    assertFalse(log.add(new Block(3, 30, 100)));
+    assertFalse(log.remove(1));
+    // a later record of a replica replaces an earlier one
+    assertFalse(log.add(new Block(2, 25, 101)));
+    log.close();
+
+    ReplicaLog reloaded = new ReplicaLog(file, 1000);
+    Map<Long, Block> replicas = load(reloaded);
+    assertEquals(2, replicas.size());
+    assertEquals(101, replicas.get(2L).getGenerationStamp());
+    assertEquals(25, replicas.get(2L).getNumBytes());
+    assertEquals(30, replicas.get(3L).getNumBytes());
+    assertEquals(5, reloaded.getNumRecords());
+  }
+
+  @Test
+  public void testTornTailIsDropped() throws IOException {
+    ReplicaLog log = create(finalized(1, 10, 100));
+    log.add(new Block(2, 20, 100));
+    log.add(new Block(3, 30, 100));
+    log.close();
+
+    // A crash tore the last record, and garbled the one before.
+    long length = file.length();
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(length - 3);
+      raf.seek(length - 2 * ReplicaLog.RECORD_SIZE);
+      raf.write(0x7f);
+    }
+
+    ReplicaLog reloaded = new ReplicaLog(file, 1000);
+    assertEquals(Collections.singleton(1L), load(reloaded).keySet());
+    assertEquals(length - 2 * ReplicaLog.RECORD_SIZE, file.length());
+
+    // Records appended after the intact ones are read back.
+    reloaded.open(1);
+    reloaded.add(new Block(4, 40, 100));
+    reloaded.close();
+    assertEquals(2, load(new ReplicaLog(file, 1000)).size());
+  }
+
+  @Test
+  public void testUnknownLayoutIsNotLoaded() throws IOException {
+    assertFalse(new ReplicaLog(file, 1000).load(null));
+    assertTrue(file.createNewFile());
+    assertFalse(new ReplicaLog(file, 1000).load(null));
+  }
+
+  @Test
+  public void testSyncedLogIsLoadedAfterCrash() throws IOException {
+    ReplicaLog log = create(finalized(1, 10, 100));
+    log.add(new Block(2, 20, 100));
+    log.sync();
+    // A crash: the log is not closed.
+    assertEquals(2, load(new ReplicaLog(file, 1000)).size());
+    log.delete();
+  }
+
+  @Test(timeout=60000)
+  public void testConcurrentSyncs() throws Exception {
+    final ReplicaLog log = create();
+    final int threads = 8;
+    final int recordsPerThread = 100;
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        final long firstId = t * recordsPerThread;
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            start.await();
+            for (long id = firstId; id < firstId + recordsPerThread; id++) {
+              log.add(new Block(id, id, 100));
+              log.sync();
+            }
+            return null;
+          }
+        }));
+      }
+      start.countDown();
+      for (Future<?> f : futures) {
+        f.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(threads * recordsPerThread,
+        load(new ReplicaLog(file, 1000)).size());
+    log.close();
+  }
+
+  @Test
+  public void testCompactionKeepsConcurrentAppends() throws IOException {
+    ReplicaLog log = new ReplicaLog(file, 4);
+    assertTrue(log.startCompaction());
+    assertTrue(log.compact(Collections.<Replica>emptyList()));
+    log.open(0);
+    for (long id = 1; id <= 4; id++) {
+      assertFalse(log.add(new Block(id, id, 100)));
+    }
+    assertFalse(log.remove(1));
+    // The log holds more than twice as many records as replicas.
+    assertTrue(log.remove(2));
+    // A removal while the replicas are read for the compaction
+    assertFalse(log.remove(3));
+
+    assertTrue(log.compact(
+        Arrays.asList(finalized(3, 3, 100), finalized(4, 4, 100))));
+    assertEquals(3, log.getNumRecords());
+    log.add(new Block(5, 5, 100));
+    log.close();
+
+    assertEquals(new TreeSet<>(Arrays.asList(4L, 5L)),
+        load(new ReplicaLog(file, 4)).keySet());
+  }
+
+  @Test(timeout=120000)
+  public void testRestartReadsReplicasFromLog() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_DATANODE_REPLICA_LOG_ENABLED_KEY, true);
+    final MiniDFSCluster cluster =
+        new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    try {
+      cluster.waitActive();
+      FileSystem fs = cluster.getFileSystem();
+      final String bpid = cluster.getNamesystem().getBlockPoolId();
+      for (int i = 0; i < 5; i++) {
+        DFSTestUtil.createFile(fs, new Path("/file" + i), 1024, (short) 1, i);
+      }
+      fs.delete(new Path("/file0"), false);
+      GenericTestUtils.waitFor(new Supplier<Boolean>() {
+        @Override
+        public Boolean get() {
+          return cluster.getDataNodes().get(0).getFSDataset()
+              .getFinalizedBlocks(bpid).size() == 4;
+        }
+      }, 100, 30000);
+
+      LogCapturer logs = LogCapturer.captureLogs(BlockPoolSlice.LOG);
+      assertTrue(cluster.restartDataNode(0, true));
+      cluster.waitActive();
+      logs.stopCapturing();
+      assertTrue(logs.getOutput().contains("from replica log"));
+
+      DataNode dn = cluster.getDataNodes().get(0);
+      assertEquals(4, dn.getFSDataset().getFinalizedBlocks(bpid).size());
+      for (int i = 1; i < 5; i++) {
+        DFSTestUtil.readFile(fs, new Path("/file" + i));
+      }
+    } finally {
+      cluster.shutdown();
+    }
+  }
+}
@@ -17,12 +17,24 @@
  */
 package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.File;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.server.datanode.FinalizedReplica;
+import org.apache.hadoop.hdfs.server.datanode.ReplicaBeingWritten;
+import org.apache.hadoop.hdfs.server.datanode.ReplicaInfo;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -107,4 +119,106 @@ public void testRemove() {
     map.add(bpid, new FinalizedReplica(block, null, null));
     assertNotNull(map.remove(bpid, block.getBlockId()));
   }
+
+  @Test
+  public void testChangesOfPackedReplicas() {
+    File dir = new File("/data/current/finalized/subdir0/subdir0");
+    map.add(bpid, new FinalizedReplica(1, 10, 100, null, dir));
+    ReplicaInfo replica = map.get(bpid, 1);
+    assertEquals(dir.getAbsoluteFile(), replica.getBlockFile().getParentFile());
+
+    // Changes of a looked up replica are kept by the map.
+    replica.setNumBytes(20);
+    replica.setGenerationStamp(101);
+    File misplaced = new File("/data/current/finalized/subdir1/subdir2");
+    replica.setDir(misplaced);
+    ReplicaInfo current = map.get(bpid, 1);
+    assertEquals(20, current.getNumBytes());
+    assertEquals(101, current.getGenerationStamp());
+    assertEquals(new File("/data/current/finalized/subdir0/subdir0"),
+        current.getBlockFile().getParentFile());
+    assertTrue(current.hasSubdirs());
+
+    // But not those of a replica which has been replaced since.
+    map.add(bpid, new FinalizedReplica(1, 30, 102, null, dir));
+    replica.setNumBytes(40);
+    current.setGenerationStamp(103);
+    assertEquals(30, map.get(bpid, 1).getNumBytes());
+    assertEquals(102, map.get(bpid, 1).getGenerationStamp());
+  }
+
+  @Test
+  public void testReplicasInOrder() {
+    ReplicaBeingWritten rbw =
+        new ReplicaBeingWritten(5, 100, null, null, 0);
+    map.add(bpid, rbw);
+    for (long id = 2000; id > 0; id -= 10) {
+      map.add(bpid, new FinalizedReplica(id, id, 100, null, null));
+    }
+    assertEquals(202, map.size(bpid));
+    // Replicas which are not finalized are kept as they are.
+    assertSame(rbw, map.get(bpid, 5));
+
+    long last = Long.MIN_VALUE;
+    int n = 0;
+    for (Iterator<ReplicaInfo> it = map.replicas(bpid).iterator();
+        it.hasNext(); n++) {
+      ReplicaInfo replica = it.next();
+      assertTrue(replica.getBlockId() > last);
+      last = replica.getBlockId();
+      if (last % 20 == 0 || last == 5) {
+        it.remove();
+      }
+    }
+    assertEquals(202, n);
+    assertEquals(101, map.size(bpid));
+    assertNull(map.get(bpid, 20));
+    assertNull(map.get(bpid, 5));
+    assertEquals(10, map.get(bpid, 10).getNumBytes());
+  }
+
+  @Test
+  public void testRandomUpdates() {
+    map.remove(bpid, block);
+    Map<Long, Long> expected = new TreeMap<>();
+    Random random = new Random(0);
+    for (int i = 0; i < 100000; i++) {
+      long id = random.nextInt(5000);
+      if (random.nextBoolean()) {
+        map.add(bpid, new FinalizedReplica(id, i, 100, null, null));
+        expected.put(id, (long) i);
+      } else {
+        assertEquals(expected.remove(id) != null,
+            map.remove(bpid, id) != null);
+      }
+      // Iterate now and then to merge the updates into the sorted index.
+      if (i % 10000 == 0) {
+        assertReplicas(expected);
+      }
+    }
+    assertReplicas(expected);
+  }
+
+  private void assertReplicas(Map<Long, Long> expected) {
+    assertEquals(expected.size(), map.size(bpid));
+    Iterator<ReplicaInfo> it = map.replicas(bpid).iterator();
+    for (Map.Entry<Long, Long> e : expected.entrySet()) {
+      ReplicaInfo replica = it.next();
+      assertEquals((long) e.getKey(), replica.getBlockId());
+      assertEquals((long) e.getValue(), replica.getNumBytes());
+    }
+    assertFalse(it.hasNext());
+  }
+
+  @Test
+  public void testAddAll() {
+    ReplicaMap other = new ReplicaMap(this);
+    other.add(bpid, new FinalizedReplica(1, 1, 100, null, null));
+    other.add("BP-OTHER", new FinalizedReplica(2, 2, 100, null, null));
+    map.addAll(other);
+    assertNotNull(map.get(bpid, block.getBlockId()));
+    assertNotNull(map.get(bpid, 1));
+    assertNotNull(map.get("BP-OTHER", 2));
+    assertEquals(2, map.size(bpid));
+  }
 }
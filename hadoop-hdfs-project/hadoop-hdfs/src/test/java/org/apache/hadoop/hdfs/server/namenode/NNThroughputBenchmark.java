@@ -114,6 +114,9 @@
  * every G operations, which purges the name-node's user group cache.
  * By default the refresh is never called.</li>
  * <li>-keepResults do not clean up the name-space after execution.</li>
+ * <li>-reportHeap report the heap used by the name-node after each
+ * benchmark, before the name-space is cleaned up. Only valid when the
+ * name-node runs in the benchmark process.</li>
  * <li>-useExisting do not recreate the name-space, use existing data.</li>
  * </ol>
  * 
@@ -130,7 +133,8 @@ public class NNThroughputBenchmark implements Tool {
   private static final Log LOG = LogFactory.getLog(NNThroughputBenchmark.class);
   private static final int BLOCK_SIZE = 16;
   private static final String GENERAL_OPTIONS_USAGE =
-      "[-keepResults] | [-logLevel L] | [-UGCacheRefreshCount G]";
+      "[-keepResults] | [-logLevel L] | [-UGCacheRefreshCount G] | " +
+      "[-reportHeap]";
 
   static Configuration config;
   static NameNode nameNode;
@@ -199,6 +203,9 @@ abstract class OperationStatsBase {
     protected boolean keepResults = false;// don't clean base directory on exit
     protected Level logLevel;             // logging level, ERROR by default
     protected int ugcRefreshCount = 0;    // user group cache refresh count
+    protected boolean reportHeap = false; // report heap used after the run
+    protected long heapUsed = -1;         // heap used after the run
+    protected int numINodes = -1;         // number of inodes after the run
 
     protected List<StatsDaemon> daemons;
 
@@ -364,6 +371,12 @@ protected boolean verifyOpArgument(List<String> args) {
         args.remove(krIndex);
       }
 
+      int rhIndex = args.indexOf("-reportHeap");
+      reportHeap = (rhIndex >= 0);
+      if(reportHeap) {
+        args.remove(rhIndex);
+      }
+
       int llIndex = args.indexOf("-logLevel");
       if(llIndex >= 0) {
         if(args.size() <= llIndex + 1)
@@ -393,12 +406,30 @@ protected boolean verifyOpArgument(List<String> args) {
       return false;
     }
 
+    /**
+     * Record the heap used by the name-node and the number of inodes,
+     * if requested and the name-node runs in this process.
+     */
+    void recordHeapUsage() {
+      if(!reportHeap || nameNode == null)
+        return;
+      System.gc();
+      Runtime runtime = Runtime.getRuntime();
+      heapUsed = runtime.totalMemory() - runtime.freeMemory();
+      numINodes = nameNode.getNamesystem().getFSDirectory()
+          .getINodeMap().size();
+    }
+
     void printStats() {
       LOG.info("--- " + getOpName() + " stats  ---");
       LOG.info("# operations: " + getNumOpsExecuted());
       LOG.info("Elapsed Time: " + getElapsedTime());
       LOG.info(" Ops per sec: " + getOpsPerSecond());
       LOG.info("Average Time: " + getAverageTime());
+      if(heapUsed >= 0) {
+        LOG.info("   Heap used: " + (heapUsed >> 20) + " MB");
+        LOG.info("    # inodes: " + numINodes);
+      }
     }
   }
 
@@ -1545,6 +1576,7 @@ public int run(String[] aArgs) throws Exception {
       for(OperationStatsBase op : ops) {
         LOG.info("Starting benchmark: " + op.getOpName());
         op.benchmark();
+        op.recordHeapUsage();
         op.cleanUp();
       }
       // print statistics
@@ -112,6 +112,24 @@ public static Server getRpcServer(NameNode namenode) {
     return ((NameNodeRpcServer)namenode.getRpcServer()).clientRpcServer;
   }
 
+  /**
+   * @return the number of inotify transactions served from the NameNode's
+   * cache of translated events.
+   */
+  public static long getInotifyCacheHits(NameNode namenode) {
+    return ((NameNodeRpcServer) namenode.getRpcServer())
+        .getInotifyEventReader().getCacheHits();
+  }
+
+  /**
+   * @return the number of inotify calls waiting at the NameNode for new
+   * edits.
+   */
+  public static int getInotifyWaitingCalls(NameNode namenode) {
+    return ((NameNodeRpcServer) namenode.getRpcServer())
+        .getInotifyEventReader().getWaitingCalls();
+  }
+
   public static DelegationTokenSecretManager getDtSecretManager(
       final FSNamesystem ns) {
     return ns.getDelegationTokenSecretManager();
@@ -18,6 +18,7 @@
 
 package org.apache.hadoop.hdfs.server.namenode;
 
+import com.google.common.base.Supplier;
 import com.google.common.collect.Lists;
 import org.apache.commons.lang.StringUtils;
 import org.apache.hadoop.conf.Configuration;
@@ -59,6 +60,7 @@
 import static org.apache.hadoop.fs.CommonConfigurationKeysPublic.HADOOP_CALLER_CONTEXT_MAX_SIZE_KEY;
 import static org.apache.hadoop.fs.CommonConfigurationKeysPublic.HADOOP_CALLER_CONTEXT_SIGNATURE_MAX_SIZE_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_ACLS_ENABLED_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOGGERS_ASYNC_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOGGERS_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.NNTOP_ENABLED_KEY;
 import static org.junit.Assert.assertEquals;
@@ -467,10 +469,46 @@ public void testBrokenLogger() throws IOException {
     }
   }
 
+  /**
+   * Tests that audit events logged async reach the audit loggers, and that
+   * a broken audit logger does not fail the requests.
+   */
+  @Test
+  public void testAsyncAuditLoggers() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.set(DFS_NAMENODE_AUDIT_LOGGERS_KEY,
+        DummyAuditLogger.class.getName() + ","
+        + BrokenAuditLogger.class.getName());
+    conf.setBoolean(DFS_NAMENODE_AUDIT_LOGGERS_ASYNC_KEY, true);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).build();
+
+    try {
+      cluster.waitClusterUp();
+      DummyAuditLogger.resetLogCount();
+
+      FileSystem fs = cluster.getFileSystem();
+      long time = System.currentTimeMillis();
+      for (int i = 0; i < 10; i++) {
+        fs.setTimes(new Path("/"), time, time);
+      }
+      GenericTestUtils.waitFor(new Supplier<Boolean>() {
+        @Override
+        public Boolean get() {
+          return DummyAuditLogger.logCount == 10;
+        }
+      }, 100, 10000);
+      FSNamesystem fsn = cluster.getNamesystem();
+      assertEquals(0, fsn.getAuditEventQueueSize());
+      assertEquals(0, fsn.getDroppedAuditEvents());
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
   public static class DummyAuditLogger implements AuditLogger {
 
     static boolean initialized;
-    static int logCount;
+    static volatile int logCount;
     static int unsuccessfulCount;
     static short foundPermission;
     static String remoteAddr;
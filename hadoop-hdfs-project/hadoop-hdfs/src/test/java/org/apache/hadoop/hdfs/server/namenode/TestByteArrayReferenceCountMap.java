@@ -0,0 +1,80 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/**
+ * Test for {@link ByteArrayReferenceCountMap} class
+ */
+public class TestByteArrayReferenceCountMap {
+  @Test
+  public void testReferences() {
+    ByteArrayReferenceCountMap map = new ByteArrayReferenceCountMap(1024);
+    byte[] a1 = {1, 2, 3};
+    byte[] a2 = {1, 2, 3};
+    byte[] b = {4, 5};
+
+    assertSame(a1, map.put(a1));
+    assertSame(a1, map.put(a2));
+    assertSame(b, map.put(b));
+    assertEquals(2, map.getUniqueElementsSize());
+    assertEquals(1, map.getHits());
+    assertEquals(2, map.getMisses());
+    assertEquals(24, map.getBytesSaved());
+
+    // the unshared copy is not counted
+    map.remove(a2);
+    assertEquals(2, map.getUniqueElementsSize());
+
+    map.remove(a1);
+    assertEquals(2, map.getUniqueElementsSize());
+    assertEquals(0, map.getBytesSaved());
+    map.remove(a1);
+    map.remove(b);
+    assertEquals(0, map.getUniqueElementsSize());
+    assertEquals(0, map.getBytes());
+
+    // released arrays are no longer shared
+    assertSame(a2, map.put(a2));
+  }
+
+  @Test
+  public void testMaxBytes() {
+    // room for one small array and its entry
+    ByteArrayReferenceCountMap map = new ByteArrayReferenceCountMap(150);
+    byte[] a = {1};
+    byte[] b1 = {2};
+    byte[] b2 = {2};
+    assertSame(a, map.put(a));
+    // the map is full, so the other arrays are not shared
+    assertSame(b1, map.put(b1));
+    assertSame(b2, map.put(b2));
+    assertEquals(1, map.getUniqueElementsSize());
+
+    map.remove(b1);
+    map.remove(a);
+    assertEquals(0, map.getBytes());
+    assertSame(b1, map.put(b1));
+    assertSame(b1, map.put(b2));
+    assertEquals(1, map.getUniqueElementsSize());
+  }
+}
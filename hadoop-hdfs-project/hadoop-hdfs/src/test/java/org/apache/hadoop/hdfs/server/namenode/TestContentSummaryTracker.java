@@ -0,0 +1,238 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.ContentSummary;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.StorageType;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.apache.hadoop.hdfs.server.namenode.snapshot.Snapshot;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the content summary maintained by {@link ContentSummaryTracker}
+ * matches the computed content summary.
+ */
+public class TestContentSummaryTracker {
+  private static final int BLOCK_SIZE = 1024;
+  private static final String[] DIRS = {"/", "/a", "/a/b", "/a/b/c", "/d"};
+
+  private HdfsConfiguration conf;
+  private MiniDFSCluster cluster;
+  private DistributedFileSystem fs;
+
+  @Before
+  public void setUp() throws IOException {
+    conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_CONTENT_SUMMARY_INCREMENTAL_KEY, true);
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, BLOCK_SIZE);
+    conf.setInt(DFSConfigKeys.DFS_BYTES_PER_CHECKSUM_KEY, BLOCK_SIZE);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(3)
+        .storageTypes(new StorageType[] {StorageType.DISK, StorageType.SSD})
+        .build();
+    cluster.waitActive();
+    fs = cluster.getFileSystem();
+  }
+
+  @After
+  public void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  private ContentSummaryTracker getTracker() {
+    return cluster.getNamesystem().getFSDirectory().getContentSummaryTracker();
+  }
+
+  /** Compare the tracked summary of each directory with the computed one. */
+  private void verify() throws IOException {
+    FSNamesystem fsn = cluster.getNamesystem();
+    FSDirectory fsd = fsn.getFSDirectory();
+    fsn.readLock();
+    try {
+      for (String dir : DIRS) {
+        INode inode = fsd.getINode(dir);
+        if (inode == null) {
+          continue;
+        }
+        ContentSummary expected = inode.computeAndConvertContentSummary(
+            Snapshot.CURRENT_STATE_ID, new ContentSummaryComputationContext(
+                fsd.getBlockStoragePolicySuite()));
+        ContentSummary actual =
+            getTracker().getContentSummary(inode.asDirectory());
+        assertNotNull(dir, actual);
+        assertEquals(dir, expected, actual);
+      }
+    } finally {
+      fsn.readUnlock();
+    }
+  }
+
+  @Test(timeout = 120000)
+  public void testNamespaceOperations() throws Exception {
+    assertTrue(getTracker().isActive());
+    fs.mkdirs(new Path("/a/b/c"));
+    fs.mkdirs(new Path("/d"));
+    verify();
+
+    DFSTestUtil.createFile(fs, new Path("/a/b/c/f1"), 3000, (short) 3, 0L);
+    DFSTestUtil.createFile(fs, new Path("/a/b/f2"), 1000, (short) 2, 0L);
+    DFSTestUtil.createFile(fs, new Path("/d/f3"), 2048, (short) 1, 0L);
+    fs.createSymlink(new Path("/d/f3"), new Path("/a/link"), false);
+    verify();
+
+    // a file being written is counted with its current length
+    FSDataOutputStream out = fs.create(new Path("/a/b/open"));
+    out.write(new byte[1500]);
+    out.hflush();
+    verify();
+    out.close();
+    verify();
+
+    out = fs.append(new Path("/a/b/f2"));
+    verify();
+    out.write(new byte[700]);
+    out.close();
+    verify();
+
+    fs.setReplication(new Path("/a/b/c/f1"), (short) 1);
+    fs.setStoragePolicy(new Path("/a/b"), HdfsConstants.ONESSD_STORAGE_POLICY_NAME);
+    fs.setStoragePolicy(new Path("/d/f3"), HdfsConstants.ALLSSD_STORAGE_POLICY_NAME);
+    verify();
+
+    // renames move the counts and pick up the storage policy of the target
+    fs.rename(new Path("/d/f3"), new Path("/a/b/c/f3"));
+    fs.rename(new Path("/a/b/c"), new Path("/d/c"));
+    verify();
+
+    DFSTestUtil.createFile(fs, new Path("/d/c/f4"), 1024, (short) 1, 0L);
+    DFSTestUtil.createFile(fs, new Path("/d/c/f5"), 1024, (short) 1, 0L);
+    fs.concat(new Path("/d/c/f1"),
+        new Path[] {new Path("/d/c/f4"), new Path("/d/c/f5")});
+    verify();
+
+    // truncate on and off a block boundary
+    assertTrue(fs.truncate(new Path("/d/c/f1"), 2048));
+    verify();
+    assertFalse(fs.truncate(new Path("/d/c/f1"), 1000));
+    verify();
+    TestFileTruncate.checkBlockRecovery(new Path("/d/c/f1"), fs);
+    verify();
+
+    fs.delete(new Path("/a/b/f2"), false);
+    fs.delete(new Path("/d/c"), true);
+    verify();
+
+    DFSTestUtil.createFile(fs, new Path("/a/b/c/f6"), 4000, (short) 2, 0L);
+    cluster.restartNameNode(true);
+    fs = cluster.getFileSystem();
+    assertTrue(getTracker().isActive());
+    verify();
+    ContentSummary cs = fs.getContentSummary(new Path("/a"));
+    assertEquals(cs.getSpaceConsumed(),
+        fs.getQuotaUsage(new Path("/a")).getSpaceConsumed());
+  }
+
+  private DirectoryContentSummaryFeature getFeature(String dir)
+      throws IOException {
+    return cluster.getNamesystem().getFSDirectory().getINode(dir)
+        .asDirectory().getFeature(DirectoryContentSummaryFeature.class);
+  }
+
+  @Test(timeout = 120000)
+  public void testRenameWithOpenFiles() throws Exception {
+    fs.mkdirs(new Path("/a/b/c"));
+    fs.mkdirs(new Path("/d"));
+    DFSTestUtil.createFile(fs, new Path("/a/b/c/f1"), 3000, (short) 1, 0L);
+    FSDataOutputStream out = fs.create(new Path("/a/b/c/open"));
+    out.write(new byte[1500]);
+    out.hflush();
+    verify();
+    assertEquals(1, getFeature("/").getUnderConstruction());
+    assertEquals(1, getFeature("/a/b").getUnderConstruction());
+    assertEquals(0, getFeature("/d").getUnderConstruction());
+
+    // the moved directory keeps its counts, open file included
+    DirectoryContentSummaryFeature moved = getFeature("/a/b/c");
+    fs.rename(new Path("/a/b/c"), new Path("/d/c"));
+    assertTrue(moved == getFeature("/d/c"));
+    assertEquals(0, getFeature("/a").getUnderConstruction());
+    assertEquals(1, getFeature("/d").getUnderConstruction());
+    verify();
+
+    // unless the storage policy its files inherit changes
+    fs.setStoragePolicy(new Path("/a/b"),
+        HdfsConstants.ONESSD_STORAGE_POLICY_NAME);
+    fs.rename(new Path("/d/c"), new Path("/a/b/c"));
+    assertFalse(moved == getFeature("/a/b/c"));
+    assertEquals(1, getFeature("/a/b/c").getUnderConstruction());
+    verify();
+
+    out.close();
+    assertEquals(0, getFeature("/").getUnderConstruction());
+    verify();
+    fs.delete(new Path("/a/b/c"), true);
+    verify();
+  }
+
+  @Test(timeout = 120000)
+  public void testDeactivatedBySnapshots() throws Exception {
+    fs.mkdirs(new Path("/a/b"));
+    DFSTestUtil.createFile(fs, new Path("/a/b/f1"), 1000, (short) 1, 0L);
+    verify();
+
+    fs.allowSnapshot(new Path("/a"));
+    assertFalse(getTracker().isActive());
+    FSNamesystem fsn = cluster.getNamesystem();
+    fsn.readLock();
+    try {
+      assertNull(getTracker().getContentSummary(
+          fsn.getFSDirectory().getRoot()));
+    } finally {
+      fsn.readUnlock();
+    }
+    fs.createSnapshot(new Path("/a"), "s1");
+    fs.delete(new Path("/a/b/f1"), false);
+    assertEquals(1, fs.getContentSummary(new Path("/a")).getFileCount());
+
+    // the counts are recomputed when the namenode becomes active again
+    fs.deleteSnapshot(new Path("/a"), "s1");
+    fs.disallowSnapshot(new Path("/a"));
+    cluster.restartNameNode(true);
+    fs = cluster.getFileSystem();
+    assertTrue(getTracker().isActive());
+    verify();
+  }
+}
@@ -22,6 +22,7 @@
 import static org.apache.hadoop.fs.permission.FsAction.*;
 import static org.apache.hadoop.hdfs.server.namenode.AclTestHelpers.*;
 import static org.apache.hadoop.test.MetricsAsserts.assertCounter;
+import static org.apache.hadoop.test.MetricsAsserts.getLongCounter;
 import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -79,6 +80,7 @@
 import org.apache.hadoop.hdfs.util.XMLUtils.InvalidXmlException;
 import org.apache.hadoop.hdfs.util.XMLUtils.Stanza;
 import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
 import org.apache.hadoop.test.GenericTestUtils;
 import org.apache.hadoop.test.PathUtils;
 import org.apache.hadoop.util.StringUtils;
@@ -87,6 +89,7 @@
 import org.apache.log4j.AppenderSkeleton;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.spi.LoggingEvent;
+import org.junit.Assume;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
@@ -505,6 +508,34 @@ public Void call() throws Exception {
     }).get();
   }
 
+  /**
+   * Test that the async edit log records the latency of each stage of the
+   * edit pipeline, also when the journals are flushed in parallel.
+   */
+  @Test
+  public void testAsyncEditLogStageMetrics() throws Exception {
+    Assume.assumeTrue(useAsyncEditLog);
+    Configuration conf = getConf();
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_EDITS_PARALLEL_FLUSH_KEY, true);
+    MiniDFSCluster cluster = null;
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(0).build();
+      cluster.waitActive();
+      FileSystem fs = cluster.getFileSystem();
+      for (int i = 0; i < 10; i++) {
+        assertTrue(fs.mkdirs(new Path("/stage-metrics/" + i)));
+      }
+      MetricsRecordBuilder rb = getMetrics("NameNodeActivity");
+      assertTrue(getLongCounter("EditLogEnqueueNumOps", rb) >= 10);
+      assertTrue(getLongCounter("EditLogSerializeNumOps", rb) >= 10);
+      assertTrue(getLongCounter("EditLogDurableNumOps", rb) >= 10);
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
   @Test
   public void testSyncBatching() throws Exception {
     if (useAsyncEditLog) {
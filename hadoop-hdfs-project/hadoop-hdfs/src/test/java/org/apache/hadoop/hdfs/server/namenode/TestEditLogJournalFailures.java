@@ -21,6 +21,7 @@
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.spy;
 
@@ -28,6 +29,7 @@
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.hadoop.conf.Configuration;
@@ -48,6 +50,8 @@
 import org.junit.runners.Parameterized;
 import org.junit.runners.Parameterized.Parameters;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 @RunWith(Parameterized.class)
 public class TestEditLogJournalFailures {
@@ -56,23 +60,29 @@ public class TestEditLogJournalFailures {
   private MiniDFSCluster cluster;
   private FileSystem fs;
   private boolean useAsyncEdits;
+  private boolean useParallelFlush;
 
   @Parameters
   public static Collection<Object[]> data() {
     Collection<Object[]> params = new ArrayList<Object[]>();
-    params.add(new Object[]{Boolean.FALSE});
-    params.add(new Object[]{Boolean.TRUE});
+    params.add(new Object[]{Boolean.FALSE, Boolean.FALSE});
+    params.add(new Object[]{Boolean.TRUE, Boolean.FALSE});
+    params.add(new Object[]{Boolean.TRUE, Boolean.TRUE});
     return params;
   }
 
-  public TestEditLogJournalFailures(boolean useAsyncEdits) {
+  public TestEditLogJournalFailures(boolean useAsyncEdits,
+      boolean useParallelFlush) {
     this.useAsyncEdits = useAsyncEdits;
+    this.useParallelFlush = useParallelFlush;
   }
 
   private Configuration getConf() {
     Configuration conf = new HdfsConfiguration();
     conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING,
         useAsyncEdits);
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_EDITS_PARALLEL_FLUSH_KEY,
+        useParallelFlush);
     return conf;
   }
 
@@ -213,6 +223,56 @@ public void testSingleRequiredFailedEditsDirOnSetReadyToFlush()
     assertFalse(nonRequiredJas.isActive());
   }
   
+  @Test
+  public void testRequiredFailedEditsDirOnFlushWaitsForOtherFlushes()
+      throws IOException {
+    String[] editsDirs = cluster.getConfiguration(0).getTrimmedStrings(
+        DFSConfigKeys.DFS_NAMENODE_NAME_DIR_KEY);
+    shutDownMiniCluster();
+    Configuration conf = getConf();
+    conf.set(DFSConfigKeys.DFS_NAMENODE_EDITS_DIR_REQUIRED_KEY, editsDirs[0]);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_EDITS_DIR_MINIMUM_KEY, 0);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_CHECKED_VOLUMES_MINIMUM_KEY, 0);
+    setUpMiniCluster(conf, true);
+
+    assertTrue(doAnEdit());
+    invalidateEditsDirAtIndex(0, true, false);
+    // Slow down the flush of the other journal, and check that its stream
+    // is not aborted while it is flushing.
+    EditLogFileOutputStream slowSpy = spyOnStream(getJournalAndStream(1));
+    final AtomicBoolean flushing = new AtomicBoolean(false);
+    final AtomicBoolean abortedWhileFlushing = new AtomicBoolean(false);
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        flushing.set(true);
+        try {
+          Thread.sleep(500);
+          invocation.callRealMethod();
+        } finally {
+          flushing.set(false);
+        }
+        return null;
+      }
+    }).when(slowSpy).flush();
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        abortedWhileFlushing.compareAndSet(false, flushing.get());
+        invocation.callRealMethod();
+        return null;
+      }
+    }).when(slowSpy).abort();
+
+    try {
+      doAnEdit();
+      fail("A single failure of a required journal should have halted the NN");
+    } catch (RemoteException re) {
+      assertTrue(re.getClassName().contains("ExitException"));
+    }
+    assertFalse(abortedWhileFlushing.get());
+  }
+
   @Test
   public void testMultipleRedundantFailedEditsDirOnSetReadyToFlush()
       throws IOException {
@@ -0,0 +1,225 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.AclEntry;
+import org.apache.hadoop.fs.permission.AclEntryScope;
+import org.apache.hadoop.fs.permission.AclEntryType;
+import org.apache.hadoop.fs.permission.FsAction;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants.RollingUpgradeAction;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants.SafeModeAction;
+import org.apache.hadoop.hdfs.server.common.Storage.StorageDirectory;
+import org.apache.hadoop.hdfs.server.namenode.FSImageFormatProtobuf.SectionName;
+import org.apache.hadoop.hdfs.server.namenode.FsImageProto.FileSummary;
+import org.apache.hadoop.hdfs.server.namenode.NNStorage.NameNodeDirType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests saving and loading an fsimage with INODE and INODE_DIR sub-sections.
+ */
+public class TestFSImageParallelLoad {
+  private static final int NUM_DIRS = 60;
+  private static final int FILES_PER_DIR = 3;
+
+  private Configuration conf;
+  private MiniDFSCluster cluster;
+
+  @Before
+  public void setUp() throws IOException {
+    conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY, true);
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_INODE_THRESHOLD_KEY, 10);
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_TARGET_SECTIONS_KEY, 5);
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_KEY, 3);
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_ACLS_ENABLED_KEY, true);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    cluster.waitActive();
+  }
+
+  @After
+  public void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  private void createNamespace() throws IOException {
+    DistributedFileSystem fs = cluster.getFileSystem();
+    List<AclEntry> acl = Collections.singletonList(new AclEntry.Builder()
+        .setScope(AclEntryScope.ACCESS).setType(AclEntryType.USER)
+        .setName("user1").setPermission(FsAction.READ).build());
+    for (int i = 0; i < NUM_DIRS; i++) {
+      Path dir = new Path("/dir" + i);
+      for (int j = 0; j < FILES_PER_DIR; j++) {
+        Path file = new Path(dir, "file" + j);
+        DFSTestUtil.createFile(fs, file, 10, (short) 1, 0L);
+        if (j % 2 == 0) {
+          fs.modifyAclEntries(file, acl);
+        }
+      }
+    }
+  }
+
+  private void verifyNamespace() throws IOException {
+    DistributedFileSystem fs = cluster.getFileSystem();
+    for (int i = 0; i < NUM_DIRS; i++) {
+      Path dir = new Path("/dir" + i);
+      assertEquals(FILES_PER_DIR, fs.listStatus(dir).length);
+      for (int j = 0; j < FILES_PER_DIR; j++) {
+        Path file = new Path(dir, "file" + j);
+        assertEquals(10, fs.getFileStatus(file).getLen());
+        assertEquals(j % 2 == 0,
+            !fs.getAclStatus(file).getEntries().isEmpty());
+      }
+    }
+    DFSTestUtil.readFile(fs, new Path("/dir0/file0"));
+  }
+
+  private void saveNamespace() throws IOException {
+    DistributedFileSystem fs = cluster.getFileSystem();
+    fs.setSafeMode(SafeModeAction.SAFEMODE_ENTER);
+    fs.saveNamespace();
+    fs.setSafeMode(SafeModeAction.SAFEMODE_LEAVE);
+  }
+
+  private FileSummary getLatestImageSummary() throws IOException {
+    StorageDirectory sd = cluster.getNamesystem().getFSImage().getStorage()
+        .dirIterator(NameNodeDirType.IMAGE).next();
+    File image = FSImageTestUtil.findLatestImageFile(sd);
+    RandomAccessFile file = new RandomAccessFile(image, "r");
+    try {
+      return FSImageUtil.loadSummary(file);
+    } finally {
+      file.close();
+    }
+  }
+
+  private static int countSections(FileSummary summary, SectionName name) {
+    int count = 0;
+    for (FileSummary.Section s : summary.getSectionsList()) {
+      if (s.getName().equals(name.toString())) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private static void assertSubSectionsCoverParent(FileSummary summary,
+      SectionName parent, SectionName sub) {
+    FileSummary.Section parentSection = null;
+    long length = 0;
+    for (FileSummary.Section s : summary.getSectionsList()) {
+      if (s.getName().equals(parent.toString())) {
+        parentSection = s;
+      } else if (s.getName().equals(sub.toString())) {
+        length += s.getLength();
+      }
+    }
+    assertEquals(parentSection.getLength(), length);
+  }
+
+  @Test(timeout = 120000)
+  public void testSaveAndLoadWithSubSections() throws IOException {
+    createNamespace();
+    saveNamespace();
+
+    FileSummary summary = getLatestImageSummary();
+    assertTrue(countSections(summary, SectionName.INODE_SUB) > 1);
+    assertTrue(countSections(summary, SectionName.INODE_DIR_SUB) > 1);
+    assertSubSectionsCoverParent(summary, SectionName.INODE,
+        SectionName.INODE_SUB);
+    assertSubSectionsCoverParent(summary, SectionName.INODE_DIR,
+        SectionName.INODE_DIR_SUB);
+
+    // load the image in parallel
+    cluster.restartNameNode();
+    verifyNamespace();
+
+    // the same image must remain loadable serially
+    cluster.getConfiguration(0).setBoolean(
+        DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY, false);
+    cluster.restartNameNode();
+    verifyNamespace();
+  }
+
+  @Test(timeout = 120000)
+  public void testSerialSaveWithSubSections() throws IOException {
+    cluster.getConfiguration(0).setInt(
+        DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_KEY, 1);
+    cluster.restartNameNode();
+    createNamespace();
+    saveNamespace();
+    assertTrue(countSections(getLatestImageSummary(),
+        SectionName.INODE_SUB) > 1);
+    cluster.restartNameNode();
+    verifyNamespace();
+  }
+
+  @Test(timeout = 120000)
+  public void testNoSubSectionsWhenCompressed() throws IOException {
+    cluster.getConfiguration(0).setBoolean(
+        DFSConfigKeys.DFS_IMAGE_COMPRESS_KEY, true);
+    cluster.restartNameNode();
+    createNamespace();
+    saveNamespace();
+
+    FileSummary summary = getLatestImageSummary();
+    assertEquals(0, countSections(summary, SectionName.INODE_SUB));
+    assertEquals(0, countSections(summary, SectionName.INODE_DIR_SUB));
+    cluster.restartNameNode();
+    verifyNamespace();
+  }
+
+  @Test(timeout = 120000)
+  public void testNoSubSectionsDuringRollingUpgrade() throws IOException {
+    createNamespace();
+    DistributedFileSystem fs = cluster.getFileSystem();
+    fs.setSafeMode(SafeModeAction.SAFEMODE_ENTER);
+    fs.rollingUpgrade(RollingUpgradeAction.PREPARE);
+    fs.setSafeMode(SafeModeAction.SAFEMODE_LEAVE);
+    saveNamespace();
+    FileSummary summary = getLatestImageSummary();
+    assertEquals(0, countSections(summary, SectionName.INODE_SUB));
+    assertEquals(0, countSections(summary, SectionName.INODE_DIR_SUB));
+
+    fs.rollingUpgrade(RollingUpgradeAction.FINALIZE);
+    saveNamespace();
+    assertTrue(countSections(getLatestImageSummary(),
+        SectionName.INODE_SUB) > 1);
+    cluster.restartNameNode();
+    verifyNamespace();
+  }
+}
@@ -29,6 +29,7 @@
 import java.net.InetAddress;
 import java.net.URI;
 import java.util.Collection;
+import java.util.Map;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
@@ -51,6 +52,7 @@
 import org.junit.Test;
 import org.mockito.Mockito;
 import org.mockito.internal.util.reflection.Whitebox;
+import org.mortbay.util.ajax.JSON;
 
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
@@ -329,6 +331,72 @@ public void testFSLockLongHoldingReport() throws Exception {
     assertTrue(logs.getOutput().contains(GenericTestUtils.getMethodName()));
   }
 
+  /**
+   * Test the read lock long hold report and the per operation lock stats.
+   */
+  @Test(timeout=45000)
+  public void testFSLockDetailedMetrics() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setLong(
+        DFSConfigKeys.DFS_NAMENODE_READ_LOCK_REPORTING_THRESHOLD_MS_KEY, 100);
+    conf.setBoolean(
+        DFSConfigKeys.DFS_NAMENODE_LOCK_DETAILED_METRICS_ENABLED_KEY, true);
+    FSImage fsImage = Mockito.mock(FSImage.class);
+    FSEditLog fsEditLog = Mockito.mock(FSEditLog.class);
+    Mockito.when(fsImage.getEditLog()).thenReturn(fsEditLog);
+    FSNamesystem fsn = new FSNamesystem(conf, fsImage);
+
+    LogCapturer logs = LogCapturer.captureLogs(FSNamesystem.LOG);
+    GenericTestUtils.setLogLevel(FSNamesystem.LOG, Level.INFO);
+
+    fsn.readLock();
+    fsn.readUnlock("getfileinfo");
+    assertFalse(logs.getOutput().contains(GenericTestUtils.getMethodName()));
+
+    // A nested read is accounted to the outermost write hold.
+    fsn.writeLock();
+    fsn.readLock();
+    fsn.readUnlock("listStatus");
+    fsn.writeUnlock("mkdirs");
+
+    fsn.readLock();
+    fsn.readLock();
+    Thread.sleep(200);
+    fsn.readUnlock("inner");
+    assertFalse(logs.getOutput().contains(GenericTestUtils.getMethodName()));
+    fsn.readUnlock("open");
+    assertTrue(logs.getOutput().contains(GenericTestUtils.getMethodName()));
+    assertTrue(logs.getOutput().contains("read lock held for"));
+    assertTrue(logs.getOutput().contains(" by open via"));
+
+    Map<String, Map<String, Object>> read = getLockStats(fsn, "read");
+    assertEquals(2, read.size());
+    assertEquals(1L, read.get("getfileinfo").get("count"));
+    assertEquals(1L, read.get("open").get("count"));
+    assertTrue((Long) read.get("open").get("maxHoldMicros") >= 200000);
+    Map<String, Map<String, Object>> write = getLockStats(fsn, "write");
+    assertEquals(1, write.size());
+    assertEquals(1L, write.get("mkdirs").get("count"));
+
+    Object[] longHolds = (Object[]) getLockStats(fsn).get("longHolds");
+    assertEquals(1, longHolds.length);
+    Map<?, ?> longHold = (Map<?, ?>) longHolds[0];
+    assertEquals("open", longHold.get("op"));
+    assertEquals("read", longHold.get("mode"));
+    assertTrue(((String) longHold.get("stack")).contains(
+        GenericTestUtils.getMethodName()));
+  }
+
+  private static Map<?, ?> getLockStats(FSNamesystem fsn) {
+    return (Map<?, ?>) JSON.parse(fsn.getLockStats());
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Map<String, Object>> getLockStats(
+      FSNamesystem fsn, String mode) {
+    return (Map<String, Map<String, Object>>) getLockStats(fsn).get(mode);
+  }
+
   @Test
   public void testSafemodeReplicationConf() throws IOException {
     Configuration conf = new Configuration();
@@ -19,6 +19,7 @@
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
@@ -82,6 +83,36 @@ public void testCheckLease() {
     assertTrue(lm.countLease() < numLease);
   }
 
+  /** Check that renewed leases are checked last. */
+  @Test
+  public void testRenewLeaseOrder() {
+    LeaseManager lm = new LeaseManager(makeMockFsNameSystem());
+    final int numLease = 10;
+    for (int i = 0; i < numLease; i++) {
+      lm.addLease("holder" + i, INodeId.ROOT_INODE_ID + i);
+    }
+    assertEquals("holder0", lm.getOldestLease().getHolder());
+
+    lm.renewLease("holder0");
+    assertEquals("holder1", lm.getOldestLease().getHolder());
+    // adding a file renews the lease of its holder.
+    lm.addLease("holder1", INodeId.ROOT_INODE_ID + numLease);
+    assertEquals("holder2", lm.getOldestLease().getHolder());
+    lm.removeLease(INodeId.ROOT_INODE_ID + 2);
+    assertEquals("holder3", lm.getOldestLease().getHolder());
+
+    lm.renewAllLeases();
+    assertEquals(numLease - 1, lm.countLease());
+    assertEquals("holder0", lm.getOldestLease().getHolder());
+    assertFalse(lm.hasExpiredLease());
+    lm.setLeasePeriod(-1, -1);
+    assertTrue(lm.hasExpiredLease());
+
+    lm.removeAllLeases();
+    assertNull(lm.getOldestLease());
+    assertFalse(lm.hasExpiredLease());
+  }
+
   @Test
   public void testCountPath() {
     LeaseManager lm = new LeaseManager(makeMockFsNameSystem());
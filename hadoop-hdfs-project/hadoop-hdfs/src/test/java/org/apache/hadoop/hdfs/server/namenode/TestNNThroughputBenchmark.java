@@ -71,6 +71,20 @@ public void testNNThroughputWithFsOption() throws Exception {
         new String[] {"-fs", "file:///", "-op", "all"});
   }
 
+  /**
+   * This test runs the create benchmark and reports the heap used.
+   */
+  @Test(timeout = 120000)
+  public void testNNThroughputReportHeap() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    File nameDir = new File(MiniDFSCluster.getBaseDirectory(), "name");
+    conf.set(DFSConfigKeys.DFS_NAMENODE_NAME_DIR_KEY,
+        nameDir.getAbsolutePath());
+    DFSTestUtil.formatNameNode(conf);
+    NNThroughputBenchmark.runBenchmark(conf,
+        new String[] {"-op", "create", "-files", "200", "-reportHeap"});
+  }
+
   /**
    * This test runs {@link NNThroughputBenchmark} against a mini DFS cluster.
    */
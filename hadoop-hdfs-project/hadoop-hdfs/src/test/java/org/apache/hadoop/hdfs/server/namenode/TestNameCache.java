@@ -56,24 +56,52 @@ public void testDictionary() throws Exception {
     assertEquals(matching.length, cache.size());
     
     for (String s : notMatching) {
-      verifyNameReuse(cache, s, false);
+      // Names not promoted during initialization are promoted afterwards
+      verifyNameReuse(cache, s, true);
     }
+    assertEquals(matching.length + notMatching.length, cache.size());
     
     cache.reset();
+    assertEquals(0, cache.size());
     cache.initialized();
     
     for (String s : matching) {
-      verifyNameReuse(cache, s, false);
-    }
-    
-    for (String s : notMatching) {
-      verifyNameReuse(cache, s, false);
+      verifyNameReuse(cache, s, true);
     }
+    assertEquals(matching.length, cache.size());
+  }
+
+  @Test
+  public void testMaxSize() {
+    NameCache<String> cache = new NameCache<String>(2, 1);
+    cache.initialized();
+    verifyNameReuse(cache, "a", true);
+    // The cache is full, so names are no longer promoted
+    verifyNameReuse(cache, "b", false);
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void testByteArrayCache() {
+    ByteArrayCache cache = new ByteArrayCache(2, 10);
+    cache.initialized();
+    byte[] first = "name".getBytes();
+    byte[] second = "name".getBytes();
+    assertTrue(first == cache.intern(first));
+    assertEquals(0, cache.getBytesSaved());
+    assertTrue(first == cache.intern(second));
+    assertTrue(cache.getBytesSaved() > 0);
+    assertEquals(1, cache.getLookupCount());
+    assertEquals(1, cache.getMissCount());
   }
 
+  /**
+   * Adds the name once, then checks whether a second put returns the
+   * internal value.
+   */
   private void verifyNameReuse(NameCache<String> cache, String s, boolean reused) {
     cache.put(s);
-    int lookupCount = cache.getLookupCount();
+    long lookupCount = cache.getLookupCount();
     if (reused) {
       // Dictionary returns non null internal value
       assertNotNull(cache.put(s));
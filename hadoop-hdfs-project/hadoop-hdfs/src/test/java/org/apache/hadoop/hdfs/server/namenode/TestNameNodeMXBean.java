@@ -37,6 +37,7 @@
 import org.apache.hadoop.hdfs.util.HostsFileWriter;
 import org.apache.hadoop.io.nativeio.NativeIO;
 import org.apache.hadoop.io.nativeio.NativeIO.POSIX.NoMlockCacheManipulator;
+import org.apache.hadoop.net.NetUtils;
 import org.apache.hadoop.net.ServerSocketUtil;
 import org.apache.hadoop.util.VersionInfo;
 import org.codehaus.jackson.map.ObjectMapper;
@@ -48,6 +49,7 @@
 import java.io.File;
 import java.lang.management.ManagementFactory;
 import java.net.URI;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -408,6 +410,73 @@ public void testTopUsersNoPeriods() throws Exception {
     }
   }
 
+  @Test(timeout=120000)
+  @SuppressWarnings("unchecked")
+  public void testTopUsage() throws Exception {
+    final Configuration conf = new Configuration();
+    MiniDFSCluster cluster = null;
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(0).build();
+      cluster.waitActive();
+      MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+      ObjectName mxbeanNameFsns = new ObjectName(
+          "Hadoop:service=NameNode,name=FSNamesystemState");
+      FileSystem fs = cluster.getFileSystem();
+      final Path path = new Path("/");
+      final int NUM_OPS = 10;
+      for (int i=0; i< NUM_OPS; i++) {
+        fs.listStatus(path);
+        fs.setTimes(path, 0, 1);
+      }
+      String topUsage =
+          (String) (mbs.getAttribute(mxbeanNameFsns, "TopUsage"));
+      ObjectMapper mapper = new ObjectMapper();
+      Map<String, Object> map = mapper.readValue(topUsage, Map.class);
+      assertTrue("Could not find map key timestamp",
+          map.containsKey("timestamp"));
+      Map<String, List<Map<String, List<Map<String, Object>>>>> usage =
+          (Map<String, List<Map<String, List<Map<String, Object>>>>>)
+              map.get("usage");
+      assertEquals("Unexpected num usages", 5, usage.size());
+      for (Map<String, List<Map<String, Object>>> window
+          : usage.get("pathOps")) {
+        final List<Map<String, Object>> ops = window.get("ops");
+        assertEquals("Unexpected num ops", 3, ops.size());
+        for (Map<String, Object> op : ops) {
+          final String opType = op.get("opType").toString();
+          final long count = Long.parseLong(op.get("totalCount").toString());
+          assertEquals("Unexpected total count",
+              opType.equals(TopConf.ALL_CMDS) ? 2 * NUM_OPS : NUM_OPS, count);
+          final List<Map<String, Object>> paths =
+              (List<Map<String, Object>>) op.get("topUsers");
+          assertEquals("/", paths.get(0).get("user"));
+        }
+      }
+      for (Map<String, List<Map<String, Object>>> window
+          : usage.get("userRpcTimeUs")) {
+        assertEquals("Unexpected num ops", 3, window.get("ops").size());
+      }
+      for (Map<String, List<Map<String, Object>>> window
+          : usage.get("userLockTimeUs")) {
+        assertFalse("Expected lock time", window.get("ops").isEmpty());
+      }
+
+      // the same usage is served over HTTP
+      URL url = new URL("http://" + NetUtils.getHostPortString(
+          cluster.getNameNode().getHttpAddress())
+          + TopUsageServlet.PATH_SPEC + "?usage=pathOps");
+      map = mapper.readValue(DFSTestUtil.urlGet(url), Map.class);
+      usage = (Map<String, List<Map<String, List<Map<String, Object>>>>>)
+          map.get("usage");
+      assertEquals(1, usage.size());
+      assertEquals(3, usage.get("pathOps").size());
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
   @Test(timeout = 120000)
   public void testQueueLength() throws Exception {
     final Configuration conf = new Configuration();
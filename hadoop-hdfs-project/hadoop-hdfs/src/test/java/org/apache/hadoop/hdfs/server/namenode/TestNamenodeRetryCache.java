@@ -24,9 +24,11 @@
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.hadoop.conf.Configuration;
@@ -42,6 +44,8 @@
 import org.apache.hadoop.hdfs.HdfsConfiguration;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
 import org.apache.hadoop.hdfs.MiniDFSNNTopology;
+import org.apache.hadoop.hdfs.protocol.BatchOp;
+import org.apache.hadoop.hdfs.protocol.BatchOpResult;
 import org.apache.hadoop.hdfs.protocol.DatanodeID;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
@@ -175,6 +179,51 @@ public void testDelete() throws Exception {
     Assert.assertFalse(nnRpc.delete(dir, false));
   }
   
+  /**
+   * Test for batchMetadataOps
+   */
+  @Test
+  public void testBatchMetadataOps() throws Exception {
+    String dir = "/testNamenodeRetryCache/testBatchMetadataOps";
+    List<BatchOp> ops = new ArrayList<>();
+    ops.add(BatchOp.create(dir + "/a", perm, true, false, (short) 1,
+        BlockSize));
+    ops.add(BatchOp.rename(dir + "/a", dir + "/b", false));
+    ops.add(BatchOp.create(dir + "/c", perm, true, false, (short) 1,
+        BlockSize));
+    ops.add(BatchOp.delete(dir + "/c", false));
+
+    // Two retried calls return the results of the first one
+    newCall();
+    List<BatchOpResult> results = nnRpc.batchMetadataOps(ops, "holder");
+    for (BatchOpResult result : results) {
+      assertTrue(result.toString(), result.isSuccess());
+    }
+    Assert.assertSame(results, nnRpc.batchMetadataOps(ops, "holder"));
+    Assert.assertSame(results, nnRpc.batchMetadataOps(ops, "holder"));
+
+    // A non-retried call is executed again, and fails to rename onto the
+    // existing file
+    newCall();
+    Assert.assertFalse(nnRpc.batchMetadataOps(ops, "holder").get(1)
+        .isSuccess());
+
+    // The operations of a call retried on a NameNode which loaded them
+    // from the edit log are not executed again
+    newCall();
+    nnRpc.batchMetadataOps(ops.subList(2, 4), "holder");
+    cluster.restartNameNode();
+    cluster.waitActive();
+    nnRpc = cluster.getNameNode().getRpcServer();
+    try {
+      nnRpc.batchMetadataOps(ops.subList(2, 4), "holder");
+      Assert.fail("testBatchMetadataOps - expected exception is not thrown");
+    } catch (IOException e) {
+      GenericTestUtils.assertExceptionContains("became active", e);
+    }
+    Assert.assertNull(nnRpc.getFileInfo(dir + "/c"));
+  }
+
   /**
    * Test for createSymlink
    */
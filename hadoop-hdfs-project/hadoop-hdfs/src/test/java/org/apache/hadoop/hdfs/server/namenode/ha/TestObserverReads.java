@@ -0,0 +1,163 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode.ha;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.URI;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.MiniDFSNNTopology;
+import org.apache.hadoop.hdfs.client.HdfsClientConfigKeys;
+import org.apache.hadoop.hdfs.protocol.ClientProtocol;
+import org.apache.hadoop.ipc.StandbyException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests serving reads from the Standby NameNode to clients using
+ * {@link ObserverReadProxyProvider}.
+ */
+public class TestObserverReads {
+  private Configuration conf;
+  private MiniDFSCluster cluster;
+  private Configuration clientConf;
+  private URI uri;
+  private FileSystem fs;
+
+  @Before
+  public void setUp() throws Exception {
+    conf = new Configuration();
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_STATE_CONTEXT_ENABLED_KEY, true);
+    conf.setLong(DFSConfigKeys.DFS_NAMENODE_STATE_CONTEXT_MAX_WAIT_MS_KEY, 100);
+    conf.setInt(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY, 1);
+    cluster = new MiniDFSCluster.Builder(conf)
+        .nnTopology(MiniDFSNNTopology.simpleHATopology())
+        .numDataNodes(1)
+        .build();
+    cluster.waitActive();
+    cluster.transitionToActive(0);
+
+    clientConf = new Configuration(conf);
+    String logicalName = HATestUtil.getLogicalHostname(cluster);
+    HATestUtil.setFailoverConfigurations(cluster, clientConf, logicalName);
+    clientConf.set(HdfsClientConfigKeys.Failover.PROXY_PROVIDER_KEY_PREFIX
+        + "." + logicalName, ObserverReadProxyProvider.class.getName());
+    clientConf.setInt(HdfsClientConfigKeys.Failover.MAX_ATTEMPTS_KEY, 2);
+    uri = new URI("hdfs://" + logicalName);
+    fs = FileSystem.get(uri, clientConf);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    if (fs != null) {
+      fs.close();
+    }
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testReadYourWrites() throws Exception {
+    // the standby has not tailed the edits yet, so it must not answer the
+    // reads with the stale namespace
+    for (int i = 0; i < 5; i++) {
+      Path dir = new Path("/dir" + i);
+      assertTrue(fs.mkdirs(dir));
+      assertTrue(fs.getFileStatus(dir).isDirectory());
+      DFSTestUtil.createFile(fs, new Path(dir, "file"), 10, (short) 1, 0L);
+      assertEquals(1, fs.listStatus(dir).length);
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testReadsServedByStandby() throws Exception {
+    Path file = new Path("/file");
+    DFSTestUtil.createFile(fs, file, 10, (short) 1, 0L);
+    HATestUtil.waitForStandbyToCatchUp(cluster.getNameNode(0),
+        cluster.getNameNode(1));
+
+    // only the standby is left to serve the reads
+    cluster.shutdownNameNode(0);
+    assertEquals(10, fs.getFileStatus(file).getLen());
+    assertEquals(1, fs.listStatus(new Path("/")).length);
+    try {
+      fs.mkdirs(new Path("/dir"));
+      fail("Writes must not be served by the standby");
+    } catch (IOException e) {
+      // expected
+    }
+    // a read which is not @ReadOnly carries no state id to the standby
+    try {
+      ((DistributedFileSystem) fs).getClient().listCorruptFileBlocks("/",
+          null);
+      fail("Reads which are not @ReadOnly must not be served by the standby");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testStandbyRejectsReadsWithoutStateId() throws Exception {
+    DFSTestUtil.createFile(fs, new Path("/file"), 10, (short) 1, 0L);
+    HATestUtil.waitForStandbyToCatchUp(cluster.getNameNode(0),
+        cluster.getNameNode(1));
+    try {
+      cluster.getNameNode(1).getRpcServer().getFileInfo("/file");
+      fail("Standby must reject reads which do not carry a state id");
+    } catch (StandbyException e) {
+      // expected
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testUnreachableStandbyIsSkipped() throws Exception {
+    ObserverReadProxyProvider<ClientProtocol> provider =
+        new ObserverReadProxyProvider<ClientProtocol>(clientConf, uri,
+            ClientProtocol.class);
+    try {
+      ClientProtocol client = provider.getProxy().proxy;
+      assertTrue(client.mkdirs("/dir", FsPermission.getDefault(), true));
+      assertNotNull(client.getFileInfo("/dir"));
+      assertFalse(provider.isUnreachable(0));
+      assertFalse(provider.isUnreachable(1));
+
+      // the reads must not keep trying the standby once it is down
+      cluster.shutdownNameNode(1);
+      assertNotNull(client.getFileInfo("/dir"));
+      assertTrue(provider.isUnreachable(0) != provider.isUnreachable(1));
+      assertNotNull(client.getFileInfo("/dir"));
+    } finally {
+      provider.close();
+    }
+  }
+}
@@ -27,13 +27,18 @@
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Options.Rename;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.DFSTestUtil;
 import org.apache.hadoop.hdfs.DFSUtil;
 import org.apache.hadoop.hdfs.DistributedFileSystem;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants.SafeModeAction;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport.DiffReportEntry;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport.DiffType;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReportListing;
+import org.apache.hadoop.hdfs.protocol.SnapshotException;
+import org.apache.hadoop.hdfs.server.protocol.NamenodeProtocols;
 import org.apache.hadoop.test.GenericTestUtils;
 import org.junit.After;
 import org.junit.Before;
@@ -529,4 +534,94 @@ public void testDiffReportWithRenameAndSnapshotDeletion() throws Exception {
         new DiffReportEntry(DiffType.RENAME, DFSUtil.string2Bytes("foo2/bar"),
             DFSUtil.string2Bytes("foo2/bar-new")));
   }
-}
\ No newline at end of file
+
+  /**
+   * Test that a diff report listed in parts has the same entries as the
+   * report computed in one call.
+   */
+  @Test (timeout=60000)
+  public void testDiffReportListing() throws Exception {
+    cluster.shutdown();
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_SNAPSHOT_DIFF_LISTING_LIMIT, 3);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(REPLICATION)
+        .format(true).build();
+    cluster.waitActive();
+    hdfs = cluster.getFileSystem();
+
+    hdfs.mkdirs(sub1);
+    SnapshotTestHelper.createSnapshot(hdfs, sub1, "s0");
+    for (int i = 0; i < 10; i++) {
+      DFSTestUtil.createFile(hdfs, new Path(sub1, "file" + i), BLOCKSIZE,
+          REPLICATION_1, seed);
+    }
+    hdfs.delete(new Path(sub1, "file3"), false);
+    SnapshotTestHelper.createSnapshot(hdfs, sub1, "s1");
+
+    final NamenodeProtocols nn = cluster.getNameNodeRpc();
+    final String root = sub1.toString();
+    SnapshotDiffReport full = nn.getSnapshotDiffReport(root, "s0", "s1");
+    assertEquals(10, full.getDiffList().size());
+    SnapshotDiffReportListing listing = nn.getSnapshotDiffReportListing(
+        root, "s0", "s1", 0, 0);
+    final long id = listing.getListingId();
+    assertEquals(3, listing.getPart().getDiffList().size());
+    listing = nn.getSnapshotDiffReportListing(root, "s0", "s1", id, 9);
+    assertEquals(id, listing.getListingId());
+    assertEquals(1, listing.getPart().getDiffList().size());
+    listing = nn.getSnapshotDiffReportListing(root, "s0", "s1", id, 10);
+    assertTrue(listing.getPart().getDiffList().isEmpty());
+
+    // the listing is dropped once its end is reached, and the later parts of
+    // a listing which is not kept are not computed again
+    try {
+      nn.getSnapshotDiffReportListing(root, "s0", "s1", id, 3);
+      fail("Listing a part of a dropped listing should fail");
+    } catch (SnapshotException e) {
+      GenericTestUtils.assertExceptionContains("restart the listing", e);
+    }
+    listing = nn.getSnapshotDiffReportListing(root, "s0", "s1", 0, 0);
+    assertTrue(listing.getListingId() != id);
+    hdfs.deleteSnapshot(sub1, "s1");
+    try {
+      nn.getSnapshotDiffReportListing(root, "s0", "",
+          listing.getListingId(), 3);
+      fail("Listing a part of a listing of a deleted snapshot should fail");
+    } catch (SnapshotException e) {
+      GenericTestUtils.assertExceptionContains("restart the listing", e);
+    }
+    SnapshotTestHelper.createSnapshot(hdfs, sub1, "s1");
+
+    SnapshotDiffReport listed = hdfs.getSnapshotDiffReport(sub1, "s0", "s1");
+    assertEquals(full.getDiffList(), listed.getDiffList());
+    assertEquals("s0", listed.getFromSnapshot());
+    assertEquals("s1", listed.getLaterSnapshotName());
+  }
+
+  /**
+   * Test that a change deep in the tree is reported after the namenode
+   * restarts, which restores the marks of the changed subtrees from the
+   * loaded snapshot diffs.
+   */
+  @Test (timeout=60000)
+  public void testDiffReportOfDeepChangeAfterRestart() throws Exception {
+    final Path deep = new Path(sub1, "a/b/c");
+    final Path file = new Path(deep, "file");
+    final Path other = new Path(sub1, "x/y");
+    DFSTestUtil.createFile(hdfs, file, BLOCKSIZE, REPLICATION_1, seed);
+    hdfs.mkdirs(other);
+    SnapshotTestHelper.createSnapshot(hdfs, sub1, "s0");
+    hdfs.setReplication(file, REPLICATION);
+    SnapshotTestHelper.createSnapshot(hdfs, sub1, "s1");
+
+    hdfs.setSafeMode(SafeModeAction.SAFEMODE_ENTER);
+    hdfs.saveNamespace();
+    hdfs.setSafeMode(SafeModeAction.SAFEMODE_LEAVE);
+    cluster.restartNameNode(true);
+    hdfs = cluster.getFileSystem();
+
+    verifyDiffReport(sub1, "s0", "s1",
+        new DiffReportEntry(DiffType.MODIFY, DFSUtil.string2Bytes("")),
+        new DiffReportEntry(DiffType.MODIFY,
+            DFSUtil.string2Bytes("a/b/c/file")));
+  }
+}
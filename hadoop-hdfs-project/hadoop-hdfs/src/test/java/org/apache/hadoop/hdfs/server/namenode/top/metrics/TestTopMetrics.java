@@ -0,0 +1,92 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode.top.metrics;
+
+import static org.apache.hadoop.hdfs.server.namenode.top.window.RollingWindowManager.Op;
+import static org.apache.hadoop.hdfs.server.namenode.top.window.RollingWindowManager.TopWindow;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.server.namenode.top.TopConf;
+import org.apache.hadoop.hdfs.server.namenode.top.metrics.TopMetrics.Usage;
+import org.apache.hadoop.util.Time;
+import org.junit.Test;
+
+public class TestTopMetrics {
+  private static final int WINDOW_LEN_MS = 60000;
+
+  @Test
+  public void testPathPrefix() {
+    Configuration conf = new Configuration();
+    TopMetrics metrics = new TopMetrics(conf, new int[] {WINDOW_LEN_MS});
+    assertEquals("/user", metrics.getPathPrefix("/user/alice/file"));
+    assertEquals("/tmp", metrics.getPathPrefix("/tmp"));
+    assertEquals("/", metrics.getPathPrefix("/"));
+    assertNull(metrics.getPathPrefix(null));
+    assertNull(metrics.getPathPrefix("[/a, /b]"));
+
+    conf.setInt(DFSConfigKeys.NNTOP_PATH_DEPTH_KEY, 2);
+    metrics = new TopMetrics(conf, new int[] {WINDOW_LEN_MS});
+    assertEquals("/user/alice", metrics.getPathPrefix("/user/alice/file"));
+    assertEquals("/user/alice", metrics.getPathPrefix("/user/alice"));
+    assertEquals("/tmp", metrics.getPathPrefix("/tmp"));
+  }
+
+  @Test
+  public void testUsage() {
+    TopMetrics metrics = new TopMetrics(new Configuration(),
+        new int[] {WINDOW_LEN_MS});
+    long time = Time.monotonicNow();
+    metrics.report(time, "alice", "create", "/a/f1", 10, 100);
+    metrics.report(time, "alice", "create", "/a/f2", 20, 200);
+    metrics.report(time, "bob", "delete", "/b/f", 0, 50);
+
+    Map<Usage, List<TopWindow>> usage = metrics.getTopUsage();
+    assertEquals(Usage.values().length, usage.size());
+    checkTop(usage.get(Usage.USER_LOCK_TIME), "create", "alice", 30);
+    checkTop(usage.get(Usage.USER_LOCK_TIME), TopConf.ALL_CMDS, "alice", 30);
+    checkTop(usage.get(Usage.USER_RPC_TIME), "delete", "bob", 50);
+    checkTop(usage.get(Usage.USER_RPC_TIME), TopConf.ALL_CMDS, "alice", 300);
+    checkTop(usage.get(Usage.PATH_OPS), "create", "/a", 2);
+    checkTop(usage.get(Usage.PATH_LOCK_TIME), "create", "/a", 30);
+    checkTop(usage.get(Usage.PATH_RPC_TIME), "delete", "/b", 50);
+    // zero usage is not recorded
+    for (Op op : usage.get(Usage.PATH_LOCK_TIME).get(0).getOps()) {
+      assertTrue(!op.getOpType().equals("delete"));
+    }
+  }
+
+  private static void checkTop(List<TopWindow> windows, String opType,
+      String name, long value) {
+    assertEquals(1, windows.size());
+    for (Op op : windows.get(0).getOps()) {
+      if (op.getOpType().equals(opType)) {
+        assertEquals(name, op.getTopUsers().get(0).getUser());
+        assertEquals(value, op.getTopUsers().get(0).getCount());
+        return;
+      }
+    }
+    throw new AssertionError("Op " + opType + " not found");
+  }
+}